@@ -0,0 +1,51 @@
+package software.xdev.maven.music.benchmark;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+import software.xdev.maven.music.player.MP3OggPlayer;
+
+
+/**
+ * {@link MP3OggPlayer} that writes into a {@link NullSourceDataLine} instead of a real audio device.
+ */
+public class BenchmarkPlayer extends MP3OggPlayer
+{
+	private final boolean stopOnFirstWrite;
+	private long framesWritten;
+	
+	public BenchmarkPlayer()
+	{
+		this(false);
+	}
+	
+	/**
+	 * @param stopOnFirstWrite stops playback as soon as the first audio data reaches the line
+	 */
+	public BenchmarkPlayer(final boolean stopOnFirstWrite)
+	{
+		this.stopOnFirstWrite = stopOnFirstWrite;
+	}
+	
+	@Override
+	protected SourceDataLine createLine(final AudioFormat format)
+	{
+		return new NullSourceDataLine(this.stopOnFirstWrite ? this::stop : null)
+		{
+			@Override
+			public void close()
+			{
+				BenchmarkPlayer.this.framesWritten += this.getFramesWritten();
+				super.close();
+			}
+		};
+	}
+	
+	/**
+	 * @return the number of frames written to all closed lines
+	 */
+	public long getFramesWritten()
+	{
+		return this.framesWritten;
+	}
+}
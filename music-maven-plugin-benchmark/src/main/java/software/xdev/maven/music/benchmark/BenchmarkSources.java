@@ -0,0 +1,34 @@
+package software.xdev.maven.music.benchmark;
+
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+
+
+public final class BenchmarkSources
+{
+	public static final String CLASSPATH_PREFIX = "classpath:";
+	
+	/**
+	 * Resolves a benchmark parameter into a source.
+	 * <p>
+	 * Values starting with <code>classpath:</code> refer to the bundled tracks of the plugin, everything else is
+	 * treated as a file path (e.g. to benchmark a MP3 with <code>-p source=/path/to/track.mp3</code>).
+	 * </p>
+	 */
+	public static MP3OggMusicSource resolve(final String source)
+	{
+		if(source.startsWith(CLASSPATH_PREFIX))
+		{
+			return new ClassPathMusicSource(source.substring(CLASSPATH_PREFIX.length()));
+		}
+		
+		final FileMusicSource fileMusicSource = new FileMusicSource();
+		fileMusicSource.setFile(source);
+		return fileMusicSource;
+	}
+	
+	private BenchmarkSources()
+	{
+	}
+}
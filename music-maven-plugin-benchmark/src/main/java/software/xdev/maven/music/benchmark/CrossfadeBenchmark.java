@@ -0,0 +1,101 @@
+package software.xdev.maven.music.benchmark;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.player.pcm.CrossfadeMixer;
+
+
+/**
+ * Measures how fast the {@link CrossfadeMixer} processes audio.
+ * <p>
+ * Each operation delays one chunk of the current track and mixes one chunk with the next track - the work that is
+ * done on the player thread while crossfading.<br/>
+ * The reported frames per second divided by the sample rate is how many times faster than real time the mixer is.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrossfadeBenchmark
+{
+	private static final int CHUNK_SIZE = 4096;
+	
+	@Param({"22050", "44100", "48000"})
+	public float sampleRate;
+	
+	@Param({"1", "2"})
+	public int channels;
+	
+	@Param({"3000"})
+	public int fadeMillis;
+	
+	private CrossfadeMixer mixer;
+	private byte[] current;
+	private byte[] next;
+	private byte[] out;
+	private int chunkFrames;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		this.mixer = new CrossfadeMixer(
+			PcmCache.pcmFormat(this.sampleRate, this.channels),
+			this.fadeMillis,
+			CHUNK_SIZE);
+		
+		final SplittableRandom random = new SplittableRandom(42);
+		this.current = new byte[this.mixer.getChunkSize()];
+		this.next = new byte[this.mixer.getChunkSize()];
+		random.nextBytes(this.current);
+		random.nextBytes(this.next);
+		this.out = new byte[this.mixer.getChunkSize()];
+		this.chunkFrames = this.mixer.getChunkSize() / (this.channels * 2);
+		
+		// Fill the delay line - it only outputs something once it's full
+		int overflow;
+		do
+		{
+			overflow = this.mixer.delay(this.current, 0, this.current.length, this.out);
+		}
+		while(overflow == 0);
+	}
+	
+	@Benchmark
+	public int crossfade(final Frames frames)
+	{
+		this.mixer.delay(this.current, 0, this.current.length, this.out);
+		final int mixed = this.mixer.mix(this.next, 0, this.next.length, 1.0f, this.out);
+		
+		frames.frames += this.chunkFrames;
+		return mixed;
+	}
+	
+	/**
+	 * Reports the number of crossfaded audio frames per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Frames
+	{
+		public long frames;
+	}
+}
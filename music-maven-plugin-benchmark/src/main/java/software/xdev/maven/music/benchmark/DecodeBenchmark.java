@@ -0,0 +1,85 @@
+package software.xdev.maven.music.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+
+
+/**
+ * Measures the throughput of the complete playback pipeline (read → decode → convert → line) without an audio
+ * device.
+ * <p>
+ * Use <code>-prof gc</code> to additionally measure the allocation rate.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBenchmark
+{
+	private static final float LOW_IMPACT_SAMPLE_RATE = 22_050;
+	
+	@Param({
+		"classpath:/default/Local_Forecast_-_Elevator.ogg",
+		"classpath:/default/First_Call.ogg"})
+	public String source;
+	
+	@Param({"0", "3000"})
+	public int decodeAheadMillis;
+	
+	@Param({"false", "true"})
+	public boolean lowImpact;
+	
+	private MP3OggMusicSource musicSource;
+	private PlaybackSettings settings;
+	
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		this.musicSource = BenchmarkSources.resolve(this.source);
+		
+		this.settings = new PlaybackSettings();
+		this.settings.setDecodeAheadMillis(this.decodeAheadMillis);
+		this.settings.setLowImpact(this.lowImpact);
+		this.settings.setLowImpactSampleRate(LOW_IMPACT_SAMPLE_RATE);
+	}
+	
+	@Benchmark
+	public long playThrough(final Frames frames)
+	{
+		final BenchmarkPlayer player = new BenchmarkPlayer();
+		player.play(this.musicSource, this.settings, new SystemStreamLog());
+		
+		frames.frames += player.getFramesWritten();
+		return player.getFramesWritten();
+	}
+	
+	/**
+	 * Reports the number of decoded audio frames per second.
+	 */
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class Frames
+	{
+		public long frames;
+	}
+}
@@ -0,0 +1,81 @@
+package software.xdev.maven.music.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.player.FormatSniffer;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+
+
+/**
+ * Compares the time until the first decoded frame is available when the format is detected by {@link AudioSystem}
+ * (trying all installed readers) and by the {@link FormatSniffer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FormatDetectionBenchmark
+{
+	@Param({
+		"classpath:/default/Local_Forecast_-_Elevator.ogg",
+		"classpath:/default/First_Call.ogg"})
+	public String source;
+	
+	@Param({"audioSystem", "formatSniffer"})
+	public String detection;
+	
+	private MP3OggMusicSource musicSource;
+	private byte[] encoded;
+	private final byte[] firstFrames = new byte[4096];
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		this.musicSource = BenchmarkSources.resolve(this.source);
+		try(final InputStream is = this.musicSource.openInputStream())
+		{
+			this.encoded = is.readAllBytes();
+		}
+	}
+	
+	@Benchmark
+	public int timeToFirstFrame() throws IOException, UnsupportedAudioFileException
+	{
+		final InputStream is = new ByteArrayInputStream(this.encoded);
+		try(final AudioInputStream in = "formatSniffer".equals(this.detection)
+			? FormatSniffer.getAudioInputStream(is, this.musicSource)
+			: AudioSystem.getAudioInputStream(is))
+		{
+			final AudioFormat pcmFormat =
+				PcmCache.pcmFormat(in.getFormat().getSampleRate(), in.getFormat().getChannels());
+			try(final AudioInputStream pcm = AudioSystem.getAudioInputStream(pcmFormat, in))
+			{
+				return pcm.readNBytes(this.firstFrames, 0, this.firstFrames.length);
+			}
+		}
+	}
+}
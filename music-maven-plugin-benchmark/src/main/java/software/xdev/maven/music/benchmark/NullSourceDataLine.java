@@ -0,0 +1,212 @@
+package software.xdev.maven.music.benchmark;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.FloatControl;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+
+/**
+ * {@link SourceDataLine} that discards all data immediately.
+ * <p>
+ * Allows to benchmark the playback pipeline on machines without any audio devices (e.g. headless Linux).
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class NullSourceDataLine implements SourceDataLine
+{
+	private final Runnable onFirstWrite;
+	private final FloatControl masterGain = new FloatControl(FloatControl.Type.MASTER_GAIN, -80f, 6f, 0.01f, -1, 0f, "dB")
+	{
+	};
+	
+	private AudioFormat format;
+	private int bufferSize = 64 * 1024;
+	private boolean open;
+	private boolean running;
+	private long framesWritten;
+	
+	public NullSourceDataLine()
+	{
+		this(null);
+	}
+	
+	/**
+	 * @param onFirstWrite called when the first audio data is written; may be <code>null</code>
+	 */
+	public NullSourceDataLine(final Runnable onFirstWrite)
+	{
+		this.onFirstWrite = onFirstWrite;
+	}
+	
+	@Override
+	public void open(final AudioFormat format, final int bufferSize)
+	{
+		this.open(format);
+		this.bufferSize = bufferSize;
+	}
+	
+	@Override
+	public void open(final AudioFormat format)
+	{
+		this.format = format;
+		this.open = true;
+	}
+	
+	@Override
+	public int write(final byte[] b, final int off, final int len)
+	{
+		if(len > 0 && this.framesWritten == 0 && this.onFirstWrite != null)
+		{
+			this.onFirstWrite.run();
+		}
+		this.framesWritten += len / this.format.getFrameSize();
+		return len;
+	}
+	
+	public long getFramesWritten()
+	{
+		return this.framesWritten;
+	}
+	
+	@Override
+	public void drain()
+	{
+		// Nothing buffered
+	}
+	
+	@Override
+	public void flush()
+	{
+		// Nothing buffered
+	}
+	
+	@Override
+	public void start()
+	{
+		this.running = true;
+	}
+	
+	@Override
+	public void stop()
+	{
+		this.running = false;
+	}
+	
+	@Override
+	public boolean isRunning()
+	{
+		return this.running;
+	}
+	
+	@Override
+	public boolean isActive()
+	{
+		return this.running;
+	}
+	
+	@Override
+	public AudioFormat getFormat()
+	{
+		return this.format;
+	}
+	
+	@Override
+	public int getBufferSize()
+	{
+		return this.bufferSize;
+	}
+	
+	@Override
+	public int available()
+	{
+		return this.bufferSize;
+	}
+	
+	@Override
+	public int getFramePosition()
+	{
+		return (int)this.framesWritten;
+	}
+	
+	@Override
+	public long getLongFramePosition()
+	{
+		return this.framesWritten;
+	}
+	
+	@Override
+	public long getMicrosecondPosition()
+	{
+		return (long)(this.framesWritten * 1_000_000L / this.format.getFrameRate());
+	}
+	
+	@Override
+	public float getLevel()
+	{
+		return AudioSystem.NOT_SPECIFIED;
+	}
+	
+	@Override
+	public Line.Info getLineInfo()
+	{
+		return new DataLine.Info(SourceDataLine.class, this.format);
+	}
+	
+	@Override
+	public void open()
+	{
+		this.open = true;
+	}
+	
+	@Override
+	public void close()
+	{
+		this.open = false;
+		this.running = false;
+	}
+	
+	@Override
+	public boolean isOpen()
+	{
+		return this.open;
+	}
+	
+	@Override
+	public Control[] getControls()
+	{
+		return new Control[]{this.masterGain};
+	}
+	
+	@Override
+	public boolean isControlSupported(final Control.Type control)
+	{
+		return FloatControl.Type.MASTER_GAIN.equals(control);
+	}
+	
+	@Override
+	public Control getControl(final Control.Type control)
+	{
+		if(this.isControlSupported(control))
+		{
+			return this.masterGain;
+		}
+		throw new IllegalArgumentException("Unsupported control type: " + control);
+	}
+	
+	@Override
+	public void addLineListener(final LineListener listener)
+	{
+		// No events
+	}
+	
+	@Override
+	public void removeLineListener(final LineListener listener)
+	{
+		// No events
+	}
+}
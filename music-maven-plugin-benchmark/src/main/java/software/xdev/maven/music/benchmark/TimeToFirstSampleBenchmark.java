@@ -0,0 +1,49 @@
+package software.xdev.maven.music.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import software.xdev.maven.music.PlaybackSettings;
+
+
+/**
+ * Measures the time from starting playback until the first audio data reaches the line.
+ * <p>
+ * Runs as single shot in fresh JVMs, so that the cold start (class loading, SPI lookup) is included.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class TimeToFirstSampleBenchmark
+{
+	@Param({"classpath:/default/Local_Forecast_-_Elevator.ogg"})
+	public String source;
+	
+	@Param({"0", "3000"})
+	public int decodeAheadMillis;
+	
+	@Benchmark
+	public boolean timeToFirstSample()
+	{
+		final PlaybackSettings settings = new PlaybackSettings();
+		settings.setDecodeAheadMillis(this.decodeAheadMillis);
+		
+		return new BenchmarkPlayer(true)
+			.play(BenchmarkSources.resolve(this.source), settings, new SystemStreamLog());
+	}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import software.xdev.maven.music.cache.DownloadCache;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.cache.ResourceCache;
+import software.xdev.maven.music.loudness.LoudnessIndex;
+import software.xdev.maven.music.loudness.LoudnessNormalization;
+import software.xdev.maven.music.player.AudioOutputProbe;
+import software.xdev.maven.music.playlist.PlayHistory;
+import software.xdev.maven.music.sources.WrappedMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+import software.xdev.maven.music.sources.spotify.SpotifyMusicSource;
+
+
+/**
+ * Configuration that is shared by the goals that work with the music: What is played (and in which order) and where
+ * it's cached.
+ */
+public abstract class AbstractMusicMojo extends AbstractMojo
+{
+	private static final int DOWNLOAD_CACHE_TIMEOUT_MS = 10_000;
+	
+	@Parameter(property = "music.skip")
+	protected boolean skip;
+	
+	/**
+	 * Skips the music when the machine can't play any audio (e.g. headless build agents) - before any source is
+	 * opened or decoded.
+	 */
+	@Parameter(property = "music.audioCheck")
+	protected boolean audioCheck = true;
+	
+	/**
+	 * How long (in hours) the result of the {@link #audioCheck} is remembered for this machine inside the
+	 * {@link #cacheDirectory}. <code>0</code> = only remembered inside the current JVM.
+	 */
+	@Parameter(property = "music.audioCheck.cacheHours")
+	protected int audioCheckCacheHours = 24;
+	
+	@Parameter
+	protected List<WrappedMusicSource> sources = new ArrayList<>(List.of(
+		new WrappedMusicSource(new ClassPathMusicSource("/default/Local_Forecast_-_Elevator.ogg"))
+	));
+	
+	/**
+	 * Randomizes the sources.
+	 * <p>
+	 * Every repetition of the sources uses a different order.
+	 * </p>
+	 */
+	@Parameter
+	protected boolean shuffle;
+	
+	/**
+	 * Seed for {@link #shuffle}; the same seed always results in the same order (when
+	 * {@link #shuffleHistorySize} is <code>0</code>).
+	 * <p>
+	 * If not set a random seed is used, which is shared by all goals of the same build.
+	 * </p>
+	 */
+	@Parameter(property = "music.shuffle.seed")
+	protected Long shuffleSeed;
+	
+	/**
+	 * How many recently played sources are remembered (across builds) inside the {@link #cacheDirectory}.
+	 * <p>
+	 * When shuffling, recently played sources are only played again after all other sources were played.<br/>
+	 * <code>0</code> disables the history.
+	 * </p>
+	 */
+	@Parameter(property = "music.shuffle.historySize")
+	protected int shuffleHistorySize = 100;
+	
+	/**
+	 * Repeat the sources?
+	 */
+	@Parameter
+	protected boolean repeat = true;
+	
+	/**
+	 * Directory where persistent data (e.g. decoded audio) is cached.
+	 */
+	@Parameter(property = "music.cacheDirectory", defaultValue = "${user.home}/.m2/music-cache")
+	protected File cacheDirectory;
+	
+	/**
+	 * Caches the decoded audio of MP3/OGG sources inside the {@link #cacheDirectory}.
+	 * <p>
+	 * Subsequent plays of the same content are read directly from the cache and require no decoding.
+	 * </p>
+	 */
+	@Parameter(property = "music.pcmCache")
+	protected boolean pcmCache;
+	
+	/**
+	 * Maximum size of the cache for decoded audio in MB.
+	 * <p>
+	 * If the size is exceeded the least recently used entries are removed.
+	 * </p>
+	 */
+	@Parameter(property = "music.pcmCache.maxSizeMB")
+	protected long pcmCacheMaxSizeMB = 512;
+	
+	/**
+	 * Caches remote (HTTP) sources inside the {@link #cacheDirectory}.
+	 * <p>
+	 * Cached sources are used immediately and revalidated in the background. They are also used when offline.
+	 * </p>
+	 */
+	@Parameter(property = "music.downloadCache")
+	protected boolean downloadCache;
+	
+	/**
+	 * Maximum size of the cache for remote sources in MB.
+	 * <p>
+	 * If the size is exceeded the least recently used entries are removed.
+	 * </p>
+	 */
+	@Parameter(property = "music.downloadCache.maxSizeMB")
+	protected long downloadCacheMaxSizeMB = 256;
+	
+	/**
+	 * Keeps the content of classpath sources (e.g. the bundled music) in memory.
+	 * <p>
+	 * The content is shared by all executions in the same JVM, so that it's only read (and inflated from the JAR)
+	 * once per build instead of on every play.
+	 * </p>
+	 */
+	@Parameter(property = "music.classpathCache")
+	protected boolean classpathCache = true;
+	
+	/**
+	 * Maximum size of the in-memory cache for classpath sources in MB.
+	 */
+	@Parameter(property = "music.classpathCache.maxSizeMB")
+	protected long classpathCacheMaxSizeMB = 32;
+	
+	/**
+	 * Stores the cached classpath sources outside of the Java heap (direct memory).
+	 */
+	@Parameter(property = "music.classpathCache.offHeap")
+	protected boolean classpathCacheOffHeap;
+	
+	/**
+	 * Normalizes the loudness of all MP3/OGG sources to {@link #loudnessTargetLUFS}, so that all tracks are played
+	 * at the same perceived volume.
+	 * <p>
+	 * The sources are analyzed in parallel (EBU R128) in the background and the results are stored in the
+	 * {@link #cacheDirectory}. Playback never waits for the analysis: A track that wasn't analyzed yet is played
+	 * without normalization the first time.<br/>
+	 * The resulting gain is applied on top of the default volume or the volume of the source.
+	 * </p>
+	 */
+	@Parameter(property = "music.loudnessNormalization")
+	protected boolean loudnessNormalization;
+	
+	/**
+	 * The loudness (in <a href="https://en.wikipedia.org/wiki/LUFS">LUFS</a>) all sources are normalized to when
+	 * {@link #loudnessNormalization} is enabled.
+	 * <p>
+	 * A track is never amplified beyond its peak level.
+	 * </p>
+	 */
+	@Parameter(property = "music.loudnessNormalization.targetLUFS")
+	protected float loudnessTargetLUFS = -18.0f;
+	
+	@Parameter(defaultValue = "${session}", readonly = true)
+	protected MavenSession mavenSession;
+	
+	@Parameter(defaultValue = "${project}", readonly = true)
+	protected MavenProject project;
+	
+	protected boolean isAudioOutputAvailable()
+	{
+		if(!this.audioCheck
+			// Spotify plays the music through its own application
+			|| this.sources.stream()
+			.map(WrappedMusicSource::getMusicSource)
+			.anyMatch(SpotifyMusicSource.class::isInstance))
+		{
+			return true;
+		}
+		return AudioOutputProbe.isAvailable(
+			this.cacheDirectory.toPath().resolve("audio-output.properties"),
+			TimeUnit.HOURS.toMillis(this.audioCheckCacheHours),
+			this.getLog());
+	}
+	
+	/**
+	 * @return the state of the current build or <code>null</code> if executed outside of a build
+	 */
+	protected ReactorPlayback reactorPlayback()
+	{
+		return this.mavenSession != null ? ReactorPlayback.of(this.mavenSession) : null;
+	}
+	
+	/**
+	 * @return the configured {@link #shuffleSeed} or the random seed of this build; <code>null</code> = random
+	 */
+	protected Long effectiveShuffleSeed()
+	{
+		final ReactorPlayback reactorPlayback = this.reactorPlayback();
+		if(this.shuffleSeed == null && this.shuffle && reactorPlayback != null)
+		{
+			return reactorPlayback.shuffleSeed();
+		}
+		return this.shuffleSeed;
+	}
+	
+	protected PlaybackSession createPlaybackSession(final PlaybackSettings settings)
+	{
+		final PlaybackSession playbackSession = new PlaybackSession(
+			this.sources.stream()
+				.map(WrappedMusicSource::getMusicSource)
+				.toList(),
+			this.shuffle,
+			this.repeat,
+			settings,
+			this.getLog());
+		final Long seed = this.effectiveShuffleSeed();
+		if(seed != null)
+		{
+			playbackSession.setShuffleSeed(seed);
+		}
+		playbackSession.setPlayHistory(this.createPlayHistory());
+		return playbackSession;
+	}
+	
+	protected PlayHistory createPlayHistory()
+	{
+		return this.shuffleHistorySize > 0
+			? new PlayHistory(this.cacheDirectory.toPath().resolve("play-history.bin"), this.shuffleHistorySize)
+			: null;
+	}
+	
+	/**
+	 * @return settings with the configured caches and loudness normalization
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	protected PlaybackSettings createPlaybackSettings()
+	{
+		final PlaybackSettings settings = new PlaybackSettings();
+		if(this.pcmCache)
+		{
+			settings.setPcmCache(new PcmCache(
+				this.cacheDirectory.toPath().resolve("pcm"),
+				this.pcmCacheMaxSizeMB * 1024 * 1024));
+		}
+		if(this.downloadCache)
+		{
+			settings.setDownloadCache(new DownloadCache(
+				this.cacheDirectory.toPath().resolve("downloads"),
+				this.downloadCacheMaxSizeMB * 1024 * 1024,
+				DOWNLOAD_CACHE_TIMEOUT_MS,
+				DOWNLOAD_CACHE_TIMEOUT_MS));
+		}
+		if(this.classpathCache)
+		{
+			settings.setResourceCache(new ResourceCache(
+				this.classpathCacheMaxSizeMB * 1024 * 1024,
+				this.classpathCacheOffHeap));
+		}
+		settings.setLibraryIndexDirectory(this.cacheDirectory.toPath().resolve("library"));
+		if(this.loudnessNormalization)
+		{
+			settings.setLoudnessNormalization(new LoudnessNormalization(
+				new LoudnessIndex(this.cacheDirectory.toPath().resolve("loudness.properties")),
+				this.loudnessTargetLUFS));
+		}
+		return settings;
+	}
+}
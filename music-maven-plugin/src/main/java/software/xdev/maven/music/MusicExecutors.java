@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Threads that are shared by all executions (and modules) of a build.
+ * <p>
+ * Threads are reused, so that the number of threads only depends on how much is done in parallel and not on how
+ * many executions played music.
+ * <ul>
+ *     <li>{@link #audio()}: Playback sessions that write into the audio line - a single platform thread with the
+ *     highest priority, as any delay is audible. A new session has to stop the active one first (see
+ *     {@link PlaybackSession#submit()}).</li>
+ *     <li>{@link #decoder()}: Decoding ahead of playback (CPU bound); the number of threads is bounded and further
+ *     tasks are queued</li>
+ *     <li>{@link #background()}: Work that is done ahead of time, like preparing sources or analyzing their
+ *     loudness (CPU bound). Uses its own (smaller) number of threads with the lowest priority, so that it never
+ *     delays the decoders of the playback.</li>
+ *     <li>{@link #io()}: Blocking I/O like opening/prefetching sources, downloads and external processes. Uses
+ *     virtual threads if the JVM supports them (Java 21+).</li>
+ * </ul>
+ * </p>
+ */
+public final class MusicExecutors
+{
+	/**
+	 * How long idle threads are kept for the next task
+	 */
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	/**
+	 * Every playback needs up to two decoders at the same time (current and next track), which block while their
+	 * buffers are full
+	 */
+	private static final int MIN_DECODER_THREADS = 4;
+	/**
+	 * At most half of the cores are used for background work, as the build needs them too
+	 */
+	private static final int BACKGROUND_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
+	private static final ExecutorService AUDIO = boundedPool(
+		threadFactory("Maven-Music-Player-", Thread.MAX_PRIORITY),
+		1);
+	private static final ExecutorService DECODER = boundedPool(
+		threadFactory("Maven-Music-Decoder-", Thread.NORM_PRIORITY),
+		Math.max(MIN_DECODER_THREADS, Runtime.getRuntime().availableProcessors()));
+	private static final ExecutorService BACKGROUND = boundedPool(
+		threadFactory("Maven-Music-Background-", Thread.MIN_PRIORITY),
+		BACKGROUND_THREADS);
+	private static final ExecutorService IO = createIoExecutor();
+	
+	public static ExecutorService audio()
+	{
+		return AUDIO;
+	}
+	
+	public static ExecutorService decoder()
+	{
+		return DECODER;
+	}
+	
+	public static ExecutorService background()
+	{
+		return BACKGROUND;
+	}
+	
+	public static ExecutorService io()
+	{
+		return IO;
+	}
+	
+	/**
+	 * Runs the task with the given thread priority on a pooled thread; the previous priority is restored afterwards.
+	 */
+	public static Future<?> submitWithPriority(
+		final ExecutorService executor,
+		final int priority,
+		final Runnable task)
+	{
+		return executor.submit(() -> {
+			final Thread thread = Thread.currentThread();
+			final int previousPriority = thread.getPriority();
+			thread.setPriority(priority);
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				thread.setPriority(previousPriority);
+			}
+		});
+	}
+	
+	/**
+	 * @return a factory for named daemon platform threads with the given priority
+	 */
+	@SuppressWarnings("PMD.AvoidUnmanagedThreads")
+	static ThreadFactory threadFactory(final String namePrefix, final int priority)
+	{
+		final AtomicInteger counter = new AtomicInteger(0);
+		return runnable -> {
+			final Thread thread = new Thread(runnable, namePrefix + counter.getAndIncrement());
+			thread.setDaemon(true);
+			thread.setPriority(priority);
+			return thread;
+		};
+	}
+	
+	static ExecutorService cachedPool(final ThreadFactory threadFactory)
+	{
+		return new ThreadPoolExecutor(
+			0,
+			Integer.MAX_VALUE,
+			KEEP_ALIVE_SECONDS,
+			TimeUnit.SECONDS,
+			new SynchronousQueue<>(),
+			threadFactory);
+	}
+	
+	/**
+	 * @return a pool with at most the given number of threads; further tasks are queued
+	 */
+	static ExecutorService boundedPool(final ThreadFactory threadFactory, final int maxThreads)
+	{
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+			maxThreads,
+			maxThreads,
+			KEEP_ALIVE_SECONDS,
+			TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(),
+			threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Virtual threads are looked up by reflection, as the plugin still supports Java 17.
+	 */
+	static ExecutorService createIoExecutor()
+	{
+		try
+		{
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builderClass.getMethod("name", String.class, long.class).invoke(builder, "Maven-Music-IO-", 0L);
+			final ThreadFactory factory = (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+			
+			final Method newThreadPerTaskExecutor =
+				Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService)newThreadPerTaskExecutor.invoke(null, factory);
+		}
+		catch(final ReflectiveOperationException | RuntimeException ex)
+		{
+			// Java < 21 (or virtual threads are not available)
+			return cachedPool(threadFactory("Maven-Music-IO-", Thread.NORM_PRIORITY));
+		}
+	}
+	
+	private MusicExecutors()
+	{
+	}
+}
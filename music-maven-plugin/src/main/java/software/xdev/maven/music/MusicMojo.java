@@ -15,20 +15,23 @@
  */
 package software.xdev.maven.music;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import software.xdev.maven.music.daemon.DaemonClient;
+import software.xdev.maven.music.daemon.DaemonProtocol;
+import software.xdev.maven.music.player.LineBufferTuning;
 import software.xdev.maven.music.sources.WrappedMusicSource;
-import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
 
 
 @Mojo(
@@ -36,30 +39,8 @@ import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
 	defaultPhase = LifecyclePhase.VALIDATE,
 	threadSafe = true
 )
-public class MusicMojo extends AbstractMojo
+public class MusicMojo extends AbstractMusicMojo
 {
-	protected static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
-	
-	@Parameter(property = "music.skip")
-	protected boolean skip;
-	
-	@Parameter
-	protected List<WrappedMusicSource> sources = new ArrayList<>(List.of(
-		new WrappedMusicSource(new ClassPathMusicSource("/default/Local_Forecast_-_Elevator.ogg"))
-	));
-	
-	/**
-	 * Randomizes the sources.
-	 */
-	@Parameter
-	protected boolean shuffle;
-	
-	/**
-	 * Repeat the sources?
-	 */
-	@Parameter
-	protected boolean repeat = true;
-	
 	/**
 	 * Plays the music in the background (non-blocking)
 	 * <p>
@@ -85,7 +66,137 @@ public class MusicMojo extends AbstractMojo
 	@Parameter
 	protected float defaultVolumeDB = -20.0f;
 	
-	@SuppressWarnings({"java:S2142", "PMD.AvoidUnmanagedThreads"})
+	/**
+	 * How much audio (in milliseconds) is decoded ahead of playback.
+	 * <p>
+	 * Decoding is done on a separate thread so that playback doesn't stutter when the build is using all CPU
+	 * cores.<br/>
+	 * <code>0</code> decodes directly on the player thread.
+	 * </p>
+	 */
+	@Parameter(property = "music.decodeAheadMillis")
+	protected int decodeAheadMillis = 3000;
+	
+	/**
+	 * Overlaps consecutive tracks by the given time (in milliseconds), fading out the current and fading in the
+	 * next track.
+	 * <p>
+	 * Only tracks with the same audio format (sample rate and channels) are crossfaded - use a
+	 * {@link #outputSampleRate} to crossfade all tracks.<br/>
+	 * <code>0</code> disables crossfading.
+	 * </p>
+	 */
+	@Parameter(property = "music.crossfadeMillis")
+	protected int crossfadeMillis;
+	
+	/**
+	 * Reduces the CPU and memory usage of the player as far as possible, so that the build is not slowed down.
+	 * <p>
+	 * The audio is downmixed to mono and resampled to {@link #lowImpactSampleRate} and decoding is done with the
+	 * lowest thread priority.<br/>
+	 * The CPU time used by the player is reported after each track.
+	 * </p>
+	 */
+	@Parameter(property = "music.lowImpact")
+	protected boolean lowImpact;
+	
+	/**
+	 * Sample rate (in Hz) that is used when {@link #lowImpact} is enabled.
+	 */
+	@Parameter(property = "music.lowImpact.sampleRate")
+	protected float lowImpactSampleRate = 22_050;
+	
+	/**
+	 * Plays all tracks in one fixed format with this sample rate (in Hz, e.g. <code>48000</code>).
+	 * <p>
+	 * The audio line is then opened only once for the whole session instead of for every track. This avoids clicks
+	 * and delays between tracks and allows crossfading of tracks with different formats.<br/>
+	 * Tracks are resampled (and their channels mapped to {@link #outputChannels}) if required.<br/>
+	 * <code>0</code> plays every track in its own format.
+	 * </p>
+	 */
+	@Parameter(property = "music.outputSampleRate")
+	protected float outputSampleRate;
+	
+	/**
+	 * Number of channels that is used when a {@link #outputSampleRate} is set.
+	 */
+	@Parameter(property = "music.outputChannels")
+	protected int outputChannels = 2;
+	
+	/**
+	 * Adapts the buffer of the audio line to the machine.
+	 * <p>
+	 * Starting with the default buffer of the audio device, the buffer is increased when the line ran empty (e.g.
+	 * because the build is using all cores) and slowly decreased while playback is smooth. The chosen size is
+	 * remembered per audio device inside the {@link #cacheDirectory}.
+	 * </p>
+	 */
+	@Parameter(property = "music.lineBuffer.tuning")
+	protected boolean lineBufferTuning;
+	
+	/**
+	 * Lower bound (in ms) for the buffer of the audio line when {@link #lineBufferTuning} is enabled.
+	 * <p>
+	 * Set both bounds to the same value for a fixed buffer size.
+	 * </p>
+	 */
+	@Parameter(property = "music.lineBuffer.minMillis")
+	protected int lineBufferMinMillis = LineBufferTuning.DEFAULT_MIN_MILLIS;
+	
+	/**
+	 * Upper bound (in ms) for the buffer of the audio line; see {@link #lineBufferMinMillis}.
+	 */
+	@Parameter(property = "music.lineBuffer.maxMillis")
+	protected int lineBufferMaxMillis = LineBufferTuning.DEFAULT_MAX_MILLIS;
+	
+	/**
+	 * Writes a machine-readable JSON report about the performance of the playback into {@link #reportFile}.
+	 * <p>
+	 * The report contains e.g. the time-to-first-sound, decode and CPU times and the stop latency and is updated
+	 * after each track and when the music is stopped.
+	 * </p>
+	 */
+	@Parameter(property = "music.report")
+	protected boolean report = true;
+	
+	@Parameter(property = "music.report.file", defaultValue = "${project.build.directory}/music-report.json")
+	protected File reportFile;
+	
+	/**
+	 * Plays the music in a separate long-lived process (the player daemon) instead of inside the Maven process.
+	 * <p>
+	 * The daemon keeps the audio stack initialized and remembers the playlist, so that consecutive builds with the
+	 * same configuration continue the music instantly where it left off.<br/>
+	 * This is especially useful when using the <a href="https://github.com/apache/maven-mvnd">Maven Daemon</a>.
+	 * </p>
+	 * <p>
+	 * The music is always played in the background when enabled.
+	 * Use the <code>stop-music</code> goal with the same {@link #cacheDirectory} to stop it.
+	 * </p>
+	 */
+	@Parameter(property = "music.session")
+	protected boolean session;
+	
+	/**
+	 * The player daemon terminates itself after nothing was played for the given time (in minutes).
+	 */
+	@Parameter(property = "music.session.idleTimeoutMinutes")
+	protected int sessionIdleTimeoutMinutes = 30;
+	
+	/**
+	 * Defines which execution starts the music when the goal is executed multiple times in the same build (e.g. in a
+	 * multi-module project):
+	 * <ul>
+	 *     <li><code>EXECUTION</code>: Every execution restarts the music</li>
+	 *     <li><code>FIRST</code>: The first execution starts the music; all further executions join it (default)</li>
+	 *     <li><code>ROOT</code>: Only the execution of the project where the build was started starts the music</li>
+	 * </ul>
+	 */
+	@Parameter(property = "music.ownership")
+	protected MusicOwnership ownership = MusicOwnership.FIRST;
+	
+	@SuppressWarnings("java:S2142")
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException
 	{
@@ -101,61 +212,139 @@ public class MusicMojo extends AbstractMojo
 			return;
 		}
 		
+		if(!this.isAudioOutputAvailable())
+		{
+			this.getLog().info("[🎵] No audio output available - skipping");
+			return;
+		}
+		
+		if(!this.claimMusic())
+		{
+			return;
+		}
+		
 		if(!this.background)
 		{
 			this.repeat = false;
 		}
 		
-		final Thread thread = new Thread(
-			this::runOnThread,
-			"Maven-Music-Player-" + THREAD_COUNTER.getAndIncrement());
-		thread.setDaemon(true);
-		thread.start();
+		// Created before starting the thread so that the time-to-first-sound covers the whole startup
+		final PlaybackSettings settings = this.createPlaybackSettings();
+		if(this.session && this.playInDaemon(settings))
+		{
+			return;
+		}
+		
+		PlaybackWarmUp.start()
+			.thenAccept(result -> settings.getMetrics().recordWarmUp(result.durationNanos()));
+		
+		final Future<?> playback = this.createPlaybackSession(settings).submit();
 		if(!this.background)
 		{
 			try
 			{
-				thread.join();
+				playback.get();
 			}
-			catch(final InterruptedException e)
+			catch(final InterruptedException | ExecutionException e)
 			{
 				throw new IllegalStateException(e);
 			}
 		}
 	}
 	
-	private void runOnThread()
+	/**
+	 * @return <code>true</code> if this execution should start the music
+	 */
+	protected boolean claimMusic()
+	{
+		if(this.mavenSession == null || this.project == null)
+		{
+			return true;
+		}
+		
+		final ReactorPlayback reactorPlayback = this.reactorPlayback();
+		if(reactorPlayback.claim(this.ownership, this.project))
+		{
+			return true;
+		}
+		
+		final String owner = reactorPlayback.getOwner();
+		this.getLog().info(owner != null
+			? "[🎵] Joining the music of " + owner
+			: "[🎵] Music is only started by the root project");
+		return false;
+	}
+	
+	/**
+	 * @return <code>true</code> if the daemon is playing the music
+	 */
+	protected boolean playInDaemon(final PlaybackSettings settings)
 	{
+		final Properties payload = new Properties();
+		DaemonProtocol.putPlaylist(
+			payload,
+			this.sources.stream().map(WrappedMusicSource::getMusicSource).toList(),
+			this.shuffle,
+			this.repeat,
+			this.project != null && this.project.getBasedir() != null
+				? this.project.getBasedir().toPath()
+				: Path.of(""));
+		DaemonProtocol.putShuffle(
+			payload,
+			this.effectiveShuffleSeed(),
+			this.shuffleSeed == null,
+			this.createPlayHistory());
+		DaemonProtocol.putSettings(payload, settings);
+		
 		try
 		{
-			final List<WrappedMusicSource> sourcesWorkingCopy = new ArrayList<>(this.sources);
-			if(this.shuffle)
+			final Properties response = new DaemonClient(sessionDirectory(this.cacheDirectory), this.getLog())
+				.send(DaemonProtocol.COMMAND_PLAY, payload, this.sessionIdleTimeoutMinutes);
+			if(!DaemonProtocol.isOk(response))
 			{
-				Collections.shuffle(sourcesWorkingCopy);
+				this.getLog().warn("Player daemon rejected the music: "
+					+ response.getProperty(DaemonProtocol.RESPONSE_MESSAGE));
+				return false;
 			}
 			
-			PlayerManager.instance().stopActivePlayer();
-			
-			boolean wasStopped = false;
-			do
-			{
-				for(final WrappedMusicSource source : sourcesWorkingCopy)
-				{
-					if(PlayerManager.instance().play(
-						source.getMusicSource(),
-						this.defaultVolumeDB,
-						this.getLog()))
-					{
-						wasStopped = true;
-						break;
-					}
-				}
-			}
-			while(this.repeat && !wasStopped);
+			this.getLog().info("[🎵] Music " + response.getProperty(DaemonProtocol.RESPONSE_STATE)
+				+ " in player daemon");
+			return true;
+		}
+		catch(final IOException ioe)
+		{
+			this.getLog().warn("Failed to use player daemon; playing inside the build instead", ioe);
+			return false;
+		}
+	}
+	
+	static Path sessionDirectory(final File cacheDirectory)
+	{
+		return cacheDirectory.toPath().resolve("session");
+	}
+	
+	@Override
+	protected PlaybackSettings createPlaybackSettings()
+	{
+		final PlaybackSettings settings = super.createPlaybackSettings();
+		settings.setDefaultVolumeDB(this.defaultVolumeDB);
+		settings.setDecodeAheadMillis(this.decodeAheadMillis);
+		settings.setCrossfadeMillis(this.crossfadeMillis);
+		settings.setLowImpact(this.lowImpact);
+		settings.setLowImpactSampleRate(this.lowImpactSampleRate);
+		settings.setOutputSampleRate(this.outputSampleRate);
+		settings.setOutputChannels(this.outputChannels);
+		if(this.lineBufferTuning)
+		{
+			settings.setLineBufferTuning(new LineBufferTuning(
+				this.cacheDirectory.toPath().resolve("line-buffers.properties"),
+				this.lineBufferMinMillis,
+				this.lineBufferMaxMillis));
 		}
-		catch(final Exception ex)
+		if(this.report && this.reportFile != null)
 		{
-			this.getLog().warn("Failed to play stream", ex);
+			settings.getMetrics().setReportFile(this.reportFile.toPath());
 		}
+		return settings;
 	}
 }
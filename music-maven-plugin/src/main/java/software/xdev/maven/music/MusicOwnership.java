@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+/**
+ * Defines which execution of the music goal "owns" the music when it's executed multiple times in the same build
+ * (e.g. once per module of a multi-module project).
+ */
+public enum MusicOwnership
+{
+	/**
+	 * Every execution (re)starts the music.
+	 */
+	EXECUTION,
+	/**
+	 * The first execution starts the music; all further executions join it.
+	 */
+	FIRST,
+	/**
+	 * Only the execution of the project where the build was started (e.g. the aggregator) starts the music; all
+	 * other executions join it.
+	 */
+	ROOT
+}
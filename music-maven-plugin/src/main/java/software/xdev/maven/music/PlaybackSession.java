@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Future;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.playlist.PlayHistory;
+import software.xdev.maven.music.playlist.PlaybackOrder;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.library.MusicLibrary;
+
+
+/**
+ * Plays a list of sources one after another (the playlist).
+ * <p>
+ * {@link MusicLibrary Libraries} are resolved into their entries when the playback starts.
+ * </p>
+ */
+public class PlaybackSession implements Runnable
+{
+	/**
+	 * Stop trying when this many sources failed to play one after another (e.g. as no audio device is available)
+	 */
+	private static final int MAX_FAILURES_IN_A_ROW = 5;
+	private static final long NO_SESSION = -1;
+	
+	private final List<MusicSource> configuredSources;
+	private final boolean shuffle;
+	private final PlaybackSettings settings;
+	private final boolean repeat;
+	private final Log log;
+	
+	private long shuffleSeed = System.nanoTime();
+	private PlayHistory playHistory;
+	
+	private int startIndex = PlaybackOrder.END;
+	private long startPositionMillis;
+	private volatile long session = NO_SESSION;
+	
+	/**
+	 * The resolved sources; <code>null</code> until the playback started
+	 */
+	private volatile List<MusicSource> sources;
+	private volatile int currentIndex;
+	private volatile boolean stopped;
+	private volatile boolean finished;
+	
+	/**
+	 * @param sources the sources to play
+	 * @param shuffle plays the sources in a random order (that changes on every repetition)
+	 */
+	public PlaybackSession(
+		final List<MusicSource> sources,
+		final boolean shuffle,
+		final boolean repeat,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		this.configuredSources = List.copyOf(sources);
+		this.shuffle = shuffle;
+		this.settings = settings;
+		this.repeat = repeat;
+		this.log = log;
+	}
+	
+	/**
+	 * Uses a fixed seed for shuffling, resulting in a reproducible order (if no {@link PlayHistory} is used).
+	 */
+	public void setShuffleSeed(final long shuffleSeed)
+	{
+		this.shuffleSeed = shuffleSeed;
+	}
+	
+	public long getShuffleSeed()
+	{
+		return this.shuffleSeed;
+	}
+	
+	/**
+	 * Avoids repeating recently played sources when shuffling. The history is updated after every played source.
+	 */
+	public void setPlayHistory(final PlayHistory playHistory)
+	{
+		this.playHistory = playHistory;
+	}
+	
+	public PlayHistory getPlayHistory()
+	{
+		return this.playHistory;
+	}
+	
+	/**
+	 * Starts the playback at the given position instead of the beginning of the playlist.
+	 *
+	 * @param index the index inside {@link #getSources()}
+	 */
+	public void resumeFrom(final int index, final long positionMillis)
+	{
+		this.startIndex = index;
+		this.startPositionMillis = positionMillis;
+	}
+	
+	/**
+	 * Starts the playback on the {@link MusicExecutors#audio() audio thread}.
+	 * <p>
+	 * The active playback is stopped beforehand, so that the (single) audio thread becomes available.
+	 * </p>
+	 */
+	public Future<?> submit()
+	{
+		this.session = PlayerManager.instance().startSession();
+		return MusicExecutors.audio().submit(this);
+	}
+	
+	@Override
+	public void run()
+	{
+		final long session = this.session != NO_SESSION ? this.session : PlayerManager.instance().startSession();
+		try
+		{
+			final List<MusicSource> playlist = this.resolveSources();
+			this.sources = playlist;
+			if(playlist.isEmpty())
+			{
+				this.log.info("[🎵] Nothing to play");
+				return;
+			}
+			
+			final PlaybackOrder order = this.createOrder(playlist);
+			if(order.peek() != this.startIndex)
+			{
+				// Start index was not valid
+				this.startPositionMillis = 0;
+			}
+			this.analyzeLoudness(order.peek() != PlaybackOrder.END ? playlist.get(order.peek()) : null);
+			
+			this.play(playlist, order, session);
+		}
+		catch(final Exception ex)
+		{
+			this.log.warn("Failed to play stream", ex);
+		}
+		finally
+		{
+			PlayerManager.instance().endSession(session);
+			this.finished = true;
+			this.settings.getMetrics().writeReport(this.log);
+		}
+	}
+	
+	/**
+	 * Analyzes the configured sources in the background - except the first one, as it's measured while it's played.
+	 */
+	protected void analyzeLoudness(final MusicSource first)
+	{
+		if(this.settings.getLoudnessNormalization() != null)
+		{
+			this.settings.getLoudnessNormalization().analyze(
+				this.configuredSources.stream().filter(source -> source != first).toList(),
+				this.settings,
+				this.log);
+		}
+	}
+	
+	/**
+	 * Determines the sources that will be played first, without playing anything (or updating the history).
+	 *
+	 * @param count the maximum number of sources; limited to the size of the (resolved) playlist
+	 */
+	public List<MusicSource> upcomingSources(final int count)
+	{
+		final List<MusicSource> playlist = this.resolveSources();
+		final PlaybackOrder order = this.createOrder(playlist);
+		final int limit = Math.min(count, playlist.size());
+		
+		final List<MusicSource> upcoming = new ArrayList<>(limit);
+		for(int i = order.next(); i != PlaybackOrder.END && upcoming.size() < limit; i = order.next())
+		{
+			upcoming.add(playlist.get(i));
+		}
+		return upcoming;
+	}
+	
+	protected PlaybackOrder createOrder(final List<MusicSource> playlist)
+	{
+		if(this.playHistory != null)
+		{
+			try
+			{
+				this.playHistory.load();
+			}
+			catch(final IOException ioe)
+			{
+				this.log.warn("Failed to read play history " + this.playHistory.getFile(), ioe);
+			}
+		}
+		
+		final PlaybackOrder order = new PlaybackOrder(
+			playlist.size(),
+			this.shuffle,
+			this.repeat,
+			this.shuffleSeed,
+			this.playHistory,
+			i -> PlayHistory.keyOf(playlist.get(i)));
+		order.startWith(this.startIndex);
+		return order;
+	}
+	
+	protected void play(final List<MusicSource> playlist, final PlaybackOrder order, final long session)
+	{
+		// Prepare the next source while the current one is playing to allow gapless transitions
+		PlayerManager.instance().prefetch(playlist.get(order.peek()), this.settings, this.log);
+		
+		int failedInARow = 0;
+		this.settings.setStartPositionMillis(this.startPositionMillis);
+		for(int i = order.next(); i != PlaybackOrder.END; i = order.next())
+		{
+			this.currentIndex = i;
+			
+			final int next = order.peek();
+			if(next != PlaybackOrder.END)
+			{
+				PlayerManager.instance().prefetch(playlist.get(next), this.settings, this.log);
+			}
+			
+			final boolean wasStopped;
+			try
+			{
+				wasStopped = PlayerManager.instance().play(playlist.get(i), this.settings, this.log, session);
+				failedInARow = 0;
+			}
+			catch(final RuntimeException ex)
+			{
+				// A broken entry (e.g. of a large library) shouldn't end the music - unless nothing works
+				if(++failedInARow >= Math.min(playlist.size(), MAX_FAILURES_IN_A_ROW))
+				{
+					throw ex;
+				}
+				this.log.warn("Failed to play " + playlist.get(i) + ": " + ex);
+				continue;
+			}
+			finally
+			{
+				this.settings.setStartPositionMillis(0);
+			}
+			
+			order.played(i);
+			this.savePlayHistory();
+			if(wasStopped)
+			{
+				this.stopped = true;
+				return;
+			}
+		}
+	}
+	
+	protected void savePlayHistory()
+	{
+		if(this.playHistory == null)
+		{
+			return;
+		}
+		try
+		{
+			this.playHistory.save();
+		}
+		catch(final IOException ioe)
+		{
+			this.log.warn("Failed to write play history " + this.playHistory.getFile(), ioe);
+		}
+	}
+	
+	/**
+	 * @return the configured sources with all libraries replaced by their entries; the entries are not copied, as
+	 * libraries may create them on demand
+	 */
+	protected List<MusicSource> resolveSources()
+	{
+		final List<List<MusicSource>> parts = new ArrayList<>();
+		List<MusicSource> single = null;
+		for(final MusicSource source : this.configuredSources)
+		{
+			if(source instanceof final MusicLibrary library)
+			{
+				parts.add(library.resolve(this.settings, this.log));
+				single = null;
+			}
+			else
+			{
+				if(single == null)
+				{
+					single = new ArrayList<>();
+					parts.add(single);
+				}
+				single.add(source);
+			}
+		}
+		return parts.size() == 1 ? parts.get(0) : new ConcatenatedSources(parts);
+	}
+	
+	/**
+	 * @return the resolved sources (in their configured order) or the configured sources if the playback didn't start
+	 * yet
+	 */
+	public List<MusicSource> getSources()
+	{
+		final List<MusicSource> resolved = this.sources;
+		return resolved != null ? List.copyOf(resolved) : this.configuredSources;
+	}
+	
+	public PlaybackSettings getSettings()
+	{
+		return this.settings;
+	}
+	
+	/**
+	 * @return the index of the source that is currently played (or was played when stopped)
+	 */
+	public int getCurrentIndex()
+	{
+		return this.currentIndex;
+	}
+	
+	/**
+	 * @return the position inside the current source
+	 */
+	public long getCurrentPositionMillis()
+	{
+		return this.settings.getMetrics().getCurrentTrack().getPositionMillis();
+	}
+	
+	/**
+	 * @return <code>true</code> if the playback was stopped externally
+	 */
+	public boolean isStopped()
+	{
+		return this.stopped;
+	}
+	
+	/**
+	 * @return <code>true</code> if the playback is over (finished, stopped or failed)
+	 */
+	public boolean isFinished()
+	{
+		return this.finished;
+	}
+	
+	
+	/**
+	 * Read-only view of multiple lists of sources.
+	 */
+	protected static class ConcatenatedSources extends AbstractList<MusicSource> implements RandomAccess
+	{
+		private final List<List<MusicSource>> parts;
+		/**
+		 * Index of the first element of each part
+		 */
+		private final int[] offsets;
+		private final int size;
+		
+		protected ConcatenatedSources(final List<List<MusicSource>> parts)
+		{
+			this.parts = parts;
+			this.offsets = new int[parts.size()];
+			int offset = 0;
+			for(int i = 0; i < parts.size(); i++)
+			{
+				this.offsets[i] = offset;
+				offset += parts.get(i).size();
+			}
+			this.size = offset;
+		}
+		
+		@Override
+		public MusicSource get(final int index)
+		{
+			if(index < 0 || index >= this.size)
+			{
+				throw new IndexOutOfBoundsException(index);
+			}
+			int part = Arrays.binarySearch(this.offsets, index);
+			if(part < 0)
+			{
+				part = -part - 2;
+			}
+			// Skip empty parts that start at the same offset
+			while(this.parts.get(part).size() <= index - this.offsets[part])
+			{
+				part++;
+			}
+			return this.parts.get(part).get(index - this.offsets[part]);
+		}
+		
+		@Override
+		public int size()
+		{
+			return this.size;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFormat;
+
+import software.xdev.maven.music.cache.DownloadCache;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.cache.ResourceCache;
+import software.xdev.maven.music.loudness.LoudnessNormalization;
+import software.xdev.maven.music.metrics.PlaybackMetrics;
+import software.xdev.maven.music.player.LineBufferTuning;
+
+
+/**
+ * Settings that are passed from the executing mojo to the {@link software.xdev.maven.music.player.Player}.
+ */
+public class PlaybackSettings
+{
+	private float defaultVolumeDB;
+	private PcmCache pcmCache;
+	private DownloadCache downloadCache;
+	private ResourceCache resourceCache;
+	private LineBufferTuning lineBufferTuning;
+	private int decodeAheadMillis;
+	private boolean lowImpact;
+	private float lowImpactSampleRate;
+	private PlaybackMetrics metrics = new PlaybackMetrics();
+	private long startPositionMillis;
+	private LoudnessNormalization loudnessNormalization;
+	private Path libraryIndexDirectory;
+	private int crossfadeMillis;
+	private float outputSampleRate;
+	private int outputChannels = 2;
+	
+	public PlaybackSettings()
+	{
+	}
+	
+	public PlaybackSettings(final float defaultVolumeDB)
+	{
+		this.defaultVolumeDB = defaultVolumeDB;
+	}
+	
+	public float getDefaultVolumeDB()
+	{
+		return this.defaultVolumeDB;
+	}
+	
+	public void setDefaultVolumeDB(final float defaultVolumeDB)
+	{
+		this.defaultVolumeDB = defaultVolumeDB;
+	}
+	
+	/**
+	 * @return the cache for decoded audio or <code>null</code> if caching is disabled
+	 */
+	public PcmCache getPcmCache()
+	{
+		return this.pcmCache;
+	}
+	
+	public void setPcmCache(final PcmCache pcmCache)
+	{
+		this.pcmCache = pcmCache;
+	}
+	
+	/**
+	 * @return the cache for remote sources or <code>null</code> if caching is disabled
+	 */
+	public DownloadCache getDownloadCache()
+	{
+		return this.downloadCache;
+	}
+	
+	public void setDownloadCache(final DownloadCache downloadCache)
+	{
+		this.downloadCache = downloadCache;
+	}
+	
+	/**
+	 * @return the in-memory cache for classpath sources or <code>null</code> if disabled
+	 */
+	public ResourceCache getResourceCache()
+	{
+		return this.resourceCache;
+	}
+	
+	public void setResourceCache(final ResourceCache resourceCache)
+	{
+		this.resourceCache = resourceCache;
+	}
+	
+	/**
+	 * @return the adaptive sizing of the line buffer or <code>null</code> if the defaults of the mixer are used
+	 */
+	public LineBufferTuning getLineBufferTuning()
+	{
+		return this.lineBufferTuning;
+	}
+	
+	public void setLineBufferTuning(final LineBufferTuning lineBufferTuning)
+	{
+		this.lineBufferTuning = lineBufferTuning;
+	}
+	
+	/**
+	 * @return how much audio is decoded ahead of playback on a separate thread; <code>0</code> = decode inline
+	 */
+	public int getDecodeAheadMillis()
+	{
+		return this.decodeAheadMillis;
+	}
+	
+	public void setDecodeAheadMillis(final int decodeAheadMillis)
+	{
+		this.decodeAheadMillis = decodeAheadMillis;
+	}
+	
+	/**
+	 * @return if playback should use as few resources as possible (mono, low sample rate, low thread priority)
+	 */
+	public boolean isLowImpact()
+	{
+		return this.lowImpact;
+	}
+	
+	public void setLowImpact(final boolean lowImpact)
+	{
+		this.lowImpact = lowImpact;
+	}
+	
+	/**
+	 * @return the sample rate that is used in low impact mode
+	 */
+	public float getLowImpactSampleRate()
+	{
+		return this.lowImpactSampleRate;
+	}
+	
+	public void setLowImpactSampleRate(final float lowImpactSampleRate)
+	{
+		this.lowImpactSampleRate = lowImpactSampleRate;
+	}
+	
+	/**
+	 * @return the performance data of the session
+	 */
+	public PlaybackMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	public void setMetrics(final PlaybackMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * @return where the playback of the next track starts (e.g. to resume a stopped track); <code>0</code> = from the
+	 * beginning
+	 */
+	public long getStartPositionMillis()
+	{
+		return this.startPositionMillis;
+	}
+	
+	public void setStartPositionMillis(final long startPositionMillis)
+	{
+		this.startPositionMillis = startPositionMillis;
+	}
+	
+	/**
+	 * @return the normalization of the loudness of all sources or <code>null</code> if disabled
+	 */
+	public LoudnessNormalization getLoudnessNormalization()
+	{
+		return this.loudnessNormalization;
+	}
+	
+	public void setLoudnessNormalization(final LoudnessNormalization loudnessNormalization)
+	{
+		this.loudnessNormalization = loudnessNormalization;
+	}
+	
+	/**
+	 * @return where the indexes of scanned directories are persisted or <code>null</code> if they are not persisted
+	 */
+	public Path getLibraryIndexDirectory()
+	{
+		return this.libraryIndexDirectory;
+	}
+	
+	public void setLibraryIndexDirectory(final Path libraryIndexDirectory)
+	{
+		this.libraryIndexDirectory = libraryIndexDirectory;
+	}
+	
+	/**
+	 * @return how long consecutive tracks overlap; <code>0</code> = no crossfade
+	 */
+	public int getCrossfadeMillis()
+	{
+		return this.crossfadeMillis;
+	}
+	
+	public void setCrossfadeMillis(final int crossfadeMillis)
+	{
+		this.crossfadeMillis = crossfadeMillis;
+	}
+	
+	/**
+	 * @return the sample rate all tracks are converted to; <code>0</code> = each track is played in its own format
+	 */
+	public float getOutputSampleRate()
+	{
+		return this.outputSampleRate;
+	}
+	
+	public void setOutputSampleRate(final float outputSampleRate)
+	{
+		this.outputSampleRate = outputSampleRate;
+	}
+	
+	/**
+	 * @return the number of channels all tracks are converted to if a {@link #getOutputSampleRate()} is set
+	 */
+	public int getOutputChannels()
+	{
+		return this.outputChannels;
+	}
+	
+	public void setOutputChannels(final int outputChannels)
+	{
+		this.outputChannels = outputChannels;
+	}
+	
+	/**
+	 * @return the fixed format of the line that is used for the whole session or <code>null</code> if each track
+	 * is played in its own format
+	 */
+	public AudioFormat getOutputFormat()
+	{
+		return this.outputSampleRate > 0 ? PcmCache.pcmFormat(this.outputSampleRate, this.outputChannels) : null;
+	}
+}
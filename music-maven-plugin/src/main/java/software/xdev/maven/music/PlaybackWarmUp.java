@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import software.xdev.maven.music.player.MixerCapabilities;
+
+
+/**
+ * Warms up everything that is required before the first note can be played:
+ * <ul>
+ *     <li>the {@link software.xdev.maven.music.player.Player}s of the {@link PlayerManager}</li>
+ *     <li>the sound providers (readers, converters) of <code>javax.sound</code></li>
+ *     <li>the mixers (audio devices) and their capabilities</li>
+ * </ul>
+ * This is done once per JVM on a background thread, so that it runs in parallel to e.g. opening the first source.
+ */
+public final class PlaybackWarmUp
+{
+	private static final int PROBE_SIZE = 64;
+	
+	private static volatile CompletableFuture<Result> warmUp;
+	
+	/**
+	 * Starts the warm-up if not already started.
+	 */
+	public static synchronized CompletableFuture<Result> start()
+	{
+		if(warmUp == null)
+		{
+			final CompletableFuture<Result> future = new CompletableFuture<>();
+			MusicExecutors.io().execute(() -> {
+				try
+				{
+					future.complete(run());
+				}
+				catch(final RuntimeException | Error ex)
+				{
+					future.completeExceptionally(ex);
+				}
+			});
+			warmUp = future;
+		}
+		return warmUp;
+	}
+	
+	/**
+	 * @return the discovered mixers if the warm-up was started (waits until it's done); otherwise empty
+	 */
+	public static Optional<MixerCapabilities> mixerCapabilities()
+	{
+		final CompletableFuture<Result> future = warmUp;
+		if(future == null)
+		{
+			return Optional.empty();
+		}
+		try
+		{
+			return Optional.of(future.join().mixers());
+		}
+		catch(final CompletionException ex)
+		{
+			return Optional.empty();
+		}
+	}
+	
+	static Result run()
+	{
+		final long startNanos = System.nanoTime();
+		
+		PlayerManager.instance();
+		
+		// The JDK caches the providers for some time after they were looked up
+		AudioSystem.getTargetEncodings(AudioFormat.Encoding.PCM_SIGNED);
+		probeAudioFileReaders();
+		
+		final MixerCapabilities mixers = MixerCapabilities.discover();
+		return new Result(mixers, System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * Makes all audio file readers look at some data, so that they (and their dependencies) are loaded.
+	 */
+	private static void probeAudioFileReaders()
+	{
+		try
+		{
+			AudioSystem.getAudioFileFormat(new BufferedInputStream(new ByteArrayInputStream(new byte[PROBE_SIZE])));
+		}
+		catch(final UnsupportedAudioFileException | IOException | RuntimeException ignored)
+		{
+			// Expected - the data is not a valid audio file
+		}
+	}
+	
+	/**
+	 * @param mixers        the discovered mixers
+	 * @param durationNanos how long the warm-up took
+	 */
+	public record Result(MixerCapabilities mixers, long durationNanos)
+	{
+	}
+	
+	private PlaybackWarmUp()
+	{
+	}
+}
@@ -15,14 +15,21 @@
  */
 package software.xdev.maven.music;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.maven.plugin.logging.Log;
 
+import software.xdev.maven.music.metrics.PlaybackMetrics;
+import software.xdev.maven.music.metrics.TrackMetrics;
+import software.xdev.maven.music.player.PlaybackState;
 import software.xdev.maven.music.player.Player;
 import software.xdev.maven.music.sources.MusicSource;
 
@@ -32,6 +39,12 @@ public final class PlayerManager
 {
 	private static final PlayerManager INSTANCE = new PlayerManager();
 	
+	/**
+	 * Maximum time to wait for a player to stop
+	 */
+	public static final long STOP_TIMEOUT_MS = 2_000;
+	private static final long STOP_POLL_MS = 10;
+	
 	public static PlayerManager instance()
 	{
 		return INSTANCE;
@@ -39,11 +52,12 @@ public final class PlayerManager
 	
 	@SuppressWarnings({"java:S3740", "rawtypes"})
 	private final List<Player> availablePlayers;
-	private final Map<Class<? extends MusicSource>, Player<?>> sourcePlayers = new HashMap<>();
-	
-	private Player<?> lastActivePlayer;
+	private final Map<Class<? extends MusicSource>, Player<?>> sourcePlayers = new ConcurrentHashMap<>();
 	
-	private final ReentrantLock playLock = new ReentrantLock();
+	/**
+	 * The current playback; only changed atomically
+	 */
+	private final AtomicReference<Playback> current = new AtomicReference<>(Playback.idle(0));
 	
 	private PlayerManager()
 	{
@@ -53,41 +67,275 @@ public final class PlayerManager
 			.toList();
 	}
 	
-	@SuppressWarnings("unchecked")
-	public boolean play(final MusicSource source, final float defaultVolumeDB, final Log log)
+	/**
+	 * Plays the source as part of the current session.
+	 *
+	 * @return <code>true</code> if the music was stopped externally
+	 * @see #play(MusicSource, PlaybackSettings, Log, long)
+	 */
+	public boolean play(final MusicSource source, final PlaybackSettings settings, final Log log)
+	{
+		return this.play(source, settings, log, this.current.get().session());
+	}
+	
+	/**
+	 * Plays the source.
+	 *
+	 * @param session the session that was returned by {@link #startSession()}; if the session is no longer the
+	 *                current one (because the music was stopped or another session was started) nothing is played
+	 * @return <code>true</code> if the music was stopped externally
+	 */
+	public boolean play(final MusicSource source, final PlaybackSettings settings, final Log log, final long session)
 	{
-		this.playLock.lock();
+		final Player<?> player = this.playerFor(source);
+		final Playback starting = new Playback(
+			PlaybackState.STARTING,
+			session,
+			player,
+			settings,
+			log,
+			new CompletableFuture<>());
+		if(!this.transitionFromIdle(starting))
+		{
+			return true;
+		}
 		
+		final TrackMetrics metrics = settings.getMetrics().startTrack(String.valueOf(source));
+		boolean stopped = true;
 		try
 		{
-			final Player<?> player = this.sourcePlayers.computeIfAbsent(
-				source.getClass(),
-				clazz -> this.availablePlayers.stream()
-					.filter(p -> p.supportedMusicSourceType().isAssignableFrom(clazz))
-					.findFirst()
-					.orElseThrow());
-			this.lastActivePlayer = player;
+			if(!this.current.compareAndSet(starting, starting.with(PlaybackState.PLAYING)))
+			{
+				// Stopped while starting
+				return true;
+			}
+			
 			log.info("[🎵] Now playing: " + source);
-			return player.play(source, defaultVolumeDB, log);
+			stopped = play(player, source, settings, log)
+				// The session might have been stopped before the player recognized it
+				|| this.current.get().session() != session;
+			return stopped;
 		}
 		finally
 		{
-			this.playLock.unlock();
+			this.current.updateAndGet(p -> p.done() == starting.done() ? Playback.idle(p.session()) : p);
+			starting.done().complete(null);
+			
+			metrics.recordEnd(stopped);
+			logTimeToFirstSound(settings.getMetrics(), metrics, log);
+			settings.getMetrics().writeReport(log);
 		}
 	}
 	
-	public synchronized void stopActivePlayer()
+	/**
+	 * Passes the source to the player; the type is checked against {@link Player#supportedMusicSourceType()}.
+	 */
+	private static <S extends MusicSource> boolean play(
+		final Player<S> player,
+		final MusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
 	{
-		if(this.lastActivePlayer != null)
+		return player.play(player.supportedMusicSourceType().cast(source), settings, log);
+	}
+	
+	/**
+	 * @return <code>false</code> if the session is no longer the current one
+	 */
+	private boolean transitionFromIdle(final Playback starting)
+	{
+		while(true)
 		{
-			this.lastActivePlayer.stop();
-			// Wait for proper stop
-			if(this.playLock.isLocked())
+			final Playback playback = this.current.get();
+			if(playback.session() != starting.session())
+			{
+				return false;
+			}
+			if(playback.state() != PlaybackState.IDLE)
+			{
+				// Only happens when the same session is played from multiple threads
+				playback.done().join();
+				continue;
+			}
+			if(this.current.compareAndSet(playback, starting))
 			{
-				this.playLock.lock();
-				this.playLock.unlock();
+				return true;
 			}
-			this.lastActivePlayer = null;
+		}
+	}
+	
+	private static void logTimeToFirstSound(
+		final PlaybackMetrics sessionMetrics,
+		final TrackMetrics metrics,
+		final Log log)
+	{
+		if(log.isDebugEnabled() && metrics.getFirstSoundNanos() != 0)
+		{
+			log.debug(String.format(
+				"[🎵] Time to first sound: %d ms (session: %d ms)",
+				TimeUnit.NANOSECONDS.toMillis(metrics.getTimeToFirstSoundNanos()),
+				TimeUnit.NANOSECONDS.toMillis(sessionMetrics.getTimeToFirstSoundNanos())));
+		}
+	}
+	
+	/**
+	 * Prepares the source in the background so that it can be played later without any delay.
+	 *
+	 * @see Player#prefetch(MusicSource, PlaybackSettings, Log)
+	 */
+	public void prefetch(final MusicSource source, final PlaybackSettings settings, final Log log)
+	{
+		prefetch(this.playerFor(source), source, settings, log);
+	}
+	
+	private static <S extends MusicSource> void prefetch(
+		final Player<S> player,
+		final MusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		player.prefetch(player.supportedMusicSourceType().cast(source), settings, log);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Player<?> playerFor(final MusicSource source)
+	{
+		return this.sourcePlayers.computeIfAbsent(
+			source.getClass(),
+			clazz -> this.availablePlayers.stream()
+				.filter(p -> p.supportedMusicSourceType().isAssignableFrom(clazz))
+				.findFirst()
+				.orElseThrow());
+	}
+	
+	/**
+	 * Stops the active player and starts a new session.
+	 *
+	 * @return the new session that should be passed to {@link #play(MusicSource, PlaybackSettings, Log, long)}
+	 */
+	public long startSession()
+	{
+		return this.stop();
+	}
+	
+	/**
+	 * Stops the active player (if any) and waits until it's stopped - but not longer than {@link #STOP_TIMEOUT_MS}.
+	 * <p>
+	 * All playbacks of the current session are ended.
+	 * </p>
+	 */
+	public void stopActivePlayer()
+	{
+		this.stop();
+	}
+	
+	/**
+	 * Signals that the session played everything, so that the players can
+	 * {@link Player#release() release} what they kept for the next source.
+	 * <p>
+	 * Has no effect if another session was started in the meantime.
+	 * </p>
+	 */
+	public void endSession(final long session)
+	{
+		final Playback playback = this.current.get();
+		if(playback.session() == session && playback.state() == PlaybackState.IDLE)
+		{
+			this.releasePlayers();
+		}
+	}
+	
+	private void releasePlayers()
+	{
+		this.sourcePlayers.values().forEach(Player::release);
+	}
+	
+	private long stop()
+	{
+		final long stopRequestedNanos = System.nanoTime();
+		
+		final Playback playback = this.current.getAndUpdate(p -> p.state() == PlaybackState.IDLE
+			? Playback.idle(p.session() + 1)
+			: p.stopping(p.session() + 1));
+		final long nextSession = playback.session() + 1;
+		if(playback.state() == PlaybackState.IDLE)
+		{
+			this.releasePlayers();
+			return nextSession;
+		}
+		
+		final long deadline = stopRequestedNanos + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MS);
+		while(!playback.done().isDone() && System.nanoTime() < deadline)
+		{
+			// Repeated as the player might have not yet started or blocked again
+			playback.player().stop();
+			try
+			{
+				playback.done().get(STOP_POLL_MS, TimeUnit.MILLISECONDS);
+			}
+			catch(final TimeoutException ignored)
+			{
+				// Try again
+			}
+			catch(final InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch(final ExecutionException ignored)
+			{
+				// Never completed exceptionally
+			}
+		}
+		
+		final long stopLatencyNanos = System.nanoTime() - stopRequestedNanos;
+		if(!playback.done().isDone())
+		{
+			playback.log().warn("Player didn't stop within " + STOP_TIMEOUT_MS + "ms");
+		}
+		this.releasePlayers();
+		
+		final PlaybackMetrics metrics = playback.settings().getMetrics();
+		metrics.recordStopLatency(stopLatencyNanos);
+		metrics.writeReport(playback.log());
+		return nextSession;
+	}
+	
+	/**
+	 * @return the state of the current playback
+	 */
+	public PlaybackState getState()
+	{
+		return this.current.get().state();
+	}
+	
+	/**
+	 * Immutable snapshot of the current playback.
+	 *
+	 * @param session increased by every stop; playbacks of older sessions are not started
+	 * @param done    completed once the playback is over
+	 */
+	private record Playback(
+		PlaybackState state,
+		long session,
+		Player<?> player,
+		PlaybackSettings settings,
+		Log log,
+		CompletableFuture<Void> done)
+	{
+		static Playback idle(final long session)
+		{
+			return new Playback(PlaybackState.IDLE, session, null, null, null, CompletableFuture.completedFuture(null));
+		}
+		
+		Playback with(final PlaybackState newState)
+		{
+			return new Playback(newState, this.session, this.player, this.settings, this.log, this.done);
+		}
+		
+		Playback stopping(final long newSession)
+		{
+			return new Playback(PlaybackState.STOPPING, newSession, this.player, this.settings, this.log, this.done);
 		}
 	}
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.player.PreparedTrack;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+
+
+/**
+ * Decodes the first (MP3/OGG) sources of the playback order into the {@link PcmCache} ahead of time, so that the
+ * music goal can play them without decoding.
+ * <p>
+ * Uses the same sources, order and caches as the music goal; the {@link #pcmCache} has to be enabled. The music is
+ * only prepared once per build - even if the goal is executed in multiple modules. Libraries are resolved and remote
+ * sources downloaded. If enabled, the loudness of the prepared sources is analyzed as well.
+ * </p>
+ * <p>
+ * When shuffling without a {@link #shuffleSeed}, the random seed is shared with the music goal of the same build, so
+ * that the prepared sources are the ones that are played first (as long as the play history doesn't change in
+ * between).
+ * </p>
+ */
+@Mojo(
+	name = "prepare",
+	defaultPhase = LifecyclePhase.INITIALIZE,
+	threadSafe = true
+)
+public class PrepareMusicMojo extends AbstractMusicMojo
+{
+	/**
+	 * How many sources (in the order they are played) are prepared; <code>0</code> = all
+	 */
+	@Parameter(property = "music.prepare.tracks")
+	protected int prepareTracks = 5;
+	
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		if(this.skip)
+		{
+			this.getLog().info("Skipping");
+			return;
+		}
+		
+		if(!this.pcmCache)
+		{
+			throw new MojoExecutionException("The prepare goal requires the pcmCache (music.pcmCache) to be enabled");
+		}
+		
+		final ReactorPlayback reactorPlayback = this.reactorPlayback();
+		if(reactorPlayback != null && !reactorPlayback.claimPreparation())
+		{
+			this.getLog().debug("Music was already prepared in this build");
+			return;
+		}
+		
+		if(!this.isAudioOutputAvailable())
+		{
+			this.getLog().info("[🎵] No audio output available - skipping");
+			return;
+		}
+		
+		final long startNanos = System.nanoTime();
+		final PlaybackSettings settings = this.createPlaybackSettings();
+		final List<MP3OggMusicSource> upcoming = this.createPlaybackSession(settings)
+			.upcomingSources(this.prepareTracks > 0 ? this.prepareTracks : Integer.MAX_VALUE)
+			.stream()
+			.filter(MP3OggMusicSource.class::isInstance)
+			.map(MP3OggMusicSource.class::cast)
+			.toList();
+		
+		final CompletableFuture<Void> loudnessAnalysis = settings.getLoudnessNormalization() != null
+			? settings.getLoudnessNormalization().analyze(upcoming, settings, this.getLog())
+			: CompletableFuture.completedFuture(null);
+		
+		final List<Future<Optional<PcmCache.Entry>>> results = upcoming.stream()
+			.<Future<Optional<PcmCache.Entry>>>map(source -> MusicExecutors.background()
+				.submit(() -> this.prepare(source, settings)))
+			.toList();
+		int prepared = 0;
+		try
+		{
+			for(final Future<Optional<PcmCache.Entry>> result : results)
+			{
+				if(result.get().isPresent())
+				{
+					prepared++;
+				}
+			}
+			loudnessAnalysis.join();
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			results.forEach(result -> result.cancel(true));
+			throw new MojoExecutionException("Interrupted while preparing the music", e);
+		}
+		catch(final ExecutionException e)
+		{
+			throw new MojoExecutionException("Failed to prepare the music", e.getCause());
+		}
+		
+		this.getLog().info(String.format(
+			"[🎵] Prepared %d of %d sources in %d ms",
+			prepared,
+			upcoming.size(),
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+	}
+	
+	/**
+	 * @return the cached entry or an empty optional if the source couldn't be prepared
+	 */
+	protected Optional<PcmCache.Entry> prepare(final MP3OggMusicSource source, final PlaybackSettings settings)
+	{
+		try
+		{
+			final Optional<PcmCache.Entry> entry = PreparedTrack.decodeIntoCache(source, settings, this.getLog());
+			entry.ifPresentOrElse(
+				e -> this.getLog().debug(String.format(
+					"Prepared %s: %.1f s, %.0f Hz, %d channels",
+					source,
+					e.durationMillis() / 1000.0,
+					e.format().getSampleRate(),
+					e.format().getChannels())),
+				() -> this.getLog().warn("Decoded audio of " + source + " can't be cached"));
+			return entry;
+		}
+		catch(final IOException | UnsupportedAudioFileException | RuntimeException ex)
+		{
+			this.getLog().warn("Failed to prepare " + source, ex);
+			return Optional.empty();
+		}
+	}
+}
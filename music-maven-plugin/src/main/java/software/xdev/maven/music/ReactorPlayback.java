@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import java.util.SplittableRandom;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+
+/**
+ * State of the music that is shared by all executions of the goals inside the same build (reactor).
+ * <p>
+ * The state is stored inside the {@link MavenSession} and therefore never leaks into other builds, e.g. when using the
+ * <a href="https://github.com/apache/maven-mvnd">Maven Daemon</a>.
+ * </p>
+ */
+public final class ReactorPlayback
+{
+	private String owner;
+	private boolean prepared;
+	private Long shuffleSeed;
+	
+	/**
+	 * @return the state of the given build
+	 */
+	public static ReactorPlayback of(final MavenSession mavenSession)
+	{
+		// The class is used as key, so that different versions of the plugin don't interfere
+		return (ReactorPlayback)mavenSession.getRepositorySession()
+			.getData()
+			.computeIfAbsent(ReactorPlayback.class, ReactorPlayback::new);
+	}
+	
+	/**
+	 * Determines if the execution for the given project should start the music.
+	 *
+	 * @return <code>true</code> if the music should be started; <code>false</code> if the execution should join the
+	 * music of the current owner
+	 */
+	public synchronized boolean claim(final MusicOwnership ownership, final MavenProject project)
+	{
+		final boolean claimed = switch(ownership)
+		{
+			case EXECUTION -> true;
+			case FIRST -> this.owner == null;
+			case ROOT -> project.isExecutionRoot();
+		};
+		if(claimed)
+		{
+			this.owner = project.getId();
+		}
+		return claimed;
+	}
+	
+	/**
+	 * Gives up the ownership after the music was stopped, so that the next execution starts the music again instead
+	 * of joining music that no longer plays.
+	 */
+	public synchronized void release()
+	{
+		this.owner = null;
+	}
+	
+	/**
+	 * @return the id of the project that started the music or <code>null</code>
+	 */
+	public synchronized String getOwner()
+	{
+		return this.owner;
+	}
+	
+	/**
+	 * @return <code>true</code> if the music wasn't prepared yet in this build and the caller should prepare it
+	 */
+	public synchronized boolean claimPreparation()
+	{
+		final boolean claimed = !this.prepared;
+		this.prepared = true;
+		return claimed;
+	}
+	
+	/**
+	 * @return the random shuffle seed of this build, so that the music is played in the order it was prepared
+	 */
+	public synchronized long shuffleSeed()
+	{
+		if(this.shuffleSeed == null)
+		{
+			this.shuffleSeed = new SplittableRandom().nextLong();
+		}
+		return this.shuffleSeed;
+	}
+}
@@ -15,10 +15,19 @@
  */
 package software.xdev.maven.music;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import software.xdev.maven.music.daemon.DaemonClient;
+import software.xdev.maven.music.daemon.DaemonProtocol;
 
 
 @Mojo(
@@ -27,9 +36,45 @@ import org.apache.maven.plugins.annotations.Mojo;
 )
 public class StopMusicMojo extends AbstractMojo
 {
+	/**
+	 * Directory where persistent data is cached; must match the one used by the music goal.
+	 */
+	@Parameter(property = "music.cacheDirectory", defaultValue = "${user.home}/.m2/music-cache")
+	protected File cacheDirectory;
+	
+	/**
+	 * Also stops the music of the player daemon.
+	 * <p>
+	 * The position is remembered, so that the next build continues where the music was stopped.
+	 * </p>
+	 */
+	@Parameter(property = "music.session")
+	protected boolean session;
+	
+	@Parameter(defaultValue = "${session}", readonly = true)
+	protected MavenSession mavenSession;
+	
 	@Override
 	public void execute() throws MojoExecutionException, MojoFailureException
 	{
 		PlayerManager.instance().stopActivePlayer();
+		if(this.mavenSession != null)
+		{
+			// Following executions of the music goal should start the music again
+			ReactorPlayback.of(this.mavenSession).release();
+		}
+		
+		if(this.session)
+		{
+			try
+			{
+				new DaemonClient(MusicMojo.sessionDirectory(this.cacheDirectory), this.getLog())
+					.sendIfRunning(DaemonProtocol.COMMAND_STOP, new Properties());
+			}
+			catch(final IOException ioe)
+			{
+				this.getLog().warn("Failed to stop music of player daemon", ioe);
+			}
+		}
 	}
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+
+/**
+ * Computes keys for content addressed caches.
+ */
+public final class ContentHash
+{
+	public static String sha256(final byte[] data)
+	{
+		return HexFormat.of().formatHex(newDigest().digest(data));
+	}
+	
+	public static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch(final NoSuchAlgorithmException e)
+		{
+			// Every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private ContentHash()
+	{
+	}
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import software.xdev.maven.music.MusicExecutors;
+
+
+/**
+ * Persistent cache for remote resources.
+ * <p>
+ * Downloaded files are stored content-addressed (by their SHA-256). A small index file per URL references the
+ * content and remembers the <code>ETag</code>/<code>Last-Modified</code> validators of the response.
+ * </p>
+ * <p>
+ * Cached content is used immediately, while it's revalidated with a conditional request in the background (at most
+ * once per revalidation interval, so that long-running JVMs like daemons also pick up changes). This way cached
+ * resources are as fast as local files and also work when offline.
+ * </p>
+ */
+public class DownloadCache
+{
+	private static final String CONTENT_EXTENSION = ".bin";
+	private static final String INDEX_EXTENSION = ".properties";
+	
+	private static final String PROP_URL = "url";
+	private static final String PROP_CONTENT = "content";
+	private static final String PROP_ETAG = "etag";
+	private static final String PROP_LAST_MODIFIED = "lastModified";
+	
+	private static final long DEFAULT_REVALIDATE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(10);
+	
+	/**
+	 * When each URL was last revalidated by this JVM ({@link System#nanoTime()})
+	 */
+	private static final Map<String, Long> LAST_REVALIDATION = new ConcurrentHashMap<>();
+	
+	private final Path directory;
+	private final long maxSizeBytes;
+	private final int connectTimeoutMs;
+	private final int readTimeoutMs;
+	private final long revalidateIntervalNanos;
+	
+	public DownloadCache(
+		final Path directory,
+		final long maxSizeBytes,
+		final int connectTimeoutMs,
+		final int readTimeoutMs)
+	{
+		this(directory, maxSizeBytes, connectTimeoutMs, readTimeoutMs, DEFAULT_REVALIDATE_INTERVAL_MS);
+	}
+	
+	/**
+	 * @param revalidateIntervalMs how long cached content is used without revalidating it again
+	 */
+	public DownloadCache(
+		final Path directory,
+		final long maxSizeBytes,
+		final int connectTimeoutMs,
+		final int readTimeoutMs,
+		final long revalidateIntervalMs)
+	{
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+		this.connectTimeoutMs = connectTimeoutMs;
+		this.readTimeoutMs = readTimeoutMs;
+		this.revalidateIntervalNanos = TimeUnit.MILLISECONDS.toNanos(revalidateIntervalMs);
+	}
+	
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+	
+	public long getMaxSizeBytes()
+	{
+		return this.maxSizeBytes;
+	}
+	
+	public int getConnectTimeoutMs()
+	{
+		return this.connectTimeoutMs;
+	}
+	
+	public int getReadTimeoutMs()
+	{
+		return this.readTimeoutMs;
+	}
+	
+	/**
+	 * Looks up the cached content of the URL.
+	 * <p>
+	 * If found and not revalidated recently, the content is revalidated in the background, so that changes are picked
+	 * up by the next lookup.
+	 * </p>
+	 */
+	public Optional<Path> get(final URL url) throws IOException
+	{
+		final Path indexFile = this.indexFileFor(url);
+		if(!Files.isRegularFile(indexFile))
+		{
+			return Optional.empty();
+		}
+		
+		final Properties index = readProperties(indexFile);
+		final Path content = this.directory.resolve(index.getProperty(PROP_CONTENT, "") + CONTENT_EXTENSION);
+		if(!Files.isRegularFile(content))
+		{
+			// Evicted
+			return Optional.empty();
+		}
+		
+		LruEviction.touch(content);
+		if(this.claimRevalidation(url))
+		{
+			this.revalidateInBackground(url, index);
+		}
+		return Optional.of(content);
+	}
+	
+	/**
+	 * @return <code>true</code> if the URL should be revalidated now; the next revalidation is only due after the
+	 * revalidation interval
+	 */
+	protected boolean claimRevalidation(final URL url)
+	{
+		final String key = url.toString();
+		final long now = System.nanoTime();
+		final Long previous = LAST_REVALIDATION.get(key);
+		if(previous == null)
+		{
+			return LAST_REVALIDATION.putIfAbsent(key, now) == null;
+		}
+		return now - previous >= this.revalidateIntervalNanos && LAST_REVALIDATION.replace(key, previous, now);
+	}
+	
+	/**
+	 * Looks up the hash of the cached content of the URL without revalidating it.
+	 *
+	 * @return the SHA-256 of the content or an empty optional if nothing is cached
+	 */
+	public Optional<String> contentHash(final URL url) throws IOException
+	{
+		final Path indexFile = this.indexFileFor(url);
+		if(!Files.isRegularFile(indexFile))
+		{
+			return Optional.empty();
+		}
+		
+		final String contentHash = readProperties(indexFile).getProperty(PROP_CONTENT);
+		return contentHash != null && Files.isRegularFile(this.directory.resolve(contentHash + CONTENT_EXTENSION))
+			? Optional.of(contentHash)
+			: Optional.empty();
+	}
+	
+	/**
+	 * Wraps the given stream so that everything that is read is written into the cache.
+	 * <p>
+	 * The content is only stored when the stream was read completely.
+	 * </p>
+	 * <p>
+	 * The stream may be closed by another thread than the one that's reading (e.g. a read-ahead thread).
+	 * </p>
+	 */
+	public InputStream storeWhileReading(
+		final URL url,
+		final InputStream in,
+		final ValidatorsSupplier validators)
+		throws IOException
+	{
+		Files.createDirectories(this.directory);
+		final Path tempFile = Files.createTempFile(this.directory, "download", ".tmp");
+		final MessageDigest digest = ContentHash.newDigest();
+		final OutputStream out = new DigestOutputStream(Files.newOutputStream(tempFile), digest);
+		
+		return new FilterInputStream(in)
+		{
+			// Guards out and done
+			private final Object lock = new Object();
+			private volatile boolean done;
+			
+			@Override
+			public int read() throws IOException
+			{
+				final byte[] b = new byte[1];
+				return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+			
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException
+			{
+				final int n = super.read(b, off, len);
+				if(this.done)
+				{
+					return n;
+				}
+				synchronized(this.lock)
+				{
+					if(this.done)
+					{
+						// Closed concurrently
+						return n;
+					}
+					if(n == -1)
+					{
+						this.done = true;
+						out.close();
+						DownloadCache.this.commit(
+							url,
+							tempFile,
+							HexFormat.of().formatHex(digest.digest()),
+							validators.get());
+					}
+					else
+					{
+						out.write(b, off, n);
+					}
+				}
+				return n;
+			}
+			
+			@Override
+			public long skip(final long n) throws IOException
+			{
+				// All data must pass through read
+				final byte[] b = new byte[(int)Math.min(n, 8192)];
+				final int read = this.read(b, 0, b.length);
+				return Math.max(read, 0);
+			}
+			
+			@Override
+			public boolean markSupported()
+			{
+				return false;
+			}
+			
+			@Override
+			public void close() throws IOException
+			{
+				try
+				{
+					super.close();
+				}
+				finally
+				{
+					synchronized(this.lock)
+					{
+						if(!this.done)
+						{
+							this.done = true;
+							out.close();
+							Files.deleteIfExists(tempFile);
+						}
+					}
+				}
+			}
+		};
+	}
+	
+	protected void revalidateInBackground(final URL url, final Properties index)
+	{
+		MusicExecutors.io().execute(() -> {
+			try
+			{
+				this.revalidate(url, index);
+			}
+			catch(final IOException ignored)
+			{
+				// Offline or server not available -> keep using the cached content
+			}
+		});
+	}
+	
+	/**
+	 * Checks with a conditional request if the resource was modified and downloads it if required.
+	 */
+	protected void revalidate(final URL url, final Properties index) throws IOException
+	{
+		final HttpURLConnection con = (HttpURLConnection)url.openConnection();
+		try
+		{
+			con.setConnectTimeout(this.connectTimeoutMs);
+			con.setReadTimeout(this.readTimeoutMs);
+			final String etag = index.getProperty(PROP_ETAG);
+			if(etag != null)
+			{
+				con.setRequestProperty("If-None-Match", etag);
+			}
+			final String lastModified = index.getProperty(PROP_LAST_MODIFIED);
+			if(lastModified != null)
+			{
+				con.setRequestProperty("If-Modified-Since", lastModified);
+			}
+			
+			if(con.getResponseCode() != HttpURLConnection.HTTP_OK)
+			{
+				// Not modified or something else that can't be used
+				return;
+			}
+			// Consider the time of the download and not when it was started
+			LAST_REVALIDATION.put(url.toString(), System.nanoTime());
+			
+			final Validators validators = new Validators(
+				con.getHeaderField("ETag"),
+				con.getHeaderField("Last-Modified"));
+			try(final InputStream is = this.storeWhileReading(url, con.getInputStream(), () -> validators))
+			{
+				is.transferTo(OutputStream.nullOutputStream());
+			}
+		}
+		finally
+		{
+			con.disconnect();
+		}
+	}
+	
+	protected synchronized void commit(
+		final URL url,
+		final Path tempFile,
+		final String contentHash,
+		final Validators validators)
+		throws IOException
+	{
+		Files.move(
+			tempFile,
+			this.directory.resolve(contentHash + CONTENT_EXTENSION),
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		
+		final Properties index = new Properties();
+		index.setProperty(PROP_URL, url.toString());
+		index.setProperty(PROP_CONTENT, contentHash);
+		if(validators.etag() != null)
+		{
+			index.setProperty(PROP_ETAG, validators.etag());
+		}
+		if(validators.lastModified() != null)
+		{
+			index.setProperty(PROP_LAST_MODIFIED, validators.lastModified());
+		}
+		
+		final Path indexFile = this.indexFileFor(url);
+		final Path tempIndexFile = Files.createTempFile(this.directory, "index", ".tmp");
+		try(final Writer writer = Files.newBufferedWriter(tempIndexFile, StandardCharsets.UTF_8))
+		{
+			index.store(writer, null);
+		}
+		Files.move(tempIndexFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		
+		final List<Path> evicted = LruEviction.evict(
+			this.directory,
+			file -> file.getFileName().toString().endsWith(CONTENT_EXTENSION),
+			this.maxSizeBytes);
+		if(!evicted.isEmpty())
+		{
+			this.removeOrphanedIndexFiles();
+		}
+	}
+	
+	/**
+	 * Removes the index files whose content was evicted.
+	 */
+	protected void removeOrphanedIndexFiles() throws IOException
+	{
+		try(final Stream<Path> stream = Files.list(this.directory))
+		{
+			for(final Path indexFile : (Iterable<Path>)stream::iterator)
+			{
+				if(!indexFile.getFileName().toString().endsWith(INDEX_EXTENSION))
+				{
+					continue;
+				}
+				final String contentHash = readProperties(indexFile).getProperty(PROP_CONTENT, "");
+				if(!Files.isRegularFile(this.directory.resolve(contentHash + CONTENT_EXTENSION)))
+				{
+					Files.deleteIfExists(indexFile);
+				}
+			}
+		}
+	}
+	
+	protected Path indexFileFor(final URL url)
+	{
+		return this.directory.resolve(
+			ContentHash.sha256(url.toString().getBytes(StandardCharsets.UTF_8)) + INDEX_EXTENSION);
+	}
+	
+	private static Properties readProperties(final Path file) throws IOException
+	{
+		final Properties properties = new Properties();
+		try(final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			properties.load(reader);
+		}
+		return properties;
+	}
+	
+	/**
+	 * Validators of a HTTP response; each may be <code>null</code>.
+	 */
+	public record Validators(String etag, String lastModified)
+	{
+	}
+	
+	
+	/**
+	 * Supplies the validators once the download is complete (they might change when a download is resumed).
+	 */
+	@FunctionalInterface
+	public interface ValidatorsSupplier
+	{
+		Validators get();
+	}
+}
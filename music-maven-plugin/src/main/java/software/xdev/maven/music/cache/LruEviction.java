@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+
+/**
+ * Keeps a cache directory below a certain size by removing the least recently used files.
+ * <p>
+ * Usage is tracked using the last modified time of the files, see {@link #touch(Path)}.
+ * </p>
+ */
+public final class LruEviction
+{
+	/**
+	 * Marks the file as recently used.
+	 */
+	public static void touch(final Path file) throws IOException
+	{
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Removes the least recently used matching files until the total size of them is no longer larger than
+	 * <code>maxSizeBytes</code>.
+	 *
+	 * @return the removed files
+	 */
+	public static synchronized List<Path> evict(
+		final Path directory,
+		final Predicate<Path> filter,
+		final long maxSizeBytes)
+		throws IOException
+	{
+		if(!Files.isDirectory(directory))
+		{
+			return List.of();
+		}
+		
+		final List<CachedFile> files = new ArrayList<>();
+		try(final Stream<Path> stream = Files.list(directory))
+		{
+			for(final Path file : (Iterable<Path>)stream::iterator)
+			{
+				if(filter.test(file))
+				{
+					final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+					files.add(new CachedFile(file, attrs.size(), attrs.lastModifiedTime()));
+				}
+			}
+		}
+		
+		final List<Path> evicted = new ArrayList<>();
+		long totalSize = files.stream().mapToLong(CachedFile::size).sum();
+		files.sort(Comparator.comparing(CachedFile::lastModified));
+		for(final CachedFile file : files)
+		{
+			if(totalSize <= maxSizeBytes)
+			{
+				break;
+			}
+			try
+			{
+				Files.deleteIfExists(file.path());
+				totalSize -= file.size();
+				evicted.add(file.path());
+			}
+			catch(final IOException ignored)
+			{
+				// May still be in use by another process (e.g. on Windows); try again next time
+			}
+		}
+		return evicted;
+	}
+	
+	record CachedFile(Path path, long size, FileTime lastModified)
+	{
+	}
+	
+	private LruEviction()
+	{
+	}
+}
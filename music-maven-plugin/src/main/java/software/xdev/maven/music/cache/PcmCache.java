@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import static javax.sound.sampled.AudioFormat.Encoding.PCM_SIGNED;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import javax.sound.sampled.AudioFormat;
+
+
+/**
+ * Persistent on-disk cache for decoded audio.
+ * <p>
+ * Entries are keyed by the identity of the source (derived from its metadata, e.g. path, size and modification
+ * time, see {@link software.xdev.maven.music.player.PreparedTrack#contentKey}) and contain signed 16-bit little
+ * endian PCM prefixed by a small header describing the sample rate and channel count.
+ * </p>
+ * <p>
+ * The size of the cache is bounded: When it's exceeded the least recently used entries are evicted.
+ * Usage is tracked using the last modified time of the entries.
+ * </p>
+ */
+public class PcmCache
+{
+	private static final String EXTENSION = ".pcm";
+	// "MMPC"
+	private static final int MAGIC = 0x4D4D5043;
+	private static final int HEADER_SIZE = Integer.BYTES + Float.BYTES + Integer.BYTES;
+	
+	private final Path directory;
+	private final long maxSizeBytes;
+	
+	public PcmCache(final Path directory, final long maxSizeBytes)
+	{
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+	}
+	
+	public Path getDirectory()
+	{
+		return this.directory;
+	}
+	
+	public long getMaxSizeBytes()
+	{
+		return this.maxSizeBytes;
+	}
+	
+	/**
+	 * @return the cached entry (memory mapped) or an empty optional if nothing was cached for the key
+	 */
+	public Optional<Entry> get(final String key) throws IOException
+	{
+		final Path file = this.fileFor(key);
+		if(!Files.isRegularFile(file))
+		{
+			return Optional.empty();
+		}
+		
+		final ByteBuffer mapped;
+		try(final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			if(channel.size() < HEADER_SIZE)
+			{
+				Files.deleteIfExists(file);
+				return Optional.empty();
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+				.order(ByteOrder.BIG_ENDIAN);
+		}
+		
+		if(mapped.getInt() != MAGIC)
+		{
+			Files.deleteIfExists(file);
+			return Optional.empty();
+		}
+		final float sampleRate = mapped.getFloat();
+		final int channels = mapped.getInt();
+		
+		LruEviction.touch(file);
+		
+		return Optional.of(new Entry(pcmFormat(sampleRate, channels), mapped.slice()));
+	}
+	
+	/**
+	 * Creates a writer for a new entry. The entry only becomes visible after {@link Writer#commit()} was called.
+	 */
+	public Writer newWriter(final String key, final AudioFormat format) throws IOException
+	{
+		Files.createDirectories(this.directory);
+		final Path tempFile = Files.createTempFile(this.directory, key, ".tmp");
+		return new Writer(key, tempFile, format);
+	}
+	
+	public static AudioFormat pcmFormat(final float sampleRate, final int channels)
+	{
+		return new AudioFormat(PCM_SIGNED, sampleRate, 16, channels, channels * 2, sampleRate, false);
+	}
+	
+	protected Path fileFor(final String key)
+	{
+		return this.directory.resolve(key + EXTENSION);
+	}
+	
+	protected void evict() throws IOException
+	{
+		LruEviction.evict(
+			this.directory,
+			file -> file.getFileName().toString().endsWith(EXTENSION),
+			this.maxSizeBytes);
+	}
+	
+	public record Entry(AudioFormat format, ByteBuffer data)
+	{
+		/**
+		 * @return the duration of the decoded audio
+		 */
+		public long durationMillis()
+		{
+			final double bytesPerSecond = (double)this.format.getFrameSize() * this.format.getFrameRate();
+			return bytesPerSecond > 0 ? (long)(this.data.remaining() * 1000.0 / bytesPerSecond) : 0;
+		}
+	}
+	
+	
+	/**
+	 * Writes decoded PCM into a temporary file that is moved into the cache on {@link #commit()}.
+	 * <p>
+	 * If more data than the cache can hold is written, the entry is discarded.
+	 * </p>
+	 */
+	public final class Writer implements Closeable
+	{
+		private final String key;
+		private final Path tempFile;
+		private final DataOutputStream out;
+		private long written;
+		private boolean discarded;
+		private volatile boolean complete;
+		
+		Writer(final String key, final Path tempFile, final AudioFormat format) throws IOException
+		{
+			this.key = key;
+			this.tempFile = tempFile;
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)));
+			this.out.writeInt(MAGIC);
+			this.out.writeFloat(format.getSampleRate());
+			this.out.writeInt(format.getChannels());
+		}
+		
+		public void write(final byte[] buffer, final int off, final int len) throws IOException
+		{
+			if(this.discarded)
+			{
+				return;
+			}
+			this.written += len;
+			if(this.written + HEADER_SIZE > PcmCache.this.maxSizeBytes)
+			{
+				this.discarded = true;
+				return;
+			}
+			this.out.write(buffer, off, len);
+		}
+		
+		/**
+		 * Wraps the stream so that all data that is read from it is written into this writer.
+		 * <p>
+		 * Once the end of the stream was reached the writer is marked as {@link #isComplete() complete}.
+		 * </p>
+		 */
+		public InputStream wrap(final InputStream in)
+		{
+			return new FilterInputStream(in)
+			{
+				@Override
+				public int read() throws IOException
+				{
+					final byte[] b = new byte[1];
+					return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+				}
+				
+				@Override
+				public int read(final byte[] b, final int off, final int len) throws IOException
+				{
+					final int n = super.read(b, off, len);
+					if(n == -1)
+					{
+						Writer.this.complete = true;
+					}
+					else
+					{
+						Writer.this.write(b, off, n);
+					}
+					return n;
+				}
+				
+				@Override
+				public long skip(final long n)
+				{
+					// Skipping would result in incomplete data
+					return 0;
+				}
+			};
+		}
+		
+		/**
+		 * @return if the end of the wrapped stream was reached, meaning that all data was written
+		 */
+		public boolean isComplete()
+		{
+			return this.complete;
+		}
+		
+		/**
+		 * Makes the written data available in the cache.
+		 */
+		public void commit() throws IOException
+		{
+			this.out.close();
+			if(this.discarded)
+			{
+				Files.deleteIfExists(this.tempFile);
+				return;
+			}
+			Files.move(
+				this.tempFile,
+				PcmCache.this.fileFor(this.key),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+			PcmCache.this.evict();
+		}
+		
+		@Override
+		public void close() throws IOException
+		{
+			this.out.close();
+			Files.deleteIfExists(this.tempFile);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import software.xdev.maven.music.io.ByteBufferInputStream;
+
+
+/**
+ * In-memory cache for the content of classpath resources (e.g. the bundled music inside the plugin JAR).
+ * <p>
+ * Reading a resource from a JAR inflates it every time. The cache keeps the inflated content, so that repeated
+ * plays and further executions in the same JVM (e.g. other modules of the build) can skip this.<br/>
+ * The content is shared by all instances; each instance only defines the limits that are applied when it adds
+ * content. The least recently used entries are removed when the maximum size is exceeded.
+ * </p>
+ */
+public class ResourceCache
+{
+	/**
+	 * Resource URL (includes the JAR) → read-only content
+	 */
+	private static final Map<String, ByteBuffer> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+	private static long sizeBytes;
+	
+	private final long maxSizeBytes;
+	private final boolean offHeap;
+	
+	/**
+	 * @param offHeap stores the content outside of the Java heap (direct memory), so that it doesn't need to be
+	 *                considered by the garbage collector
+	 */
+	public ResourceCache(final long maxSizeBytes, final boolean offHeap)
+	{
+		this.maxSizeBytes = maxSizeBytes;
+		this.offHeap = offHeap;
+	}
+	
+	public long getMaxSizeBytes()
+	{
+		return this.maxSizeBytes;
+	}
+	
+	public boolean isOffHeap()
+	{
+		return this.offHeap;
+	}
+	
+	/**
+	 * Opens the resource from the cache or reads it completely and caches it (if it's not too large).
+	 */
+	public InputStream open(final URL resource) throws IOException
+	{
+		final String key = resource.toString();
+		final ByteBuffer cached;
+		synchronized(ENTRIES)
+		{
+			cached = ENTRIES.get(key);
+		}
+		if(cached != null)
+		{
+			return new ByteBufferInputStream(cached.duplicate());
+		}
+		
+		final byte[] data;
+		try(final InputStream is = resource.openStream())
+		{
+			data = is.readAllBytes();
+		}
+		if(data.length > this.maxSizeBytes)
+		{
+			return new ByteBufferInputStream(ByteBuffer.wrap(data));
+		}
+		
+		final ByteBuffer content = this.store(data);
+		synchronized(ENTRIES)
+		{
+			final ByteBuffer previous = ENTRIES.put(key, content);
+			sizeBytes += content.capacity() - (previous != null ? previous.capacity() : 0);
+			this.evict();
+		}
+		return new ByteBufferInputStream(content.duplicate());
+	}
+	
+	protected ByteBuffer store(final byte[] data)
+	{
+		if(!this.offHeap)
+		{
+			return ByteBuffer.wrap(data).asReadOnlyBuffer();
+		}
+		final ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+		direct.put(data).flip();
+		return direct.asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Removes the least recently used entries until the size is within the limit.
+	 */
+	private void evict()
+	{
+		final Iterator<ByteBuffer> it = ENTRIES.values().iterator();
+		while(sizeBytes > this.maxSizeBytes && it.hasNext())
+		{
+			sizeBytes -= it.next().capacity();
+			it.remove();
+		}
+	}
+	
+	/**
+	 * @return the size of all cached content in bytes
+	 */
+	public static long getSizeBytes()
+	{
+		synchronized(ENTRIES)
+		{
+			return sizeBytes;
+		}
+	}
+}
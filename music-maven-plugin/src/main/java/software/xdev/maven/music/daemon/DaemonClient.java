@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.maven.plugin.logging.Log;
+
+
+/**
+ * Sends commands to the {@link PlayerDaemon} and starts it if required.
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class DaemonClient
+{
+	private static final String LOCK_FILE_NAME = "daemon.lock";
+	private static final String LOG_FILE_NAME = "daemon.log";
+	
+	private static final int CONNECT_TIMEOUT_MS = 1_000;
+	private static final int READ_TIMEOUT_MS = 15_000;
+	private static final long STARTUP_TIMEOUT_MS = 15_000;
+	private static final long STARTUP_POLL_MS = 50;
+	
+	private final Path stateDirectory;
+	private final Log log;
+	
+	public DaemonClient(final Path stateDirectory, final Log log)
+	{
+		this.stateDirectory = stateDirectory;
+		this.log = log;
+	}
+	
+	/**
+	 * Sends the command to the daemon; if no daemon is running, a new one is started.
+	 */
+	@SuppressWarnings("try")
+	public Properties send(final String command, final Properties payload, final int idleTimeoutMinutes)
+		throws IOException
+	{
+		final Optional<Properties> response = this.sendIfRunning(command, payload);
+		if(response.isPresent())
+		{
+			return response.get();
+		}
+		
+		// Multiple modules might try to start the daemon at the same time
+		Files.createDirectories(this.stateDirectory);
+		try(final FileChannel channel = FileChannel.open(
+			this.stateDirectory.resolve(LOCK_FILE_NAME),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE);
+			final FileLock ignored = channel.lock())
+		{
+			final Optional<Properties> startedByOther = this.sendIfRunning(command, payload);
+			if(startedByOther.isPresent())
+			{
+				return startedByOther.get();
+			}
+			
+			final DaemonState state = this.startDaemon(idleTimeoutMinutes);
+			return this.send(state, command, payload);
+		}
+	}
+	
+	/**
+	 * Sends the command to the daemon if it's running.
+	 *
+	 * @return the response or empty if no daemon is running
+	 */
+	public Optional<Properties> sendIfRunning(final String command, final Properties payload) throws IOException
+	{
+		final Optional<DaemonState> state = DaemonState.read(this.stateDirectory);
+		if(state.isEmpty())
+		{
+			return Optional.empty();
+		}
+		try
+		{
+			return Optional.of(this.send(state.get(), command, payload));
+		}
+		catch(final IOException ioe)
+		{
+			// The daemon was most likely terminated without cleaning up (e.g. killed)
+			this.log.debug("Failed to reach player daemon " + state.get(), ioe);
+			return Optional.empty();
+		}
+	}
+	
+	protected Properties send(final DaemonState state, final String command, final Properties payload)
+		throws IOException
+	{
+		final Properties request = DaemonProtocol.newRequest(state.token(), command);
+		request.putAll(payload);
+		
+		try(final Socket socket = new Socket())
+		{
+			socket.connect(
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), state.port()),
+				CONNECT_TIMEOUT_MS);
+			socket.setSoTimeout(READ_TIMEOUT_MS);
+			
+			DaemonProtocol.write(request, socket.getOutputStream());
+			socket.shutdownOutput();
+			return DaemonProtocol.read(socket.getInputStream());
+		}
+	}
+	
+	protected DaemonState startDaemon(final int idleTimeoutMinutes) throws IOException
+	{
+		final Path logFile = this.stateDirectory.resolve(LOG_FILE_NAME);
+		this.log.info("[🎵] Starting player daemon (log: " + logFile + ")");
+		
+		final Process process = new ProcessBuilder(
+			javaExecutable(),
+			"-cp",
+			daemonClassPath(),
+			PlayerDaemon.class.getName(),
+			this.stateDirectory.toString(),
+			String.valueOf(idleTimeoutMinutes))
+			.redirectErrorStream(true)
+			.redirectOutput(ProcessBuilder.Redirect.to(logFile.toFile()))
+			.start();
+		
+		final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+		while(System.currentTimeMillis() < deadline)
+		{
+			final Optional<DaemonState> state = DaemonState.read(this.stateDirectory)
+				.filter(s -> s.pid() == process.pid());
+			if(state.isPresent())
+			{
+				return state.get();
+			}
+			if(!process.isAlive())
+			{
+				throw new IOException("Player daemon terminated unexpectedly; see " + logFile);
+			}
+			
+			try
+			{
+				Thread.sleep(STARTUP_POLL_MS);
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for player daemon", e);
+			}
+		}
+		process.destroy();
+		throw new IOException("Player daemon didn't start in time; see " + logFile);
+	}
+	
+	protected static String javaExecutable()
+	{
+		final boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).contains("win");
+		return Path.of(System.getProperty("java.home"), "bin", windows ? "java.exe" : "java").toString();
+	}
+	
+	/**
+	 * @return the class path of the plugin (including its dependencies) and the Maven API that is used by it
+	 */
+	protected static String daemonClassPath()
+	{
+		final Set<String> entries = new LinkedHashSet<>();
+		if(DaemonClient.class.getClassLoader() instanceof final URLClassLoader urlClassLoader)
+		{
+			for(final URL url : urlClassLoader.getURLs())
+			{
+				addEntry(entries, url);
+			}
+		}
+		else
+		{
+			// Not running inside Maven
+			entries.addAll(List.of(System.getProperty("java.class.path", "").split(File.pathSeparator)));
+		}
+		// Classes that are provided by Maven (e.g. Log) are located in a parent class loader
+		addCodeSource(entries, DaemonClient.class);
+		addCodeSource(entries, Log.class);
+		return String.join(File.pathSeparator, entries);
+	}
+	
+	private static void addCodeSource(final Set<String> entries, final Class<?> clazz)
+	{
+		final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+		if(codeSource != null && codeSource.getLocation() != null)
+		{
+			addEntry(entries, codeSource.getLocation());
+		}
+	}
+	
+	private static void addEntry(final Set<String> entries, final URL url)
+	{
+		try
+		{
+			entries.add(Path.of(url.toURI()).toString());
+		}
+		catch(final URISyntaxException | IllegalArgumentException ignored)
+		{
+			// Not a local file
+		}
+	}
+}
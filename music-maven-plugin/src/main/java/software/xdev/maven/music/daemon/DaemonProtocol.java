@@ -0,0 +1,453 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.daemon;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import software.xdev.maven.music.PlaybackSession;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.ContentHash;
+import software.xdev.maven.music.cache.DownloadCache;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.cache.ResourceCache;
+import software.xdev.maven.music.loudness.LoudnessIndex;
+import software.xdev.maven.music.loudness.LoudnessNormalization;
+import software.xdev.maven.music.player.LineBufferTuning;
+import software.xdev.maven.music.playlist.PlayHistory;
+import software.xdev.maven.music.sources.MusicSource;
+
+
+/**
+ * Messages that are exchanged between the {@link DaemonClient} and the {@link PlayerDaemon}.
+ * <p>
+ * Each connection transports exactly one request and one response, both encoded as {@link Properties}.
+ * </p>
+ */
+public final class DaemonProtocol
+{
+	public static final String TOKEN = "token";
+	public static final String COMMAND = "command";
+	
+	public static final String COMMAND_PLAY = "play";
+	public static final String COMMAND_STOP = "stop";
+	public static final String COMMAND_STATUS = "status";
+	public static final String COMMAND_SHUTDOWN = "shutdown";
+	
+	public static final String SHUFFLE = "shuffle";
+	public static final String REPEAT = "repeat";
+	public static final String SHUFFLE_SEED = "shuffleSeed";
+	/**
+	 * A seed that was generated for the build; unlike {@link #SHUFFLE_SEED} it doesn't change the playlist
+	 */
+	public static final String GENERATED_SHUFFLE_SEED = "shuffleSeed.generated";
+	public static final String HISTORY_FILE = "history.file";
+	public static final String HISTORY_SIZE = "history.size";
+	public static final String REPORT_FILE = "reportFile";
+	
+	public static final String RESPONSE_OK = "ok";
+	public static final String RESPONSE_MESSAGE = "message";
+	/**
+	 * What the daemon did, e.g. {@link #STATE_STARTED}
+	 */
+	public static final String RESPONSE_STATE = "state";
+	
+	public static final String STATE_STARTED = "started";
+	public static final String STATE_CONTINUED = "continued";
+	public static final String STATE_RESUMED = "resumed";
+	public static final String STATE_STOPPED = "stopped";
+	public static final String STATE_IDLE = "idle";
+	public static final String STATE_PLAYING = "playing";
+	
+	private static final String SOURCE_PREFIX = "source.";
+	private static final String SOURCE_COUNT = SOURCE_PREFIX + "count";
+	private static final String SOURCE_CLASS = "class";
+	private static final String SETTINGS_PREFIX = "settings.";
+	
+	private static final String DEFAULT_VOLUME_DB = SETTINGS_PREFIX + "defaultVolumeDB";
+	private static final String DECODE_AHEAD_MILLIS = SETTINGS_PREFIX + "decodeAheadMillis";
+	private static final String CROSSFADE_MILLIS = SETTINGS_PREFIX + "crossfadeMillis";
+	private static final String LOW_IMPACT = SETTINGS_PREFIX + "lowImpact";
+	private static final String LOW_IMPACT_SAMPLE_RATE = SETTINGS_PREFIX + "lowImpactSampleRate";
+	private static final String OUTPUT_SAMPLE_RATE = SETTINGS_PREFIX + "outputSampleRate";
+	private static final String OUTPUT_CHANNELS = SETTINGS_PREFIX + "outputChannels";
+	private static final String PCM_CACHE_DIRECTORY = SETTINGS_PREFIX + "pcmCache.directory";
+	private static final String PCM_CACHE_MAX_SIZE = SETTINGS_PREFIX + "pcmCache.maxSizeBytes";
+	private static final String DOWNLOAD_CACHE_DIRECTORY = SETTINGS_PREFIX + "downloadCache.directory";
+	private static final String DOWNLOAD_CACHE_MAX_SIZE = SETTINGS_PREFIX + "downloadCache.maxSizeBytes";
+	private static final String DOWNLOAD_CACHE_CONNECT_TIMEOUT = SETTINGS_PREFIX + "downloadCache.connectTimeoutMs";
+	private static final String DOWNLOAD_CACHE_READ_TIMEOUT = SETTINGS_PREFIX + "downloadCache.readTimeoutMs";
+	private static final String CLASSPATH_CACHE_MAX_SIZE = SETTINGS_PREFIX + "classpathCache.maxSizeBytes";
+	private static final String CLASSPATH_CACHE_OFF_HEAP = SETTINGS_PREFIX + "classpathCache.offHeap";
+	private static final String LIBRARY_INDEX_DIRECTORY = SETTINGS_PREFIX + "libraryIndexDirectory";
+	private static final String LINE_BUFFER_FILE = SETTINGS_PREFIX + "lineBuffer.file";
+	private static final String LINE_BUFFER_MIN_MILLIS = SETTINGS_PREFIX + "lineBuffer.minMillis";
+	private static final String LINE_BUFFER_MAX_MILLIS = SETTINGS_PREFIX + "lineBuffer.maxMillis";
+	private static final String LOUDNESS_INDEX = SETTINGS_PREFIX + "loudness.index";
+	private static final String LOUDNESS_TARGET = SETTINGS_PREFIX + "loudness.targetLUFS";
+	
+	/**
+	 * Property types of sources that can be transferred
+	 */
+	private static final Map<Class<?>, Function<String, Object>> SUPPORTED_TYPES = Map.ofEntries(
+		Map.entry(String.class, s -> s),
+		Map.entry(boolean.class, Boolean::valueOf),
+		Map.entry(Boolean.class, Boolean::valueOf),
+		Map.entry(int.class, Integer::valueOf),
+		Map.entry(Integer.class, Integer::valueOf),
+		Map.entry(long.class, Long::valueOf),
+		Map.entry(Long.class, Long::valueOf),
+		Map.entry(float.class, Float::valueOf),
+		Map.entry(Float.class, Float::valueOf),
+		Map.entry(double.class, Double::valueOf),
+		Map.entry(Double.class, Double::valueOf));
+	
+	private static final Set<String> PLAYLIST_KEYS = Set.of(SHUFFLE, REPEAT, SHUFFLE_SEED);
+	
+	public static Properties newRequest(final String token, final String command)
+	{
+		final Properties request = new Properties();
+		request.setProperty(TOKEN, token);
+		request.setProperty(COMMAND, command);
+		return request;
+	}
+	
+	public static void write(final Properties properties, final OutputStream out) throws IOException
+	{
+		properties.store(out, null);
+		out.flush();
+	}
+	
+	public static Properties read(final InputStream in) throws IOException
+	{
+		final Properties properties = new Properties();
+		properties.load(in);
+		return properties;
+	}
+	
+	/**
+	 * @param baseDirectory the directory that relative {@link MusicSource#pathProperties() paths} are resolved
+	 *                      against, as the daemon runs in a different working directory
+	 */
+	public static void putPlaylist(
+		final Properties request,
+		final List<? extends MusicSource> sources,
+		final boolean shuffle,
+		final boolean repeat,
+		final Path baseDirectory)
+	{
+		request.setProperty(SHUFFLE, String.valueOf(shuffle));
+		request.setProperty(REPEAT, String.valueOf(repeat));
+		request.setProperty(SOURCE_COUNT, String.valueOf(sources.size()));
+		for(int i = 0; i < sources.size(); i++)
+		{
+			putSource(request, SOURCE_PREFIX + i + ".", sources.get(i), baseDirectory);
+		}
+	}
+	
+	/**
+	 * @param seed      the seed for shuffling; <code>null</code> = random
+	 * @param generated is the seed only generated for the build (and not configured)? A generated seed is not part
+	 *                  of the {@link #playlistFingerprint(Properties) fingerprint}, so that consecutive builds
+	 *                  continue the music instead of restarting it
+	 * @param history   the history of played sources; <code>null</code> = none
+	 */
+	public static void putShuffle(
+		final Properties request,
+		final Long seed,
+		final boolean generated,
+		final PlayHistory history)
+	{
+		if(seed != null)
+		{
+			request.setProperty(generated ? GENERATED_SHUFFLE_SEED : SHUFFLE_SEED, String.valueOf(seed));
+		}
+		if(history != null)
+		{
+			request.setProperty(HISTORY_FILE, history.getFile().toString());
+			request.setProperty(HISTORY_SIZE, String.valueOf(history.getCapacity()));
+		}
+	}
+	
+	/**
+	 * Configures the session with the values of {@link #putShuffle(Properties, Long, boolean, PlayHistory)}.
+	 */
+	public static void applyShuffle(final Properties request, final PlaybackSession session)
+	{
+		final String seed = request.getProperty(SHUFFLE_SEED, request.getProperty(GENERATED_SHUFFLE_SEED));
+		if(seed != null)
+		{
+			session.setShuffleSeed(Long.parseLong(seed));
+		}
+		final String historyFile = request.getProperty(HISTORY_FILE);
+		if(historyFile != null)
+		{
+			session.setPlayHistory(new PlayHistory(
+				Path.of(historyFile),
+				Integer.parseInt(request.getProperty(HISTORY_SIZE))));
+		}
+	}
+	
+	private static void putSource(
+		final Properties request,
+		final String prefix,
+		final MusicSource source,
+		final Path baseDirectory)
+	{
+		request.setProperty(prefix + SOURCE_CLASS, source.getClass().getName());
+		final Set<String> pathProperties = source.pathProperties();
+		for(final PropertyDescriptor pd : transferableProperties(source.getClass()))
+		{
+			try
+			{
+				final Object value = pd.getReadMethod().invoke(source);
+				if(value != null)
+				{
+					request.setProperty(
+						prefix + pd.getName(),
+						pathProperties.contains(pd.getName())
+							? baseDirectory.resolve(value.toString()).toAbsolutePath().normalize().toString()
+							: String.valueOf(value));
+				}
+			}
+			catch(final IllegalAccessException | InvocationTargetException ex)
+			{
+				throw new IllegalStateException("Failed to read " + pd.getName() + " of " + source, ex);
+			}
+		}
+	}
+	
+	public static List<MusicSource> getSources(final Properties request)
+	{
+		final int count = Integer.parseInt(request.getProperty(SOURCE_COUNT, "0"));
+		final List<MusicSource> sources = new ArrayList<>(count);
+		for(int i = 0; i < count; i++)
+		{
+			sources.add(getSource(request, SOURCE_PREFIX + i + "."));
+		}
+		return sources;
+	}
+	
+	private static MusicSource getSource(final Properties request, final String prefix)
+	{
+		final String className = request.getProperty(prefix + SOURCE_CLASS);
+		try
+		{
+			final Class<? extends MusicSource> clazz = Class.forName(className).asSubclass(MusicSource.class);
+			final MusicSource source = clazz.getConstructor().newInstance();
+			for(final PropertyDescriptor pd : transferableProperties(clazz))
+			{
+				final String value = request.getProperty(prefix + pd.getName());
+				if(value != null)
+				{
+					pd.getWriteMethod().invoke(
+						source,
+						SUPPORTED_TYPES.get(pd.getPropertyType()).apply(value));
+				}
+			}
+			return source;
+		}
+		catch(final ReflectiveOperationException | ClassCastException ex)
+		{
+			throw new IllegalArgumentException("Unable to create source " + className, ex);
+		}
+	}
+	
+	private static List<PropertyDescriptor> transferableProperties(final Class<?> clazz)
+	{
+		try
+		{
+			final BeanInfo beanInfo = Introspector.getBeanInfo(clazz, Object.class);
+			return Arrays.stream(beanInfo.getPropertyDescriptors())
+				.filter(pd -> pd.getReadMethod() != null && pd.getWriteMethod() != null)
+				.filter(pd -> SUPPORTED_TYPES.containsKey(pd.getPropertyType()))
+				.toList();
+		}
+		catch(final IntrospectionException ex)
+		{
+			throw new IllegalStateException("Failed to inspect " + clazz, ex);
+		}
+	}
+	
+	public static void putSettings(final Properties request, final PlaybackSettings settings)
+	{
+		request.setProperty(DEFAULT_VOLUME_DB, String.valueOf(settings.getDefaultVolumeDB()));
+		request.setProperty(DECODE_AHEAD_MILLIS, String.valueOf(settings.getDecodeAheadMillis()));
+		request.setProperty(CROSSFADE_MILLIS, String.valueOf(settings.getCrossfadeMillis()));
+		request.setProperty(LOW_IMPACT, String.valueOf(settings.isLowImpact()));
+		request.setProperty(LOW_IMPACT_SAMPLE_RATE, String.valueOf(settings.getLowImpactSampleRate()));
+		request.setProperty(OUTPUT_SAMPLE_RATE, String.valueOf(settings.getOutputSampleRate()));
+		request.setProperty(OUTPUT_CHANNELS, String.valueOf(settings.getOutputChannels()));
+		if(settings.getPcmCache() != null)
+		{
+			request.setProperty(PCM_CACHE_DIRECTORY, settings.getPcmCache().getDirectory().toString());
+			request.setProperty(PCM_CACHE_MAX_SIZE, String.valueOf(settings.getPcmCache().getMaxSizeBytes()));
+		}
+		final DownloadCache downloadCache = settings.getDownloadCache();
+		if(downloadCache != null)
+		{
+			request.setProperty(DOWNLOAD_CACHE_DIRECTORY, downloadCache.getDirectory().toString());
+			request.setProperty(DOWNLOAD_CACHE_MAX_SIZE, String.valueOf(downloadCache.getMaxSizeBytes()));
+			request.setProperty(DOWNLOAD_CACHE_CONNECT_TIMEOUT, String.valueOf(downloadCache.getConnectTimeoutMs()));
+			request.setProperty(DOWNLOAD_CACHE_READ_TIMEOUT, String.valueOf(downloadCache.getReadTimeoutMs()));
+		}
+		final ResourceCache resourceCache = settings.getResourceCache();
+		if(resourceCache != null)
+		{
+			request.setProperty(CLASSPATH_CACHE_MAX_SIZE, String.valueOf(resourceCache.getMaxSizeBytes()));
+			request.setProperty(CLASSPATH_CACHE_OFF_HEAP, String.valueOf(resourceCache.isOffHeap()));
+		}
+		if(settings.getLibraryIndexDirectory() != null)
+		{
+			request.setProperty(LIBRARY_INDEX_DIRECTORY, settings.getLibraryIndexDirectory().toString());
+		}
+		final LineBufferTuning lineBufferTuning = settings.getLineBufferTuning();
+		if(lineBufferTuning != null)
+		{
+			if(lineBufferTuning.getFile() != null)
+			{
+				request.setProperty(LINE_BUFFER_FILE, lineBufferTuning.getFile().toString());
+			}
+			request.setProperty(LINE_BUFFER_MIN_MILLIS, String.valueOf(lineBufferTuning.getMinMillis()));
+			request.setProperty(LINE_BUFFER_MAX_MILLIS, String.valueOf(lineBufferTuning.getMaxMillis()));
+		}
+		final LoudnessNormalization loudnessNormalization = settings.getLoudnessNormalization();
+		if(loudnessNormalization != null)
+		{
+			request.setProperty(LOUDNESS_INDEX, loudnessNormalization.getIndex().getFile().toString());
+			request.setProperty(LOUDNESS_TARGET, String.valueOf(loudnessNormalization.getTargetLUFS()));
+		}
+		if(settings.getMetrics().getReportFile() != null)
+		{
+			request.setProperty(REPORT_FILE, settings.getMetrics().getReportFile().toString());
+		}
+	}
+	
+	public static PlaybackSettings getSettings(final Properties request)
+	{
+		final PlaybackSettings settings =
+			new PlaybackSettings(Float.parseFloat(request.getProperty(DEFAULT_VOLUME_DB)));
+		settings.setDecodeAheadMillis(Integer.parseInt(request.getProperty(DECODE_AHEAD_MILLIS)));
+		settings.setCrossfadeMillis(Integer.parseInt(request.getProperty(CROSSFADE_MILLIS, "0")));
+		settings.setLowImpact(Boolean.parseBoolean(request.getProperty(LOW_IMPACT)));
+		settings.setLowImpactSampleRate(Float.parseFloat(request.getProperty(LOW_IMPACT_SAMPLE_RATE)));
+		settings.setOutputSampleRate(Float.parseFloat(request.getProperty(OUTPUT_SAMPLE_RATE, "0")));
+		settings.setOutputChannels(Integer.parseInt(request.getProperty(OUTPUT_CHANNELS, "2")));
+		if(request.getProperty(PCM_CACHE_DIRECTORY) != null)
+		{
+			settings.setPcmCache(new PcmCache(
+				Path.of(request.getProperty(PCM_CACHE_DIRECTORY)),
+				Long.parseLong(request.getProperty(PCM_CACHE_MAX_SIZE))));
+		}
+		if(request.getProperty(DOWNLOAD_CACHE_DIRECTORY) != null)
+		{
+			settings.setDownloadCache(new DownloadCache(
+				Path.of(request.getProperty(DOWNLOAD_CACHE_DIRECTORY)),
+				Long.parseLong(request.getProperty(DOWNLOAD_CACHE_MAX_SIZE)),
+				Integer.parseInt(request.getProperty(DOWNLOAD_CACHE_CONNECT_TIMEOUT)),
+				Integer.parseInt(request.getProperty(DOWNLOAD_CACHE_READ_TIMEOUT))));
+		}
+		if(request.getProperty(CLASSPATH_CACHE_MAX_SIZE) != null)
+		{
+			settings.setResourceCache(new ResourceCache(
+				Long.parseLong(request.getProperty(CLASSPATH_CACHE_MAX_SIZE)),
+				Boolean.parseBoolean(request.getProperty(CLASSPATH_CACHE_OFF_HEAP))));
+		}
+		if(request.getProperty(LIBRARY_INDEX_DIRECTORY) != null)
+		{
+			settings.setLibraryIndexDirectory(Path.of(request.getProperty(LIBRARY_INDEX_DIRECTORY)));
+		}
+		if(request.getProperty(LINE_BUFFER_MIN_MILLIS) != null)
+		{
+			final String file = request.getProperty(LINE_BUFFER_FILE);
+			settings.setLineBufferTuning(new LineBufferTuning(
+				file != null ? Path.of(file) : null,
+				Integer.parseInt(request.getProperty(LINE_BUFFER_MIN_MILLIS)),
+				Integer.parseInt(request.getProperty(LINE_BUFFER_MAX_MILLIS))));
+		}
+		if(request.getProperty(LOUDNESS_INDEX) != null)
+		{
+			settings.setLoudnessNormalization(new LoudnessNormalization(
+				new LoudnessIndex(Path.of(request.getProperty(LOUDNESS_INDEX))),
+				Float.parseFloat(request.getProperty(LOUDNESS_TARGET))));
+		}
+		settings.getMetrics().setReportFile(getReportFile(request));
+		return settings;
+	}
+	
+	public static Path getReportFile(final Properties request)
+	{
+		final String reportFile = request.getProperty(REPORT_FILE);
+		return reportFile != null ? Path.of(reportFile) : null;
+	}
+	
+	/**
+	 * @return a fingerprint of everything that defines what is played, so that identical requests can be detected
+	 */
+	public static String playlistFingerprint(final Properties request)
+	{
+		final Map<String, String> relevant = new TreeMap<>();
+		for(final String key : request.stringPropertyNames())
+		{
+			if(key.startsWith(SOURCE_PREFIX) || key.startsWith(SETTINGS_PREFIX) || PLAYLIST_KEYS.contains(key))
+			{
+				relevant.put(key, request.getProperty(key));
+			}
+		}
+		return ContentHash.sha256(relevant.toString().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	public static Properties ok(final String state)
+	{
+		final Properties response = new Properties();
+		response.setProperty(RESPONSE_OK, Boolean.TRUE.toString());
+		response.setProperty(RESPONSE_STATE, state);
+		return response;
+	}
+	
+	public static Properties error(final String message)
+	{
+		final Properties response = new Properties();
+		response.setProperty(RESPONSE_OK, Boolean.FALSE.toString());
+		response.setProperty(RESPONSE_MESSAGE, String.valueOf(message));
+		return response;
+	}
+	
+	public static boolean isOk(final Properties response)
+	{
+		return Boolean.parseBoolean(response.getProperty(RESPONSE_OK));
+	}
+	
+	private DaemonProtocol()
+	{
+	}
+}
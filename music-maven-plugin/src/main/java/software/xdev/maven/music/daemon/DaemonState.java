@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.daemon;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Optional;
+import java.util.Properties;
+
+
+/**
+ * Describes how a running {@link PlayerDaemon} can be reached.
+ *
+ * @param port  the port on the loopback interface
+ * @param token secret that must be sent with every request
+ * @param pid   process id of the daemon
+ */
+public record DaemonState(int port, String token, long pid)
+{
+	private static final String FILE_NAME = "daemon.properties";
+	
+	private static final String PROP_PORT = "port";
+	private static final String PROP_TOKEN = "token";
+	private static final String PROP_PID = "pid";
+	
+	public static Path file(final Path stateDirectory)
+	{
+		return stateDirectory.resolve(FILE_NAME);
+	}
+	
+	public static Optional<DaemonState> read(final Path stateDirectory) throws IOException
+	{
+		final Properties properties = new Properties();
+		try(final Reader reader = Files.newBufferedReader(file(stateDirectory), StandardCharsets.UTF_8))
+		{
+			properties.load(reader);
+		}
+		catch(final NoSuchFileException ex)
+		{
+			return Optional.empty();
+		}
+		
+		try
+		{
+			return Optional.of(new DaemonState(
+				Integer.parseInt(properties.getProperty(PROP_PORT)),
+				properties.getProperty(PROP_TOKEN),
+				Long.parseLong(properties.getProperty(PROP_PID))));
+		}
+		catch(final NumberFormatException ex)
+		{
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * Writes the state so that it's only readable by the current user (if supported by the file system).
+	 */
+	public void write(final Path stateDirectory) throws IOException
+	{
+		Files.createDirectories(stateDirectory);
+		
+		final Path tempFile = stateDirectory.resolve(FILE_NAME + ".tmp");
+		Files.deleteIfExists(tempFile);
+		Files.createFile(tempFile);
+		try
+		{
+			Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+		}
+		catch(final UnsupportedOperationException ignored)
+		{
+			// Not a POSIX file system (e.g. Windows) - the user's home is already protected there
+		}
+		
+		final Properties properties = new Properties();
+		properties.setProperty(PROP_PORT, String.valueOf(this.port));
+		properties.setProperty(PROP_TOKEN, this.token);
+		properties.setProperty(PROP_PID, String.valueOf(this.pid));
+		try(final Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+		{
+			properties.store(writer, null);
+		}
+		Files.move(tempFile, file(stateDirectory), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Deletes the state if it still describes the given daemon (and not e.g. a newer one).
+	 */
+	public static void deleteIfOwned(final Path stateDirectory, final DaemonState state) throws IOException
+	{
+		if(read(stateDirectory).filter(state::equals).isPresent())
+		{
+			Files.deleteIfExists(file(stateDirectory));
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		// Don't leak the token
+		return "DaemonState [port=" + this.port + ", pid=" + this.pid + "]";
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.daemon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import software.xdev.maven.music.PlaybackSession;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.PlaybackWarmUp;
+import software.xdev.maven.music.PlayerManager;
+
+
+/**
+ * A long-lived process that plays the music independent of the Maven process.
+ * <p>
+ * It's controlled by the {@link DaemonClient} over a socket that is only bound to the loopback interface.
+ * The port and a secret token are stored in a {@link DaemonState state file} that is only readable by the current
+ * user.
+ * </p>
+ * <p>
+ * As the audio stack stays initialized and the current playlist is kept, consecutive builds can continue the music
+ * instantly where it left off.<br/>
+ * The daemon terminates itself when nothing was played for the configured idle timeout.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class PlayerDaemon
+{
+	
+	private static final int ACCEPT_TIMEOUT_MS = 10_000;
+	private static final int CLIENT_TIMEOUT_MS = 10_000;
+	
+	private final Path stateDirectory;
+	private final long idleTimeoutMillis;
+	private final Log log;
+	private final String token;
+	
+	private PlaybackSession session;
+	private String sessionFingerprint;
+	private long lastActivityMillis = System.currentTimeMillis();
+	
+	public PlayerDaemon(final Path stateDirectory, final long idleTimeoutMillis, final Log log)
+	{
+		this.stateDirectory = stateDirectory;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.log = log;
+		
+		final byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.token = HexFormat.of().formatHex(secret);
+	}
+	
+	/**
+	 * @param args state directory and idle timeout in minutes
+	 */
+	public static void main(final String[] args) throws IOException
+	{
+		final PlayerDaemon daemon = new PlayerDaemon(
+			Path.of(args[0]),
+			TimeUnit.MINUTES.toMillis(Long.parseLong(args[1])),
+			new SystemStreamLog());
+		daemon.run();
+		// Player threads may still be alive
+		System.exit(0);
+	}
+	
+	public void run() throws IOException
+	{
+		PlaybackWarmUp.start();
+		
+		try(final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress()))
+		{
+			serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MS);
+			
+			final DaemonState state = new DaemonState(
+				serverSocket.getLocalPort(),
+				this.token,
+				ProcessHandle.current().pid());
+			state.write(this.stateDirectory);
+			this.log.info("[🎵] Player daemon listening on port " + state.port());
+			
+			try
+			{
+				this.acceptLoop(serverSocket);
+			}
+			finally
+			{
+				DaemonState.deleteIfOwned(this.stateDirectory, state);
+			}
+		}
+		finally
+		{
+			PlayerManager.instance().stopActivePlayer();
+			this.log.info("[🎵] Player daemon terminated");
+		}
+	}
+	
+	private void acceptLoop(final ServerSocket serverSocket) throws IOException
+	{
+		while(true)
+		{
+			try(final Socket socket = serverSocket.accept())
+			{
+				socket.setSoTimeout(CLIENT_TIMEOUT_MS);
+				if(!this.handle(socket))
+				{
+					return;
+				}
+			}
+			catch(final SocketTimeoutException ignored)
+			{
+				// Check if idle
+			}
+			catch(final IOException ioe)
+			{
+				this.log.warn("Failed to process request", ioe);
+			}
+			
+			if(this.isIdleTimeoutExceeded())
+			{
+				this.log.info("[🎵] Nothing played for a while");
+				return;
+			}
+		}
+	}
+	
+	private synchronized boolean isIdleTimeoutExceeded()
+	{
+		if(this.session != null && !this.session.isFinished())
+		{
+			this.lastActivityMillis = System.currentTimeMillis();
+			return false;
+		}
+		return System.currentTimeMillis() - this.lastActivityMillis > this.idleTimeoutMillis;
+	}
+	
+	/**
+	 * @return <code>false</code> if the daemon should terminate
+	 */
+	protected boolean handle(final Socket socket) throws IOException
+	{
+		final InputStream in = socket.getInputStream();
+		final OutputStream out = socket.getOutputStream();
+		
+		final Properties request = DaemonProtocol.read(in);
+		if(!MessageDigest.isEqual(
+			this.token.getBytes(StandardCharsets.UTF_8),
+			request.getProperty(DaemonProtocol.TOKEN, "").getBytes(StandardCharsets.UTF_8)))
+		{
+			DaemonProtocol.write(DaemonProtocol.error("Invalid token"), out);
+			return true;
+		}
+		
+		final String command = request.getProperty(DaemonProtocol.COMMAND, "");
+		Properties response;
+		try
+		{
+			response = switch(command)
+			{
+				case DaemonProtocol.COMMAND_PLAY -> this.play(request);
+				case DaemonProtocol.COMMAND_STOP -> this.stop();
+				case DaemonProtocol.COMMAND_STATUS -> this.status();
+				case DaemonProtocol.COMMAND_SHUTDOWN -> DaemonProtocol.ok(DaemonProtocol.STATE_STOPPED);
+				default -> DaemonProtocol.error("Unknown command: " + command);
+			};
+		}
+		catch(final RuntimeException ex)
+		{
+			this.log.warn("Failed to execute " + command, ex);
+			response = DaemonProtocol.error(ex.toString());
+		}
+		DaemonProtocol.write(response, out);
+		
+		return !DaemonProtocol.COMMAND_SHUTDOWN.equals(command);
+	}
+	
+	protected synchronized Properties play(final Properties request)
+	{
+		this.lastActivityMillis = System.currentTimeMillis();
+		
+		final String fingerprint = DaemonProtocol.playlistFingerprint(request);
+		if(this.session != null && fingerprint.equals(this.sessionFingerprint))
+		{
+			if(!this.session.isFinished())
+			{
+				this.session.getSettings().getMetrics().setReportFile(DaemonProtocol.getReportFile(request));
+				return DaemonProtocol.ok(DaemonProtocol.STATE_CONTINUED);
+			}
+			if(this.session.isStopped())
+			{
+				// Keep the resolved sources and continue where the music was stopped
+				final PlaybackSettings settings = DaemonProtocol.getSettings(request);
+				final PlaybackSession resumed = new PlaybackSession(
+					this.session.getSources(),
+					Boolean.parseBoolean(request.getProperty(DaemonProtocol.SHUFFLE)),
+					Boolean.parseBoolean(request.getProperty(DaemonProtocol.REPEAT)),
+					settings,
+					this.log);
+				DaemonProtocol.applyShuffle(request, resumed);
+				resumed.setShuffleSeed(this.session.getShuffleSeed());
+				resumed.resumeFrom(this.session.getCurrentIndex(), this.session.getCurrentPositionMillis());
+				this.start(resumed, fingerprint);
+				return DaemonProtocol.ok(DaemonProtocol.STATE_RESUMED);
+			}
+		}
+		
+		final PlaybackSession newSession = new PlaybackSession(
+			DaemonProtocol.getSources(request),
+			Boolean.parseBoolean(request.getProperty(DaemonProtocol.SHUFFLE)),
+			Boolean.parseBoolean(request.getProperty(DaemonProtocol.REPEAT)),
+			DaemonProtocol.getSettings(request),
+			this.log);
+		DaemonProtocol.applyShuffle(request, newSession);
+		this.start(newSession, fingerprint);
+		return DaemonProtocol.ok(DaemonProtocol.STATE_STARTED);
+	}
+	
+	private void start(final PlaybackSession newSession, final String fingerprint)
+	{
+		this.session = newSession;
+		this.sessionFingerprint = fingerprint;
+		
+		newSession.submit();
+	}
+	
+	protected synchronized Properties stop()
+	{
+		this.lastActivityMillis = System.currentTimeMillis();
+		PlayerManager.instance().stopActivePlayer();
+		return DaemonProtocol.ok(DaemonProtocol.STATE_STOPPED);
+	}
+	
+	protected synchronized Properties status()
+	{
+		return DaemonProtocol.ok(this.session != null && !this.session.isFinished()
+			? DaemonProtocol.STATE_PLAYING
+			: DaemonProtocol.STATE_IDLE);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * {@link InputStream} that reads from a {@link ByteBuffer} (e.g. a memory mapped file) without any copying besides
+ * the one into the caller's array.
+ * <p>
+ * Supports {@link #mark(int)}/{@link #reset()} without any limitations.
+ * </p>
+ */
+public class ByteBufferInputStream extends InputStream
+{
+	private final ByteBuffer buffer;
+	
+	public ByteBufferInputStream(final ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+		this.buffer.mark();
+	}
+	
+	@Override
+	public int read()
+	{
+		return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+	{
+		if(len == 0)
+		{
+			return 0;
+		}
+		if(!this.buffer.hasRemaining())
+		{
+			return -1;
+		}
+		final int n = Math.min(len, this.buffer.remaining());
+		this.buffer.get(b, off, n);
+		return n;
+	}
+	
+	/**
+	 * Copies the remaining content at once.
+	 */
+	@Override
+	public byte[] readAllBytes()
+	{
+		final byte[] all = new byte[this.buffer.remaining()];
+		this.buffer.get(all);
+		return all;
+	}
+	
+	@Override
+	public long skip(final long n)
+	{
+		final int skipped = (int)Math.max(0, Math.min(n, this.buffer.remaining()));
+		this.buffer.position(this.buffer.position() + skipped);
+		return skipped;
+	}
+	
+	@Override
+	public int available()
+	{
+		return this.buffer.remaining();
+	}
+	
+	@Override
+	public boolean markSupported()
+	{
+		return true;
+	}
+	
+	@Override
+	public synchronized void mark(final int readlimit)
+	{
+		this.buffer.mark();
+	}
+	
+	@Override
+	public synchronized void reset()
+	{
+		this.buffer.reset();
+	}
+}
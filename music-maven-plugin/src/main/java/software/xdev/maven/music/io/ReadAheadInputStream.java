@@ -0,0 +1,227 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import software.xdev.maven.music.MusicExecutors;
+
+
+/**
+ * Reads an {@link InputStream} on a background thread into a bounded buffer.
+ * <p>
+ * This decouples slow or stalling sources (e.g. a server that is throttling) from the consumer.
+ * </p>
+ */
+public class ReadAheadInputStream extends InputStream
+{
+	private static final int CHUNK_SIZE = 16 * 1024;
+	private static final long OFFER_TIMEOUT_MS = 100;
+	private static final Chunk END_OF_STREAM = new Chunk(new byte[0], 0);
+	
+	private final InputStream source;
+	private final BlockingQueue<Chunk> chunks;
+	/**
+	 * Buffers that were consumed and can be filled again; the read-ahead thread allocates new ones only until
+	 * {@link #maxBuffers} is reached
+	 */
+	private final BlockingQueue<byte[]> freeBuffers;
+	private final int maxBuffers;
+	/**
+	 * Only used by the read-ahead thread
+	 */
+	private int allocatedBuffers;
+	
+	private volatile boolean closed;
+	private volatile IOException failure;
+	
+	private Chunk currentChunk;
+	private int currentChunkPos;
+	
+	/**
+	 * @param source     the stream to read from
+	 * @param bufferSize the maximum amount of bytes that are read ahead
+	 */
+	public ReadAheadInputStream(final InputStream source, final int bufferSize)
+	{
+		this.source = source;
+		final int capacity = Math.max(1, bufferSize / CHUNK_SIZE);
+		this.chunks = new ArrayBlockingQueue<>(capacity);
+		// Queued chunks + the one that is filled + the one that is consumed
+		this.maxBuffers = capacity + 2;
+		this.freeBuffers = new ArrayBlockingQueue<>(this.maxBuffers);
+		
+		MusicExecutors.io().execute(this::readAhead);
+	}
+	
+	private void readAhead()
+	{
+		try
+		{
+			byte[] buffer;
+			while((buffer = this.acquireBuffer()) != null)
+			{
+				final int n = this.source.read(buffer, 0, buffer.length);
+				if(n == -1)
+				{
+					break;
+				}
+				if(n > 0)
+				{
+					this.put(new Chunk(buffer, n));
+				}
+				else
+				{
+					this.freeBuffers.offer(buffer);
+				}
+			}
+		}
+		catch(final IOException ioe)
+		{
+			this.failure = ioe;
+		}
+		catch(final InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+			this.failure = new InterruptedIOException("Interrupted while reading ahead");
+		}
+		finally
+		{
+			try
+			{
+				this.put(END_OF_STREAM);
+			}
+			catch(final InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * @return a buffer to read into or <code>null</code> if the stream was closed
+	 */
+	private byte[] acquireBuffer() throws InterruptedException
+	{
+		final byte[] free = this.freeBuffers.poll();
+		if(free != null)
+		{
+			return free;
+		}
+		if(this.allocatedBuffers < this.maxBuffers)
+		{
+			this.allocatedBuffers++;
+			return new byte[CHUNK_SIZE];
+		}
+		while(!this.closed)
+		{
+			final byte[] buffer = this.freeBuffers.poll(OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			if(buffer != null)
+			{
+				return buffer;
+			}
+		}
+		return null;
+	}
+	
+	private void put(final Chunk chunk) throws InterruptedException
+	{
+		while(!this.closed)
+		{
+			if(this.chunks.offer(chunk, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+			{
+				return;
+			}
+		}
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		final byte[] b = new byte[1];
+		return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		if(len == 0)
+		{
+			return 0;
+		}
+		if(this.currentChunk == null || this.currentChunkPos == this.currentChunk.length())
+		{
+			if(this.currentChunk == END_OF_STREAM)
+			{
+				return this.endOfStream();
+			}
+			if(this.currentChunk != null)
+			{
+				// Consumed -> can be filled again
+				this.freeBuffers.offer(this.currentChunk.data());
+			}
+			try
+			{
+				this.currentChunk = this.chunks.take();
+				this.currentChunkPos = 0;
+			}
+			catch(final InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for data");
+			}
+			if(this.currentChunk == END_OF_STREAM)
+			{
+				return this.endOfStream();
+			}
+		}
+		
+		final int n = Math.min(len, this.currentChunk.length() - this.currentChunkPos);
+		System.arraycopy(this.currentChunk.data(), this.currentChunkPos, b, off, n);
+		this.currentChunkPos += n;
+		return n;
+	}
+	
+	private int endOfStream() throws IOException
+	{
+		if(this.failure != null)
+		{
+			throw this.failure;
+		}
+		return -1;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.closed = true;
+		this.chunks.clear();
+		this.source.close();
+	}
+	
+	/**
+	 * @param data   the (pooled) buffer
+	 * @param length how many bytes of the buffer are valid
+	 */
+	private record Chunk(byte[] data, int length)
+	{
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+
+/**
+ * Streams a HTTP resource and transparently resumes it using
+ * <a href="https://developer.mozilla.org/en-US/docs/Web/HTTP/Range_requests">range requests</a> when the
+ * connection is interrupted or times out.
+ */
+public class ResumableHttpInputStream extends InputStream
+{
+	private static final long RETRY_BACKOFF_MS = 250;
+	/**
+	 * Default for the total number of resumes of a stream (per allowed retry in a row)
+	 */
+	private static final int TOTAL_RETRIES_PER_RETRY = 10;
+	
+	private final URL url;
+	private final int connectTimeoutMs;
+	private final int readTimeoutMs;
+	private final int maxRetries;
+	private final int maxTotalRetries;
+	
+	private InputStream current;
+	private long position;
+	private long contentLength = -1;
+	private String etag;
+	private String lastModified;
+	private int failedAttempts;
+	private int totalRetries;
+	private volatile boolean closed;
+	
+	public ResumableHttpInputStream(
+		final URL url,
+		final int connectTimeoutMs,
+		final int readTimeoutMs,
+		final int maxRetries)
+		throws IOException
+	{
+		this(url, connectTimeoutMs, readTimeoutMs, maxRetries, maxRetries * TOTAL_RETRIES_PER_RETRY);
+	}
+	
+	/**
+	 * @param maxRetries      how often the connection is resumed in a row (without reading any data in between)
+	 * @param maxTotalRetries how often the connection is resumed in total, e.g. if the server drops the connection
+	 *                        after every few bytes
+	 */
+	public ResumableHttpInputStream(
+		final URL url,
+		final int connectTimeoutMs,
+		final int readTimeoutMs,
+		final int maxRetries,
+		final int maxTotalRetries)
+		throws IOException
+	{
+		this.url = url;
+		this.connectTimeoutMs = connectTimeoutMs;
+		this.readTimeoutMs = readTimeoutMs;
+		this.maxRetries = maxRetries;
+		this.maxTotalRetries = maxTotalRetries;
+		
+		this.current = this.connect();
+	}
+	
+	protected InputStream connect() throws IOException
+	{
+		final HttpURLConnection con = (HttpURLConnection)this.url.openConnection();
+		con.setConnectTimeout(this.connectTimeoutMs);
+		con.setReadTimeout(this.readTimeoutMs);
+		if(this.position > 0)
+		{
+			con.setRequestProperty("Range", "bytes=" + this.position + "-");
+			// Only resume if the resource was not modified in the meantime
+			final String validator = this.etag != null ? this.etag : this.lastModified;
+			if(validator != null)
+			{
+				con.setRequestProperty("If-Range", validator);
+			}
+		}
+		
+		final int status = con.getResponseCode();
+		if(status == HttpURLConnection.HTTP_PARTIAL && this.position > 0)
+		{
+			this.validateContentRange(con);
+			return con.getInputStream();
+		}
+		if(status != HttpURLConnection.HTTP_OK)
+		{
+			con.disconnect();
+			throw new IOException("Unexpected response " + status + " for " + this.url);
+		}
+		
+		if(this.position == 0)
+		{
+			this.etag = con.getHeaderField("ETag");
+			this.lastModified = con.getHeaderField("Last-Modified");
+			this.contentLength = con.getContentLengthLong();
+			return con.getInputStream();
+		}
+		
+		// Server ignored the range or the resource was modified (If-Range didn't match)
+		if(this.isModified(con))
+		{
+			con.disconnect();
+			throw new NotResumableException("Resource " + this.url + " was modified while streaming");
+		}
+		// Same resource -> Skip what was already read
+		final InputStream is = con.getInputStream();
+		is.skipNBytes(this.position);
+		return is;
+	}
+	
+	protected boolean isModified(final HttpURLConnection con)
+	{
+		if(this.etag != null)
+		{
+			return !this.etag.equals(con.getHeaderField("ETag"));
+		}
+		if(this.lastModified != null)
+		{
+			return !this.lastModified.equals(con.getHeaderField("Last-Modified"));
+		}
+		// No validators -> At least the size has to match
+		final long responseLength = con.getContentLengthLong();
+		return this.contentLength >= 0 && responseLength >= 0 && responseLength != this.contentLength;
+	}
+	
+	/**
+	 * Ensures that a partial response continues exactly where the previous connection stopped.
+	 * <p>
+	 * Format: <code>bytes &lt;first&gt;-&lt;last&gt;/&lt;complete length or *&gt;</code>
+	 * </p>
+	 */
+	protected void validateContentRange(final HttpURLConnection con) throws IOException
+	{
+		final String contentRange = con.getHeaderField("Content-Range");
+		if(!this.isExpectedContentRange(contentRange))
+		{
+			con.disconnect();
+			throw new NotResumableException("Unexpected Content-Range '" + contentRange + "' for " + this.url
+				+ " when resuming at " + this.position);
+		}
+	}
+	
+	protected boolean isExpectedContentRange(final String contentRange)
+	{
+		if(contentRange == null || !contentRange.startsWith("bytes "))
+		{
+			return false;
+		}
+		final int dash = contentRange.indexOf('-');
+		final int slash = contentRange.indexOf('/');
+		if(dash < 0 || slash < dash)
+		{
+			return false;
+		}
+		try
+		{
+			final long first = Long.parseLong(contentRange.substring("bytes ".length(), dash).trim());
+			final String completeLength = contentRange.substring(slash + 1).trim();
+			return first == this.position
+				&& ("*".equals(completeLength)
+				|| this.contentLength < 0
+				|| Long.parseLong(completeLength) == this.contentLength);
+		}
+		catch(final NumberFormatException ex)
+		{
+			return false;
+		}
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		final byte[] b = new byte[1];
+		return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		while(true)
+		{
+			if(this.closed)
+			{
+				throw new IOException("Stream closed");
+			}
+			try
+			{
+				final int n = this.current.read(b, off, len);
+				if(n == -1 && this.contentLength >= 0 && this.position < this.contentLength)
+				{
+					throw new IOException("Connection closed prematurely at " + this.position + "/"
+						+ this.contentLength + " bytes");
+				}
+				if(n > 0)
+				{
+					this.position += n;
+					this.failedAttempts = 0;
+				}
+				return n;
+			}
+			catch(final InterruptedIOException iioe)
+			{
+				if(Thread.currentThread().isInterrupted())
+				{
+					throw iioe;
+				}
+				this.resume(iioe);
+			}
+			catch(final IOException ioe)
+			{
+				this.resume(ioe);
+			}
+		}
+	}
+	
+	protected void resume(final IOException cause) throws IOException
+	{
+		this.closeCurrent();
+		while(true)
+		{
+			if(this.closed)
+			{
+				throw cause;
+			}
+			if(++this.failedAttempts > this.maxRetries || ++this.totalRetries > this.maxTotalRetries)
+			{
+				throw cause;
+			}
+			try
+			{
+				Thread.sleep(RETRY_BACKOFF_MS * this.failedAttempts);
+				this.current = this.connect();
+				return;
+			}
+			catch(final InterruptedException ie)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while resuming");
+			}
+			catch(final NotResumableException ex)
+			{
+				ex.addSuppressed(cause);
+				throw ex;
+			}
+			catch(final IOException ioe)
+			{
+				cause.addSuppressed(ioe);
+			}
+		}
+	}
+	
+	private void closeCurrent()
+	{
+		try
+		{
+			this.current.close();
+		}
+		catch(final IOException ignored)
+		{
+			// Connection is already broken
+		}
+	}
+	
+	/**
+	 * @return the <code>ETag</code> of the resource or <code>null</code>
+	 */
+	public String getEtag()
+	{
+		return this.etag;
+	}
+	
+	/**
+	 * @return the <code>Last-Modified</code> header of the resource or <code>null</code>
+	 */
+	public String getLastModified()
+	{
+		return this.lastModified;
+	}
+	
+	/**
+	 * @return the number of bytes read so far
+	 */
+	public long getPosition()
+	{
+		return this.position;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.closed = true;
+		this.current.close();
+	}
+	
+	/**
+	 * The stream can't be resumed as the server delivers different content than before.
+	 */
+	public static class NotResumableException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+		
+		public NotResumableException(final String message)
+		{
+			super(message);
+		}
+	}
+}
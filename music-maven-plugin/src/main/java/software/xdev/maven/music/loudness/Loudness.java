@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.loudness;
+
+/**
+ * Result of a loudness analysis.
+ *
+ * @param integratedLUFS the integrated loudness (EBU R128) in LUFS; {@link Double#NEGATIVE_INFINITY} if silent
+ * @param samplePeak     the highest absolute sample value (<code>1.0</code> = full scale)
+ */
+public record Loudness(double integratedLUFS, double samplePeak)
+{
+	/**
+	 * @return the gain (in dB) that is required to reach the target loudness; never boosts a track beyond its peak
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public float gainDB(final float targetLUFS)
+	{
+		if(Double.isInfinite(this.integratedLUFS))
+		{
+			// Nothing to normalize
+			return 0;
+		}
+		
+		double gain = targetLUFS - this.integratedLUFS;
+		if(this.samplePeak > 0)
+		{
+			gain = Math.min(gain, -20 * Math.log10(this.samplePeak));
+		}
+		return (float)gain;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.loudness;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Persistent index of analyzed loudness values, keyed by the content key of the source (see
+ * {@link software.xdev.maven.music.player.PreparedTrack#contentKey}).
+ * <p>
+ * As the key changes with the content, entries are never invalidated. When the analysis algorithm changes
+ * the {@link #VERSION} is increased, which discards all existing entries.
+ * </p>
+ */
+public class LoudnessIndex
+{
+	private static final String VERSION = "2";
+	private static final String PROP_VERSION = "version";
+	
+	private final Path file;
+	private final Map<String, Loudness> entries = new ConcurrentHashMap<>();
+	private volatile boolean modified;
+	
+	public LoudnessIndex(final Path file)
+	{
+		this.file = file;
+	}
+	
+	public Path getFile()
+	{
+		return this.file;
+	}
+	
+	public Optional<Loudness> get(final String contentKey)
+	{
+		return Optional.ofNullable(this.entries.get(contentKey));
+	}
+	
+	public void put(final String contentKey, final Loudness loudness)
+	{
+		this.entries.put(contentKey, loudness);
+		this.modified = true;
+	}
+	
+	public int size()
+	{
+		return this.entries.size();
+	}
+	
+	/**
+	 * Loads the entries from the file (if present). Entries that are already in memory are kept.
+	 */
+	public synchronized void load() throws IOException
+	{
+		readFile().forEach(this.entries::putIfAbsent);
+	}
+	
+	/**
+	 * Writes the index if it was modified.
+	 * <p>
+	 * Entries written in the meantime by others (e.g. a concurrent build) are merged.
+	 * </p>
+	 */
+	public synchronized void save() throws IOException
+	{
+		if(!this.modified)
+		{
+			return;
+		}
+		
+		final Map<String, Loudness> merged = this.readFile();
+		// Reset before taking the snapshot so that concurrently added entries are written by the next save
+		this.modified = false;
+		merged.putAll(this.entries);
+		
+		final Properties properties = new Properties();
+		properties.setProperty(PROP_VERSION, VERSION);
+		merged.forEach((key, loudness) -> properties.setProperty(
+			key,
+			loudness.integratedLUFS() + "," + loudness.samplePeak()));
+		
+		Files.createDirectories(this.file.toAbsolutePath().getParent());
+		final Path tempFile = Files.createTempFile(this.file.toAbsolutePath().getParent(), "loudness", ".tmp");
+		try
+		{
+			try(final Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+			{
+				properties.store(writer, "Loudness of analyzed music (integrated LUFS,sample peak)");
+			}
+			Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(final IOException ioe)
+		{
+			this.modified = true;
+			throw ioe;
+		}
+		finally
+		{
+			Files.deleteIfExists(tempFile);
+		}
+	}
+	
+	private Map<String, Loudness> readFile() throws IOException
+	{
+		final Properties properties = new Properties();
+		try(final Reader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+		{
+			properties.load(reader);
+		}
+		catch(final NoSuchFileException ex)
+		{
+			return new ConcurrentHashMap<>();
+		}
+		
+		final Map<String, Loudness> result = new ConcurrentHashMap<>();
+		if(!VERSION.equals(properties.getProperty(PROP_VERSION)))
+		{
+			return result;
+		}
+		
+		properties.stringPropertyNames()
+			.stream()
+			.filter(key -> !PROP_VERSION.equals(key))
+			.forEach(key -> parse(properties.getProperty(key)).ifPresent(loudness -> result.put(key, loudness)));
+		return result;
+	}
+	
+	private static Optional<Loudness> parse(final String value)
+	{
+		final String[] parts = value.split(",");
+		if(parts.length != 2)
+		{
+			return Optional.empty();
+		}
+		try
+		{
+			return Optional.of(new Loudness(Double.parseDouble(parts[0]), Double.parseDouble(parts[1])));
+		}
+		catch(final NumberFormatException ex)
+		{
+			return Optional.empty();
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.loudness;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+
+/**
+ * Measures the integrated loudness of signed 16-bit little endian PCM according to
+ * <a href="https://tech.ebu.ch/docs/tech/tech3341.pdf">EBU R128</a> / ITU-R BS.1770.
+ * <p>
+ * The audio is K-weighted and split into 400 ms blocks with 75% overlap. Blocks below -70 LUFS (absolute gate) and
+ * more than 10 LU below the average (relative gate) are ignored.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class LoudnessMeter
+{
+	private static final double ABSOLUTE_GATE_LUFS = -70;
+	private static final double RELATIVE_GATE_LU = -10;
+	private static final int SUB_BLOCKS_PER_BLOCK = 4;
+	
+	private final int channels;
+	private final double[] channelWeights;
+	private final Biquad[] shelf;
+	private final Biquad[] highPass;
+	private final int framesPerSubBlock;
+	
+	/**
+	 * Weighted mean square of each 100 ms sub-block
+	 */
+	private double[] subBlocks = new double[1024];
+	private int subBlockCount;
+	
+	private double currentSum;
+	private int currentFrames;
+	private int currentChannel;
+	private int samplePeak;
+	
+	public LoudnessMeter(final AudioFormat format)
+	{
+		this.channels = format.getChannels();
+		this.channelWeights = new double[this.channels];
+		this.shelf = new Biquad[this.channels];
+		this.highPass = new Biquad[this.channels];
+		for(int c = 0; c < this.channels; c++)
+		{
+			this.channelWeights[c] = channelWeight(c, this.channels);
+			this.shelf[c] = Biquad.highShelf(format.getSampleRate());
+			this.highPass[c] = Biquad.highPass(format.getSampleRate());
+		}
+		this.framesPerSubBlock = Math.max(1, Math.round(format.getSampleRate() / 10));
+	}
+	
+	/**
+	 * @return the weight of the channel (assuming the usual L, R, C, LFE, Ls, Rs order)
+	 */
+	protected static double channelWeight(final int channel, final int channels)
+	{
+		if(channels < 6)
+		{
+			return 1.0;
+		}
+		if(channel == 3)
+		{
+			// LFE
+			return 0.0;
+		}
+		return channel < 3 ? 1.0 : 1.41;
+	}
+	
+	/**
+	 * Processes the next chunk of audio. Chunks don't need to be aligned to frames.
+	 */
+	public void process(final byte[] buffer, final int off, final int len)
+	{
+		// An odd length would split a sample - callers always read in whole samples
+		final int end = off + (len & ~1);
+		for(int i = off; i < end; i += 2)
+		{
+			final int sample = (short)((buffer[i] & 0xFF) | buffer[i + 1] << 8);
+			this.samplePeak = Math.max(this.samplePeak, Math.abs(sample));
+			
+			final int c = this.currentChannel;
+			final double filtered = this.highPass[c].process(this.shelf[c].process(sample / 32_768.0));
+			this.currentSum += this.channelWeights[c] * filtered * filtered;
+			
+			if(++this.currentChannel == this.channels)
+			{
+				this.currentChannel = 0;
+				if(++this.currentFrames == this.framesPerSubBlock)
+				{
+					this.completeSubBlock();
+				}
+			}
+		}
+	}
+	
+	private void completeSubBlock()
+	{
+		if(this.subBlockCount == this.subBlocks.length)
+		{
+			this.subBlocks = Arrays.copyOf(this.subBlocks, this.subBlocks.length * 2);
+		}
+		this.subBlocks[this.subBlockCount++] = this.currentSum / this.currentFrames;
+		this.currentSum = 0;
+		this.currentFrames = 0;
+	}
+	
+	public Loudness getResult()
+	{
+		final int blocks = this.subBlockCount - SUB_BLOCKS_PER_BLOCK + 1;
+		final double[] blockPowers = new double[Math.max(0, blocks)];
+		for(int b = 0; b < blockPowers.length; b++)
+		{
+			double sum = 0;
+			for(int s = b; s < b + SUB_BLOCKS_PER_BLOCK; s++)
+			{
+				sum += this.subBlocks[s];
+			}
+			blockPowers[b] = sum / SUB_BLOCKS_PER_BLOCK;
+		}
+		
+		final double absoluteGated = gatedMean(blockPowers, ABSOLUTE_GATE_LUFS);
+		final double relativeGate = toLUFS(absoluteGated) + RELATIVE_GATE_LU;
+		final double integrated = toLUFS(gatedMean(blockPowers, Math.max(ABSOLUTE_GATE_LUFS, relativeGate)));
+		
+		return new Loudness(integrated, this.samplePeak / 32_768.0);
+	}
+	
+	/**
+	 * @return the mean power of all blocks above the gate; <code>0</code> if there are none
+	 */
+	private static double gatedMean(final double[] blockPowers, final double gateLUFS)
+	{
+		double sum = 0;
+		int count = 0;
+		for(final double power : blockPowers)
+		{
+			if(toLUFS(power) > gateLUFS)
+			{
+				sum += power;
+				count++;
+			}
+		}
+		return count > 0 ? sum / count : 0;
+	}
+	
+	private static double toLUFS(final double power)
+	{
+		return power > 0 ? -0.691 + 10 * Math.log10(power) : Double.NEGATIVE_INFINITY;
+	}
+	
+	
+	/**
+	 * Second order IIR filter (direct form I) of the K-weighting.
+	 * <p>
+	 * The coefficients are derived for any sample rate as described in
+	 * <a href="https://github.com/jiixyj/libebur128">libebur128</a>.
+	 * </p>
+	 */
+	static final class Biquad
+	{
+		private final double b0;
+		private final double b1;
+		private final double b2;
+		private final double a1;
+		private final double a2;
+		
+		private double x1;
+		private double x2;
+		private double y1;
+		private double y2;
+		
+		private Biquad(final double b0, final double b1, final double b2, final double a1, final double a2)
+		{
+			this.b0 = b0;
+			this.b1 = b1;
+			this.b2 = b2;
+			this.a1 = a1;
+			this.a2 = a2;
+		}
+		
+		/**
+		 * Models the acoustic effect of the head
+		 */
+		static Biquad highShelf(final double sampleRate)
+		{
+			final double f0 = 1681.974450955533;
+			final double gain = 3.999843853973347;
+			final double q = 0.7071752369554196;
+			
+			final double k = Math.tan(Math.PI * f0 / sampleRate);
+			final double vh = Math.pow(10.0, gain / 20.0);
+			final double vb = Math.pow(vh, 0.4996667741545416);
+			final double a0 = 1.0 + k / q + k * k;
+			return new Biquad(
+				(vh + vb * k / q + k * k) / a0,
+				2.0 * (k * k - vh) / a0,
+				(vh - vb * k / q + k * k) / a0,
+				2.0 * (k * k - 1.0) / a0,
+				(1.0 - k / q + k * k) / a0);
+		}
+		
+		/**
+		 * Revised low-frequency B-curve
+		 */
+		static Biquad highPass(final double sampleRate)
+		{
+			final double f0 = 38.13547087602444;
+			final double q = 0.5003270373238773;
+			
+			final double k = Math.tan(Math.PI * f0 / sampleRate);
+			final double a0 = 1.0 + k / q + k * k;
+			return new Biquad(
+				1.0,
+				-2.0,
+				1.0,
+				2.0 * (k * k - 1.0) / a0,
+				(1.0 - k / q + k * k) / a0);
+		}
+		
+		double process(final double x)
+		{
+			final double y = this.b0 * x + this.b1 * this.x1 + this.b2 * this.x2
+				- this.a1 * this.y1 - this.a2 * this.y2;
+			this.x2 = this.x1;
+			this.x1 = x;
+			this.y2 = this.y1;
+			this.y1 = y;
+			return y;
+		}
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.loudness;
+
+import static javax.sound.sampled.AudioSystem.getAudioInputStream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.MusicExecutors;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.io.ByteBufferInputStream;
+import software.xdev.maven.music.player.FormatSniffer;
+import software.xdev.maven.music.player.PreparedTrack;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.URIMusicSource;
+
+
+/**
+ * Normalizes the loudness of all sources to a common target (similar to ReplayGain).
+ * <p>
+ * The sources are analyzed in parallel on the {@link MusicExecutors#background() background threads} and the
+ * results are stored in a {@link LoudnessIndex} by their {@link PreparedTrack#contentKey content key}. Already
+ * decoded audio (from the {@link PcmCache}) is analyzed without decoding; remote sources that are not cached are
+ * analyzed while they are played, so that they are only downloaded once.
+ * </p>
+ * <p>
+ * Only running analyses are kept in memory, the results are stored in the index.
+ * </p>
+ * <p>
+ * Playback never waits for an analysis: Tracks that weren't analyzed yet are played without normalization and the
+ * gain is applied from the next time on.
+ * </p>
+ */
+public class LoudnessNormalization
+{
+	private final LoudnessIndex index;
+	private final float targetLUFS;
+	/**
+	 * Analyses that are currently running
+	 */
+	private final Map<MP3OggMusicSource, CompletableFuture<Loudness>> analyses = new IdentityHashMap<>();
+	
+	public LoudnessNormalization(final LoudnessIndex index, final float targetLUFS)
+	{
+		this.index = index;
+		this.targetLUFS = targetLUFS;
+	}
+	
+	public LoudnessIndex getIndex()
+	{
+		return this.index;
+	}
+	
+	public float getTargetLUFS()
+	{
+		return this.targetLUFS;
+	}
+	
+	/**
+	 * Loads the index and starts the analysis of all (supported) sources in the background - in the given order.
+	 * <p>
+	 * Other sources (e.g. of libraries) are {@link #measureWhileReading measured while they are played}.
+	 * </p>
+	 */
+	public CompletableFuture<Void> analyze(
+		final List<? extends MusicSource> sources,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		try
+		{
+			this.index.load();
+		}
+		catch(final IOException ioe)
+		{
+			log.warn("Failed to read loudness index " + this.index.getFile(), ioe);
+		}
+		
+		return CompletableFuture.allOf(sources.stream()
+			.filter(MP3OggMusicSource.class::isInstance)
+			.map(source -> this.analysisOf((MP3OggMusicSource)source, settings, log))
+			.toArray(CompletableFuture[]::new));
+	}
+	
+	/**
+	 * Doesn't wait for a running analysis and doesn't start one, as a played source is
+	 * {@link #measureWhileReading measured while it's decoded}.
+	 *
+	 * @param key the {@link PreparedTrack#contentKey content key} of the source; may be <code>null</code>
+	 * @return the gain (in dB) that needs to be applied to the source to reach the target loudness; <code>0</code> if
+	 * the source wasn't analyzed yet
+	 */
+	public float gainDB(
+		final MP3OggMusicSource source,
+		final String key,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		final Optional<Loudness> indexed = key != null ? this.index.get(key) : Optional.empty();
+		return indexed
+			.map(loudness -> loudness.gainDB(this.targetLUFS))
+			.orElse(0f);
+	}
+	
+	/**
+	 * Measures the loudness of the decoded audio while it's read (unless it's already known).
+	 * <p>
+	 * The result is only stored when the stream was read completely.
+	 * </p>
+	 */
+	public InputStream measureWhileReading(
+		final String key,
+		final AudioFormat pcmFormat,
+		final InputStream pcm,
+		final MusicSource source,
+		final Log log)
+	{
+		if(this.index.get(key).isPresent())
+		{
+			return pcm;
+		}
+		
+		final LoudnessMeter meter = new LoudnessMeter(pcmFormat);
+		return new FilterInputStream(pcm)
+		{
+			private boolean done;
+			
+			@Override
+			public int read() throws IOException
+			{
+				final byte[] b = new byte[1];
+				return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+			}
+			
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException
+			{
+				final int n = super.read(b, off, len);
+				if(n > 0)
+				{
+					meter.process(b, off, n);
+				}
+				else if(n == -1 && !this.done)
+				{
+					this.done = true;
+					LoudnessNormalization.this.store(key, meter.getResult(), source, log);
+				}
+				return n;
+			}
+			
+			@Override
+			public long skip(final long n) throws IOException
+			{
+				// All data must be measured
+				final byte[] b = new byte[(int)Math.min(n, 8192)];
+				return Math.max(this.read(b, 0, b.length), 0);
+			}
+			
+			@Override
+			public boolean markSupported()
+			{
+				return false;
+			}
+		};
+	}
+	
+	protected CompletableFuture<Optional<Loudness>> analysisOf(
+		final MP3OggMusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		synchronized(this.analyses)
+		{
+			final CompletableFuture<Loudness> running = this.analyses.get(source);
+			if(running != null)
+			{
+				return running.thenApply(Optional::ofNullable);
+			}
+			
+			final CompletableFuture<Loudness> analysis = CompletableFuture.supplyAsync(
+				() -> this.analyze(source, settings, log),
+				MusicExecutors.background());
+			this.analyses.put(source, analysis);
+			// Removed before the result is passed on
+			return analysis.whenComplete((loudness, ex) -> {
+					synchronized(this.analyses)
+					{
+						this.analyses.remove(source, analysis);
+					}
+				})
+				.thenApply(Optional::ofNullable);
+		}
+	}
+	
+	/**
+	 * @return the number of analyses that are currently running
+	 */
+	protected int runningAnalyses()
+	{
+		synchronized(this.analyses)
+		{
+			return this.analyses.size();
+		}
+	}
+	
+	/**
+	 * @return the loudness or <code>null</code> if the source can't be analyzed (now)
+	 */
+	protected Loudness analyze(final MP3OggMusicSource source, final PlaybackSettings settings, final Log log)
+	{
+		try
+		{
+			final String key = PreparedTrack.contentKey(source, settings, log);
+			if(key == null)
+			{
+				return null;
+			}
+			final Optional<Loudness> indexed = this.index.get(key);
+			if(indexed.isPresent())
+			{
+				return indexed.get();
+			}
+			
+			final Optional<PcmCache.Entry> decoded = settings.getPcmCache() != null
+				? settings.getPcmCache().get(key)
+				: Optional.empty();
+			if(decoded.isEmpty() && source instanceof URIMusicSource && settings.getDownloadCache() == null)
+			{
+				// Analyzed while playing instead of downloading it twice
+				return null;
+			}
+			
+			final long startNanos = System.nanoTime();
+			final Loudness loudness = decoded.isPresent()
+				? measurePcm(decoded.get())
+				: measure(source, settings);
+			log.debug(String.format(
+				"Analyzed loudness of %s in %d ms",
+				source,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+			this.store(key, loudness, source, log);
+			return loudness;
+		}
+		catch(final IOException | UnsupportedAudioFileException | RuntimeException ex)
+		{
+			log.warn("Failed to analyze loudness of " + source, ex);
+			return null;
+		}
+	}
+	
+	protected void store(final String key, final Loudness loudness, final MusicSource source, final Log log)
+	{
+		this.index.put(key, loudness);
+		this.saveIndex(log);
+		log.debug(String.format(
+			"Loudness of %s: %.1f LUFS, peak %.3f",
+			source,
+			loudness.integratedLUFS(),
+			loudness.samplePeak()));
+	}
+	
+	protected void saveIndex(final Log log)
+	{
+		try
+		{
+			this.index.save();
+		}
+		catch(final IOException ioe)
+		{
+			log.warn("Failed to write loudness index " + this.index.getFile(), ioe);
+		}
+	}
+	
+	protected static Loudness measure(final MP3OggMusicSource source, final PlaybackSettings settings)
+		throws IOException, UnsupportedAudioFileException
+	{
+		try(final InputStream is = source.openInputStream(settings);
+			final AudioInputStream in = FormatSniffer.getAudioInputStream(is, source))
+		{
+			final AudioFormat pcmFormat =
+				PcmCache.pcmFormat(in.getFormat().getSampleRate(), in.getFormat().getChannels());
+			try(final AudioInputStream pcm = getAudioInputStream(pcmFormat, in))
+			{
+				return measure(pcmFormat, pcm);
+			}
+		}
+	}
+	
+	protected static Loudness measurePcm(final PcmCache.Entry decoded) throws IOException
+	{
+		try(final InputStream pcm = new ByteBufferInputStream(decoded.data()))
+		{
+			return measure(decoded.format(), pcm);
+		}
+	}
+	
+	protected static Loudness measure(final AudioFormat pcmFormat, final InputStream pcm) throws IOException
+	{
+		final LoudnessMeter meter = new LoudnessMeter(pcmFormat);
+		final byte[] buffer = new byte[8192];
+		int n;
+		while((n = pcm.read(buffer, 0, buffer.length)) != -1)
+		{
+			meter.process(buffer, 0, n);
+		}
+		return meter.getResult();
+	}
+}
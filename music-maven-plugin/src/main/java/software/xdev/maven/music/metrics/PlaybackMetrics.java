@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.ToLongFunction;
+
+import org.apache.maven.plugin.logging.Log;
+
+
+/**
+ * Collects performance data of a playback session (= one execution of the music goal).
+ * <p>
+ * The data can be written as a machine-readable JSON report, so that the overhead of the plugin can be tracked
+ * across builds.
+ * </p>
+ */
+public class PlaybackMetrics
+{
+	private final Instant sessionStart = Instant.now();
+	private final long sessionStartNanos = System.nanoTime();
+	private final List<TrackMetrics> tracks = new CopyOnWriteArrayList<>();
+	
+	private volatile TrackMetrics currentTrack;
+	private volatile long stopLatencyNanos = -1;
+	private volatile long warmUpNanos = -1;
+	
+	private volatile Path reportFile;
+	
+	public Path getReportFile()
+	{
+		return this.reportFile;
+	}
+	
+	/**
+	 * @param reportFile where the report is written to; <code>null</code> disables the report
+	 */
+	public void setReportFile(final Path reportFile)
+	{
+		this.reportFile = reportFile;
+	}
+	
+	public TrackMetrics startTrack(final String source)
+	{
+		final TrackMetrics track = new TrackMetrics(source);
+		this.tracks.add(track);
+		this.currentTrack = track;
+		return track;
+	}
+	
+	/**
+	 * @return the metrics of the currently played track; if no track was started (e.g. when a player is used
+	 * directly) detached metrics are returned
+	 */
+	public TrackMetrics getCurrentTrack()
+	{
+		final TrackMetrics track = this.currentTrack;
+		return track != null ? track : new TrackMetrics(null);
+	}
+	
+	public List<TrackMetrics> getTracks()
+	{
+		return List.copyOf(this.tracks);
+	}
+	
+	/**
+	 * @return the time from starting the session until the first audio data was written to the line or
+	 * <code>-1</code> if nothing was played yet
+	 */
+	public long getTimeToFirstSoundNanos()
+	{
+		return this.tracks.stream()
+			.mapToLong(TrackMetrics::getFirstSoundNanos)
+			.filter(nanos -> nanos != 0)
+			.map(nanos -> nanos - this.sessionStartNanos)
+			.findFirst()
+			.orElse(-1);
+	}
+	
+	/**
+	 * Records how long it took from requesting the stop until playback was stopped.
+	 */
+	public void recordStopLatency(final long nanos)
+	{
+		this.stopLatencyNanos = nanos;
+	}
+	
+	public long getStopLatencyNanos()
+	{
+		return this.stopLatencyNanos;
+	}
+	
+	/**
+	 * Records how long the warm-up (discovery of players, sound providers and mixers) took.
+	 */
+	public void recordWarmUp(final long nanos)
+	{
+		this.warmUpNanos = nanos;
+	}
+	
+	public long getWarmUpNanos()
+	{
+		return this.warmUpNanos;
+	}
+	
+	/**
+	 * Writes the report (if enabled). Failures are only logged as the report is not essential.
+	 */
+	public synchronized void writeReport(final Log log)
+	{
+		if(this.reportFile == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			Files.createDirectories(this.reportFile.toAbsolutePath().getParent());
+			final Path tempFile = this.reportFile.resolveSibling(this.reportFile.getFileName() + ".tmp");
+			Files.writeString(tempFile, this.toJson(), StandardCharsets.UTF_8);
+			Files.move(tempFile, this.reportFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(final IOException ioe)
+		{
+			log.warn("Failed to write playback report " + this.reportFile, ioe);
+		}
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public String toJson()
+	{
+		final List<TrackMetrics> snapshot = this.getTracks();
+		
+		final StringBuilder sb = new StringBuilder(512 + snapshot.size() * 384);
+		sb.append("{\n");
+		appendField(sb, 1, "sessionStart", quote(this.sessionStart.toString()), true);
+		appendField(sb, 1, "timeToFirstSoundNanos", this.getTimeToFirstSoundNanos(), true);
+		appendField(sb, 1, "stopLatencyNanos", this.stopLatencyNanos, true);
+		appendField(sb, 1, "warmUpNanos", this.warmUpNanos, true);
+		
+		sb.append("\t\"totals\": {\n");
+		appendField(sb, 2, "tracks", snapshot.size(), true);
+		appendField(sb, 2, "decodeTimeNanos", sum(snapshot, TrackMetrics::getDecodeTimeNanos), true);
+		appendField(sb, 2, "decoderCpuTimeNanos", sum(snapshot, TrackMetrics::getDecoderCpuTimeNanos), true);
+		appendField(sb, 2, "playerCpuTimeNanos", sum(snapshot, TrackMetrics::getPlayerCpuTimeNanos), true);
+		appendField(sb, 2, "bytesDecoded", sum(snapshot, TrackMetrics::getBytesDecoded), true);
+		appendField(sb, 2, "lineWriteBlockedNanos", sum(snapshot, TrackMetrics::getLineWriteBlockedNanos), true);
+		appendField(sb, 2, "underruns", sum(snapshot, TrackMetrics::getUnderruns), true);
+		appendField(sb, 2, "lineUnderruns", sum(snapshot, TrackMetrics::getLineUnderruns), false);
+		sb.append("\t},\n");
+		
+		sb.append("\t\"tracks\": [");
+		for(int i = 0; i < snapshot.size(); i++)
+		{
+			final TrackMetrics track = snapshot.get(i);
+			sb.append(i == 0 ? "\n" : ",\n").append("\t\t{\n");
+			appendField(sb, 3, "source", quote(track.getSource()), true);
+			appendField(sb, 3, "timeToFirstSoundNanos", track.getTimeToFirstSoundNanos(), true);
+			appendField(sb, 3, "durationNanos", track.getDurationNanos(), true);
+			appendField(sb, 3, "stopped", track.isStopped(), true);
+			appendField(sb, 3, "decodeTimeNanos", track.getDecodeTimeNanos(), true);
+			appendField(sb, 3, "decoderCpuTimeNanos", track.getDecoderCpuTimeNanos(), true);
+			appendField(sb, 3, "playerCpuTimeNanos", track.getPlayerCpuTimeNanos(), true);
+			appendField(sb, 3, "bytesDecoded", track.getBytesDecoded(), true);
+			appendField(sb, 3, "lineWriteBlockedNanos", track.getLineWriteBlockedNanos(), true);
+			appendField(sb, 3, "underruns", track.getUnderruns(), true);
+			appendField(sb, 3, "lineUnderruns", track.getLineUnderruns(), false);
+			sb.append("\t\t}");
+		}
+		sb.append(snapshot.isEmpty() ? "]\n" : "\n\t]\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+	
+	private static long sum(final List<TrackMetrics> tracks, final ToLongFunction<TrackMetrics> getter)
+	{
+		return tracks.stream().mapToLong(getter).sum();
+	}
+	
+	private static void appendField(
+		final StringBuilder sb,
+		final int indent,
+		final String name,
+		final Object value,
+		final boolean hasNext)
+	{
+		sb.append("\t".repeat(indent))
+			.append('"').append(name).append("\": ")
+			.append(value)
+			.append(hasNext ? ",\n" : "\n");
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private static String quote(final String value)
+	{
+		if(value == null)
+		{
+			return "null";
+		}
+		
+		final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for(final char c : value.toCharArray())
+		{
+			switch(c)
+			{
+				case '"' -> sb.append("\\\"");
+				case '\\' -> sb.append("\\\\");
+				case '\n' -> sb.append("\\n");
+				case '\r' -> sb.append("\\r");
+				case '\t' -> sb.append("\\t");
+				default ->
+				{
+					if(c < 0x20)
+					{
+						sb.append(String.format("\\u%04x", (int)c));
+					}
+					else
+					{
+						sb.append(c);
+					}
+				}
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
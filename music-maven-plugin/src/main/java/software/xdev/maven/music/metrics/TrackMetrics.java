@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.metrics;
+
+/**
+ * Performance data of a single played track.
+ * <p>
+ * Values are published by the player once the corresponding stage finished, so that the hot paths don't need any
+ * synchronization.
+ * </p>
+ */
+public class TrackMetrics
+{
+	private final String source;
+	private final long startNanos;
+	
+	private volatile long firstSoundNanos;
+	private volatile long endNanos;
+	private volatile boolean stopped;
+	
+	private volatile long decodeTimeNanos;
+	private volatile long decoderCpuTimeNanos;
+	private volatile long playerCpuTimeNanos;
+	private volatile long bytesDecoded;
+	private volatile long lineWriteBlockedNanos;
+	private volatile long underruns;
+	private volatile long lineUnderruns;
+	private volatile long positionMillis;
+	
+	public TrackMetrics(final String source)
+	{
+		this(source, System.nanoTime());
+	}
+	
+	public TrackMetrics(final String source, final long startNanos)
+	{
+		this.source = source;
+		this.startNanos = startNanos;
+	}
+	
+	public String getSource()
+	{
+		return this.source;
+	}
+	
+	public long getStartNanos()
+	{
+		return this.startNanos;
+	}
+	
+	/**
+	 * Records the time when audio data was written to the line for the first time.
+	 */
+	public void recordFirstSound(final long nanos)
+	{
+		if(this.firstSoundNanos == 0)
+		{
+			this.firstSoundNanos = nanos;
+		}
+	}
+	
+	/**
+	 * @return the time when the first audio data was written to the line or <code>0</code> if nothing was played
+	 */
+	public long getFirstSoundNanos()
+	{
+		return this.firstSoundNanos;
+	}
+	
+	/**
+	 * @return the time from starting the track until the first audio data was written to the line or
+	 * <code>-1</code> if nothing was played
+	 */
+	public long getTimeToFirstSoundNanos()
+	{
+		return this.firstSoundNanos != 0 ? this.firstSoundNanos - this.startNanos : -1;
+	}
+	
+	public void recordEnd(final boolean stopped)
+	{
+		this.stopped = stopped;
+		this.endNanos = System.nanoTime();
+	}
+	
+	/**
+	 * @return how long the track was played or <code>-1</code> if it's still playing
+	 */
+	public long getDurationNanos()
+	{
+		return this.endNanos != 0 ? this.endNanos - this.startNanos : -1;
+	}
+	
+	public boolean isStopped()
+	{
+		return this.stopped;
+	}
+	
+	public long getDecodeTimeNanos()
+	{
+		return this.decodeTimeNanos;
+	}
+	
+	public void setDecodeTimeNanos(final long decodeTimeNanos)
+	{
+		this.decodeTimeNanos = decodeTimeNanos;
+	}
+	
+	public long getDecoderCpuTimeNanos()
+	{
+		return this.decoderCpuTimeNanos;
+	}
+	
+	public void setDecoderCpuTimeNanos(final long decoderCpuTimeNanos)
+	{
+		this.decoderCpuTimeNanos = decoderCpuTimeNanos;
+	}
+	
+	public long getPlayerCpuTimeNanos()
+	{
+		return this.playerCpuTimeNanos;
+	}
+	
+	public void setPlayerCpuTimeNanos(final long playerCpuTimeNanos)
+	{
+		this.playerCpuTimeNanos = playerCpuTimeNanos;
+	}
+	
+	public long getBytesDecoded()
+	{
+		return this.bytesDecoded;
+	}
+	
+	public void setBytesDecoded(final long bytesDecoded)
+	{
+		this.bytesDecoded = bytesDecoded;
+	}
+	
+	public long getLineWriteBlockedNanos()
+	{
+		return this.lineWriteBlockedNanos;
+	}
+	
+	public void setLineWriteBlockedNanos(final long lineWriteBlockedNanos)
+	{
+		this.lineWriteBlockedNanos = lineWriteBlockedNanos;
+	}
+	
+	public long getUnderruns()
+	{
+		return this.underruns;
+	}
+	
+	public void setUnderruns(final long underruns)
+	{
+		this.underruns = underruns;
+	}
+	
+	/**
+	 * @return how often the audio line ran empty while playing
+	 */
+	public long getLineUnderruns()
+	{
+		return this.lineUnderruns;
+	}
+	
+	public void setLineUnderruns(final long lineUnderruns)
+	{
+		this.lineUnderruns = lineUnderruns;
+	}
+	
+	/**
+	 * @return the position inside the track up to which the audio was played
+	 */
+	public long getPositionMillis()
+	{
+		return this.positionMillis;
+	}
+	
+	public void setPositionMillis(final long positionMillis)
+	{
+		this.positionMillis = positionMillis;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+import org.apache.maven.plugin.logging.Log;
+
+
+/**
+ * Checks quickly if the machine can play audio at all, e.g. to do nothing on headless build agents.
+ * <p>
+ * Only the mixers are enumerated (without opening any line) - no players, sources or decoders are loaded. The
+ * result is remembered for the JVM and for the machine (inside the cache directory), so that further builds don't
+ * even need to load the sound providers.
+ * </p>
+ */
+public final class AudioOutputProbe
+{
+	/**
+	 * How long the result is remembered inside the JVM (e.g. for long-living JVMs like the Maven daemon)
+	 */
+	private static final long JVM_CACHE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+	
+	private static final String PROP_AVAILABLE = ".available";
+	private static final String PROP_CHECKED = ".checked";
+	
+	private static final Line.Info SOURCE_DATA_LINE = new Line.Info(SourceDataLine.class);
+	
+	private static volatile Result lastResult;
+	
+	/**
+	 * @param file         where the result is persisted (per machine); <code>null</code> = not persisted
+	 * @param maxAgeMillis how long a persisted result is used
+	 * @return <code>true</code> if any mixer provides a {@link SourceDataLine}
+	 */
+	public static boolean isAvailable(final Path file, final long maxAgeMillis, final Log log)
+	{
+		final long now = System.currentTimeMillis();
+		final Result cached = lastResult;
+		if(cached != null && now - cached.checkedMillis() < Math.max(JVM_CACHE_MILLIS, maxAgeMillis))
+		{
+			return cached.available();
+		}
+		
+		final Result result = check(file, maxAgeMillis, AudioOutputProbe::probe, log);
+		lastResult = result;
+		return result.available();
+	}
+	
+	/**
+	 * Uses the persisted result or probes (and persists the result).
+	 */
+	static Result check(final Path file, final long maxAgeMillis, final BooleanSupplier probe, final Log log)
+	{
+		final long now = System.currentTimeMillis();
+		final boolean persist = file != null && maxAgeMillis > 0;
+		final String machine = persist ? machineName() : null;
+		if(persist)
+		{
+			final Result persisted = readResult(file, machine, log);
+			if(persisted != null && now - persisted.checkedMillis() < maxAgeMillis)
+			{
+				return persisted;
+			}
+		}
+		
+		final long startNanos = System.nanoTime();
+		final Result result = new Result(probe.getAsBoolean(), now);
+		log.debug(String.format(
+			"Checked audio output in %d ms: %s",
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+			result.available() ? "available" : "not available"));
+		if(persist)
+		{
+			writeResult(file, machine, result, log);
+		}
+		return result;
+	}
+	
+	static boolean probe()
+	{
+		try
+		{
+			return Arrays.stream(AudioSystem.getMixerInfo())
+				.map(AudioSystem::getMixer)
+				.anyMatch(AudioOutputProbe::providesSourceLine);
+		}
+		catch(final RuntimeException ex)
+		{
+			// e.g. broken sound providers -> nothing can be played anyway
+			return false;
+		}
+	}
+	
+	/**
+	 * Only looks at the lines the mixer describes - nothing is opened.
+	 */
+	static boolean providesSourceLine(final Mixer mixer)
+	{
+		return mixer.getSourceLineInfo(SOURCE_DATA_LINE).length > 0;
+	}
+	
+	private static String machineName()
+	{
+		// Resolving the local host can be slow, so the environment is checked first
+		for(final String variable : new String[]{"COMPUTERNAME", "HOSTNAME"})
+		{
+			final String name = System.getenv(variable);
+			if(name != null && !name.isBlank())
+			{
+				return name;
+			}
+		}
+		try
+		{
+			return InetAddress.getLocalHost().getHostName();
+		}
+		catch(final UnknownHostException ex)
+		{
+			return "localhost";
+		}
+	}
+	
+	private static Result readResult(final Path file, final String machine, final Log log)
+	{
+		final Properties properties = new Properties();
+		try(final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+		{
+			properties.load(reader);
+		}
+		catch(final NoSuchFileException ex)
+		{
+			return null;
+		}
+		catch(final IOException | IllegalArgumentException ex)
+		{
+			log.debug("Failed to read audio output check " + file + ": " + ex);
+			return null;
+		}
+		
+		final String available = properties.getProperty(machine + PROP_AVAILABLE);
+		final String checked = properties.getProperty(machine + PROP_CHECKED);
+		if(available == null || checked == null)
+		{
+			return null;
+		}
+		try
+		{
+			return new Result(Boolean.parseBoolean(available), Long.parseLong(checked));
+		}
+		catch(final NumberFormatException ex)
+		{
+			return null;
+		}
+	}
+	
+	private static void writeResult(final Path file, final String machine, final Result result, final Log log)
+	{
+		try
+		{
+			// Keep the results of other machines (e.g. a shared home directory)
+			final Properties properties = new Properties();
+			try(final Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+			{
+				properties.load(reader);
+			}
+			catch(final NoSuchFileException ignored)
+			{
+				// First check on any machine
+			}
+			properties.setProperty(machine + PROP_AVAILABLE, String.valueOf(result.available()));
+			properties.setProperty(machine + PROP_CHECKED, String.valueOf(result.checkedMillis()));
+			
+			Files.createDirectories(file.getParent());
+			final Path tempFile = Files.createTempFile(file.getParent(), "audio-output", ".tmp");
+			try(final Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+			{
+				properties.store(writer, null);
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(final IOException | IllegalArgumentException ex)
+		{
+			log.debug("Failed to write audio output check " + file + ": " + ex);
+		}
+	}
+	
+	/**
+	 * @param available     if audio can be played
+	 * @param checkedMillis when the check was done
+	 */
+	record Result(boolean available, long checkedMillis)
+	{
+	}
+	
+	private AudioOutputProbe()
+	{
+	}
+}
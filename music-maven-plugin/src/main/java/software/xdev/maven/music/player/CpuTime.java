@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+
+/**
+ * Measures the CPU time used by threads of the player.
+ */
+public final class CpuTime
+{
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * @return the CPU time of the current thread in nanoseconds or <code>0</code> if not supported by the JVM
+	 */
+	public static long currentThread()
+	{
+		if(!THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported())
+		{
+			return 0;
+		}
+		return Math.max(THREAD_MX_BEAN.getCurrentThreadCpuTime(), 0);
+	}
+	
+	private CpuTime()
+	{
+	}
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.spi.AudioFileReader;
+
+import javazoom.spi.mpeg.sampled.file.MpegAudioFileReader;
+import javazoom.spi.vorbis.sampled.file.VorbisAudioFileReader;
+
+import software.xdev.maven.music.sources.MusicSource;
+
+
+/**
+ * Picks the {@link AudioFileReader} for a stream by looking at its first bytes (and the file extension).
+ * <p>
+ * {@link AudioSystem#getAudioInputStream(InputStream)} tries every installed reader one after another, each of them
+ * reading (and buffering) the beginning of the stream again. Known formats are instead passed directly to the
+ * matching reader. {@link AudioSystem} is only used when the format can't be determined or the chosen reader
+ * doesn't support the stream.<br/>
+ * The detected format is remembered for the location (path/URI) of each source, so that repeated plays don't need
+ * to detect it again - even when a new source object is created for every play.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public final class FormatSniffer
+{
+	/**
+	 * Enough to recognize all supported formats
+	 */
+	static final int HEADER_SIZE = 4;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private static final int MAX_REMEMBERED = 1024;
+	
+	/**
+	 * Keyed by the location of the source; the least recently used entries are removed
+	 */
+	private static final Map<String, Codec> DETECTED = new LinkedHashMap<>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Codec> eldest)
+		{
+			return this.size() > MAX_REMEMBERED;
+		}
+	};
+	
+	/**
+	 * @param source the source of the stream (used to remember the format); may be <code>null</code>
+	 * @see AudioSystem#getAudioInputStream(InputStream)
+	 */
+	public static AudioInputStream getAudioInputStream(final InputStream is, final MusicSource source)
+		throws IOException, UnsupportedAudioFileException
+	{
+		// The readers require mark/reset - use only one buffer for all of them
+		final InputStream in = is.markSupported() ? is : new BufferedInputStream(is, BUFFER_SIZE);
+		
+		Codec codec = detected(source);
+		if(codec == null)
+		{
+			in.mark(HEADER_SIZE);
+			final byte[] header = in.readNBytes(HEADER_SIZE);
+			in.reset();
+			codec = sniff(header, source != null ? source.toString() : null);
+		}
+		
+		if(codec == Codec.UNKNOWN)
+		{
+			final AudioInputStream ais = AudioSystem.getAudioInputStream(in);
+			remember(source, codec);
+			return ais;
+		}
+		try
+		{
+			final AudioInputStream ais = codec.newReader().getAudioInputStream(in);
+			remember(source, codec);
+			return ais;
+		}
+		catch(final UnsupportedAudioFileException ex)
+		{
+			// Wrong guess (e.g. by the extension) or the content changed; the reader reset the stream
+			forget(source);
+			final AudioInputStream ais = AudioSystem.getAudioInputStream(in);
+			remember(source, Codec.UNKNOWN);
+			return ais;
+		}
+		catch(final IOException | RuntimeException ex)
+		{
+			// The content might have changed
+			forget(source);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * @see AudioSystem#getAudioFileFormat(File)
+	 */
+	public static AudioFileFormat getAudioFileFormat(final File file) throws IOException, UnsupportedAudioFileException
+	{
+		final byte[] header;
+		try(final InputStream is = Files.newInputStream(file.toPath()))
+		{
+			header = is.readNBytes(HEADER_SIZE);
+		}
+		final Codec codec = sniff(header, file.getName());
+		if(codec != Codec.UNKNOWN)
+		{
+			try
+			{
+				return codec.newReader().getAudioFileFormat(file);
+			}
+			catch(final UnsupportedAudioFileException ignored)
+			{
+				// Wrong guess - try all readers
+			}
+		}
+		return AudioSystem.getAudioFileFormat(file);
+	}
+	
+	/**
+	 * Determines the codec by magic bytes. If the header is not recognized the name's extension is used.
+	 *
+	 * @param name e.g. the file name; may be <code>null</code>
+	 */
+	static Codec sniff(final byte[] header, final String name)
+	{
+		if(header.length >= 4 && header[0] == 'O' && header[1] == 'g' && header[2] == 'g' && header[3] == 'S')
+		{
+			return Codec.OGG;
+		}
+		// ID3v2 tag in front of MP3 frames
+		if(header.length >= 3 && header[0] == 'I' && header[1] == 'D' && header[2] == '3')
+		{
+			return Codec.MP3;
+		}
+		if(isMpegFrameHeader(header))
+		{
+			return Codec.MP3;
+		}
+		// Recognized by their own magic bytes (e.g. RIFF/WAVE) - let AudioSystem handle them
+		if(header.length >= 4 && isPrintable(header))
+		{
+			return Codec.UNKNOWN;
+		}
+		return byExtension(name);
+	}
+	
+	static boolean isMpegFrameHeader(final byte[] header)
+	{
+		if(header.length < 3 || (header[0] & 0xFF) != 0xFF || (header[1] & 0xE0) != 0xE0)
+		{
+			return false;
+		}
+		final int version = header[1] >> 3 & 0x03;
+		final int layer = header[1] >> 1 & 0x03;
+		final int bitrateIndex = header[2] >> 4 & 0x0F;
+		final int sampleRateIndex = header[2] >> 2 & 0x03;
+		return version != 1 && layer != 0 && bitrateIndex != 0x0F && sampleRateIndex != 3;
+	}
+	
+	private static boolean isPrintable(final byte[] header)
+	{
+		for(int i = 0; i < 4; i++)
+		{
+			if(header[i] < 0x20 || header[i] > 0x7E)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	static Codec byExtension(final String name)
+	{
+		if(name == null)
+		{
+			return Codec.UNKNOWN;
+		}
+		String path = name.toLowerCase(Locale.ROOT);
+		final int query = path.indexOf('?');
+		if(query >= 0)
+		{
+			path = path.substring(0, query);
+		}
+		if(path.endsWith(".mp3"))
+		{
+			return Codec.MP3;
+		}
+		if(path.endsWith(".ogg") || path.endsWith(".oga"))
+		{
+			return Codec.OGG;
+		}
+		return Codec.UNKNOWN;
+	}
+	
+	private static Codec detected(final MusicSource source)
+	{
+		if(source == null)
+		{
+			return null;
+		}
+		synchronized(DETECTED)
+		{
+			return DETECTED.get(source.toString());
+		}
+	}
+	
+	private static void remember(final MusicSource source, final Codec codec)
+	{
+		if(source != null)
+		{
+			synchronized(DETECTED)
+			{
+				DETECTED.put(source.toString(), codec);
+			}
+		}
+	}
+	
+	private static void forget(final MusicSource source)
+	{
+		if(source != null)
+		{
+			synchronized(DETECTED)
+			{
+				DETECTED.remove(source.toString());
+			}
+		}
+	}
+	
+	enum Codec
+	{
+		MP3(MpegAudioFileReader::new),
+		OGG(VorbisAudioFileReader::new),
+		/**
+		 * Delegates to {@link AudioSystem}
+		 */
+		UNKNOWN(null);
+		
+		/**
+		 * New instance for every stream as the readers are not guaranteed to be thread-safe
+		 */
+		private final Supplier<AudioFileReader> readerFactory;
+		
+		Codec(final Supplier<AudioFileReader> readerFactory)
+		{
+			this.readerFactory = readerFactory;
+		}
+		
+		AudioFileReader newReader()
+		{
+			return this.readerFactory.get();
+		}
+	}
+	
+	private FormatSniffer()
+	{
+	}
+}
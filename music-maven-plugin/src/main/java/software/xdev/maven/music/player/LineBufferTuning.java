@@ -0,0 +1,365 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+import org.apache.maven.plugin.logging.Log;
+
+
+/**
+ * Adapts the size of the line buffer (and the chunks that are written into it) to the machine.
+ * <p>
+ * Lines start with the default buffer of their mixer. The fill level of the line is observed while playing:
+ * Underruns (the line ran empty) increase the buffer for the next line, while a buffer that always stayed well
+ * filled is slowly decreased (at most one step per build) to reduce the latency.<br/>
+ * The chosen size is remembered per mixer, so that further builds start with it. The file is only written when a
+ * size changed.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class LineBufferTuning
+{
+	public static final int DEFAULT_MIN_MILLIS = 50;
+	public static final int DEFAULT_MAX_MILLIS = 2000;
+	
+	private static final double GROW_FACTOR = 1.5;
+	private static final double SHRINK_FACTOR = 0.9;
+	/**
+	 * The buffer is only decreased if its lowest fill level stayed above this fraction of the buffer...
+	 */
+	private static final double SHRINK_THRESHOLD = 0.5;
+	/**
+	 * ...for at least this long
+	 */
+	private static final long MIN_OBSERVED_MILLIS = 10_000;
+	
+	private final Path file;
+	private final int minMillis;
+	private final int maxMillis;
+	private final Map<String, Integer> bufferMillis = new ConcurrentHashMap<>();
+	/**
+	 * The sizes that are stored in the file
+	 */
+	private final Map<String, Integer> persistedMillis = new ConcurrentHashMap<>();
+	/**
+	 * Mixers whose buffer was already decreased by this instance
+	 */
+	private final Map<String, Boolean> shrunk = new ConcurrentHashMap<>();
+	private boolean loaded;
+	
+	/**
+	 * @param file where the sizes are persisted; <code>null</code> = not persisted
+	 */
+	public LineBufferTuning(final Path file, final int minMillis, final int maxMillis)
+	{
+		if(minMillis <= 0 || maxMillis < minMillis)
+		{
+			throw new IllegalArgumentException("Invalid bounds: " + minMillis + "-" + maxMillis + " ms");
+		}
+		this.file = file;
+		this.minMillis = minMillis;
+		this.maxMillis = maxMillis;
+	}
+	
+	public Path getFile()
+	{
+		return this.file;
+	}
+	
+	public int getMinMillis()
+	{
+		return this.minMillis;
+	}
+	
+	public int getMaxMillis()
+	{
+		return this.maxMillis;
+	}
+	
+	/**
+	 * @return the size of the line buffer for the mixer (within the bounds); empty if no size was chosen for the
+	 * mixer yet - the default buffer of the mixer should be used then
+	 */
+	public OptionalInt bufferMillis(final String mixer)
+	{
+		this.ensureLoaded();
+		final Integer millis = this.bufferMillis.get(mixer);
+		return millis != null ? OptionalInt.of(this.clamp(millis)) : OptionalInt.empty();
+	}
+	
+	/**
+	 * @return the size of the line buffer for the mixer in bytes (only complete frames); see
+	 * {@link #bufferMillis(String)}
+	 */
+	public OptionalInt bufferBytes(final String mixer, final AudioFormat format)
+	{
+		final OptionalInt millis = this.bufferMillis(mixer);
+		return millis.isPresent() ? OptionalInt.of(bytesFor(millis.getAsInt(), format)) : OptionalInt.empty();
+	}
+	
+	/**
+	 * @return how many bytes are written at once into the (opened) line: Half of its actual buffer, so that one
+	 * half is refilled while the other one is played
+	 */
+	public static int chunkBytes(final SourceDataLine line)
+	{
+		final int frameSize = Math.max(1, line.getFormat().getFrameSize());
+		final int chunk = line.getBufferSize() / 2;
+		return Math.max(frameSize, chunk - chunk % frameSize);
+	}
+	
+	/**
+	 * Adapts the buffer size of the mixer to what was observed while playing a track.
+	 */
+	public void record(final String mixer, final Monitor monitor, final Log log)
+	{
+		if(!monitor.isFillLevelReported())
+		{
+			// Some lines don't report how much is buffered - nothing to learn from them
+			return;
+		}
+		
+		// The actual buffer of the line (e.g. the default of the mixer)
+		final int current = this.bufferMillis(mixer).orElseGet(monitor::getBufferMillis);
+		final int adapted;
+		if(monitor.getUnderruns() > 0)
+		{
+			adapted = this.clamp((int)Math.ceil(current * GROW_FACTOR));
+		}
+		else if(monitor.getObservedMillis() >= MIN_OBSERVED_MILLIS
+			&& monitor.getLowestFillBytes() > monitor.getBufferBytes() * SHRINK_THRESHOLD
+			&& this.shrunk.putIfAbsent(mixer, Boolean.TRUE) == null)
+		{
+			adapted = this.clamp((int)(current * SHRINK_FACTOR));
+		}
+		else
+		{
+			return;
+		}
+		if(adapted == current)
+		{
+			return;
+		}
+		
+		this.bufferMillis.put(mixer, adapted);
+		log.debug(String.format(
+			"Line buffer of %s: %d -> %d ms (underruns=%d, lowest fill level=%d of %d bytes)",
+			mixer,
+			current,
+			adapted,
+			monitor.getUnderruns(),
+			monitor.getLowestFillBytes(),
+			monitor.getBufferBytes()));
+		this.save(log);
+	}
+	
+	protected int clamp(final int millis)
+	{
+		return Math.max(this.minMillis, Math.min(this.maxMillis, millis));
+	}
+	
+	protected static int bytesFor(final int millis, final AudioFormat format)
+	{
+		final int frameSize = Math.max(1, format.getFrameSize());
+		return Math.max(1, (int)(format.getFrameRate() * millis / 1000)) * frameSize;
+	}
+	
+	protected synchronized void ensureLoaded()
+	{
+		if(this.loaded)
+		{
+			return;
+		}
+		this.loaded = true;
+		if(this.file == null)
+		{
+			return;
+		}
+		
+		final Properties properties = new Properties();
+		try(final Reader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+		{
+			properties.load(reader);
+		}
+		catch(final NoSuchFileException ignored)
+		{
+			// Nothing remembered yet
+		}
+		catch(final IOException | IllegalArgumentException ex)
+		{
+			// Start over
+			return;
+		}
+		for(final String mixer : properties.stringPropertyNames())
+		{
+			try
+			{
+				final int millis = Integer.parseInt(properties.getProperty(mixer));
+				this.bufferMillis.putIfAbsent(mixer, millis);
+				this.persistedMillis.put(mixer, millis);
+			}
+			catch(final NumberFormatException ignored)
+			{
+				// Broken entry -> use the default of the mixer
+			}
+		}
+	}
+	
+	protected synchronized void save(final Log log)
+	{
+		if(this.file == null || this.persistedMillis.equals(this.bufferMillis))
+		{
+			return;
+		}
+		
+		final Properties properties = new Properties();
+		this.bufferMillis.forEach((mixer, millis) -> properties.setProperty(mixer, String.valueOf(millis)));
+		try
+		{
+			Files.createDirectories(this.file.getParent());
+			final Path tempFile = Files.createTempFile(this.file.getParent(), "line-buffers", ".tmp");
+			try(final Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+			{
+				properties.store(writer, null);
+			}
+			Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.persistedMillis.clear();
+			this.persistedMillis.putAll(this.bufferMillis);
+		}
+		catch(final IOException ioe)
+		{
+			log.debug("Failed to write line buffer sizes " + this.file + ": " + ioe);
+		}
+	}
+	
+	/**
+	 * Observes the fill level of a line while a track is written into it. Only used by the playing thread.
+	 */
+	public static class Monitor
+	{
+		private final SourceDataLine line;
+		private final int bufferBytes;
+		private final int frameSize;
+		private final float bytesPerMilli;
+		
+		private boolean primed;
+		private boolean fillLevelReported;
+		private long underruns;
+		private int lowestFillBytes = Integer.MAX_VALUE;
+		private long bytesWritten;
+		private long blockedNanos;
+		
+		public Monitor(final SourceDataLine line)
+		{
+			this.line = line;
+			this.bufferBytes = line.getBufferSize();
+			this.frameSize = Math.max(1, line.getFormat().getFrameSize());
+			this.bytesPerMilli = line.getFormat().getFrameRate() * this.frameSize / 1000;
+		}
+		
+		/**
+		 * Writes into the line while recording its fill level before the write.
+		 *
+		 * @return the number of written bytes
+		 */
+		public int write(final byte[] buffer, final int off, final int len)
+		{
+			final int fill = this.bufferBytes - this.line.available();
+			if(fill > 0)
+			{
+				this.fillLevelReported = true;
+			}
+			// The line is empty before the first write of a track (e.g. when it was just opened)
+			if(this.primed)
+			{
+				if(fill < this.frameSize)
+				{
+					this.underruns++;
+				}
+				this.lowestFillBytes = Math.min(this.lowestFillBytes, fill);
+			}
+			
+			final long startNanos = System.nanoTime();
+			final int written = this.line.write(buffer, off, len);
+			this.blockedNanos += System.nanoTime() - startNanos;
+			this.bytesWritten += written;
+			this.primed = true;
+			return written;
+		}
+		
+		public boolean isFillLevelReported()
+		{
+			return this.fillLevelReported;
+		}
+		
+		/**
+		 * @return how often the line ran empty while playing
+		 */
+		public long getUnderruns()
+		{
+			return this.underruns;
+		}
+		
+		public int getLowestFillBytes()
+		{
+			return this.lowestFillBytes == Integer.MAX_VALUE ? 0 : this.lowestFillBytes;
+		}
+		
+		public int getBufferBytes()
+		{
+			return this.bufferBytes;
+		}
+		
+		/**
+		 * @return the size of the buffer of the line in milliseconds
+		 */
+		public int getBufferMillis()
+		{
+			return this.bytesPerMilli > 0 ? Math.round(this.bufferBytes / this.bytesPerMilli) : 0;
+		}
+		
+		/**
+		 * @return how much audio was written (in milliseconds)
+		 */
+		public long getObservedMillis()
+		{
+			return this.bytesPerMilli > 0 ? (long)(this.bytesWritten / this.bytesPerMilli) : 0;
+		}
+		
+		/**
+		 * @return how long writing was blocked because the line was full
+		 */
+		public long getBlockedNanos()
+		{
+			return this.blockedNanos;
+		}
+	}
+}
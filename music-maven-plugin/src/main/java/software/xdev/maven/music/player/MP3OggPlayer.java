@@ -15,24 +15,35 @@
  */
 package software.xdev.maven.music.player;
 
-import static javax.sound.sampled.AudioFormat.Encoding.PCM_SIGNED;
-import static javax.sound.sampled.AudioSystem.getAudioInputStream;
-
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Deque;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine.Info;
 import javax.sound.sampled.FloatControl;
 import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import org.apache.maven.plugin.logging.Log;
 
+import software.xdev.maven.music.MusicExecutors;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.PlaybackWarmUp;
+import software.xdev.maven.music.metrics.TrackMetrics;
+import software.xdev.maven.music.player.pcm.CrossfadeMixer;
+import software.xdev.maven.music.player.pcm.PcmRingBuffer;
 import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
 
 
@@ -40,67 +51,585 @@ import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
 @SuppressWarnings("checkstyle:MagicNumber")
 public class MP3OggPlayer extends StoppablePlayer<MP3OggMusicSource>
 {
+	private static final int BUFFER_SIZE = 4096;
+	/**
+	 * Name for lines that were obtained from the {@link AudioSystem} (and not a specific mixer)
+	 */
+	private static final String DEFAULT_MIXER = "default";
+	
+	/**
+	 * Tracks that are prepared in the background - in the order they will be played
+	 */
+	private final Deque<Prefetched> prefetched = new ConcurrentLinkedDeque<>();
+	/**
+	 * Line that was kept open after the last track so that the next one can be played without a gap
+	 */
+	private final AtomicReference<SourceDataLine> openLine = new AtomicReference<>();
+	
+	private volatile PreparedTrack activeTrack;
+	private volatile SourceDataLine activeLine;
+	/**
+	 * Only used by the playing thread
+	 */
+	private CrossfadeMixer crossfadeMixer;
+	/**
+	 * The mixer of the line that was created last (identifies it for the {@link LineBufferTuning}). Only used by the
+	 * playing thread.
+	 */
+	private String lineMixer = DEFAULT_MIXER;
+	private final AtomicLong totalCpuTimeNanos = new AtomicLong();
+	
+	/**
+	 * @return the CPU time (player and decoder threads) used for all tracks played so far
+	 */
+	public long getTotalCpuTimeNanos()
+	{
+		return this.totalCpuTimeNanos.get();
+	}
+	
 	@Override
 	public Class<MP3OggMusicSource> supportedMusicSourceType()
 	{
 		return MP3OggMusicSource.class;
 	}
 	
+	/**
+	 * Opens the source and decodes the beginning in the background.
+	 * <p>
+	 * If the format of the prefetched track matches the one of the currently playing track (always the case with a
+	 * fixed {@link PlaybackSettings#getOutputFormat() output format}), the line is kept open and the track is played
+	 * without any gap.
+	 * </p>
+	 */
 	@Override
-	protected boolean playInternal(final MP3OggMusicSource source, final float defaultVolumeDB, final Log log)
+	public void prefetch(final MP3OggMusicSource source, final PlaybackSettings settings, final Log log)
 	{
-		try(final InputStream is = source.openInputStream();
-			final AudioInputStream in = getAudioInputStream(is))
+		final CompletableFuture<PreparedTrack> future = new CompletableFuture<>();
+		this.prefetched.add(new Prefetched(source, future, log));
+		
+		// Opening is mostly I/O - the decoding itself is done by the decoder threads
+		MusicExecutors.io().execute(() -> {
+			try
+			{
+				future.complete(PreparedTrack.open(source, settings, log));
+			}
+			catch(final Exception ex)
+			{
+				future.completeExceptionally(ex);
+			}
+		});
+	}
+	
+	@Override
+	protected boolean playInternal(final MP3OggMusicSource source, final PlaybackSettings settings, final Log log)
+	{
+		final long startNanos = System.nanoTime();
+		final long cpuTimeAtStart = CpuTime.currentThread();
+		final TrackMetrics metrics = settings.getMetrics().getCurrentTrack();
+		
+		final PreparedTrack track = this.takePrefetched(source, log)
+			.orElseGet(() -> openTrack(source, settings, log));
+		try(track)
 		{
-			final AudioFormat outFormat = this.getOutFormat(in.getFormat());
-			final Info info = new Info(SourceDataLine.class, outFormat);
-			
-			try(final SourceDataLine line =
-				(SourceDataLine)AudioSystem.getLine(info))
+			this.activeTrack = track;
+			if(settings.getStartPositionMillis() > 0)
+			{
+				metrics.setPositionMillis(track.skip(settings.getStartPositionMillis()));
+			}
+			this.play(track, settings, metrics, log);
+			this.logBufferStatistics(track, log);
+		}
+		catch(final LineUnavailableException | IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		finally
+		{
+			if(this.isStopRequested())
 			{
-				if(line != null)
+				this.release();
+			}
+		}
+		
+		final long playerCpuTimeNanos = CpuTime.currentThread() - cpuTimeAtStart;
+		recordTrackMetrics(track, playerCpuTimeNanos, metrics);
+		this.logCpuUsage(
+			playerCpuTimeNanos + track.getDecoderCpuTimeNanos(),
+			System.nanoTime() - startNanos,
+			settings,
+			log);
+		return this.isStopRequested();
+	}
+	
+	protected static void recordTrackMetrics(
+		final PreparedTrack track,
+		final long playerCpuTimeNanos,
+		final TrackMetrics metrics)
+	{
+		metrics.setPlayerCpuTimeNanos(playerCpuTimeNanos);
+		metrics.setDecoderCpuTimeNanos(track.getDecoderCpuTimeNanos());
+		metrics.setDecodeTimeNanos(track.getDecodeTimeNanos());
+		metrics.setBytesDecoded(track.getBytesDecoded());
+		if(track.getBuffer() != null)
+		{
+			metrics.setUnderruns(track.getBuffer().getUnderruns());
+		}
+	}
+	
+	protected void logCpuUsage(
+		final long cpuTimeNanos,
+		final long wallTimeNanos,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		this.totalCpuTimeNanos.addAndGet(cpuTimeNanos);
+		if(!settings.isLowImpact() && !log.isDebugEnabled())
+		{
+			return;
+		}
+		
+		final String message = String.format(
+			"[🎵] CPU time used for playback: %d ms in %.1f s (%.2f%% of one core)",
+			TimeUnit.NANOSECONDS.toMillis(cpuTimeNanos),
+			wallTimeNanos / 1e9,
+			wallTimeNanos > 0 ? cpuTimeNanos * 100.0 / wallTimeNanos : 0.0);
+		if(settings.isLowImpact())
+		{
+			log.info(message);
+		}
+		else
+		{
+			log.debug(message);
+		}
+	}
+	
+	protected static PreparedTrack openTrack(
+		final MP3OggMusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
+	{
+		try
+		{
+			return PreparedTrack.open(source, settings, log);
+		}
+		catch(final UnsupportedAudioFileException | IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @return the prefetched track if it was prefetched as next track
+	 */
+	protected Optional<PreparedTrack> takePrefetched(final MP3OggMusicSource source, final Log log)
+	{
+		final Prefetched next = this.prefetched.peekFirst();
+		if(next == null)
+		{
+			return Optional.empty();
+		}
+		if(next.source() != source || !this.prefetched.remove(next))
+		{
+			// Playback order was changed
+			this.discardPrefetched();
+			return Optional.empty();
+		}
+		
+		try
+		{
+			return Optional.of(next.track().join());
+		}
+		catch(final CompletionException ex)
+		{
+			log.debug("Prefetching of " + source + " failed, retrying", ex.getCause());
+			return Optional.empty();
+		}
+	}
+	
+	protected void discardPrefetched()
+	{
+		Prefetched next;
+		while((next = this.prefetched.pollFirst()) != null)
+		{
+			final Log log = next.log();
+			next.track().thenAccept(track -> {
+				try
+				{
+					track.close();
+				}
+				catch(final IOException ioe)
 				{
-					line.open(outFormat);
-					line.start();
-					// https://stackoverflow.com/a/953752
-					if(line.getControl(FloatControl.Type.MASTER_GAIN) instanceof final FloatControl floatControl)
-					{
-						floatControl.setValue(Math.max(
-							Math.min(
-								floatControl.getMaximum(),
-								Objects.requireNonNullElse(source.getVolumeDB(), defaultVolumeDB)),
-							floatControl.getMinimum()));
-					}
-					this.stream(getAudioInputStream(outFormat, in), line);
-					line.drain();
-					line.stop();
+					log.debug("Failed to close prefetched track " + track, ioe);
 				}
+			});
+		}
+	}
+	
+	/**
+	 * Discards the prefetched tracks and closes the line that was kept open for the next track.
+	 */
+	@Override
+	public void release()
+	{
+		this.discardPrefetched();
+		closeLine(this.openLine.getAndSet(null), true);
+	}
+	
+	protected void play(
+		final PreparedTrack track,
+		final PlaybackSettings settings,
+		final TrackMetrics metrics,
+		final Log log)
+		throws LineUnavailableException, IOException
+	{
+		if(this.isStopRequested())
+		{
+			return;
+		}
+		
+		final SourceDataLine line = this.obtainLine(track, settings.getLineBufferTuning());
+		if(line == null)
+		{
+			return;
+		}
+		
+		this.activeLine = line;
+		boolean keepLineOpen = false;
+		try
+		{
+			// https://stackoverflow.com/a/953752
+			if(line.getControl(FloatControl.Type.MASTER_GAIN) instanceof final FloatControl floatControl)
+			{
+				floatControl.setValue(Math.max(
+					Math.min(floatControl.getMaximum(), this.volumeDB(track, settings)),
+					floatControl.getMinimum()));
+			}
+			
+			track.awaitPrefill();
+			if(!this.markPlaying())
+			{
+				return;
+			}
+			final boolean endOfStreamReached = this.stream(track, line, settings, metrics, log);
+			
+			keepLineOpen = endOfStreamReached && !this.isStopRequested() && this.canKeepLineOpen(line, settings);
+			if(keepLineOpen)
+			{
+				this.openLine.set(line);
 			}
-			return this.externalStop;
 		}
-		catch(final UnsupportedAudioFileException
-					| LineUnavailableException
-					| IOException e)
+		finally
 		{
-			throw new IllegalStateException(e);
+			this.activeLine = null;
+			if(!keepLineOpen)
+			{
+				closeLine(line, this.isStopRequested());
+			}
+		}
+	}
+	
+	/**
+	 * @return the volume of the source (or the default volume) plus the gain of the loudness normalization
+	 */
+	protected float volumeDB(final PreparedTrack track, final PlaybackSettings settings)
+	{
+		return Objects.requireNonNullElse(track.getSource().getVolumeDB(), settings.getDefaultVolumeDB())
+			+ track.getNormalizationGainDB();
+	}
+	
+	/**
+	 * Releases the player thread if it's waiting for the decoder or blocked while writing to the line.
+	 */
+	@Override
+	protected void onStopRequested()
+	{
+		final PreparedTrack track = this.activeTrack;
+		if(track != null && track.getBuffer() != null)
+		{
+			track.getBuffer().close();
+		}
+		final SourceDataLine line = this.activeLine;
+		if(line != null)
+		{
+			line.flush();
 		}
 	}
 	
-	private AudioFormat getOutFormat(final AudioFormat inFormat)
+	/**
+	 * Reuses the line of the previous track if possible, otherwise opens a new one.
+	 *
+	 * @param tuning determines the buffer size of a new line; <code>null</code> (or no size chosen yet) = default of
+	 *               the mixer
+	 */
+	protected SourceDataLine obtainLine(final PreparedTrack track, final LineBufferTuning tuning)
+		throws LineUnavailableException
 	{
-		final int ch = inFormat.getChannels();
+		final SourceDataLine previous = this.openLine.getAndSet(null);
+		if(previous != null)
+		{
+			if(previous.getFormat().matches(track.getFormat()))
+			{
+				return previous;
+			}
+			closeLine(previous, false);
+		}
 		
-		final float rate = inFormat.getSampleRate();
-		return new AudioFormat(PCM_SIGNED, rate, 16, ch, ch * 2, rate, false);
+		final SourceDataLine line = this.createLine(track.getFormat());
+		if(line != null)
+		{
+			final OptionalInt bufferBytes = tuning != null
+				? tuning.bufferBytes(this.lineMixer, track.getFormat())
+				: OptionalInt.empty();
+			if(bufferBytes.isPresent())
+			{
+				line.open(track.getFormat(), bufferBytes.getAsInt());
+			}
+			else
+			{
+				line.open(track.getFormat());
+			}
+			line.start();
+		}
+		return line;
+	}
+	
+	/**
+	 * Creates a (not yet opened) line for the given format.
+	 * <p>
+	 * Uses the mixers that were discovered by the {@link PlaybackWarmUp} (if available).
+	 * </p>
+	 */
+	protected SourceDataLine createLine(final AudioFormat format) throws LineUnavailableException
+	{
+		final Optional<Mixer> mixer = PlaybackWarmUp.mixerCapabilities().flatMap(m -> m.mixerFor(format));
+		if(mixer.isPresent())
+		{
+			this.lineMixer = mixer.get().getMixerInfo().getName();
+			return (SourceDataLine)mixer.get().getLine(new Info(SourceDataLine.class, format));
+		}
+		this.lineMixer = DEFAULT_MIXER;
+		return (SourceDataLine)AudioSystem.getLine(new Info(SourceDataLine.class, format));
+	}
+	
+	/**
+	 * @return if the line can be used by the next track: With a fixed output format this is always the case,
+	 * otherwise the format of the next track has to match
+	 */
+	protected boolean canKeepLineOpen(final SourceDataLine line, final PlaybackSettings settings)
+	{
+		return settings.getOutputFormat() != null
+			? !this.prefetched.isEmpty()
+			: this.isNextPrefetchedCompatible(line);
+	}
+	
+	protected boolean isNextPrefetchedCompatible(final SourceDataLine line)
+	{
+		final Prefetched next = this.prefetched.peekFirst();
+		if(next == null)
+		{
+			return false;
+		}
+		try
+		{
+			// Usually already completed as the track was prefetched while the current track was playing
+			return line.getFormat().matches(next.track().join().getFormat());
+		}
+		catch(final CompletionException ex)
+		{
+			return false;
+		}
 	}
 	
-	private void stream(final AudioInputStream in, final SourceDataLine line)
+	protected static void closeLine(final SourceDataLine line, final boolean discardRemaining)
+	{
+		if(line == null)
+		{
+			return;
+		}
+		if(discardRemaining)
+		{
+			line.flush();
+		}
+		else
+		{
+			line.drain();
+		}
+		line.stop();
+		line.close();
+	}
+	
+	private boolean stream(
+		final PreparedTrack track,
+		final SourceDataLine line,
+		final PlaybackSettings settings,
+		final TrackMetrics metrics,
+		final Log log)
 		throws IOException
 	{
-		final byte[] buffer = new byte[4096];
-		for(int n = 0; n != -1 && !this.externalStop; n = in.read(buffer, 0, buffer.length))
+		final LineBufferTuning tuning = settings.getLineBufferTuning();
+		final int chunkSize = tuning != null ? LineBufferTuning.chunkBytes(line) : BUFFER_SIZE;
+		final CrossfadeMixer mixer =
+			this.crossfadeMixerFor(track.getFormat(), settings.getCrossfadeMillis(), chunkSize);
+		final byte[] buffer = new byte[chunkSize];
+		final byte[] mixed = mixer != null ? new byte[chunkSize] : buffer;
+		final LineBufferTuning.Monitor monitor = new LineBufferTuning.Monitor(line);
+		long bytesWritten = 0;
+		int n = 0;
+		try
 		{
-			line.write(buffer, 0, n);
+			for(; n != -1 && !this.isStopRequested(); n = track.read(buffer, 0, buffer.length))
+			{
+				if(n > 0)
+				{
+					final int toWrite = mixer != null ? mixer.delay(buffer, 0, n, mixed) : n;
+					bytesWritten += write(monitor, mixed, toWrite, metrics);
+				}
+			}
+			
+			if(mixer != null && !this.isStopRequested())
+			{
+				if(n == -1)
+				{
+					this.crossfadeIntoNext(track, line, settings, mixer, buffer, mixed, metrics, monitor);
+				}
+				int drained;
+				while((drained = mixer.drain(mixed)) > 0 && !this.isStopRequested())
+				{
+					bytesWritten += write(monitor, mixed, drained, metrics);
+				}
+			}
+		}
+		finally
+		{
+			metrics.setLineWriteBlockedNanos(metrics.getLineWriteBlockedNanos() + monitor.getBlockedNanos());
+			metrics.setLineUnderruns(metrics.getLineUnderruns() + monitor.getUnderruns());
+			metrics.setPositionMillis(metrics.getPositionMillis() + track.millisFor(bytesWritten));
+			if(tuning != null)
+			{
+				tuning.record(this.lineMixer, monitor, log);
+			}
+		}
+		return n == -1;
+	}
+	
+	private static int write(
+		final LineBufferTuning.Monitor monitor,
+		final byte[] buffer,
+		final int len,
+		final TrackMetrics metrics)
+	{
+		if(len <= 0)
+		{
+			return 0;
+		}
+		metrics.recordFirstSound(System.nanoTime());
+		return monitor.write(buffer, 0, len);
+	}
+	
+	/**
+	 * @return the mixer for crossfading (reused if possible) or <code>null</code> if crossfading is disabled
+	 */
+	protected CrossfadeMixer crossfadeMixerFor(
+		final AudioFormat format,
+		final int crossfadeMillis,
+		final int chunkSize)
+	{
+		if(crossfadeMillis <= 0)
+		{
+			return null;
+		}
+		CrossfadeMixer mixer = this.crossfadeMixer;
+		if(mixer == null
+			|| !mixer.isCompatible(format, crossfadeMillis)
+			|| mixer.getChunkSize() != chunkSize - chunkSize % format.getFrameSize())
+		{
+			mixer = new CrossfadeMixer(format, crossfadeMillis, chunkSize);
+			this.crossfadeMixer = mixer;
+		}
+		mixer.reset();
+		return mixer;
+	}
+	
+	/**
+	 * Mixes the delayed tail of the current track with the head of the next (prefetched) track.
+	 * <p>
+	 * The next track continues after the mixed head when it's played.
+	 * </p>
+	 */
+	@SuppressWarnings("java:S107")
+	private void crossfadeIntoNext(
+		final PreparedTrack track,
+		final SourceDataLine line,
+		final PlaybackSettings settings,
+		final CrossfadeMixer mixer,
+		final byte[] buffer,
+		final byte[] mixed,
+		final TrackMetrics metrics,
+		final LineBufferTuning.Monitor monitor)
+		throws IOException
+	{
+		final Prefetched upcoming = this.prefetched.peekFirst();
+		if(upcoming == null || !this.isNextPrefetchedCompatible(line))
+		{
+			return;
 		}
+		final PreparedTrack next = upcoming.track().join();
+		
+		// The line gain still belongs to the current track
+		final float headGain = line.isControlSupported(FloatControl.Type.MASTER_GAIN)
+			? (float)Math.pow(10, (this.volumeDB(next, settings) - this.volumeDB(track, settings)) / 20)
+			: 1;
+		
+		while(mixer.getDelayedBytes() > 0 && !this.isStopRequested())
+		{
+			final int n = readFully(next, buffer, Math.min(mixer.getChunkSize(), mixer.getDelayedBytes()));
+			if(n <= 0)
+			{
+				return;
+			}
+			write(monitor, mixed, mixer.mix(buffer, 0, n, headGain, mixed), metrics);
+		}
+	}
+	
+	private static int readFully(final PreparedTrack track, final byte[] buffer, final int len) throws IOException
+	{
+		int total = 0;
+		while(total < len)
+		{
+			final int n = track.read(buffer, total, len - total);
+			if(n == -1)
+			{
+				break;
+			}
+			total += n;
+		}
+		// Only complete frames
+		return total - total % track.getFormat().getFrameSize();
+	}
+	
+	protected void logBufferStatistics(final PreparedTrack track, final Log log)
+	{
+		final PcmRingBuffer buffer = track.getBuffer();
+		if(buffer != null && log.isDebugEnabled())
+		{
+			log.debug(String.format(
+				"Decode buffer: capacity=%d bytes, lowest fill level=%d bytes, underruns=%d",
+				buffer.getCapacity(),
+				buffer.getLowestFillLevel(),
+				buffer.getUnderruns()));
+		}
+	}
+	
+	/**
+	 * @return the buffer between decoder and line of the current/last track or <code>null</code>
+	 */
+	public PcmRingBuffer getActiveBuffer()
+	{
+		final PreparedTrack track = this.activeTrack;
+		return track != null ? track.getBuffer() : null;
+	}
+	
+	protected record Prefetched(MP3OggMusicSource source, CompletableFuture<PreparedTrack> track, Log log)
+	{
 	}
 }
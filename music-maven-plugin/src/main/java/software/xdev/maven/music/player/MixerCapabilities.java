@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+
+/**
+ * The mixers (audio devices) that were discovered during the {@link software.xdev.maven.music.PlaybackWarmUp}
+ * including their capabilities.
+ * <p>
+ * Looking up a line through {@link AudioSystem#getLine(Line.Info)} scans all mixer providers and mixers each time.
+ * This class remembers which mixer supports which format, so that lines can be obtained directly.
+ * </p>
+ */
+public class MixerCapabilities
+{
+	private static final String DEFAULT_SOURCE_DATA_LINE_PROPERTY = "javax.sound.sampled.SourceDataLine";
+	
+	private final List<Entry> mixers;
+	private final long discoveryNanos;
+	private final Map<String, Optional<Mixer>> mixerForFormat = new ConcurrentHashMap<>();
+	
+	public MixerCapabilities(final List<Entry> mixers, final long discoveryNanos)
+	{
+		this.mixers = List.copyOf(mixers);
+		this.discoveryNanos = discoveryNanos;
+	}
+	
+	/**
+	 * Discovers all mixers that can play audio. The default mixer is always the first one.
+	 */
+	public static MixerCapabilities discover()
+	{
+		final long startNanos = System.nanoTime();
+		
+		final Mixer defaultMixer = getDefaultMixer();
+		final List<Entry> entries = new ArrayList<>();
+		if(defaultMixer != null)
+		{
+			entries.add(new Entry(defaultMixer, defaultMixer.getSourceLineInfo()));
+		}
+		for(final Mixer.Info info : AudioSystem.getMixerInfo())
+		{
+			final Mixer mixer = AudioSystem.getMixer(info);
+			if(mixer != defaultMixer)
+			{
+				entries.add(new Entry(mixer, mixer.getSourceLineInfo()));
+			}
+		}
+		
+		return new MixerCapabilities(entries, System.nanoTime() - startNanos);
+	}
+	
+	private static Mixer getDefaultMixer()
+	{
+		try
+		{
+			return AudioSystem.getMixer(null);
+		}
+		catch(final IllegalArgumentException | SecurityException ex)
+		{
+			// No audio devices
+			return null;
+		}
+	}
+	
+	/**
+	 * @return a new (not yet opened) line for the format or <code>null</code> if no discovered mixer supports it or
+	 * a specific mixer was configured
+	 */
+	public SourceDataLine createLine(final AudioFormat format) throws LineUnavailableException
+	{
+		final Optional<Mixer> mixer = this.mixerFor(format);
+		return mixer.isPresent()
+			? (SourceDataLine)mixer.get().getLine(new DataLine.Info(SourceDataLine.class, format))
+			: null;
+	}
+	
+	/**
+	 * @return the first mixer that supports the format or empty if no discovered mixer supports it or a specific
+	 * mixer was configured
+	 */
+	public Optional<Mixer> mixerFor(final AudioFormat format)
+	{
+		if(System.getProperty(DEFAULT_SOURCE_DATA_LINE_PROPERTY) != null)
+		{
+			// Let the AudioSystem resolve the configured mixer
+			return Optional.empty();
+		}
+		
+		final DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
+		return this.mixerForFormat.computeIfAbsent(
+			format.toString(),
+			ignored -> this.mixers.stream()
+				.filter(e -> e.supports(info))
+				.map(Entry::mixer)
+				.findFirst());
+	}
+	
+	public List<Entry> getMixers()
+	{
+		return this.mixers;
+	}
+	
+	public boolean hasSourceLines()
+	{
+		return this.mixers.stream().anyMatch(e -> e.sourceLineInfos().length > 0);
+	}
+	
+	/**
+	 * @return how long the discovery took
+	 */
+	public long getDiscoveryNanos()
+	{
+		return this.discoveryNanos;
+	}
+	
+	public record Entry(Mixer mixer, Line.Info[] sourceLineInfos)
+	{
+		public boolean supports(final Line.Info info)
+		{
+			return this.sourceLineInfos.length > 0 && this.mixer.isLineSupported(info);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+/**
+ * Lifecycle of a playback.
+ * <pre>
+ * IDLE → STARTING → PLAYING → IDLE
+ *            ↓          ↓
+ *            STOPPING → IDLE
+ * </pre>
+ */
+public enum PlaybackState
+{
+	/**
+	 * Nothing is played.
+	 */
+	IDLE,
+	/**
+	 * The source is opened and prepared.
+	 */
+	STARTING,
+	/**
+	 * Audio is output.
+	 */
+	PLAYING,
+	/**
+	 * A stop was requested; the playback is released as fast as possible.
+	 */
+	STOPPING
+}
@@ -17,6 +17,7 @@ package software.xdev.maven.music.player;
 
 import org.apache.maven.plugin.logging.Log;
 
+import software.xdev.maven.music.PlaybackSettings;
 import software.xdev.maven.music.sources.MusicSource;
 
 
@@ -35,5 +36,41 @@ public interface Player<S extends MusicSource>
 	 */
 	boolean play(S source, float defaultVolumeDB, Log log);
 	
+	/**
+	 * Plays the source using the given settings.
+	 * <p>
+	 * Players that only support the volume don't need to override this.
+	 * </p>
+	 *
+	 * @return <code>true</code> if the music was stopped externally
+	 */
+	default boolean play(final S source, final PlaybackSettings settings, final Log log)
+	{
+		return this.play(source, settings.getDefaultVolumeDB(), log);
+	}
+	
+	/**
+	 * Prepares the playback of a source in the background (e.g. by opening it and decoding the beginning).
+	 * <p>
+	 * This is called while the previous source is still playing. Prefetched sources are played in the order they
+	 * were prefetched. If a different source is played the prefetched ones should be discarded.
+	 * </p>
+	 */
+	default void prefetch(final S source, final PlaybackSettings settings, final Log log)
+	{
+		// Not supported by default
+	}
+	
 	void stop();
+	
+	/**
+	 * Releases everything that is kept for the next source, e.g. prefetched sources or an open line.
+	 * <p>
+	 * Called when the music was stopped or the session ended, independent of whether something is playing.
+	 * </p>
+	 */
+	default void release()
+	{
+		// Nothing kept by default
+	}
 }
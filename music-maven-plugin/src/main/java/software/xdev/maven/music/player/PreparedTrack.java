@@ -0,0 +1,552 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static javax.sound.sampled.AudioSystem.getAudioInputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.MusicExecutors;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.ContentHash;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.io.ByteBufferInputStream;
+import software.xdev.maven.music.loudness.LoudnessNormalization;
+import software.xdev.maven.music.player.pcm.ConvertingInputStream;
+import software.xdev.maven.music.player.pcm.DecoderStage;
+import software.xdev.maven.music.player.pcm.PcmConverter;
+import software.xdev.maven.music.player.pcm.PcmRingBuffer;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+
+
+/**
+ * A {@link MP3OggMusicSource} that was opened and is ready to deliver decoded PCM.
+ * <p>
+ * Depending on the settings the PCM is either
+ * <ul>
+ *     <li>read from the {@link PcmCache}</li>
+ *     <li>decoded ahead on a separate thread into a {@link PcmRingBuffer}</li>
+ *     <li>decoded inline while reading</li>
+ * </ul>
+ * Afterwards it's converted if required by the settings.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class PreparedTrack implements Closeable
+{
+	private static final int PREFILL_MILLIS = 200;
+	/**
+	 * Maximum time to wait for the decoder when closing; it's interrupted afterwards
+	 */
+	private static final long DECODER_TERMINATION_TIMEOUT_MS = 500;
+	
+	private final MP3OggMusicSource source;
+	private final AudioFormat format;
+	private final InputStream pcm;
+	private final Closeable encoded;
+	private final PcmCache.Writer cacheWriter;
+	
+	private PcmRingBuffer buffer;
+	private DecoderStage decoder;
+	private Future<?> decoding;
+	
+	private float normalizationGainDB;
+	
+	private long inlineDecodeTimeNanos;
+	private long inlineBytesDecoded;
+	
+	/**
+	 * @param pcm         decoded audio in the given format
+	 * @param encoded     resources to close together with this track; may be <code>null</code>
+	 * @param cacheWriter writer that is filled with the decoded audio; may be <code>null</code>
+	 */
+	protected PreparedTrack(
+		final MP3OggMusicSource source,
+		final AudioFormat format,
+		final InputStream pcm,
+		final Closeable encoded,
+		final PcmCache.Writer cacheWriter)
+	{
+		this.source = source;
+		this.format = format;
+		this.pcm = pcm;
+		this.encoded = encoded;
+		this.cacheWriter = cacheWriter;
+	}
+	
+	/**
+	 * Opens the source and determines the format. If required decoding is started in the background.
+	 * <p>
+	 * If enabled the gain of the {@link LoudnessNormalization} is determined as well (without waiting for an
+	 * analysis).
+	 * </p>
+	 */
+	public static PreparedTrack open(
+		final MP3OggMusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
+		throws IOException, UnsupportedAudioFileException
+	{
+		final LoudnessNormalization normalization = settings.getLoudnessNormalization();
+		final String key = settings.getPcmCache() != null || normalization != null
+			? contentKey(source, settings, log)
+			: null;
+		
+		final PreparedTrack track = openPcm(source, key, settings, log);
+		if(normalization != null)
+		{
+			track.normalizationGainDB = normalization.gainDB(source, key, settings, log);
+		}
+		return track;
+	}
+	
+	/**
+	 * @param key the {@link #contentKey content key} of the source; may be <code>null</code>
+	 */
+	protected static PreparedTrack openPcm(
+		final MP3OggMusicSource source,
+		final String key,
+		final PlaybackSettings settings,
+		final Log log)
+		throws IOException, UnsupportedAudioFileException
+	{
+		final PcmCache pcmCache = settings.getPcmCache();
+		if(pcmCache == null || key == null)
+		{
+			return openForDecoding(source, source.openInputStream(settings), settings, null, key, log);
+		}
+		
+		final Optional<PcmCache.Entry> cached = lookupCache(pcmCache, key, log);
+		if(cached.isPresent())
+		{
+			log.debug("Using cached decoded audio " + key);
+			final AudioFormat cachedFormat = cached.get().format();
+			final InputStream pcm = new ByteBufferInputStream(cached.get().data());
+			final PcmConverter converter = createConverter(cachedFormat, settings);
+			if(converter == null)
+			{
+				return new PreparedTrack(source, cachedFormat, pcm, null, null);
+			}
+			return new PreparedTrack(
+				source,
+				converter.getOutputFormat(),
+				new ConvertingInputStream(pcm, converter),
+				null,
+				null);
+		}
+		
+		return openForDecoding(source, source.openInputStream(settings), settings, pcmCache, key, log);
+	}
+	
+	/**
+	 * Key for data that is derived from the content of the source (e.g. the decoded audio or its loudness).
+	 * <p>
+	 * The key is derived from the {@link MP3OggMusicSource#contentIdentity(PlaybackSettings) identity} of the
+	 * source, so that no data has to be read before playback starts.
+	 * </p>
+	 *
+	 * @return the key or <code>null</code> if the source can't be identified
+	 */
+	public static String contentKey(final MP3OggMusicSource source, final PlaybackSettings settings, final Log log)
+	{
+		try
+		{
+			return source.contentIdentity(settings)
+				.map(identity -> ContentHash.sha256(identity.getBytes(StandardCharsets.UTF_8)))
+				.orElse(null);
+		}
+		catch(final IOException | RuntimeException ex)
+		{
+			log.debug("Failed to identify " + source + " - decoded audio is not cached", ex);
+			return null;
+		}
+	}
+	
+	/**
+	 * Decodes the source completely into the {@link PcmCache} of the settings (unless it's already cached).
+	 *
+	 * @return the cached entry or an empty optional if the source can't be identified (see
+	 * {@link MP3OggMusicSource#contentIdentity(PlaybackSettings)}) or the decoded audio doesn't fit into the cache
+	 */
+	public static Optional<PcmCache.Entry> decodeIntoCache(
+		final MP3OggMusicSource source,
+		final PlaybackSettings settings,
+		final Log log)
+		throws IOException, UnsupportedAudioFileException
+	{
+		final PcmCache pcmCache = Objects.requireNonNull(settings.getPcmCache(), "PCM cache is disabled");
+		final String key = contentKey(source, settings, log);
+		if(key == null)
+		{
+			return Optional.empty();
+		}
+		
+		final Optional<PcmCache.Entry> cached = lookupCache(pcmCache, key, log);
+		if(cached.isPresent())
+		{
+			return cached;
+		}
+		
+		try(final InputStream is = source.openInputStream(settings);
+			final AudioInputStream in = FormatSniffer.getAudioInputStream(is, source))
+		{
+			// Same as when decoding for playback: The cache contains the audio without any conversions
+			final AudioFormat decodedFormat = getOutFormat(in.getFormat());
+			try(final AudioInputStream pcm = getAudioInputStream(decodedFormat, in);
+				final PcmCache.Writer writer = pcmCache.newWriter(key, decodedFormat))
+			{
+				final byte[] buffer = new byte[8192];
+				int n;
+				while((n = pcm.read(buffer, 0, buffer.length)) != -1)
+				{
+					writer.write(buffer, 0, n);
+				}
+				writer.commit();
+			}
+		}
+		return lookupCache(pcmCache, key, log);
+	}
+	
+	protected static Optional<PcmCache.Entry> lookupCache(final PcmCache pcmCache, final String key, final Log log)
+	{
+		try
+		{
+			return pcmCache.get(key);
+		}
+		catch(final IOException ioe)
+		{
+			log.warn("Failed to read cached decoded audio " + key, ioe);
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * @param pcmCache the cache that is filled with the decoded audio; may be <code>null</code>
+	 * @param key      the content key of the source; may be <code>null</code>
+	 */
+	@SuppressWarnings("PMD.CloseResource")
+	protected static PreparedTrack openForDecoding(
+		final MP3OggMusicSource source,
+		final InputStream is,
+		final PlaybackSettings settings,
+		final PcmCache pcmCache,
+		final String key,
+		final Log log)
+		throws IOException, UnsupportedAudioFileException
+	{
+		try
+		{
+			final AudioInputStream in = FormatSniffer.getAudioInputStream(is, source);
+			final AudioFormat decodedFormat = getOutFormat(in.getFormat());
+			
+			// The cache always contains the decoded audio without any conversions
+			final PcmCache.Writer cacheWriter = pcmCache != null ? pcmCache.newWriter(key, decodedFormat) : null;
+			InputStream pcm = getAudioInputStream(decodedFormat, in);
+			if(cacheWriter != null)
+			{
+				pcm = cacheWriter.wrap(pcm);
+			}
+			final LoudnessNormalization normalization = settings.getLoudnessNormalization();
+			if(normalization != null && key != null)
+			{
+				// Analyzed while decoding, so that the source is not read (or downloaded) a second time
+				pcm = normalization.measureWhileReading(key, decodedFormat, pcm, source, log);
+			}
+			
+			AudioFormat outFormat = decodedFormat;
+			final PcmConverter converter = createConverter(decodedFormat, settings);
+			if(converter != null)
+			{
+				pcm = new ConvertingInputStream(pcm, converter);
+				outFormat = converter.getOutputFormat();
+			}
+			
+			final PreparedTrack track = new PreparedTrack(
+				source,
+				outFormat,
+				pcm,
+				() -> {
+					in.close();
+					is.close();
+				},
+				cacheWriter);
+			track.startDecoding(settings);
+			return track;
+		}
+		catch(final IOException | UnsupportedAudioFileException | RuntimeException ex)
+		{
+			is.close();
+			throw ex;
+		}
+	}
+	
+	protected static AudioFormat getOutFormat(final AudioFormat inFormat)
+	{
+		return PcmCache.pcmFormat(inFormat.getSampleRate(), inFormat.getChannels());
+	}
+	
+	/**
+	 * @return a converter if required by the settings (fixed output format or low impact mode) or <code>null</code>
+	 */
+	protected static PcmConverter createConverter(final AudioFormat decodedFormat, final PlaybackSettings settings)
+	{
+		// A fixed output format takes precedence as the line can't be reopened
+		final AudioFormat outputFormat = settings.getOutputFormat();
+		if(outputFormat != null)
+		{
+			return PcmConverter.isRequired(decodedFormat, outputFormat)
+				? new PcmConverter(decodedFormat, outputFormat)
+				: null;
+		}
+		
+		if(!settings.isLowImpact()
+			|| !PcmConverter.isRequired(decodedFormat, settings.getLowImpactSampleRate(), true))
+		{
+			return null;
+		}
+		return new PcmConverter(decodedFormat, settings.getLowImpactSampleRate(), true);
+	}
+	
+	/**
+	 * Decodes on a separate thread into a ring buffer while the consumer reads from it.
+	 * <p>
+	 * This way short phases where the decoder doesn't get any CPU time (e.g. because the build is using all cores)
+	 * don't result in stuttering.
+	 * </p>
+	 */
+	protected void startDecoding(final PlaybackSettings settings)
+	{
+		final int capacity = this.bytesFor(settings.getDecodeAheadMillis());
+		if(capacity <= 0)
+		{
+			return;
+		}
+		
+		this.buffer = new PcmRingBuffer(capacity);
+		this.decoder = new DecoderStage(this.pcm, this.buffer);
+		this.decoding = MusicExecutors.submitWithPriority(
+			MusicExecutors.decoder(),
+			settings.isLowImpact() ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY,
+			this.decoder);
+	}
+	
+	protected int bytesFor(final int millis)
+	{
+		final int frames = (int)(this.format.getFrameRate() * millis / 1000);
+		return frames * this.format.getFrameSize();
+	}
+	
+	/**
+	 * Waits until enough audio was decoded so that playback doesn't start with an underrun.
+	 */
+	public void awaitPrefill()
+	{
+		if(this.buffer != null)
+		{
+			this.buffer.awaitFillLevel(this.bytesFor(PREFILL_MILLIS));
+		}
+	}
+	
+	/**
+	 * Skips the given amount of audio.
+	 *
+	 * @return the number of milliseconds that were actually skipped
+	 */
+	public long skip(final long millis) throws IOException
+	{
+		final byte[] discard = new byte[8192];
+		final long bytesToSkip = (long)(this.format.getFrameRate() * millis / 1000) * this.format.getFrameSize();
+		long skipped = 0;
+		while(skipped < bytesToSkip)
+		{
+			final int n = this.read(discard, 0, (int)Math.min(discard.length, bytesToSkip - skipped));
+			if(n == -1)
+			{
+				break;
+			}
+			skipped += n;
+		}
+		return this.millisFor(skipped);
+	}
+	
+	/**
+	 * @return the duration of the given amount of bytes in {@link #getFormat()}
+	 */
+	public long millisFor(final long bytes)
+	{
+		return (long)(bytes / this.format.getFrameSize() * 1000 / this.format.getFrameRate());
+	}
+	
+	/**
+	 * Reads decoded PCM in {@link #getFormat()}.
+	 *
+	 * @return the number of bytes read or <code>-1</code> if the end was reached
+	 */
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		if(this.buffer == null)
+		{
+			final long startNanos = System.nanoTime();
+			final int n = this.pcm.read(b, off, len);
+			this.inlineDecodeTimeNanos += System.nanoTime() - startNanos;
+			if(n > 0)
+			{
+				this.inlineBytesDecoded += n;
+			}
+			return n;
+		}
+		
+		final int n = this.buffer.read(b, off, len);
+		if(n == -1 && this.decoder.getFailure() != null)
+		{
+			throw this.decoder.getFailure();
+		}
+		return n;
+	}
+	
+	public MP3OggMusicSource getSource()
+	{
+		return this.source;
+	}
+	
+	public AudioFormat getFormat()
+	{
+		return this.format;
+	}
+	
+	/**
+	 * @return the gain (in dB) that should be applied to normalize the loudness; <code>0</code> if disabled
+	 */
+	public float getNormalizationGainDB()
+	{
+		return this.normalizationGainDB;
+	}
+	
+	/**
+	 * @return the buffer between decoder and consumer or <code>null</code> if not decoded ahead
+	 */
+	public PcmRingBuffer getBuffer()
+	{
+		return this.buffer;
+	}
+	
+	/**
+	 * @return the CPU time used by the decoder thread or <code>0</code> if decoded inline or not yet closed
+	 */
+	public long getDecoderCpuTimeNanos()
+	{
+		return this.decoder != null ? this.decoder.getCpuTimeNanos() : 0;
+	}
+	
+	/**
+	 * @return the time spent decoding (or reading from the cache); only complete once closed
+	 */
+	public long getDecodeTimeNanos()
+	{
+		return this.decoder != null ? this.decoder.getDecodeTimeNanos() : this.inlineDecodeTimeNanos;
+	}
+	
+	/**
+	 * @return the number of PCM bytes that were decoded (or read from the cache); only complete once closed
+	 */
+	public long getBytesDecoded()
+	{
+		return this.decoder != null ? this.decoder.getBytesDecoded() : this.inlineBytesDecoded;
+	}
+	
+	/**
+	 * Stops decoding and releases all resources.
+	 * <p>
+	 * The encoded source is closed first, so that a decoder that is blocked while reading it (e.g. a stalled
+	 * download) is released immediately. Waiting for the decoder is limited to
+	 * {@link #DECODER_TERMINATION_TIMEOUT_MS}.
+	 * </p>
+	 * <p>
+	 * If the track was fully decoded it's stored in the {@link PcmCache} (if enabled).
+	 * </p>
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if(this.encoded != null)
+			{
+				this.encoded.close();
+			}
+		}
+		finally
+		{
+			if(this.buffer != null)
+			{
+				this.buffer.close();
+				awaitTermination(this.decoding);
+			}
+			if(this.cacheWriter != null)
+			{
+				try(final PcmCache.Writer writer = this.cacheWriter)
+				{
+					// Only fully decoded tracks can be cached
+					if(writer.isComplete())
+					{
+						writer.commit();
+					}
+				}
+			}
+		}
+	}
+	
+	private static void awaitTermination(final Future<?> future)
+	{
+		try
+		{
+			future.get(DECODER_TERMINATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(final TimeoutException e)
+		{
+			future.cancel(true);
+		}
+		catch(final ExecutionException ignored)
+		{
+			// Failures are reported to the consumer by the decoder stage
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		return String.valueOf(this.source);
+	}
+}
@@ -15,82 +15,115 @@
  */
 package software.xdev.maven.music.player;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.maven.plugin.logging.Log;
 
+import software.xdev.maven.music.player.spotify.DBusConnection;
+import software.xdev.maven.music.player.spotify.ProcessRunner;
 import software.xdev.maven.music.sources.spotify.SpotifyMusicSource;
 
 
+/**
+ * Opens the track in the Spotify app.
+ * <p>
+ * On Linux the app is controlled via MPRIS over a D-Bus session connection that is kept open for all tracks. If the
+ * session bus can't be used directly, <code>dbus-send</code> is used instead and connecting to the bus is retried
+ * after a while.<br/>
+ * All external commands are run with a timeout.
+ * </p>
+ */
 public class SpotifyPlayer implements Player<SpotifyMusicSource>
 {
 	private static final String OS_NAME_LOWER = System.getProperty("os.name", "")
 		.toLowerCase(Locale.ENGLISH);
 	
+	private static final String MPRIS_DESTINATION = "org.mpris.MediaPlayer2.spotify";
+	private static final String MPRIS_PATH = "/org/mpris/MediaPlayer2";
+	private static final String MPRIS_PLAYER_INTERFACE = "org.mpris.MediaPlayer2.Player";
+	
+	/**
+	 * How long opening a track may take
+	 */
+	private static final long TIMEOUT_MS = 10_000;
+	
+	/**
+	 * How long <code>dbus-send</code> is used after the session bus couldn't be connected
+	 */
+	private static final long DBUS_RETRY_INTERVAL_MS = 60_000;
+	
+	/**
+	 * Shared by all players of the JVM
+	 */
+	private static final SessionBus SHARED_SESSION_BUS = new SessionBus(
+		() -> DBusConnection.connectSessionBus(TIMEOUT_MS),
+		DBUS_RETRY_INTERVAL_MS);
+	
+	private final SessionBus sessionBus;
+	private final String dbusSend;
+	
+	public SpotifyPlayer()
+	{
+		this(SHARED_SESSION_BUS, "dbus-send");
+	}
+	
+	/**
+	 * @param dbusSend the <code>dbus-send</code> executable
+	 */
+	SpotifyPlayer(final SessionBus sessionBus, final String dbusSend)
+	{
+		this.sessionBus = sessionBus;
+		this.dbusSend = dbusSend;
+	}
+	
 	@Override
 	public Class<SpotifyMusicSource> supportedMusicSourceType()
 	{
 		return SpotifyMusicSource.class;
 	}
 	
-	@SuppressWarnings({"java:S4036", "java:S3516"})
+	@SuppressWarnings("java:S3516")
 	@Override
 	public boolean play(final SpotifyMusicSource source, final float defaultVolumeDB, final Log log)
 	{
 		final String uri = source.getResolvedUri();
 		
-		final ProcessBuilder pb;
-		if(OS_NAME_LOWER.contains("win"))
+		if(isLinux() && this.sessionBus.openUri(uri, log))
 		{
-			// For 'start' command on Windows, an empty title "" is often needed if the path/URL might contain spaces
-			pb = new ProcessBuilder("cmd", "/c", "start", "\"\"", uri);
-		}
-		else if(OS_NAME_LOWER.contains("mac"))
-		{
-			pb = new ProcessBuilder(
-				"osascript", "-e",
-				String.format("tell application \"Spotify\" to play track \"%s\"", uri));
-		}
-		else if(OS_NAME_LOWER.contains("nux") || OS_NAME_LOWER.contains("nix"))
-		{
-			pb = new ProcessBuilder(
-				"dbus-send", "--print-reply", "--dest=org.mpris.MediaPlayer2.spotify",
-				"/org/mpris/MediaPlayer2", "org.mpris.MediaPlayer2.Player.OpenUri", "string:" + uri);
+			return false;
 		}
-		else
+		
+		final List<String> command = command(uri, this.dbusSend);
+		if(command == null)
 		{
 			return false;
 		}
 		
 		try
 		{
-			final Process process = pb.start();
-			final String stdOut = consumeStream(process.getInputStream());
-			final String stdErr = consumeStream(process.getErrorStream());
-			final int exitCode = process.waitFor();
-			
-			if(exitCode != 0)
+			final ProcessRunner.Result result = ProcessRunner.run(command, TIMEOUT_MS);
+			if(result.exitCode() != 0)
 			{
 				String errorMessage = String.format(
 					"Failed to play Spotify URI '%s'. Exit code: %d.",
 					uri,
-					exitCode);
-				if(!stdErr.isBlank())
+					result.exitCode());
+				if(!result.output().isBlank())
 				{
-					errorMessage += " Error: " + stdErr;
-				}
-				if(!stdOut.isBlank())
-				{
-					errorMessage += " Output: " + stdOut;
+					errorMessage += " Output: " + result.output();
 				}
 				log.warn(errorMessage);
 			}
 		}
+		catch(final TimeoutException e)
+		{
+			log.warn(String.format("Failed to play Spotify URI '%s': %s", uri, e.getMessage()));
+		}
 		catch(final IOException ioe)
 		{
 			throw new UncheckedIOException(ioe);
@@ -104,28 +137,127 @@ public class SpotifyPlayer implements Player<SpotifyMusicSource>
 		return false;
 	}
 	
+	/**
+	 * @return the command that opens the URI or <code>null</code> if the OS is not supported
+	 */
+	@SuppressWarnings("java:S4036")
+	static List<String> command(final String uri, final String dbusSend)
+	{
+		if(OS_NAME_LOWER.contains("win"))
+		{
+			// For 'start' command on Windows, an empty title "" is often needed if the path/URL might contain spaces
+			return List.of("cmd", "/c", "start", "\"\"", uri);
+		}
+		if(OS_NAME_LOWER.contains("mac"))
+		{
+			return List.of(
+				"osascript", "-e",
+				String.format("tell application \"Spotify\" to play track \"%s\"", uri));
+		}
+		if(isLinux())
+		{
+			return List.of(
+				dbusSend, "--print-reply", "--dest=" + MPRIS_DESTINATION,
+				MPRIS_PATH, MPRIS_PLAYER_INTERFACE + ".OpenUri", "string:" + uri);
+		}
+		return null;
+	}
+	
+	static boolean isLinux()
+	{
+		return OS_NAME_LOWER.contains("nux") || OS_NAME_LOWER.contains("nix");
+	}
+	
 	@Override
 	public void stop()
 	{
 		// Can't be stopped
 	}
 	
-	@SuppressWarnings("PMD.AvoidStringBuilderOrBuffer")
-	static String consumeStream(final InputStream stream)
+	/**
+	 * Connects to a D-Bus
+	 */
+	@FunctionalInterface
+	interface BusConnector
+	{
+		DBusConnection connect() throws IOException;
+	}
+	
+	/**
+	 * A D-Bus connection that is kept open for all calls.
+	 * <p>
+	 * If the bus can't be connected, no further attempt is made until the retry interval elapsed.
+	 * </p>
+	 */
+	static class SessionBus
 	{
-		final StringBuilder sb = new StringBuilder();
-		try(final BufferedReader reader = new BufferedReader(new InputStreamReader(stream)))
+		private final BusConnector connector;
+		private final long retryIntervalNanos;
+		private DBusConnection connection;
+		private long unavailableUntilNanos;
+		private boolean unavailable;
+		
+		SessionBus(final BusConnector connector, final long retryIntervalMs)
 		{
-			String line;
-			while((line = reader.readLine()) != null)
+			this.connector = connector;
+			this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMs);
+		}
+		
+		/**
+		 * @return <code>true</code> if the call was handled (successful or not); <code>false</code> if the bus
+		 * can't be used
+		 */
+		synchronized boolean openUri(final String uri, final Log log)
+		{
+			if(this.unavailable && System.nanoTime() - this.unavailableUntilNanos < 0)
 			{
-				sb.append(line).append(System.lineSeparator());
+				return false;
 			}
+			try
+			{
+				if(this.connection == null || !this.connection.isOpen())
+				{
+					this.connection = this.connector.connect();
+				}
+				this.unavailable = false;
+			}
+			catch(final IOException ioe)
+			{
+				log.debug("Unable to connect to the D-Bus session bus; using dbus-send", ioe);
+				this.unavailable = true;
+				this.unavailableUntilNanos = System.nanoTime() + this.retryIntervalNanos;
+				return false;
+			}
+			
+			try
+			{
+				this.connection.callMethod(MPRIS_DESTINATION, MPRIS_PATH, MPRIS_PLAYER_INTERFACE, "OpenUri", uri);
+			}
+			catch(final DBusConnection.ErrorReplyException ex)
+			{
+				// e.g. Spotify is not running
+				log.warn(String.format("Failed to play Spotify URI '%s': %s", uri, ex.getMessage()));
+			}
+			catch(final IOException ioe)
+			{
+				log.debug("D-Bus connection failed; using dbus-send", ioe);
+				closeQuietly(this.connection);
+				this.connection = null;
+				return false;
+			}
+			return true;
 		}
-		catch(final IOException ioe)
+		
+		private static void closeQuietly(final DBusConnection connection)
 		{
-			throw new UncheckedIOException(ioe);
+			try
+			{
+				connection.close();
+			}
+			catch(final IOException ignored)
+			{
+				// Already broken
+			}
 		}
-		return sb.toString();
 	}
 }
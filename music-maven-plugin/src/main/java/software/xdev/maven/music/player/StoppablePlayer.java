@@ -15,33 +15,160 @@
  */
 package software.xdev.maven.music.player;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.apache.maven.plugin.logging.Log;
 
+import software.xdev.maven.music.PlaybackSettings;
 import software.xdev.maven.music.sources.MusicSource;
 
 
+/**
+ * A {@link Player} that can be stopped while playing.
+ * <p>
+ * The playback is controlled by an atomic {@link PlaybackState state machine}. Stopping only has an effect while
+ * something is played, it never affects a later playback.
+ * </p>
+ * <p>
+ * Playing while another playback is still active replaces it: The active playback is stopped and the new one starts
+ * once it ended.
+ * </p>
+ */
 public abstract class StoppablePlayer<S extends MusicSource> implements Player<S>
 {
-	protected boolean externalStop;
+	private static final long STOP_POLL_MS = 10;
+	
+	private final AtomicReference<PlaybackState> state = new AtomicReference<>(PlaybackState.IDLE);
+	/**
+	 * Notified when a playback ended
+	 */
+	private final Object idleMonitor = new Object();
 	
 	@Override
 	public boolean play(final S source, final float defaultVolumeDB, final Log log)
 	{
+		return this.play(source, new PlaybackSettings(defaultVolumeDB), log);
+	}
+	
+	@Override
+	public boolean play(final S source, final PlaybackSettings settings, final Log log)
+	{
+		while(!this.state.compareAndSet(PlaybackState.IDLE, PlaybackState.STARTING))
+		{
+			// Replace the active playback
+			if(!this.stopAndAwaitIdle())
+			{
+				return true;
+			}
+		}
+		
 		try
 		{
-			return this.playInternal(source, defaultVolumeDB, log);
+			return this.playInternal(source, settings, log) || this.isStopRequested();
 		}
 		finally
 		{
-			this.externalStop = false;
+			this.state.set(PlaybackState.IDLE);
+			synchronized(this.idleMonitor)
+			{
+				this.idleMonitor.notifyAll();
+			}
 		}
 	}
 	
-	protected abstract boolean playInternal(final S source, final float defaultVolumeDB, final Log log);
+	/**
+	 * @return <code>false</code> if interrupted while waiting
+	 */
+	private boolean stopAndAwaitIdle()
+	{
+		synchronized(this.idleMonitor)
+		{
+			while(this.state.get() != PlaybackState.IDLE)
+			{
+				// Repeated as the playing thread might have not yet started or blocked again
+				this.requestStop();
+				try
+				{
+					this.idleMonitor.wait(STOP_POLL_MS);
+				}
+				catch(final InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return <code>true</code> if the music was stopped externally
+	 */
+	protected abstract boolean playInternal(final S source, final PlaybackSettings settings, final Log log);
+	
+	/**
+	 * Signals that the playback is now outputting audio.
+	 *
+	 * @return <code>false</code> if a stop was requested in the meantime
+	 */
+	protected boolean markPlaying()
+	{
+		return this.state.compareAndSet(PlaybackState.STARTING, PlaybackState.PLAYING);
+	}
 	
+	protected boolean isStopRequested()
+	{
+		return this.state.get() == PlaybackState.STOPPING;
+	}
+	
+	public PlaybackState getState()
+	{
+		return this.state.get();
+	}
+	
+	/**
+	 * Stops the active playback; if nothing is played everything that was kept for the next source is
+	 * {@link #release() released}.
+	 */
 	@Override
 	public void stop()
 	{
-		this.externalStop = true;
+		if(!this.requestStop())
+		{
+			this.release();
+		}
+	}
+	
+	/**
+	 * @return <code>false</code> if nothing is played
+	 */
+	private boolean requestStop()
+	{
+		PlaybackState current;
+		do
+		{
+			current = this.state.get();
+			if(current == PlaybackState.IDLE)
+			{
+				return false;
+			}
+		}
+		while(current != PlaybackState.STOPPING && !this.state.compareAndSet(current, PlaybackState.STOPPING));
+		
+		// Also called on repeated stops in case the playing thread blocked again afterwards
+		this.onStopRequested();
+		return true;
+	}
+	
+	/**
+	 * Called (on the stopping thread) after a stop was requested.
+	 * <p>
+	 * Should release the playing thread if it's blocked, e.g. while writing to a line. Might be called multiple
+	 * times.
+	 * </p>
+	 */
+	protected void onStopRequested()
+	{
+		// Nothing blocking by default
 	}
 }
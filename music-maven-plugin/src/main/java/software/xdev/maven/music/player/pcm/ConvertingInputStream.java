@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Applies a {@link PcmConverter} to a PCM stream.
+ */
+public class ConvertingInputStream extends InputStream
+{
+	private static final int CHUNK_SIZE = 8192;
+	
+	private final InputStream in;
+	private final PcmConverter converter;
+	private final byte[] inBuffer = new byte[CHUNK_SIZE];
+	private final byte[] outBuffer;
+	private int outPos;
+	private int outLength;
+	private boolean finished;
+	
+	public ConvertingInputStream(final InputStream in, final PcmConverter converter)
+	{
+		this.in = in;
+		this.converter = converter;
+		this.outBuffer = new byte[converter.maxOutputLength(CHUNK_SIZE)];
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		final byte[] b = new byte[1];
+		return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException
+	{
+		if(len == 0)
+		{
+			return 0;
+		}
+		while(this.outPos == this.outLength)
+		{
+			if(this.finished)
+			{
+				return -1;
+			}
+			final int n = this.in.read(this.inBuffer, 0, this.inBuffer.length);
+			this.outPos = 0;
+			if(n == -1)
+			{
+				// Flush what the converter held back
+				this.finished = true;
+				this.outLength = this.converter.finish(this.outBuffer, 0);
+			}
+			else
+			{
+				this.outLength = this.converter.convert(this.inBuffer, 0, n, this.outBuffer, 0);
+			}
+		}
+		
+		final int n = Math.min(len, this.outLength - this.outPos);
+		System.arraycopy(this.outBuffer, this.outPos, b, off, n);
+		this.outPos += n;
+		return n;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.in.close();
+	}
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import javax.sound.sampled.AudioFormat;
+
+
+/**
+ * Crossfades signed 16-bit little endian PCM of two consecutive tracks.
+ * <p>
+ * The audio of the current track is {@link #delay delayed} by the length of the fade, so that its tail is still
+ * available when the end of the track is reached. The tail is then {@link #mix mixed} with the head of the next
+ * track using an equal-power curve. If the current track is shorter than the fade, the curve is compressed to the
+ * available tail.
+ * </p>
+ * <p>
+ * All buffers are allocated upfront; processing doesn't allocate anything.<br/>
+ * Not thread safe.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class CrossfadeMixer
+{
+	private final AudioFormat format;
+	private final int fadeMillis;
+	private final int frameSize;
+	private final int chunkSize;
+	
+	/**
+	 * Ring containing the most recent audio of the current track
+	 */
+	private final byte[] delayLine;
+	private int delayStart;
+	private int delayLength;
+	
+	/**
+	 * Gain of the fading in track for each frame of the fade; the fading out track uses the mirrored values
+	 */
+	private final float[] fadeInCurve;
+	private int fadePosition;
+	/**
+	 * Frames the fade lasts; shorter than the curve if the tail is shorter. <code>0</code> until mixing started.
+	 */
+	private int fadeLength;
+	
+	private final float[] tail;
+	private final float[] head;
+	private final float[] mixed;
+	
+	/**
+	 * @param chunkSize the maximum number of bytes that is processed per call
+	 */
+	public CrossfadeMixer(final AudioFormat format, final int fadeMillis, final int chunkSize)
+	{
+		this.format = format;
+		this.fadeMillis = fadeMillis;
+		this.frameSize = format.getFrameSize();
+		this.chunkSize = chunkSize - chunkSize % this.frameSize;
+		
+		final int fadeFrames = Math.max(1, (int)(format.getFrameRate() * fadeMillis / 1000));
+		this.delayLine = new byte[fadeFrames * this.frameSize];
+		this.fadeInCurve = new float[fadeFrames];
+		for(int i = 0; i < fadeFrames; i++)
+		{
+			this.fadeInCurve[i] = (float)Math.sin(Math.PI / 2 * (i + 0.5) / fadeFrames);
+		}
+		
+		final int samplesPerChunk = this.chunkSize / 2;
+		this.tail = new float[samplesPerChunk];
+		this.head = new float[samplesPerChunk];
+		this.mixed = new float[samplesPerChunk];
+	}
+	
+	public boolean isCompatible(final AudioFormat otherFormat, final int otherFadeMillis)
+	{
+		return this.fadeMillis == otherFadeMillis && this.format.matches(otherFormat);
+	}
+	
+	/**
+	 * @return the maximum number of bytes that can be passed to {@link #delay} and {@link #mix} at once
+	 */
+	public int getChunkSize()
+	{
+		return this.chunkSize;
+	}
+	
+	/**
+	 * @return the number of bytes that are currently delayed (the tail that will be mixed)
+	 */
+	public int getDelayedBytes()
+	{
+		return this.delayLength;
+	}
+	
+	/**
+	 * Discards the delayed audio and prepares the mixer for the next track.
+	 */
+	public void reset()
+	{
+		this.delayStart = 0;
+		this.delayLength = 0;
+		this.fadePosition = 0;
+		this.fadeLength = 0;
+	}
+	
+	/**
+	 * Adds audio of the current track to the delay line.
+	 *
+	 * @param out receives the audio that leaves the delay line; must be able to hold <code>len</code> bytes
+	 * @return the number of bytes written to <code>out</code>
+	 */
+	public int delay(final byte[] in, final int off, final int len, final byte[] out)
+	{
+		final int capacity = this.delayLine.length;
+		final int overflow = Math.max(0, this.delayLength + len - capacity);
+		
+		// Emit the oldest audio that no longer fits
+		final int emitted = Math.min(overflow, this.delayLength);
+		this.readDelayLine(out, 0, emitted);
+		
+		// Input that doesn't fit even into the empty delay line (len > capacity) passes through directly
+		final int passThrough = overflow - emitted;
+		System.arraycopy(in, off, out, emitted, passThrough);
+		
+		final int toStore = len - passThrough;
+		final int writePos = (this.delayStart + this.delayLength) % capacity;
+		final int firstPart = Math.min(toStore, capacity - writePos);
+		System.arraycopy(in, off + passThrough, this.delayLine, writePos, firstPart);
+		System.arraycopy(in, off + passThrough + firstPart, this.delayLine, 0, toStore - firstPart);
+		this.delayLength += toStore;
+		
+		return emitted + passThrough;
+	}
+	
+	/**
+	 * Mixes the delayed tail of the current track (fading out) with the head of the next track (fading in).
+	 *
+	 * @param headGain linear gain that is applied to the next track (e.g. to compensate different volumes)
+	 * @param out      receives the mixed audio; must be able to hold <code>len</code> bytes
+	 * @return the number of bytes written to <code>out</code>; <code>0</code> if no tail is left
+	 */
+	public int mix(final byte[] in, final int off, final int len, final float headGain, final byte[] out)
+	{
+		if(this.fadeLength == 0)
+		{
+			this.fadeLength = Math.max(1, this.delayLength / this.frameSize);
+		}
+		final int bytes = Math.min(Math.min(len, this.delayLength), this.chunkSize) & ~1;
+		final int samples = bytes / 2;
+		
+		toFloat(in, off, samples, this.head);
+		final int tailStart = this.delayStart;
+		final int firstPart = Math.min(bytes, this.delayLine.length - tailStart);
+		toFloat(this.delayLine, tailStart, firstPart / 2, this.tail, 0);
+		toFloat(this.delayLine, 0, (bytes - firstPart) / 2, this.tail, firstPart / 2);
+		this.delayStart = (this.delayStart + bytes) % this.delayLine.length;
+		this.delayLength -= bytes;
+		
+		final int channels = this.frameSize / 2;
+		final int fadeFrames = this.fadeInCurve.length;
+		for(int s = 0; s < samples; s++)
+		{
+			final int frame = (int)Math.min(
+				(long)(this.fadePosition + s / channels) * fadeFrames / this.fadeLength,
+				fadeFrames - 1);
+			final float in1 = this.fadeInCurve[frame];
+			final float out1 = this.fadeInCurve[fadeFrames - 1 - frame];
+			this.mixed[s] = this.tail[s] * out1 + this.head[s] * in1 * headGain;
+		}
+		this.fadePosition += samples / channels;
+		
+		toPcm(this.mixed, samples, out);
+		return bytes;
+	}
+	
+	/**
+	 * Removes the remaining delayed audio (e.g. as there is no next track).
+	 *
+	 * @param out receives the audio; must be able to hold {@link #getChunkSize()} bytes
+	 * @return the number of bytes written to <code>out</code>; <code>0</code> if nothing is left
+	 */
+	public int drain(final byte[] out)
+	{
+		final int bytes = Math.min(this.delayLength, this.chunkSize);
+		this.readDelayLine(out, 0, bytes);
+		return bytes;
+	}
+	
+	private void readDelayLine(final byte[] out, final int off, final int len)
+	{
+		final int firstPart = Math.min(len, this.delayLine.length - this.delayStart);
+		System.arraycopy(this.delayLine, this.delayStart, out, off, firstPart);
+		System.arraycopy(this.delayLine, 0, out, off + firstPart, len - firstPart);
+		this.delayStart = (this.delayStart + len) % this.delayLine.length;
+		this.delayLength -= len;
+	}
+	
+	private static void toFloat(final byte[] pcm, final int off, final int samples, final float[] target)
+	{
+		toFloat(pcm, off, samples, target, 0);
+	}
+	
+	private static void toFloat(
+		final byte[] pcm,
+		final int off,
+		final int samples,
+		final float[] target,
+		final int targetOff)
+	{
+		for(int i = 0; i < samples; i++)
+		{
+			final int p = off + i * 2;
+			target[targetOff + i] = (short)((pcm[p] & 0xFF) | pcm[p + 1] << 8);
+		}
+	}
+	
+	private static void toPcm(final float[] samples, final int count, final byte[] out)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			final int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(samples[i])));
+			out[i * 2] = (byte)sample;
+			out[i * 2 + 1] = (byte)(sample >> 8);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import software.xdev.maven.music.player.CpuTime;
+
+
+/**
+ * Decodes audio ahead of playback into a {@link PcmRingBuffer}.
+ */
+public class DecoderStage implements Runnable
+{
+	private static final int CHUNK_SIZE = 8192;
+	
+	private final InputStream pcm;
+	private final PcmRingBuffer buffer;
+	
+	private volatile boolean endOfStreamReached;
+	private volatile IOException failure;
+	private volatile long cpuTimeNanos;
+	private volatile long decodeTimeNanos;
+	private volatile long bytesDecoded;
+	
+	/**
+	 * @param pcm    the decoding stream
+	 * @param buffer the buffer to fill
+	 */
+	public DecoderStage(final InputStream pcm, final PcmRingBuffer buffer)
+	{
+		this.pcm = pcm;
+		this.buffer = buffer;
+	}
+	
+	@Override
+	public void run()
+	{
+		final long cpuTimeAtStart = CpuTime.currentThread();
+		long decodeNanos = 0;
+		long decoded = 0;
+		try
+		{
+			final byte[] chunk = new byte[CHUNK_SIZE];
+			while(true)
+			{
+				final long startNanos = System.nanoTime();
+				final int n = this.pcm.read(chunk, 0, chunk.length);
+				decodeNanos += System.nanoTime() - startNanos;
+				if(n == -1)
+				{
+					break;
+				}
+				
+				decoded += n;
+				if(!this.buffer.write(chunk, 0, n))
+				{
+					return;
+				}
+			}
+			this.endOfStreamReached = true;
+		}
+		catch(final IOException ioe)
+		{
+			this.failure = ioe;
+		}
+		catch(final RuntimeException ex)
+		{
+			// Decoders (e.g. jorbis/mp3spi) fail with runtime exceptions on corrupt frames
+			this.failure = new IOException("Failed to decode", ex);
+		}
+		finally
+		{
+			this.cpuTimeNanos = CpuTime.currentThread() - cpuTimeAtStart;
+			this.decodeTimeNanos = decodeNanos;
+			this.bytesDecoded = decoded;
+			this.buffer.finish();
+		}
+	}
+	
+	/**
+	 * @return <code>true</code> if the whole stream was decoded
+	 */
+	public boolean isEndOfStreamReached()
+	{
+		return this.endOfStreamReached;
+	}
+	
+	/**
+	 * @return the exception that aborted decoding or <code>null</code>
+	 */
+	public IOException getFailure()
+	{
+		return this.failure;
+	}
+	
+	/**
+	 * @return the CPU time used for decoding; only available once decoding finished
+	 */
+	public long getCpuTimeNanos()
+	{
+		return this.cpuTimeNanos;
+	}
+	
+	/**
+	 * @return the time spent decoding (without waiting for free space in the buffer); only available once decoding
+	 * finished
+	 */
+	public long getDecodeTimeNanos()
+	{
+		return this.decodeTimeNanos;
+	}
+	
+	/**
+	 * @return the number of decoded PCM bytes; only available once decoding finished
+	 */
+	public long getBytesDecoded()
+	{
+		return this.bytesDecoded;
+	}
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import software.xdev.maven.music.cache.PcmCache;
+
+
+/**
+ * Converts signed 16-bit little endian PCM to a different sample rate and/or number of channels.
+ * <p>
+ * Channels are mapped first when reducing (e.g. downmixing to mono) and last when expanding (e.g. mono to stereo),
+ * so that the resampler only processes the minimum number of channels.<br/>
+ * Resampling is done by a polyphase windowed-sinc filter: The ratio between the sample rates is reduced to
+ * <code>L/M</code> and one filter for each of the <code>L</code> phases is precomputed (at most
+ * {@value #MAX_PHASES}; the nearest phase is used for unusual ratios). This way every output sample only costs a
+ * few multiply-adds and no allocations or trigonometric functions are needed while converting.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class PcmConverter
+{
+	private static final int MAX_PHASES = 512;
+	/**
+	 * Zero crossings of the sinc on each side of the filter - the higher the sharper the filter
+	 */
+	private static final int ZERO_CROSSINGS = 16;
+	/**
+	 * Bandwidth (relative to the lower Nyquist frequency) that is kept; the rest is used for the transition band
+	 */
+	private static final double ROLLOFF = 0.94;
+	
+	private static final int FRACTION_BITS = 32;
+	private static final long ONE = 1L << FRACTION_BITS;
+	private static final long FRACTION_MASK = ONE - 1;
+	/**
+	 * Input frames that are buffered for resampling (in addition to the filter length)
+	 */
+	private static final int BLOCK_FRAMES = 1024;
+	
+	private final int inChannels;
+	private final int outChannels;
+	/**
+	 * Channels that are resampled; <code>min(inChannels, outChannels)</code>
+	 */
+	private final int workChannels;
+	private final AudioFormat outFormat;
+	private final boolean resample;
+	
+	// Resampler
+	private final int phases;
+	private final int half;
+	private final int taps;
+	private final float[] coefficients;
+	private final long step;
+	private final double outFramesPerInFrame;
+	/**
+	 * Interleaved input frames (already mapped to the work channels)
+	 */
+	private final float[] frames;
+	private final int capacity;
+	private int frameCount;
+	/**
+	 * Position of the next output frame (fixed point) inside {@link #frames}
+	 */
+	private long position;
+	private long inFramesTotal;
+	private long outFramesTotal;
+	private final float[] mapped;
+	private final float[] accumulator;
+	
+	// Incomplete frame of the last input
+	private final byte[] carry;
+	private int carryLength;
+	
+	/**
+	 * @param mono downmixes to mono, otherwise the channels are kept
+	 */
+	public PcmConverter(final AudioFormat inFormat, final float outSampleRate, final boolean mono)
+	{
+		this(inFormat, PcmCache.pcmFormat(outSampleRate, mono ? 1 : inFormat.getChannels()));
+	}
+	
+	/**
+	 * @param outFormat only sample rate and channels are used; the encoding is always 16-bit PCM
+	 */
+	public PcmConverter(final AudioFormat inFormat, final AudioFormat outFormat)
+	{
+		this.inChannels = inFormat.getChannels();
+		this.outChannels = outFormat.getChannels();
+		this.workChannels = Math.min(this.inChannels, this.outChannels);
+		this.outFormat = PcmCache.pcmFormat(outFormat.getSampleRate(), this.outChannels);
+		this.carry = new byte[this.inChannels * 2];
+		this.mapped = new float[this.workChannels];
+		this.accumulator = new float[this.workChannels];
+		
+		final double inRate = inFormat.getSampleRate();
+		final double outRate = outFormat.getSampleRate();
+		this.resample = inRate != outRate;
+		this.outFramesPerInFrame = outRate / inRate;
+		this.step = Math.round(inRate / outRate * ONE);
+		
+		if(this.resample)
+		{
+			// Anti-aliasing when downsampling: the filter gets wider the lower the cutoff is
+			final double cutoff = Math.min(1.0, outRate / inRate) * ROLLOFF;
+			this.half = (int)Math.ceil(ZERO_CROSSINGS / cutoff);
+			this.taps = 2 * this.half;
+			this.phases = phasesFor(inRate, outRate);
+			this.coefficients = createFilterBank(this.phases, this.half, cutoff);
+		}
+		else
+		{
+			this.half = 1;
+			this.taps = 0;
+			this.phases = 1;
+			this.coefficients = new float[0];
+		}
+		
+		this.capacity = this.taps + BLOCK_FRAMES;
+		this.frames = new float[this.resample ? this.capacity * this.workChannels : 0];
+		// History before the first frame is silence
+		this.frameCount = this.half - 1;
+		this.position = (long)(this.half - 1) << FRACTION_BITS;
+	}
+	
+	/**
+	 * @return the number of filter phases: <code>L</code> of the reduced ratio <code>L/M</code> if possible
+	 */
+	static int phasesFor(final double inRate, final double outRate)
+	{
+		if(inRate == Math.rint(inRate) && outRate == Math.rint(outRate))
+		{
+			final long in = (long)inRate;
+			final long out = (long)outRate;
+			final long l = out / gcd(in, out);
+			if(l <= MAX_PHASES)
+			{
+				return (int)l;
+			}
+		}
+		return MAX_PHASES;
+	}
+	
+	private static long gcd(final long a, final long b)
+	{
+		return b == 0 ? a : gcd(b, a % b);
+	}
+	
+	/**
+	 * Creates a Blackman windowed sinc for each phase. Each phase is normalized to a gain of 1.
+	 */
+	static float[] createFilterBank(final int phases, final int half, final double cutoff)
+	{
+		final int taps = 2 * half;
+		final float[] bank = new float[phases * taps];
+		for(int p = 0; p < phases; p++)
+		{
+			final double fraction = (double)p / phases;
+			double sum = 0;
+			for(int k = 0; k < taps; k++)
+			{
+				// Distance between the input frame of the tap and the output position
+				final double d = k - half + 1 - fraction;
+				final double x = Math.PI * cutoff * d;
+				final double sinc = x == 0 ? 1.0 : Math.sin(x) / x;
+				final double w = d / half;
+				final double window = Math.abs(w) >= 1
+					? 0
+					: 0.42 + 0.5 * Math.cos(Math.PI * w) + 0.08 * Math.cos(2 * Math.PI * w);
+				final double value = sinc * window;
+				bank[p * taps + k] = (float)value;
+				sum += value;
+			}
+			for(int k = 0; k < taps; k++)
+			{
+				bank[p * taps + k] /= (float)sum;
+			}
+		}
+		return bank;
+	}
+	
+	/**
+	 * @return if the conversion would change anything
+	 */
+	public static boolean isRequired(final AudioFormat inFormat, final float outSampleRate, final boolean mono)
+	{
+		return inFormat.getSampleRate() != outSampleRate || mono && inFormat.getChannels() != 1;
+	}
+	
+	/**
+	 * @return if the conversion would change anything
+	 */
+	public static boolean isRequired(final AudioFormat inFormat, final AudioFormat outFormat)
+	{
+		return inFormat.getSampleRate() != outFormat.getSampleRate()
+			|| inFormat.getChannels() != outFormat.getChannels();
+	}
+	
+	public AudioFormat getOutputFormat()
+	{
+		return this.outFormat;
+	}
+	
+	/**
+	 * @return the maximum amount of bytes {@link #convert} or {@link #finish} will produce for the given amount of
+	 * input bytes
+	 */
+	public int maxOutputLength(final int inputLength)
+	{
+		final int inFrames = (inputLength + this.carry.length) / this.carry.length + this.taps;
+		return ((int)Math.ceil(inFrames * this.outFramesPerInFrame) + 2) * this.outChannels * 2;
+	}
+	
+	/**
+	 * Converts the input.
+	 * <p>
+	 * When resampling, the last few input frames are held back until more input (or {@link #finish}) arrives.
+	 * </p>
+	 *
+	 * @param dst must have at least {@link #maxOutputLength(int)} bytes available after <code>dstOff</code>
+	 * @return the number of bytes written into <code>dst</code>
+	 */
+	public int convert(final byte[] src, final int off, final int len, final byte[] dst, final int dstOff)
+	{
+		final int inFrameSize = this.carry.length;
+		int srcPos = off;
+		final int srcEnd = off + len;
+		int dstPos = dstOff;
+		
+		// Complete the frame that was cut off last time
+		if(this.carryLength > 0)
+		{
+			final int missing = Math.min(inFrameSize - this.carryLength, len);
+			System.arraycopy(src, srcPos, this.carry, this.carryLength, missing);
+			this.carryLength += missing;
+			srcPos += missing;
+			if(this.carryLength < inFrameSize)
+			{
+				return 0;
+			}
+			dstPos = this.processFrame(this.carry, 0, dst, dstPos);
+			this.carryLength = 0;
+		}
+		
+		for(; srcPos + inFrameSize <= srcEnd; srcPos += inFrameSize)
+		{
+			dstPos = this.processFrame(src, srcPos, dst, dstPos);
+		}
+		if(this.resample)
+		{
+			dstPos = this.resampleBuffered(dst, dstPos, Long.MAX_VALUE);
+		}
+		
+		this.carryLength = srcEnd - srcPos;
+		System.arraycopy(src, srcPos, this.carry, 0, this.carryLength);
+		return dstPos - dstOff;
+	}
+	
+	/**
+	 * Flushes the frames that are held back by the resampler. Must be called once after the last input.
+	 *
+	 * @param dst must have at least {@link #maxOutputLength(int) maxOutputLength(0)} bytes available after
+	 *            <code>dstOff</code>
+	 * @return the number of bytes written into <code>dst</code>
+	 */
+	public int finish(final byte[] dst, final int dstOff)
+	{
+		if(!this.resample)
+		{
+			return 0;
+		}
+		final long expectedOutFrames = Math.round(this.inFramesTotal * this.outFramesPerInFrame);
+		// Silence after the last frame
+		Arrays.fill(this.mapped, 0);
+		int dstPos = dstOff;
+		for(int i = 0; i < this.half + 1 && this.outFramesTotal < expectedOutFrames; i++)
+		{
+			this.append();
+			dstPos = this.resampleBuffered(dst, dstPos, expectedOutFrames);
+		}
+		return dstPos - dstOff;
+	}
+	
+	private int processFrame(final byte[] src, final int srcPos, final byte[] dst, final int dstPos)
+	{
+		this.readFrame(src, srcPos);
+		if(!this.resample)
+		{
+			return this.writeFrame(this.mapped, dst, dstPos);
+		}
+		
+		this.inFramesTotal++;
+		final int pos = this.frameCount == this.capacity
+			? this.resampleBuffered(dst, dstPos, Long.MAX_VALUE)
+			: dstPos;
+		this.append();
+		return pos;
+	}
+	
+	/**
+	 * Appends {@link #mapped} to the buffered frames
+	 */
+	private void append()
+	{
+		System.arraycopy(this.mapped, 0, this.frames, this.frameCount * this.workChannels, this.workChannels);
+		this.frameCount++;
+	}
+	
+	/**
+	 * Produces all output frames for which enough input is buffered and discards the input that is no longer
+	 * needed.
+	 */
+	private int resampleBuffered(final byte[] dst, final int dstPos, final long maxOutFrames)
+	{
+		final int channels = this.workChannels;
+		final int tapCount = this.taps;
+		final float[] bank = this.coefficients;
+		final float[] buffered = this.frames;
+		final float[] acc = this.accumulator;
+		
+		int pos = dstPos;
+		while(this.outFramesTotal < maxOutFrames)
+		{
+			int base = (int)(this.position >>> FRACTION_BITS);
+			int phase = (int)(((this.position & FRACTION_MASK) * this.phases + (ONE >>> 1)) >>> FRACTION_BITS);
+			if(phase == this.phases)
+			{
+				phase = 0;
+				base++;
+			}
+			if(base + this.half >= this.frameCount)
+			{
+				break;
+			}
+			
+			Arrays.fill(acc, 0);
+			final int coefficientOffset = phase * tapCount;
+			int frameOffset = (base - this.half + 1) * channels;
+			for(int k = 0; k < tapCount; k++, frameOffset += channels)
+			{
+				final float c = bank[coefficientOffset + k];
+				for(int ch = 0; ch < channels; ch++)
+				{
+					acc[ch] += c * buffered[frameOffset + ch];
+				}
+			}
+			pos = this.writeFrame(acc, dst, pos);
+			this.outFramesTotal++;
+			this.position += this.step;
+		}
+		
+		// Keep only the frames that are still required by the filter
+		final int discard = Math.min((int)(this.position >>> FRACTION_BITS) - this.half + 1, this.frameCount);
+		if(discard > 0)
+		{
+			System.arraycopy(
+				buffered,
+				discard * channels,
+				buffered,
+				0,
+				(this.frameCount - discard) * channels);
+			this.frameCount -= discard;
+			this.position -= (long)discard << FRACTION_BITS;
+		}
+		return pos;
+	}
+	
+	/**
+	 * Reads the frame into {@link #mapped} - mapped to the {@link #workChannels}
+	 */
+	private void readFrame(final byte[] src, final int srcPos)
+	{
+		if(this.workChannels == this.inChannels)
+		{
+			for(int ch = 0; ch < this.inChannels; ch++)
+			{
+				this.mapped[ch] = readSample(src, srcPos + ch * 2);
+			}
+			return;
+		}
+		
+		if(this.workChannels == 1)
+		{
+			// Downmix
+			int sum = 0;
+			for(int ch = 0; ch < this.inChannels; ch++)
+			{
+				sum += readSample(src, srcPos + ch * 2);
+			}
+			this.mapped[0] = (float)sum / this.inChannels;
+			return;
+		}
+		
+		// Drop the additional channels
+		for(int ch = 0; ch < this.workChannels; ch++)
+		{
+			this.mapped[ch] = readSample(src, srcPos + ch * 2);
+		}
+	}
+	
+	/**
+	 * Writes the frame - expanded to the {@link #outChannels} by repeating the work channels
+	 */
+	private int writeFrame(final float[] frame, final byte[] dst, final int dstPos)
+	{
+		int pos = dstPos;
+		for(int ch = 0; ch < this.outChannels; ch++)
+		{
+			final int sample = Math.max(
+				Short.MIN_VALUE,
+				Math.min(Short.MAX_VALUE, Math.round(frame[ch % this.workChannels])));
+			dst[pos++] = (byte)sample;
+			dst[pos++] = (byte)(sample >> 8);
+		}
+		return pos;
+	}
+	
+	private static int readSample(final byte[] src, final int pos)
+	{
+		return (short)(src[pos] & 0xFF | src[pos + 1] << 8);
+	}
+}
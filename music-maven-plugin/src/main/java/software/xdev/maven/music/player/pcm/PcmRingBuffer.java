@@ -0,0 +1,239 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Preallocated lock-free ring buffer for exactly one producer (decoder) and one consumer (line writer) thread.
+ * <p>
+ * A thread that can't make progress (buffer full/empty) is parked and woken up by the other side as soon as there
+ * is something to do.
+ * </p>
+ */
+public class PcmRingBuffer
+{
+	// Only a safety net against lost wake-ups; waiting threads are usually unparked explicitly
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	
+	private final byte[] data;
+	private final int capacity;
+	
+	// Total amount of bytes that have been written/read
+	private final AtomicLong writePosition = new AtomicLong();
+	private final AtomicLong readPosition = new AtomicLong();
+	
+	private volatile boolean finished;
+	private volatile boolean closed;
+	
+	private volatile Thread waitingProducer;
+	private volatile Thread waitingConsumer;
+	
+	// Statistics - only modified by the consumer
+	private final AtomicLong underruns = new AtomicLong();
+	private volatile int lowestFillLevel = Integer.MAX_VALUE;
+	
+	public PcmRingBuffer(final int capacity)
+	{
+		if(capacity <= 0)
+		{
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.data = new byte[capacity];
+	}
+	
+	/**
+	 * Writes all bytes into the buffer. Blocks while the buffer is full.
+	 *
+	 * @return <code>false</code> if the buffer was closed by the consumer and no more data is required
+	 */
+	public boolean write(final byte[] src, final int off, final int len)
+	{
+		int offset = off;
+		int remaining = len;
+		while(remaining > 0)
+		{
+			if(this.closed)
+			{
+				return false;
+			}
+			
+			final long w = this.writePosition.get();
+			final int free = this.capacity - (int)(w - this.readPosition.get());
+			if(free == 0)
+			{
+				this.waitingProducer = Thread.currentThread();
+				if(this.capacity - (int)(w - this.readPosition.get()) == 0 && !this.closed)
+				{
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				}
+				this.waitingProducer = null;
+				continue;
+			}
+			
+			final int n = Math.min(free, remaining);
+			final int index = (int)(w % this.capacity);
+			final int firstPart = Math.min(n, this.capacity - index);
+			System.arraycopy(src, offset, this.data, index, firstPart);
+			System.arraycopy(src, offset + firstPart, this.data, 0, n - firstPart);
+			this.writePosition.set(w + n);
+			
+			offset += n;
+			remaining -= n;
+			unpark(this.waitingConsumer);
+		}
+		return !this.closed;
+	}
+	
+	/**
+	 * Signals that no more data will be written.
+	 */
+	public void finish()
+	{
+		this.finished = true;
+		unpark(this.waitingConsumer);
+	}
+	
+	/**
+	 * Reads at least one byte. Blocks while the buffer is empty, which is counted as underrun.
+	 *
+	 * @return the number of bytes read or <code>-1</code> if all data was consumed or the buffer was closed
+	 */
+	public int read(final byte[] dst, final int off, final int len)
+	{
+		boolean waited = false;
+		while(!this.closed)
+		{
+			final boolean producerFinished = this.finished;
+			final long r = this.readPosition.get();
+			final int available = (int)(this.writePosition.get() - r);
+			if(available > 0)
+			{
+				if(waited)
+				{
+					this.underruns.incrementAndGet();
+				}
+				
+				final int n = Math.min(available, len);
+				final int index = (int)(r % this.capacity);
+				final int firstPart = Math.min(n, this.capacity - index);
+				System.arraycopy(this.data, index, dst, off, firstPart);
+				System.arraycopy(this.data, 0, dst, off + firstPart, n - firstPart);
+				this.readPosition.set(r + n);
+				
+				if(!producerFinished && available - n < this.lowestFillLevel)
+				{
+					this.lowestFillLevel = available - n;
+				}
+				unpark(this.waitingProducer);
+				return n;
+			}
+			if(producerFinished)
+			{
+				return -1;
+			}
+			
+			this.awaitProducer();
+			waited = true;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Waits (without counting an underrun) until the buffer contains at least the given amount of bytes or the
+	 * producer finished.
+	 */
+	public void awaitFillLevel(final int bytes)
+	{
+		final int target = Math.min(bytes, this.capacity);
+		while(!this.closed && !this.finished && this.getFillLevel() < target)
+		{
+			this.waitingConsumer = Thread.currentThread();
+			if(this.getFillLevel() < target && !this.finished && !this.closed)
+			{
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+			this.waitingConsumer = null;
+		}
+	}
+	
+	private void awaitProducer()
+	{
+		this.waitingConsumer = Thread.currentThread();
+		if(this.writePosition.get() == this.readPosition.get() && !this.finished && !this.closed)
+		{
+			LockSupport.parkNanos(this, MAX_PARK_NANOS);
+		}
+		this.waitingConsumer = null;
+	}
+	
+	/**
+	 * Discards the buffer. A producer that is waiting or writing will be released.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		unpark(this.waitingProducer);
+		unpark(this.waitingConsumer);
+	}
+	
+	private static void unpark(final Thread thread)
+	{
+		if(thread != null)
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	public int getCapacity()
+	{
+		return this.capacity;
+	}
+	
+	/**
+	 * @return the amount of bytes that are currently buffered
+	 */
+	public int getFillLevel()
+	{
+		return (int)(this.writePosition.get() - this.readPosition.get());
+	}
+	
+	/**
+	 * @return the lowest amount of bytes that were buffered after a read while the producer was still running
+	 */
+	public int getLowestFillLevel()
+	{
+		final int lowest = this.lowestFillLevel;
+		return lowest == Integer.MAX_VALUE ? this.getFillLevel() : lowest;
+	}
+	
+	/**
+	 * @return how often the consumer had to wait for the producer
+	 */
+	public long getUnderruns()
+	{
+		return this.underruns.get();
+	}
+	
+	public boolean isFinished()
+	{
+		return this.finished;
+	}
+}
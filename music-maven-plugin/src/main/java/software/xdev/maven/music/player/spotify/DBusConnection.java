@@ -0,0 +1,576 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.spotify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Optional;
+
+
+/**
+ * Minimal client for a D-Bus (e.g. the session bus) that is connected via a UNIX domain socket.
+ * <p>
+ * Only supports what's required to remote control media players (MPRIS): Calling methods with string arguments.
+ * The connection is meant to be kept open, so that no process needs to be started for each call.<br/>
+ * All operations are done non-blocking and fail if they take longer than the timeout.
+ * </p>
+ *
+ * @see <a href="https://dbus.freedesktop.org/doc/dbus-specification.html">D-Bus Specification</a>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class DBusConnection implements Closeable
+{
+	public static final String SESSION_BUS_ADDRESS_ENV = "DBUS_SESSION_BUS_ADDRESS";
+	
+	private static final byte LITTLE_ENDIAN = 'l';
+	private static final byte PROTOCOL_VERSION = 1;
+	
+	private static final byte METHOD_CALL = 1;
+	private static final byte METHOD_RETURN = 2;
+	private static final byte ERROR = 3;
+	
+	private static final byte FIELD_PATH = 1;
+	private static final byte FIELD_INTERFACE = 2;
+	private static final byte FIELD_MEMBER = 3;
+	private static final byte FIELD_ERROR_NAME = 4;
+	private static final byte FIELD_REPLY_SERIAL = 5;
+	private static final byte FIELD_DESTINATION = 6;
+	private static final byte FIELD_SIGNATURE = 8;
+	
+	private static final int HEADER_SIZE = 16;
+	private static final int MAX_MESSAGE_SIZE = 1 << 27;
+	
+	private final SocketChannel channel;
+	private final Selector selector;
+	private final long timeoutMs;
+	private int serial;
+	
+	protected DBusConnection(final SocketChannel channel, final long timeoutMs) throws IOException
+	{
+		this.channel = channel;
+		this.timeoutMs = timeoutMs;
+		this.selector = Selector.open();
+		channel.configureBlocking(false);
+	}
+	
+	/**
+	 * Connects to the session bus of the current user.
+	 */
+	public static DBusConnection connectSessionBus(final long timeoutMs) throws IOException
+	{
+		final Path socket = sessionBusSocket(System.getenv(SESSION_BUS_ADDRESS_ENV))
+			.orElseThrow(() -> new IOException("No supported session bus address found"));
+		return connect(socket, timeoutMs);
+	}
+	
+	/**
+	 * Connects to the bus at the socket and authenticates.
+	 */
+	@SuppressWarnings("PMD.CloseResource")
+	public static DBusConnection connect(final Path socket, final long timeoutMs) throws IOException
+	{
+		final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try
+		{
+			channel.connect(UnixDomainSocketAddress.of(socket));
+			final DBusConnection connection = new DBusConnection(channel, timeoutMs);
+			connection.authenticate();
+			connection.callMethod("org.freedesktop.DBus", "/org/freedesktop/DBus", "org.freedesktop.DBus", "Hello");
+			return connection;
+		}
+		catch(final IOException | RuntimeException ex)
+		{
+			channel.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Determines the socket of the session bus.
+	 * <p>
+	 * Only <code>unix:path=...</code> addresses are supported (abstract sockets can't be used from Java). If no
+	 * address is set, the default location of systemd (<code>/run/user/&lt;uid&gt;/bus</code>) is used.
+	 * </p>
+	 */
+	public static Optional<Path> sessionBusSocket(final String address)
+	{
+		if(address == null || address.isBlank())
+		{
+			return currentUid()
+				.map(uid -> Path.of("/run/user", String.valueOf(uid), "bus"))
+				.filter(Files::exists);
+		}
+		
+		for(final String entry : address.split(";"))
+		{
+			if(!entry.startsWith("unix:"))
+			{
+				continue;
+			}
+			for(final String keyValue : entry.substring("unix:".length()).split(","))
+			{
+				if(keyValue.startsWith("path="))
+				{
+					return Optional.of(Path.of(unescape(keyValue.substring("path=".length()))));
+				}
+			}
+		}
+		return Optional.empty();
+	}
+	
+	/**
+	 * Decodes the <code>%XX</code> escapes of address values.
+	 */
+	static String unescape(final String value)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+		for(int i = 0; i < value.length(); i++)
+		{
+			final char c = value.charAt(i);
+			if(c == '%' && i + 2 < value.length())
+			{
+				out.write(HexFormat.fromHexDigits(value, i + 1, i + 3));
+				i += 2;
+			}
+			else
+			{
+				out.write(c);
+			}
+		}
+		return out.toString(StandardCharsets.UTF_8);
+	}
+	
+	static Optional<Integer> currentUid()
+	{
+		try
+		{
+			return Optional.of((Integer)Files.getAttribute(Path.of("/proc/self"), "unix:uid"));
+		}
+		catch(final IOException | UnsupportedOperationException | IllegalArgumentException ex)
+		{
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * Authenticates with the credentials of the socket (<code>EXTERNAL</code>), which is supported by all buses.
+	 */
+	protected void authenticate() throws IOException
+	{
+		final String uid = String.valueOf(currentUid()
+			.orElseThrow(() -> new IOException("Unable to determine the user id for authentication")));
+		
+		// Credentials byte, followed by the line based authentication protocol
+		this.write(ByteBuffer.wrap(new byte[]{0}));
+		this.writeLine("AUTH EXTERNAL " + HexFormat.of().formatHex(uid.getBytes(StandardCharsets.US_ASCII)));
+		final String response = this.readLine();
+		if(!response.startsWith("OK"))
+		{
+			throw new IOException("Authentication failed: " + response);
+		}
+		this.writeLine("BEGIN");
+	}
+	
+	/**
+	 * Calls a method and waits for its reply.
+	 *
+	 * @param args string arguments
+	 * @throws ErrorReplyException if the call was answered with an error (e.g. the destination doesn't exist)
+	 * @throws IOException          if the connection failed or timed out
+	 */
+	public synchronized void callMethod(
+		final String destination,
+		final String path,
+		final String iface,
+		final String member,
+		final String... args)
+		throws IOException
+	{
+		final int callSerial = ++this.serial;
+		this.write(marshalMethodCall(callSerial, destination, path, iface, member, args));
+		
+		final long deadline = System.nanoTime() + this.timeoutMs * 1_000_000;
+		while(true)
+		{
+			final Reply reply = this.readMessage(deadline);
+			// Ignore signals and replies to other (e.g. timed out) calls
+			if(reply.replySerial() != callSerial)
+			{
+				continue;
+			}
+			if(reply.type() == ERROR)
+			{
+				throw new ErrorReplyException(member + " failed: " + reply.errorName()
+					+ (reply.errorMessage() != null ? " - " + reply.errorMessage() : ""));
+			}
+			if(reply.type() == METHOD_RETURN)
+			{
+				return;
+			}
+		}
+	}
+	
+	static ByteBuffer marshalMethodCall(
+		final int serial,
+		final String destination,
+		final String path,
+		final String iface,
+		final String member,
+		final String... args)
+	{
+		final Marshaller m = new Marshaller();
+		m.putByte(LITTLE_ENDIAN);
+		m.putByte(METHOD_CALL);
+		m.putByte(0);
+		m.putByte(PROTOCOL_VERSION);
+		final int bodyLengthPosition = m.putUInt(0);
+		m.putUInt(serial);
+		
+		final int fieldsLengthPosition = m.putUInt(0);
+		m.align(8);
+		final int fieldsStart = m.position();
+		m.putField(FIELD_PATH, "o", path);
+		m.putField(FIELD_INTERFACE, "s", iface);
+		m.putField(FIELD_MEMBER, "s", member);
+		m.putField(FIELD_DESTINATION, "s", destination);
+		if(args.length > 0)
+		{
+			m.putField(FIELD_SIGNATURE, "g", "s".repeat(args.length));
+		}
+		m.setUInt(fieldsLengthPosition, m.position() - fieldsStart);
+		
+		m.align(8);
+		final int bodyStart = m.position();
+		for(final String arg : args)
+		{
+			m.putString(arg);
+		}
+		m.setUInt(bodyLengthPosition, m.position() - bodyStart);
+		return m.toByteBuffer();
+	}
+	
+	protected Reply readMessage(final long deadline) throws IOException
+	{
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		this.readFully(header, deadline);
+		header.order(header.get(0) == LITTLE_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		
+		final long bodyLength = Integer.toUnsignedLong(header.getInt(4));
+		final long fieldsLength = Integer.toUnsignedLong(header.getInt(12));
+		final long headerLength = align(HEADER_SIZE + fieldsLength, 8);
+		if(headerLength + bodyLength > MAX_MESSAGE_SIZE)
+		{
+			throw new IOException("Message too large: " + (headerLength + bodyLength) + " bytes");
+		}
+		
+		final ByteBuffer message = ByteBuffer.allocate((int)(headerLength + bodyLength)).order(header.order());
+		message.put(header.flip());
+		this.readFully(message, deadline);
+		return Reply.parse(message, (int)fieldsLength, (int)headerLength);
+	}
+	
+	protected void writeLine(final String line) throws IOException
+	{
+		this.write(ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+	}
+	
+	protected String readLine() throws IOException
+	{
+		final long deadline = System.nanoTime() + this.timeoutMs * 1_000_000;
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		final ByteBuffer b = ByteBuffer.allocate(1);
+		while(true)
+		{
+			b.clear();
+			this.readFully(b, deadline);
+			final byte c = b.get(0);
+			if(c == '\n')
+			{
+				return line.toString(StandardCharsets.US_ASCII).stripTrailing();
+			}
+			line.write(c);
+		}
+	}
+	
+	protected void write(final ByteBuffer buffer) throws IOException
+	{
+		final long deadline = System.nanoTime() + this.timeoutMs * 1_000_000;
+		while(buffer.hasRemaining())
+		{
+			if(this.channel.write(buffer) == 0)
+			{
+				this.await(SelectionKey.OP_WRITE, deadline);
+			}
+		}
+	}
+	
+	protected void readFully(final ByteBuffer buffer, final long deadline) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			final int n = this.channel.read(buffer);
+			if(n == -1)
+			{
+				throw new IOException("Connection to bus was closed");
+			}
+			if(n == 0)
+			{
+				this.await(SelectionKey.OP_READ, deadline);
+			}
+		}
+	}
+	
+	private void await(final int operation, final long deadline) throws IOException
+	{
+		final long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+		if(remainingMs <= 0)
+		{
+			throw new IOException("Timed out after " + this.timeoutMs + " ms");
+		}
+		final SelectionKey key = this.channel.register(this.selector, operation);
+		try
+		{
+			this.selector.select(remainingMs);
+		}
+		finally
+		{
+			key.interestOps(0);
+			this.selector.selectedKeys().clear();
+		}
+	}
+	
+	static long align(final long position, final int alignment)
+	{
+		return (position + alignment - 1) / alignment * alignment;
+	}
+	
+	public boolean isOpen()
+	{
+		return this.channel.isOpen();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			this.selector.close();
+		}
+		finally
+		{
+			this.channel.close();
+		}
+	}
+	
+	/**
+	 * The bus (or the called service) answered with an error - the connection itself is still usable.
+	 */
+	public static class ErrorReplyException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+		
+		public ErrorReplyException(final String message)
+		{
+			super(message);
+		}
+	}
+	
+	/**
+	 * The relevant parts of a received message.
+	 */
+	protected record Reply(byte type, long replySerial, String errorName, String errorMessage)
+	{
+		static Reply parse(final ByteBuffer message, final int fieldsLength, final int headerLength)
+		{
+			final byte type = message.get(1);
+			long replySerial = -1;
+			String errorName = null;
+			String signature = "";
+			
+			int pos = HEADER_SIZE;
+			final int end = HEADER_SIZE + fieldsLength;
+			while(pos < end)
+			{
+				pos = (int)align(pos, 8);
+				final byte code = message.get(pos++);
+				final String fieldType = readSignature(message, pos);
+				pos += fieldType.length() + 2;
+				
+				switch(fieldType)
+				{
+					case "u" ->
+					{
+						pos = (int)align(pos, 4);
+						if(code == FIELD_REPLY_SERIAL)
+						{
+							replySerial = Integer.toUnsignedLong(message.getInt(pos));
+						}
+						pos += 4;
+					}
+					case "s", "o" ->
+					{
+						pos = (int)align(pos, 4);
+						final String value = readString(message, pos);
+						if(code == FIELD_ERROR_NAME)
+						{
+							errorName = value;
+						}
+						pos += 4 + value.getBytes(StandardCharsets.UTF_8).length + 1;
+					}
+					case "g" ->
+					{
+						final String value = readSignature(message, pos);
+						if(code == FIELD_SIGNATURE)
+						{
+							signature = value;
+						}
+						pos += value.length() + 2;
+					}
+					default ->
+					{
+						// Not required - the remaining fields can't be parsed without knowing the type
+						pos = end;
+					}
+				}
+			}
+			
+			// The first argument of an error is its message
+			final String errorMessage = type == ERROR && signature.startsWith("s")
+				? readString(message, headerLength)
+				: null;
+			return new Reply(type, replySerial, errorName, errorMessage);
+		}
+		
+		private static String readString(final ByteBuffer message, final int pos)
+		{
+			final int length = message.getInt(pos);
+			return new String(message.array(), pos + 4, length, StandardCharsets.UTF_8);
+		}
+		
+		private static String readSignature(final ByteBuffer message, final int pos)
+		{
+			final int length = message.get(pos) & 0xFF;
+			return new String(message.array(), pos + 1, length, StandardCharsets.US_ASCII);
+		}
+	}
+	
+	/**
+	 * Writes values in the little endian wire format, aligned relative to the start of the message.
+	 */
+	static final class Marshaller
+	{
+		private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+		
+		int position()
+		{
+			return this.buffer.position();
+		}
+		
+		void align(final int alignment)
+		{
+			while(this.buffer.position() % alignment != 0)
+			{
+				this.putByte(0);
+			}
+		}
+		
+		void putByte(final int value)
+		{
+			this.ensureCapacity(1);
+			this.buffer.put((byte)value);
+		}
+		
+		/**
+		 * @return the position of the value
+		 */
+		int putUInt(final int value)
+		{
+			this.align(4);
+			this.ensureCapacity(4);
+			final int position = this.buffer.position();
+			this.buffer.putInt(value);
+			return position;
+		}
+		
+		void setUInt(final int position, final int value)
+		{
+			this.buffer.putInt(position, value);
+		}
+		
+		void putString(final String value)
+		{
+			final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			this.putUInt(bytes.length);
+			this.ensureCapacity(bytes.length + 1);
+			this.buffer.put(bytes).put((byte)0);
+		}
+		
+		void putSignature(final String value)
+		{
+			final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+			this.putByte(bytes.length);
+			this.ensureCapacity(bytes.length + 1);
+			this.buffer.put(bytes).put((byte)0);
+		}
+		
+		/**
+		 * Header field: <code>STRUCT(BYTE code, VARIANT value)</code>
+		 */
+		void putField(final byte code, final String type, final String value)
+		{
+			this.align(8);
+			this.putByte(code);
+			this.putSignature(type);
+			if("g".equals(type))
+			{
+				this.putSignature(value);
+			}
+			else
+			{
+				this.putString(value);
+			}
+		}
+		
+		ByteBuffer toByteBuffer()
+		{
+			return this.buffer.duplicate().flip();
+		}
+		
+		private void ensureCapacity(final int additional)
+		{
+			if(this.buffer.remaining() < additional)
+			{
+				final ByteBuffer larger = ByteBuffer.allocate(
+					Math.max(this.buffer.capacity() * 2, this.buffer.position() + additional))
+					.order(ByteOrder.LITTLE_ENDIAN);
+				larger.put(this.buffer.flip());
+				this.buffer = larger;
+			}
+		}
+	}
+}
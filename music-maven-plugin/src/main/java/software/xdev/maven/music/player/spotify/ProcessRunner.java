@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.spotify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import software.xdev.maven.music.MusicExecutors;
+
+
+/**
+ * Runs short-lived external commands with a timeout.
+ * <p>
+ * The output (stdout and stderr combined) is consumed on a separate thread while the command runs, so that the
+ * command can't block because of a full pipe.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public final class ProcessRunner
+{
+	/**
+	 * Only the beginning of the output is kept - it's only used for error messages
+	 */
+	private static final int MAX_OUTPUT_BYTES = 16 * 1024;
+	
+	/**
+	 * Starts the command and waits until it terminated.
+	 *
+	 * @throws TimeoutException if the command didn't terminate in time; the command is killed
+	 */
+	public static Result run(final List<String> command, final long timeoutMs)
+		throws IOException, InterruptedException, TimeoutException
+	{
+		final Process process = new ProcessBuilder(command)
+			.redirectErrorStream(true)
+			.start();
+		process.getOutputStream().close();
+		
+		final CompletableFuture<String> output = new CompletableFuture<>();
+		MusicExecutors.io().execute(() -> {
+			try(final InputStream is = process.getInputStream())
+			{
+				output.complete(readLimited(is));
+			}
+			catch(final IOException ioe)
+			{
+				output.completeExceptionally(ioe);
+			}
+		});
+		
+		if(!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS))
+		{
+			process.destroyForcibly();
+			throw new TimeoutException(command.get(0) + " did not terminate within " + timeoutMs + " ms");
+		}
+		
+		String text;
+		try
+		{
+			// The output is complete shortly after the process terminated (unless it was inherited by a child)
+			text = output.get(timeoutMs, TimeUnit.MILLISECONDS);
+		}
+		catch(final ExecutionException | TimeoutException ex)
+		{
+			text = "";
+		}
+		return new Result(process.exitValue(), text);
+	}
+	
+	static String readLimited(final InputStream is) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int n;
+		while((n = is.read(buffer)) != -1)
+		{
+			// Keep on reading (and discarding) so that the process doesn't block
+			out.write(buffer, 0, Math.max(0, Math.min(n, MAX_OUTPUT_BYTES - out.size())));
+		}
+		return out.toString(Charset.defaultCharset());
+	}
+	
+	/**
+	 * @param output stdout and stderr combined
+	 */
+	public record Result(int exitCode, String output)
+	{
+	}
+	
+	private ProcessRunner()
+	{
+	}
+}
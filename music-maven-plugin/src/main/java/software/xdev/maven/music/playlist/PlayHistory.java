@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.playlist;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import software.xdev.maven.music.sources.MusicSource;
+
+
+/**
+ * Persistent ring of the (hashes of the) most recently played sources.
+ * <p>
+ * Only 8 bytes are required per entry, so the history stays small even for very large playlists.
+ * </p>
+ */
+public class PlayHistory
+{
+	// "MMPH"
+	private static final int MAGIC = 0x4D4D5048;
+	private static final int VERSION = 1;
+	
+	private final Path file;
+	private final long[] ring;
+	/**
+	 * Position where the next entry is written
+	 */
+	private int head;
+	private int count;
+	
+	/**
+	 * @param file     where the history is persisted; <code>null</code> = not persisted
+	 * @param capacity how many sources are remembered
+	 */
+	public PlayHistory(final Path file, final int capacity)
+	{
+		if(capacity <= 0)
+		{
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.file = file;
+		this.ring = new long[capacity];
+	}
+	
+	public Path getFile()
+	{
+		return this.file;
+	}
+	
+	public int getCapacity()
+	{
+		return this.ring.length;
+	}
+	
+	/**
+	 * Identifies a source in the history
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	public static long keyOf(final MusicSource source)
+	{
+		// FNV-1a
+		long hash = 0xcbf29ce484222325L;
+		for(final byte b : String.valueOf(source).getBytes(StandardCharsets.UTF_8))
+		{
+			hash ^= b & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	public synchronized void record(final long key)
+	{
+		this.ring[this.head] = key;
+		this.head = (this.head + 1) % this.ring.length;
+		this.count = Math.min(this.count + 1, this.ring.length);
+	}
+	
+	/**
+	 * @param window how many of the most recent entries are considered
+	 * @return <code>true</code> if the key is one of the most recently played entries
+	 */
+	public synchronized boolean isRecent(final long key, final int window)
+	{
+		final int n = Math.min(window, this.count);
+		for(int i = 1; i <= n; i++)
+		{
+			if(this.ring[Math.floorMod(this.head - i, this.ring.length)] == key)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Loads the persisted history (oldest first), keeping at most {@link #getCapacity()} entries.
+	 */
+	public synchronized void load() throws IOException
+	{
+		if(this.file == null)
+		{
+			return;
+		}
+		
+		try(final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file))))
+		{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+			{
+				return;
+			}
+			final int n = in.readInt();
+			for(int i = 0; i < n; i++)
+			{
+				this.record(in.readLong());
+			}
+		}
+		catch(final NoSuchFileException | EOFException ex)
+		{
+			// Nothing (complete) persisted yet
+		}
+	}
+	
+	public synchronized void save() throws IOException
+	{
+		if(this.file == null)
+		{
+			return;
+		}
+		
+		Files.createDirectories(this.file.toAbsolutePath().getParent());
+		final Path tempFile = Files.createTempFile(this.file.toAbsolutePath().getParent(), "history", ".tmp");
+		try
+		{
+			try(final DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(this.count);
+				for(int i = this.count; i >= 1; i--)
+				{
+					out.writeLong(this.ring[Math.floorMod(this.head - i, this.ring.length)]);
+				}
+			}
+			Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tempFile);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.playlist;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.function.IntToLongFunction;
+
+
+/**
+ * Determines in which order the sources of a playlist are played.
+ * <p>
+ * When shuffling, the order is a pseudo random permutation of the indices that is computed on the fly (and
+ * therefore doesn't require a copy of the playlist). Every repetition of the playlist uses a different permutation.
+ * The same seed always results in the same permutations.
+ * </p>
+ * <p>
+ * If a {@link PlayHistory} is used, recently played sources (e.g. in a previous build) are deferred to the end of
+ * the current repetition.
+ * </p>
+ * <p>
+ * Not thread safe.
+ * </p>
+ */
+public class PlaybackOrder
+{
+	public static final int END = -1;
+	
+	private static final int ROUNDS = 4;
+	
+	private final int size;
+	private final boolean shuffle;
+	private final boolean repeat;
+	private final long seed;
+	private final PlayHistory history;
+	private final IntToLongFunction historyKeys;
+	
+	private int cycle;
+	private int position;
+	private Permutation permutation;
+	/**
+	 * Recently played sources that are played at the end of the current cycle
+	 */
+	private final Deque<Integer> deferred = new ArrayDeque<>();
+	private int first = END;
+	private int peeked = END;
+	
+	/**
+	 * @param history     the history of recently played sources; <code>null</code> = none (not used when not
+	 *                    shuffling)
+	 * @param historyKeys the {@link PlayHistory#keyOf key} of the source at the given index
+	 */
+	public PlaybackOrder(
+		final int size,
+		final boolean shuffle,
+		final boolean repeat,
+		final long seed,
+		final PlayHistory history,
+		final IntToLongFunction historyKeys)
+	{
+		this.size = size;
+		this.shuffle = shuffle;
+		this.repeat = repeat;
+		this.seed = seed;
+		this.history = shuffle ? history : null;
+		this.historyKeys = historyKeys;
+		this.permutation = this.permutationFor(0);
+	}
+	
+	/**
+	 * Starts the order with the given index (e.g. to resume a stopped playback).
+	 */
+	public void startWith(final int index)
+	{
+		if(index < 0 || index >= this.size)
+		{
+			return;
+		}
+		if(this.shuffle)
+		{
+			this.first = index;
+		}
+		else
+		{
+			this.position = index;
+		}
+	}
+	
+	/**
+	 * @return the index of the next source or {@link #END}
+	 */
+	public int next()
+	{
+		final int next = this.peek();
+		this.peeked = END;
+		return next;
+	}
+	
+	/**
+	 * @return the index that will be returned by the next call of {@link #next()} or {@link #END}
+	 */
+	public int peek()
+	{
+		if(this.peeked == END)
+		{
+			this.peeked = this.computeNext();
+		}
+		return this.peeked;
+	}
+	
+	/**
+	 * Records that the source at the index was played.
+	 */
+	public void played(final int index)
+	{
+		if(this.history != null)
+		{
+			this.history.record(this.historyKeys.applyAsLong(index));
+		}
+	}
+	
+	private int computeNext()
+	{
+		if(this.size == 0)
+		{
+			return END;
+		}
+		if(this.first != END)
+		{
+			final int index = this.first;
+			this.first = END;
+			return index;
+		}
+		
+		// At least half of the playlist is always eligible
+		final int historyWindow = this.size / 2;
+		while(true)
+		{
+			while(this.position < this.size)
+			{
+				final int index = this.permutation.apply(this.position++);
+				if(this.history != null
+					&& this.history.isRecent(this.historyKeys.applyAsLong(index), historyWindow))
+				{
+					this.deferred.add(index);
+					continue;
+				}
+				return index;
+			}
+			if(!this.deferred.isEmpty())
+			{
+				return this.deferred.poll();
+			}
+			if(!this.repeat)
+			{
+				return END;
+			}
+			
+			this.cycle++;
+			this.position = 0;
+			this.permutation = this.permutationFor(this.cycle);
+		}
+	}
+	
+	private Permutation permutationFor(final int cycleNumber)
+	{
+		return this.shuffle && this.size > 1
+			? Permutation.random(this.size, this.seed, cycleNumber)
+			: i -> i;
+	}
+	
+	
+	/**
+	 * A bijective mapping of <code>[0, size)</code> onto itself.
+	 */
+	@FunctionalInterface
+	interface Permutation
+	{
+		int apply(int i);
+		
+		/**
+		 * Creates a random permutation that is computed on the fly with O(1) memory.
+		 * <p>
+		 * Multiple rounds of invertible operations (multiplication with an odd number, addition and xorshift) are
+		 * applied modulo the next power of two. Results outside of the range are mapped again (cycle walking) until
+		 * they are inside the range, which preserves the bijectivity.
+		 * </p>
+		 */
+		@SuppressWarnings("checkstyle:MagicNumber")
+		static Permutation random(final int size, final long seed, final int cycle)
+		{
+			final int bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(size - 1));
+			final long mask = (1L << bits) - 1;
+			final int shift = bits / 2;
+			
+			final SplittableRandom random = new SplittableRandom(seed ^ (cycle * 0x9E3779B97F4A7C15L));
+			final long[] multipliers = new long[ROUNDS];
+			final long[] addends = new long[ROUNDS];
+			for(int r = 0; r < ROUNDS; r++)
+			{
+				multipliers[r] = random.nextLong() & mask | 1;
+				addends[r] = random.nextLong() & mask;
+			}
+			
+			return i -> {
+				long x = i;
+				do
+				{
+					for(int r = 0; r < ROUNDS; r++)
+					{
+						x = (x * multipliers[r] + addends[r]) & mask;
+						x ^= x >>> shift;
+					}
+				}
+				while(x >= size);
+				return (int)x;
+			};
+		}
+	}
+}
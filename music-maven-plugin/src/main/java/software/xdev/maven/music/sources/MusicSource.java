@@ -15,6 +15,17 @@
  */
 package software.xdev.maven.music.sources;
 
+import java.util.Set;
+
+
 public interface MusicSource
 {
+	/**
+	 * @return the names of the properties that contain local paths; relative paths are resolved against the project
+	 * when the source is handed over to another process (e.g. the player daemon)
+	 */
+	default Set<String> pathProperties()
+	{
+		return Set.of();
+	}
 }
@@ -18,6 +18,8 @@ package software.xdev.maven.music.sources;
 import java.util.Objects;
 import java.util.stream.Stream;
 
+import software.xdev.maven.music.sources.library.DirectoryMusicSource;
+import software.xdev.maven.music.sources.library.PlaylistMusicSource;
 import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
 import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
 import software.xdev.maven.music.sources.mp3ogg.URIMusicSource;
@@ -30,6 +32,9 @@ public class WrappedMusicSource implements MusicSource
 	private URIMusicSource uri;
 	private FileMusicSource file;
 	
+	private DirectoryMusicSource directory;
+	private PlaylistMusicSource playlist;
+	
 	private SpotifyMusicSource spotify;
 	
 	public WrappedMusicSource()
@@ -43,7 +48,7 @@ public class WrappedMusicSource implements MusicSource
 	
 	public MusicSource getMusicSource()
 	{
-		return Stream.of(this.classpath, this.uri, this.file, this.spotify)
+		return Stream.of(this.classpath, this.uri, this.file, this.directory, this.playlist, this.spotify)
 			.filter(Objects::nonNull)
 			.findFirst()
 			.orElseThrow(() -> new IllegalArgumentException("No source defined"));
@@ -78,4 +83,24 @@ public class WrappedMusicSource implements MusicSource
 	{
 		this.file = file;
 	}
+	
+	public DirectoryMusicSource getDirectory()
+	{
+		return this.directory;
+	}
+	
+	public void setDirectory(final DirectoryMusicSource directory)
+	{
+		this.directory = directory;
+	}
+	
+	public PlaylistMusicSource getPlaylist()
+	{
+		return this.playlist;
+	}
+	
+	public void setPlaylist(final PlaylistMusicSource playlist)
+	{
+		this.playlist = playlist;
+	}
 }
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.MusicExecutors;
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+
+
+/**
+ * Uses all audio files inside a directory as music sources.
+ * <p>
+ * The directory is scanned in parallel and the result is persisted in a {@link LibraryIndex}.<br/>
+ * If an index already exists it's used immediately (without accessing the directory) and refreshed in the
+ * background for the next playback. Otherwise the files are only listed (without opening them) and probed in the
+ * background.
+ * </p>
+ * <p>
+ * The sources of the files are created on demand when they are accessed.
+ * </p>
+ */
+public class DirectoryMusicSource implements MusicLibrary
+{
+	private String directory;
+	private boolean recursive = true;
+	private Float volumeDB;
+	
+	public String getDirectory()
+	{
+		return this.directory;
+	}
+	
+	public void setDirectory(final String directory)
+	{
+		this.directory = directory;
+	}
+	
+	@Override
+	public Set<String> pathProperties()
+	{
+		return Set.of("directory");
+	}
+	
+	public boolean isRecursive()
+	{
+		return this.recursive;
+	}
+	
+	/**
+	 * Also include the files of subdirectories?
+	 */
+	public void setRecursive(final boolean recursive)
+	{
+		this.recursive = recursive;
+	}
+	
+	public Float getVolumeDB()
+	{
+		return this.volumeDB;
+	}
+	
+	/**
+	 * Volume that is used for all files of the directory
+	 */
+	public void setVolumeDB(final Float volumeDB)
+	{
+		this.volumeDB = volumeDB;
+	}
+	
+	@Override
+	public List<MusicSource> resolve(final PlaybackSettings settings, final Log log)
+	{
+		final LibraryIndex index =
+			new LibraryIndex(Path.of(this.getDirectory()), this.isRecursive(), settings.getLibraryIndexDirectory());
+		
+		if(!this.loadIndex(index, log))
+		{
+			final long startNanos = System.nanoTime();
+			final LibraryScanner.Result result = index.list();
+			log.info(String.format(
+				"[🎵] Listed %s in %d ms: %d files",
+				this,
+				(System.nanoTime() - startNanos) / 1_000_000,
+				result.entries().size()));
+		}
+		final List<LibraryIndex.Entry> playable =
+			index.getEntries().stream().filter(LibraryIndex.Entry::isPlayable).toList();
+		this.refreshInBackground(index, log);
+		return new LazySources(index.getRoot(), playable);
+	}
+	
+	protected boolean loadIndex(final LibraryIndex index, final Log log)
+	{
+		try
+		{
+			return index.load();
+		}
+		catch(final IOException | UncheckedIOException ex)
+		{
+			log.warn("Failed to read library index of " + this, ex);
+			return false;
+		}
+	}
+	
+	protected void refreshInBackground(final LibraryIndex index, final Log log)
+	{
+		// The scanning itself is done on the pool of the scanner
+		MusicExecutors.io().execute(() -> {
+			try
+			{
+				final LibraryScanner.Result result = index.refresh();
+				log.debug(String.format(
+					"Refreshed library index of %s: %d files, %d new/changed, %d removed",
+					this,
+					result.entries().size(),
+					result.probed(),
+					result.removed()));
+				if(result.probed() > 0 || result.removed() > 0)
+				{
+					saveIndex(index, log);
+				}
+			}
+			catch(final UncheckedIOException ex)
+			{
+				log.warn("Failed to refresh library index of " + this, ex);
+			}
+		});
+	}
+	
+	protected static void saveIndex(final LibraryIndex index, final Log log)
+	{
+		try
+		{
+			index.save();
+		}
+		catch(final IOException ioe)
+		{
+			log.warn("Failed to write library index of " + index.getRoot(), ioe);
+		}
+	}
+	
+	protected FileMusicSource toSource(final Path file)
+	{
+		final FileMusicSource source = new FileMusicSource();
+		source.setFile(file.toString());
+		source.setVolumeDB(this.getVolumeDB());
+		return source;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "[directory]:" + this.getDirectory();
+	}
+	
+	
+	/**
+	 * Creates the source of an entry when it's accessed for the first time.
+	 * <p>
+	 * Every source is only created once, as sources are identified by their instance (e.g. when prefetched).
+	 * </p>
+	 */
+	protected class LazySources extends AbstractList<MusicSource> implements RandomAccess
+	{
+		private final Path root;
+		private final List<LibraryIndex.Entry> entries;
+		private final AtomicReferenceArray<MusicSource> sources;
+		
+		protected LazySources(final Path root, final List<LibraryIndex.Entry> entries)
+		{
+			this.root = root;
+			this.entries = entries;
+			this.sources = new AtomicReferenceArray<>(entries.size());
+		}
+		
+		@Override
+		public MusicSource get(final int index)
+		{
+			final MusicSource existing = this.sources.get(index);
+			if(existing != null)
+			{
+				return existing;
+			}
+			final MusicSource created = DirectoryMusicSource.this.toSource(
+				this.root.resolve(this.entries.get(index).path()));
+			return this.sources.compareAndSet(index, null, created) ? created : this.sources.get(index);
+		}
+		
+		@Override
+		public int size()
+		{
+			return this.entries.size();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import software.xdev.maven.music.cache.ContentHash;
+
+
+/**
+ * Index of the audio files inside a directory.
+ * <p>
+ * The index is persisted so that following builds don't need to scan the directory before the music starts.<br/>
+ * When the index is {@link #refresh() refreshed} only new and changed files (detected using the size and last
+ * modified time) are probed.
+ * </p>
+ */
+public class LibraryIndex
+{
+	private static final String EXTENSION = ".index";
+	private static final String HEADER = "music-maven-plugin-library-index\t2";
+	private static final String SEPARATOR = "\t";
+	
+	private final Path root;
+	private final boolean recursive;
+	private final Path file;
+	
+	private volatile List<Entry> entries = List.of();
+	
+	/**
+	 * @param indexDirectory where the index is persisted; <code>null</code> = not persisted
+	 */
+	public LibraryIndex(final Path root, final boolean recursive, final Path indexDirectory)
+	{
+		this.root = root.toAbsolutePath().normalize();
+		this.recursive = recursive;
+		this.file = indexDirectory != null
+			? indexDirectory.resolve(ContentHash.sha256(
+			(this.root + SEPARATOR + recursive).getBytes(StandardCharsets.UTF_8)) + EXTENSION)
+			: null;
+	}
+	
+	public Path getRoot()
+	{
+		return this.root;
+	}
+	
+	/**
+	 * @return all indexed files (including unsupported ones) ordered by their path
+	 */
+	public List<Entry> getEntries()
+	{
+		return this.entries;
+	}
+	
+	/**
+	 * @return <code>true</code> if a persisted index was found
+	 */
+	public boolean load() throws IOException
+	{
+		if(this.file == null)
+		{
+			return false;
+		}
+		
+		final List<Entry> loaded = new ArrayList<>();
+		try(final BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+		{
+			if(!HEADER.equals(reader.readLine()))
+			{
+				return false;
+			}
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				final Entry entry = Entry.parse(line);
+				if(entry != null)
+				{
+					loaded.add(entry);
+				}
+			}
+		}
+		catch(final NoSuchFileException ex)
+		{
+			return false;
+		}
+		this.entries = List.copyOf(loaded);
+		return true;
+	}
+	
+	/**
+	 * Scans the directory (in parallel) and updates the entries; new or changed files are probed.
+	 */
+	public LibraryScanner.Result refresh()
+	{
+		return this.update(LibraryScanner::scan);
+	}
+	
+	/**
+	 * Scans the directory (in parallel) without probing any file, so that the files can be played immediately.
+	 */
+	public LibraryScanner.Result list()
+	{
+		return this.update(LibraryScanner::list);
+	}
+	
+	protected LibraryScanner.Result update(final Scan scan)
+	{
+		final Map<String, Entry> previous = this.entries.stream()
+			.collect(Collectors.toMap(Entry::path, Function.identity(), (a, b) -> a, HashMap::new));
+		
+		final LibraryScanner.Result result = scan.scan(this.root, this.recursive, previous);
+		this.entries = result.entries()
+			.stream()
+			.sorted(Comparator.comparing(Entry::path))
+			.toList();
+		return result;
+	}
+	
+	public void save() throws IOException
+	{
+		if(this.file == null)
+		{
+			return;
+		}
+		
+		Files.createDirectories(this.file.getParent());
+		final Path tempFile = Files.createTempFile(this.file.getParent(), "library", ".tmp");
+		try
+		{
+			try(final BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+			{
+				writer.write(HEADER);
+				writer.newLine();
+				for(final Entry entry : this.entries)
+				{
+					writer.write(entry.format());
+					writer.newLine();
+				}
+			}
+			Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tempFile);
+		}
+	}
+	
+	
+	@FunctionalInterface
+	protected interface Scan
+	{
+		LibraryScanner.Result scan(Path root, boolean recursive, Map<String, Entry> previous);
+	}
+	
+	
+	/**
+	 * A file inside the library.
+	 *
+	 * @param path               the path relative to the root (using <code>/</code> as separator)
+	 * @param lastModifiedMillis the last modified time when the file was probed
+	 * @param size               the size when the file was probed
+	 * @param audioFormat        the audio file type (e.g. <code>MP3</code>), {@link #UNSUPPORTED} or
+	 *                           {@link #NOT_PROBED}
+	 * @param durationMillis     the duration or <code>-1</code> if unknown
+	 */
+	public record Entry(String path, long lastModifiedMillis, long size, String audioFormat, long durationMillis)
+	{
+		public static final String UNSUPPORTED = "-";
+		public static final String NOT_PROBED = "?";
+		
+		/**
+		 * @return <code>true</code> unless probing found out that the file can't be played
+		 */
+		public boolean isPlayable()
+		{
+			return !UNSUPPORTED.equals(this.audioFormat);
+		}
+		
+		public boolean isProbed()
+		{
+			return !NOT_PROBED.equals(this.audioFormat);
+		}
+		
+		String format()
+		{
+			return String.join(
+				SEPARATOR,
+				escape(this.path),
+				String.valueOf(this.lastModifiedMillis),
+				String.valueOf(this.size),
+				this.audioFormat,
+				String.valueOf(this.durationMillis));
+		}
+		
+		@SuppressWarnings("checkstyle:MagicNumber")
+		static Entry parse(final String line)
+		{
+			final String[] parts = line.split(SEPARATOR);
+			if(parts.length != 5)
+			{
+				return null;
+			}
+			try
+			{
+				return new Entry(
+					unescape(parts[0]),
+					Long.parseLong(parts[1]),
+					Long.parseLong(parts[2]),
+					parts[3],
+					Long.parseLong(parts[4]));
+			}
+			catch(final NumberFormatException ex)
+			{
+				return null;
+			}
+		}
+		
+		/**
+		 * Escapes the characters that would break the line based format (separator, line breaks).
+		 */
+		static String escape(final String value)
+		{
+			final StringBuilder sb = new StringBuilder(value.length());
+			for(int i = 0; i < value.length(); i++)
+			{
+				final char c = value.charAt(i);
+				switch(c)
+				{
+					case '\\' -> sb.append("\\\\");
+					case '\t' -> sb.append("\\t");
+					case '\n' -> sb.append("\\n");
+					case '\r' -> sb.append("\\r");
+					default -> sb.append(c);
+				}
+			}
+			return sb.toString();
+		}
+		
+		static String unescape(final String value)
+		{
+			if(value.indexOf('\\') == -1)
+			{
+				return value;
+			}
+			final StringBuilder sb = new StringBuilder(value.length());
+			for(int i = 0; i < value.length(); i++)
+			{
+				final char c = value.charAt(i);
+				if(c != '\\' || i + 1 == value.length())
+				{
+					sb.append(c);
+					continue;
+				}
+				final char escaped = value.charAt(++i);
+				switch(escaped)
+				{
+					case 't' -> sb.append('\t');
+					case 'n' -> sb.append('\n');
+					case 'r' -> sb.append('\r');
+					default -> sb.append(escaped);
+				}
+			}
+			return sb.toString();
+		}
+	}
+}
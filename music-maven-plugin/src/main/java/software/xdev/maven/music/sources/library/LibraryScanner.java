@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import software.xdev.maven.music.player.FormatSniffer;
+
+
+/**
+ * Scans a directory for audio files. Every (sub)directory is scanned by a separate fork-join task.
+ * <p>
+ * Files that are unchanged compared to the previous scan are not probed again. Files can also only be
+ * {@link #list listed}, which is much faster as no file is opened.
+ * </p>
+ */
+public final class LibraryScanner extends RecursiveTask<List<LibraryIndex.Entry>>
+{
+	private static final long serialVersionUID = 1L;
+	
+	protected static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+	
+	public static final Set<String> SUPPORTED_EXTENSIONS = Set.of("mp3", "ogg");
+	
+	/**
+	 * Scanning mostly waits for the file system (e.g. a network share), so more threads than cores are used
+	 */
+	@SuppressWarnings("checkstyle:MagicNumber")
+	private static final ForkJoinPool POOL = new ForkJoinPool(
+		Math.max(8, Runtime.getRuntime().availableProcessors()),
+		pool -> {
+			final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("Maven-Music-Library-" + THREAD_COUNTER.getAndIncrement());
+			return thread;
+		},
+		null,
+		false);
+	
+	private final Path root;
+	private final Path directory;
+	private final boolean recursive;
+	private final Map<String, LibraryIndex.Entry> previous;
+	private final boolean probe;
+	private final AtomicInteger probed;
+	
+	private LibraryScanner(
+		final Path root,
+		final Path directory,
+		final boolean recursive,
+		final Map<String, LibraryIndex.Entry> previous,
+		final boolean probe,
+		final AtomicInteger probed)
+	{
+		this.root = root;
+		this.directory = directory;
+		this.recursive = recursive;
+		this.previous = previous;
+		this.probe = probe;
+		this.probed = probed;
+	}
+	
+	/**
+	 * Scans the directory and probes all new or changed files.
+	 *
+	 * @param previous the entries of the last scan by their path
+	 */
+	public static Result scan(final Path root, final boolean recursive, final Map<String, LibraryIndex.Entry> previous)
+	{
+		return scan(root, recursive, previous, true);
+	}
+	
+	/**
+	 * Scans the directory without probing any file; new or changed files are {@link LibraryIndex.Entry#isProbed() not
+	 * probed}.
+	 *
+	 * @param previous the entries of the last scan by their path
+	 */
+	public static Result list(final Path root, final boolean recursive, final Map<String, LibraryIndex.Entry> previous)
+	{
+		return scan(root, recursive, previous, false);
+	}
+	
+	private static Result scan(
+		final Path root,
+		final boolean recursive,
+		final Map<String, LibraryIndex.Entry> previous,
+		final boolean probe)
+	{
+		final AtomicInteger probed = new AtomicInteger();
+		final List<LibraryIndex.Entry> entries =
+			POOL.invoke(new LibraryScanner(root, root, recursive, previous, probe, probed));
+		final long kept = entries.stream().filter(entry -> previous.containsKey(entry.path())).count();
+		return new Result(entries, probed.get(), (int)(previous.size() - kept));
+	}
+	
+	@Override
+	protected List<LibraryIndex.Entry> compute()
+	{
+		final List<LibraryIndex.Entry> entries = new ArrayList<>();
+		final List<LibraryScanner> subdirectories = new ArrayList<>();
+		try(final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory))
+		{
+			for(final Path child : stream)
+			{
+				final BasicFileAttributes attributes =
+					Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				if(attributes.isDirectory())
+				{
+					if(this.recursive)
+					{
+						final LibraryScanner task =
+							new LibraryScanner(this.root, child, true, this.previous, this.probe, this.probed);
+						task.fork();
+						subdirectories.add(task);
+					}
+				}
+				else if(isSupported(child))
+				{
+					// Symbolic links to directories are not followed to prevent loops; links to files are
+					final BasicFileAttributes target = attributes.isSymbolicLink()
+						? Files.readAttributes(child, BasicFileAttributes.class)
+						: attributes;
+					if(target.isRegularFile())
+					{
+						entries.add(this.entryFor(child, target));
+					}
+				}
+			}
+		}
+		catch(final IOException ioe)
+		{
+			if(this.directory.equals(this.root))
+			{
+				throw new UncheckedIOException("Failed to scan " + this.directory, ioe);
+			}
+			// Unreadable subdirectories are skipped
+		}
+		
+		for(final LibraryScanner task : subdirectories)
+		{
+			entries.addAll(task.join());
+		}
+		return entries;
+	}
+	
+	private LibraryIndex.Entry entryFor(final Path file, final BasicFileAttributes attributes)
+	{
+		final String path = this.root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+		final long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+		
+		final LibraryIndex.Entry known = this.previous.get(path);
+		if(known != null && known.lastModifiedMillis() == lastModifiedMillis && known.size() == attributes.size()
+			&& (known.isProbed() || !this.probe))
+		{
+			return known;
+		}
+		if(!this.probe)
+		{
+			return new LibraryIndex.Entry(
+				path,
+				lastModifiedMillis,
+				attributes.size(),
+				LibraryIndex.Entry.NOT_PROBED,
+				-1);
+		}
+		
+		this.probed.incrementAndGet();
+		return probe(file, path, lastModifiedMillis, attributes.size());
+	}
+	
+	@SuppressWarnings("checkstyle:MagicNumber")
+	static LibraryIndex.Entry probe(final Path file, final String path, final long lastModifiedMillis, final long size)
+	{
+		try
+		{
+			final AudioFileFormat format = FormatSniffer.getAudioFileFormat(file.toFile());
+			long durationMillis = -1;
+			if(format.getProperty("duration") instanceof final Long micros)
+			{
+				durationMillis = micros / 1000;
+			}
+			else if(format.getFrameLength() > 0 && format.getFormat().getFrameRate() > 0)
+			{
+				durationMillis = (long)(format.getFrameLength() * 1000L / format.getFormat().getFrameRate());
+			}
+			return new LibraryIndex.Entry(path, lastModifiedMillis, size, format.getType().toString(), durationMillis);
+		}
+		catch(final UnsupportedAudioFileException | IOException | RuntimeException ex)
+		{
+			return new LibraryIndex.Entry(path, lastModifiedMillis, size, LibraryIndex.Entry.UNSUPPORTED, -1);
+		}
+	}
+	
+	static boolean isSupported(final Path file)
+	{
+		final String name = file.getFileName().toString();
+		final int dot = name.lastIndexOf('.');
+		return dot > 0 && SUPPORTED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+	
+	/**
+	 * @param entries all files that were found
+	 * @param probed  how many files were new or changed (and therefore probed)
+	 * @param removed how many files of the previous scan no longer exist
+	 */
+	public record Result(List<LibraryIndex.Entry> entries, int probed, int removed)
+	{
+	}
+}
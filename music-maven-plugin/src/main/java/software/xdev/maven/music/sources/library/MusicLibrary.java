@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+
+
+/**
+ * A source that consists of multiple other sources (e.g. all files of a directory).
+ * <p>
+ * Libraries are not played directly but resolved into their entries when the playback starts.
+ * </p>
+ */
+public interface MusicLibrary extends MusicSource
+{
+	/**
+	 * Resolves the entries of the library.
+	 * <p>
+	 * This should be cheap: Entries should not be opened or probed here, this happens when they are played.
+	 * </p>
+	 */
+	List<MusicSource> resolve(PlaybackSettings settings, Log log);
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.MP3OggMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.URIMusicSource;
+
+
+/**
+ * Uses the entries of a <a href="https://en.wikipedia.org/wiki/M3U">M3U/M3U8 playlist</a> as music sources.
+ * <p>
+ * Entries can be files (absolute or relative to the playlist) or URIs.
+ * They are only opened when played.
+ * </p>
+ */
+public class PlaylistMusicSource implements MusicLibrary
+{
+	private static final Pattern URI_SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]+:/.*");
+	
+	private String file;
+	private Float volumeDB;
+	
+	public String getFile()
+	{
+		return this.file;
+	}
+	
+	public void setFile(final String file)
+	{
+		this.file = file;
+	}
+	
+	@Override
+	public Set<String> pathProperties()
+	{
+		return Set.of("file");
+	}
+	
+	public Float getVolumeDB()
+	{
+		return this.volumeDB;
+	}
+	
+	/**
+	 * Volume that is used for all entries of the playlist
+	 */
+	public void setVolumeDB(final Float volumeDB)
+	{
+		this.volumeDB = volumeDB;
+	}
+	
+	@Override
+	public List<MusicSource> resolve(final PlaybackSettings settings, final Log log)
+	{
+		final Path playlist = Path.of(this.getFile()).toAbsolutePath();
+		final List<MusicSource> entries = new ArrayList<>();
+		for(final String line : readLines(playlist))
+		{
+			final String entry = line.strip();
+			// Comments and extended M3U directives like #EXTINF
+			if(!entry.isEmpty() && !entry.startsWith("#"))
+			{
+				entries.add(this.toSource(playlist.getParent(), entry));
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Reads M3U8 as UTF-8; classic M3U files are often encoded using Latin-1 instead.
+	 */
+	protected static List<String> readLines(final Path playlist)
+	{
+		try
+		{
+			try
+			{
+				return Files.readAllLines(playlist, StandardCharsets.UTF_8);
+			}
+			catch(final CharacterCodingException ex)
+			{
+				if(playlist.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".m3u8"))
+				{
+					throw ex;
+				}
+				return Files.readAllLines(playlist, Charset.forName("windows-1252"));
+			}
+		}
+		catch(final IOException ioe)
+		{
+			throw new UncheckedIOException("Failed to read playlist " + playlist, ioe);
+		}
+	}
+	
+	protected MP3OggMusicSource toSource(final Path baseDirectory, final String entry)
+	{
+		final MP3OggMusicSource source;
+		if(URI_SCHEME.matcher(entry).matches() && !entry.regionMatches(true, 0, "file:", 0, 5))
+		{
+			final URIMusicSource uriSource = new URIMusicSource();
+			uriSource.setUri(entry);
+			source = uriSource;
+		}
+		else
+		{
+			final Path path = entry.regionMatches(true, 0, "file:", 0, 5)
+				? Path.of(URI.create(entry))
+				: baseDirectory.resolve(entry);
+			final FileMusicSource fileSource = new FileMusicSource();
+			fileSource.setFile(path.toString());
+			source = fileSource;
+		}
+		source.setVolumeDB(this.getVolumeDB());
+		return source;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "[playlist]:" + this.getFile();
+	}
+}
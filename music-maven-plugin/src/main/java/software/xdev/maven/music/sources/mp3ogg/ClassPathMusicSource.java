@@ -15,7 +15,15 @@
  */
 package software.xdev.maven.music.sources.mp3ogg;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Optional;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.ResourceCache;
 
 
 /**
@@ -50,6 +58,50 @@ public class ClassPathMusicSource extends MP3OggMusicSource
 		return this.getClass().getResourceAsStream(this.getClasspath());
 	}
 	
+	/**
+	 * Uses the {@link ResourceCache} (if enabled) so that the resource is only inflated once.
+	 */
+	@Override
+	public InputStream openInputStream(final PlaybackSettings settings)
+	{
+		final ResourceCache resourceCache = settings.getResourceCache();
+		if(resourceCache == null)
+		{
+			return this.openInputStream();
+		}
+		
+		final URL resource = this.getClass().getResource(this.getClasspath());
+		if(resource == null)
+		{
+			return null;
+		}
+		try
+		{
+			return resourceCache.open(resource);
+		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException("Failed to read " + resource, e);
+		}
+	}
+	
+	/**
+	 * The resource is identified by its URL and the size and modification time (of the file or JAR entry).
+	 */
+	@Override
+	public Optional<String> contentIdentity(final PlaybackSettings settings) throws IOException
+	{
+		final URL resource = this.getClass().getResource(this.getClasspath());
+		if(resource == null)
+		{
+			return Optional.empty();
+		}
+		final URLConnection con = resource.openConnection();
+		return Optional.of("classpath:" + resource
+			+ "|" + con.getContentLengthLong()
+			+ "|" + con.getLastModified());
+	}
+	
 	@Override
 	public String toString()
 	{
@@ -15,18 +15,45 @@
  */
 package software.xdev.maven.music.sources.mp3ogg;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.io.ByteBufferInputStream;
 
 
 /**
  * Uses a file as a music source.
+ * <p>
+ * The file is memory mapped, so that reading (including the mark/reset during format detection) doesn't need any
+ * additional syscalls or buffers.
+ * </p>
+ * <p>
+ * A mapping is only released when its buffer is garbage collected. As Windows doesn't allow to modify or delete
+ * mapped files, the file is read normally there - otherwise the user's music would stay locked until then.
+ * </p>
  */
 public class FileMusicSource extends MP3OggMusicSource
 {
+	/**
+	 * Used for files that are not mapped
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final boolean MAPPING_LOCKS_FILES = System.getProperty("os.name", "")
+		.toLowerCase(Locale.ENGLISH)
+		.contains("win");
+	
 	private String file;
 	
 	public String getFile()
@@ -39,18 +66,65 @@ public class FileMusicSource extends MP3OggMusicSource
 		this.file = file;
 	}
 	
+	@Override
+	public Set<String> pathProperties()
+	{
+		return Set.of("file");
+	}
+	
 	@Override
 	public InputStream openInputStream()
 	{
-		final File f = new File(this.getFile());
+		final Path path = Path.of(this.getFile());
 		try
 		{
-			return new FileInputStream(f);
+			return open(path);
 		}
-		catch(final FileNotFoundException e)
+		catch(final NoSuchFileException e)
 		{
-			throw new UncheckedIOException("Failed to find " + f.getAbsolutePath(), e);
+			throw new UncheckedIOException("Failed to find " + path.toAbsolutePath(), e);
 		}
+		catch(final IOException e)
+		{
+			throw new UncheckedIOException("Failed to open " + path.toAbsolutePath(), e);
+		}
+	}
+	
+	protected static InputStream open(final Path path) throws IOException
+	{
+		return MAPPING_LOCKS_FILES ? openBuffered(path) : openMapped(path);
+	}
+	
+	protected static InputStream openMapped(final Path path) throws IOException
+	{
+		try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			// Larger files can't be mapped at once
+			if(channel.size() <= Integer.MAX_VALUE)
+			{
+				return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+		}
+		catch(final UnsupportedOperationException ex)
+		{
+			// Some file systems don't support mapping - read it normally
+		}
+		return openBuffered(path);
+	}
+	
+	protected static InputStream openBuffered(final Path path) throws IOException
+	{
+		return new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+	}
+	
+	@Override
+	public Optional<String> contentIdentity(final PlaybackSettings settings) throws IOException
+	{
+		final Path path = Path.of(this.getFile()).toAbsolutePath().normalize();
+		final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		return Optional.of("file:" + path
+			+ "|" + attributes.size()
+			+ "|" + attributes.lastModifiedTime().toMillis());
 	}
 	
 	@Override
@@ -15,8 +15,11 @@
  */
 package software.xdev.maven.music.sources.mp3ogg;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
+import software.xdev.maven.music.PlaybackSettings;
 import software.xdev.maven.music.sources.MusicSource;
 
 
@@ -35,4 +38,24 @@ public abstract class MP3OggMusicSource implements MusicSource
 	}
 	
 	public abstract InputStream openInputStream();
+	
+	/**
+	 * Opens the source using the given settings (e.g. to use caches).
+	 */
+	public InputStream openInputStream(final PlaybackSettings settings)
+	{
+		return this.openInputStream();
+	}
+	
+	/**
+	 * Describes the current content of the source without reading it, e.g. by its location, size and modification
+	 * time. The result changes whenever the content changes and is used to look up derived data (like the decoded
+	 * audio) before the source is opened.
+	 *
+	 * @return the identity or an empty optional if it can't be determined cheaply
+	 */
+	public Optional<String> contentIdentity(final PlaybackSettings settings) throws IOException
+	{
+		return Optional.empty();
+	}
 }
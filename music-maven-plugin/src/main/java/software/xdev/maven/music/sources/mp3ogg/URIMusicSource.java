@@ -15,19 +15,68 @@
  */
 package software.xdev.maven.music.sources.mp3ogg;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.DownloadCache;
+import software.xdev.maven.music.io.ReadAheadInputStream;
+import software.xdev.maven.music.io.ResumableHttpInputStream;
 
 
 /**
  * Uses a URI as a music source.
  */
+@SuppressWarnings("checkstyle:MagicNumber")
 public class URIMusicSource extends MP3OggMusicSource
 {
+	// Enough for the audio format detection
+	private static final int MARK_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * How long the validators of a resource are used without requesting them again (same as the revalidation
+	 * interval of the {@link DownloadCache})
+	 */
+	private static final long VALIDATORS_REUSE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+	
+	/**
+	 * URL → validators of the last response of this JVM
+	 */
+	private static final Map<String, ReceivedValidators> RECEIVED_VALIDATORS = new ConcurrentHashMap<>();
+	
 	private String uri;
 	
+	/**
+	 * Streams HTTP(S) resources with timeouts, read-ahead and automatic resume of interrupted connections.
+	 * <p>
+	 * If disabled the resource is opened without any of these.
+	 * </p>
+	 */
+	private boolean streaming = true;
+	private int connectTimeoutMs = 10_000;
+	private int readTimeoutMs = 10_000;
+	/**
+	 * How often an interrupted connection is resumed (in a row)
+	 */
+	private int maxRetries = 3;
+	/**
+	 * Maximum amount of data (in KB) that is downloaded ahead of playback
+	 */
+	private int readAheadKB = 1024;
+	
 	public String getUri()
 	{
 		return this.uri;
@@ -38,12 +87,102 @@ public class URIMusicSource extends MP3OggMusicSource
 		this.uri = uri;
 	}
 	
+	public boolean isStreaming()
+	{
+		return this.streaming;
+	}
+	
+	public void setStreaming(final boolean streaming)
+	{
+		this.streaming = streaming;
+	}
+	
+	public int getConnectTimeoutMs()
+	{
+		return this.connectTimeoutMs;
+	}
+	
+	public void setConnectTimeoutMs(final int connectTimeoutMs)
+	{
+		this.connectTimeoutMs = connectTimeoutMs;
+	}
+	
+	public int getReadTimeoutMs()
+	{
+		return this.readTimeoutMs;
+	}
+	
+	public void setReadTimeoutMs(final int readTimeoutMs)
+	{
+		this.readTimeoutMs = readTimeoutMs;
+	}
+	
+	public int getMaxRetries()
+	{
+		return this.maxRetries;
+	}
+	
+	public void setMaxRetries(final int maxRetries)
+	{
+		this.maxRetries = maxRetries;
+	}
+	
+	public int getReadAheadKB()
+	{
+		return this.readAheadKB;
+	}
+	
+	public void setReadAheadKB(final int readAheadKB)
+	{
+		this.readAheadKB = readAheadKB;
+	}
+	
 	@Override
 	public InputStream openInputStream()
+	{
+		return this.openInputStream((DownloadCache)null);
+	}
+	
+	@Override
+	public InputStream openInputStream(final PlaybackSettings settings)
+	{
+		return this.openInputStream(settings.getDownloadCache());
+	}
+	
+	protected InputStream openInputStream(final DownloadCache downloadCache)
 	{
 		try
 		{
-			return URI.create(this.getUri()).toURL().openStream();
+			final URL url = URI.create(this.getUri()).toURL();
+			if(!this.isStreaming() || !isHttp(url))
+			{
+				return url.openStream();
+			}
+			
+			if(downloadCache != null)
+			{
+				final Optional<Path> cached = downloadCache.get(url);
+				if(cached.isPresent())
+				{
+					return new BufferedInputStream(Files.newInputStream(cached.get()), MARK_BUFFER_SIZE);
+				}
+			}
+			
+			final ResumableHttpInputStream http = new ResumableHttpInputStream(
+				url,
+				this.getConnectTimeoutMs(),
+				this.getReadTimeoutMs(),
+				this.getMaxRetries());
+			rememberValidators(url, new DownloadCache.Validators(http.getEtag(), http.getLastModified()));
+			final InputStream download = downloadCache != null
+				? downloadCache.storeWhileReading(
+					url,
+					http,
+					() -> new DownloadCache.Validators(http.getEtag(), http.getLastModified()))
+				: http;
+			return new BufferedInputStream(
+				new ReadAheadInputStream(download, this.getReadAheadKB() * 1024),
+				MARK_BUFFER_SIZE);
 		}
 		catch(final IOException e)
 		{
@@ -51,9 +190,98 @@ public class URIMusicSource extends MP3OggMusicSource
 		}
 	}
 	
+	/**
+	 * Uses the content hash of the {@link DownloadCache} if the resource was already downloaded. Otherwise the
+	 * validators (<code>ETag</code>/<code>Last-Modified</code>) are used: They are only requested (HTTP
+	 * <code>HEAD</code>) if they were not received recently, e.g. while streaming the resource.
+	 */
+	@Override
+	public Optional<String> contentIdentity(final PlaybackSettings settings) throws IOException
+	{
+		final URL url = URI.create(this.getUri()).toURL();
+		final DownloadCache downloadCache = settings.getDownloadCache();
+		if(downloadCache != null && this.isStreaming() && isHttp(url))
+		{
+			final Optional<String> cachedContent = downloadCache.contentHash(url);
+			if(cachedContent.isPresent())
+			{
+				return Optional.of("sha256:" + cachedContent.get());
+			}
+		}
+		
+		final boolean httpResource = isHttp(url);
+		final ReceivedValidators received = httpResource ? RECEIVED_VALIDATORS.get(url.toString()) : null;
+		if(received != null && System.nanoTime() - received.receivedNanos() < VALIDATORS_REUSE_INTERVAL_NANOS)
+		{
+			return identityOf(url, received.validators());
+		}
+		
+		final DownloadCache.Validators validators = this.requestValidators(url);
+		if(httpResource)
+		{
+			rememberValidators(url, validators);
+		}
+		return identityOf(url, validators);
+	}
+	
+	protected DownloadCache.Validators requestValidators(final URL url) throws IOException
+	{
+		final URLConnection con = url.openConnection();
+		con.setConnectTimeout(this.getConnectTimeoutMs());
+		con.setReadTimeout(this.getReadTimeoutMs());
+		if(con instanceof final HttpURLConnection http)
+		{
+			http.setRequestMethod("HEAD");
+		}
+		try
+		{
+			return new DownloadCache.Validators(con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"));
+		}
+		finally
+		{
+			if(con instanceof final HttpURLConnection http)
+			{
+				http.disconnect();
+			}
+			else
+			{
+				con.getInputStream().close();
+			}
+		}
+	}
+	
+	private static Optional<String> identityOf(final URL url, final DownloadCache.Validators validators)
+	{
+		if(validators.etag() == null && validators.lastModified() == null)
+		{
+			// Nothing that reliably changes with the content
+			return Optional.empty();
+		}
+		return Optional.of("uri:" + url + "|" + validators.etag() + "|" + validators.lastModified());
+	}
+	
+	private static void rememberValidators(final URL url, final DownloadCache.Validators validators)
+	{
+		RECEIVED_VALIDATORS.put(url.toString(), new ReceivedValidators(validators, System.nanoTime()));
+	}
+	
+	protected static boolean isHttp(final URL url)
+	{
+		final String protocol = url.getProtocol().toLowerCase(Locale.ENGLISH);
+		return "http".equals(protocol) || "https".equals(protocol);
+	}
+	
 	@Override
 	public String toString()
 	{
 		return "[uri]: " + this.getUri();
 	}
+	
+	
+	/**
+	 * @param receivedNanos when the validators were received ({@link System#nanoTime()})
+	 */
+	private record ReceivedValidators(DownloadCache.Validators validators, long receivedNanos)
+	{
+	}
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+class MusicExecutorsTest
+{
+	@Test
+	void audioUsesASingleMaxPriorityDaemonThread() throws Exception
+	{
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		for(int i = 0; i < 5; i++)
+		{
+			MusicExecutors.audio().submit(() -> threads.add(Thread.currentThread())).get(5, TimeUnit.SECONDS);
+		}
+		
+		assertEquals(1, threads.size());
+		final Thread thread = threads.iterator().next();
+		assertTrue(thread.getName().startsWith("Maven-Music-Player-"));
+		assertTrue(thread.isDaemon());
+		assertEquals(Thread.MAX_PRIORITY, thread.getPriority());
+	}
+	
+	@Test
+	void decoderQueuesTasksBeyondItsBound() throws Exception
+	{
+		final int tasks = Runtime.getRuntime().availableProcessors() + 10;
+		final CountDownLatch release = new CountDownLatch(1);
+		final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+		final Future<?>[] futures = new Future<?>[tasks];
+		for(int i = 0; i < tasks; i++)
+		{
+			futures[i] = MusicExecutors.decoder().submit(() -> {
+				threads.add(Thread.currentThread());
+				release.await();
+				return null;
+			});
+		}
+		Thread.sleep(100);
+		assertFalse(futures[tasks - 1].isDone());
+		release.countDown();
+		for(final Future<?> future : futures)
+		{
+			future.get(5, TimeUnit.SECONDS);
+		}
+		
+		assertTrue(threads.size() < tasks);
+		assertTrue(threads.stream().allMatch(Thread::isDaemon));
+	}
+	
+	@Test
+	void backgroundUsesOwnLowPriorityThreads() throws Exception
+	{
+		final Thread thread = MusicExecutors.background().submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+		
+		assertTrue(thread.getName().startsWith("Maven-Music-Background-"));
+		assertTrue(thread.isDaemon());
+		assertEquals(Thread.MIN_PRIORITY, thread.getPriority());
+	}
+	
+	@Test
+	void backgroundWorkDoesNotBlockDecoders() throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final int tasks = Runtime.getRuntime().availableProcessors() + 1;
+		final Future<?>[] futures = new Future<?>[tasks];
+		for(int i = 0; i < tasks; i++)
+		{
+			futures[i] = MusicExecutors.background().submit(() -> {
+				release.await();
+				return null;
+			});
+		}
+		try
+		{
+			assertTrue(MusicExecutors.decoder().submit(() -> true).get(5, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			release.countDown();
+		}
+		for(final Future<?> future : futures)
+		{
+			future.get(5, TimeUnit.SECONDS);
+		}
+	}
+}
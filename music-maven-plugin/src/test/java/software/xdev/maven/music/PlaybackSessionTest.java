@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.library.MusicLibrary;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+
+
+class PlaybackSessionTest
+{
+	private static final List<MusicSource> SOURCES = IntStream.range(0, 20)
+		.<MusicSource>mapToObj(i -> new ClassPathMusicSource("/track" + i + ".ogg"))
+		.toList();
+	
+	@Test
+	void upcomingSourcesAreLimitedToThePlaylist()
+	{
+		assertEquals(SOURCES.subList(0, 5), session(false, 0).upcomingSources(5));
+		assertEquals(SOURCES, session(false, 0).upcomingSources(Integer.MAX_VALUE));
+	}
+	
+	@Test
+	void upcomingSourcesFollowTheShuffleSeed()
+	{
+		final List<MusicSource> upcoming = session(true, 42).upcomingSources(5);
+		assertEquals(upcoming, session(true, 42).upcomingSources(5));
+		assertNotEquals(upcoming, session(true, 43).upcomingSources(5));
+		assertEquals(20, session(true, 42).upcomingSources(100).stream().distinct().count());
+	}
+	
+	@Test
+	void librariesAreResolvedInPlace()
+	{
+		final MusicLibrary empty = (settings, log) -> List.of();
+		final MusicLibrary library = (settings, log) -> SOURCES.subList(2, 5);
+		final PlaybackSession session = new PlaybackSession(
+			List.of(SOURCES.get(0), empty, SOURCES.get(1), library, empty, SOURCES.get(5)),
+			false,
+			false,
+			new PlaybackSettings(),
+			new SystemStreamLog());
+		
+		final List<MusicSource> resolved = session.resolveSources();
+		
+		assertEquals(SOURCES.subList(0, 6), resolved);
+		assertEquals(SOURCES.subList(0, 6), new ArrayList<>(resolved));
+	}
+	
+	private static PlaybackSession session(final boolean shuffle, final long seed)
+	{
+		final PlaybackSession session = new PlaybackSession(
+			SOURCES,
+			shuffle,
+			true,
+			new PlaybackSettings(),
+			new SystemStreamLog());
+		session.setShuffleSeed(seed);
+		return session;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+class PlaybackWarmUpTest
+{
+	@Test
+	void runsOncePerJvm() throws Exception
+	{
+		final PlaybackWarmUp.Result result = PlaybackWarmUp.start().get(30, TimeUnit.SECONDS);
+		
+		assertSame(PlaybackWarmUp.start(), PlaybackWarmUp.start());
+		assertSame(result, PlaybackWarmUp.start().join());
+		assertNotNull(result.mixers());
+		assertTrue(result.durationNanos() > 0);
+		// Used by the players once the warm-up was started, even if there are no audio devices
+		assertSame(result.mixers(), PlaybackWarmUp.mixerCapabilities().orElseThrow());
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.junit.jupiter.api.Test;
+
+
+class ReactorPlaybackTest
+{
+	@Test
+	void firstExecutionOwnsTheMusic()
+	{
+		final ReactorPlayback playback = new ReactorPlayback();
+		
+		assertTrue(playback.claim(MusicOwnership.FIRST, project("a", false)));
+		assertFalse(playback.claim(MusicOwnership.FIRST, project("b", false)));
+		assertFalse(playback.claim(MusicOwnership.FIRST, project("a", false)));
+		assertEquals("test:a:jar:1", playback.getOwner());
+	}
+	
+	@Test
+	void onlyTheRootOwnsTheMusic()
+	{
+		final ReactorPlayback playback = new ReactorPlayback();
+		
+		assertFalse(playback.claim(MusicOwnership.ROOT, project("module", false)));
+		assertNull(playback.getOwner());
+		assertTrue(playback.claim(MusicOwnership.ROOT, project("root", true)));
+		assertFalse(playback.claim(MusicOwnership.ROOT, project("module", false)));
+		assertEquals("test:root:jar:1", playback.getOwner());
+	}
+	
+	@Test
+	void everyExecutionOwnsTheMusic()
+	{
+		final ReactorPlayback playback = new ReactorPlayback();
+		
+		assertTrue(playback.claim(MusicOwnership.EXECUTION, project("a", false)));
+		assertTrue(playback.claim(MusicOwnership.EXECUTION, project("b", false)));
+		assertEquals("test:b:jar:1", playback.getOwner());
+		// Joins the last one that started the music
+		assertFalse(playback.claim(MusicOwnership.FIRST, project("c", false)));
+	}
+	
+	@Test
+	void nextExecutionStartsTheMusicAfterItWasStopped() throws MojoExecutionException, MojoFailureException
+	{
+		final MavenSession session = session();
+		final ReactorPlayback playback = ReactorPlayback.of(session);
+		assertTrue(playback.claim(MusicOwnership.FIRST, project("a", false)));
+		
+		final StopMusicMojo stop = new StopMusicMojo();
+		stop.mavenSession = session;
+		stop.execute();
+		
+		assertNull(playback.getOwner());
+		assertTrue(playback.claim(MusicOwnership.FIRST, project("b", false)));
+		assertFalse(playback.claim(MusicOwnership.FIRST, project("c", false)));
+	}
+	
+	@Test
+	void stateIsBoundToTheBuild()
+	{
+		final MavenSession session = session();
+		
+		assertSame(ReactorPlayback.of(session), ReactorPlayback.of(session));
+		assertNotSame(ReactorPlayback.of(session), ReactorPlayback.of(session()));
+	}
+	
+	@Test
+	void preparesOnceAndUsesOneSeedPerBuild()
+	{
+		final ReactorPlayback playback = new ReactorPlayback();
+		
+		assertTrue(playback.claimPreparation());
+		assertFalse(playback.claimPreparation());
+		assertEquals(playback.shuffleSeed(), playback.shuffleSeed());
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static MavenSession session()
+	{
+		return new MavenSession(
+			null,
+			new DefaultRepositorySystemSession(),
+			new DefaultMavenExecutionRequest(),
+			new DefaultMavenExecutionResult());
+	}
+	
+	private static MavenProject project(final String artifactId, final boolean executionRoot)
+	{
+		final MavenProject project = new MavenProject();
+		project.setGroupId("test");
+		project.setArtifactId(artifactId);
+		project.setVersion("1");
+		project.setExecutionRoot(executionRoot);
+		return project;
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class DownloadCacheTest
+{
+	private static final DownloadCache.Validators NO_VALIDATORS = new DownloadCache.Validators(null, null);
+	
+	@Test
+	void storedContentIsFound(@TempDir final Path dir) throws IOException
+	{
+		final DownloadCache cache = new DownloadCache(dir, 1024, 1000, 1000);
+		final URL url = uniqueUrl();
+		final byte[] content = {1, 2, 3, 4};
+		
+		store(cache, url, content);
+		
+		assertArrayEquals(content, Files.readAllBytes(cache.get(url).orElseThrow()));
+		assertTrue(cache.contentHash(url).isPresent());
+	}
+	
+	@Test
+	void evictionAlsoRemovesTheIndexFiles(@TempDir final Path dir) throws IOException
+	{
+		final DownloadCache cache = new DownloadCache(dir, 150, 1000, 1000);
+		final URL first = uniqueUrl();
+		final URL second = uniqueUrl();
+		
+		store(cache, first, new byte[100]);
+		store(cache, second, new byte[]{1, 2, 3});
+		// Least recently used first
+		Files.setLastModifiedTime(contentFile(dir, cache, first), FileTime.fromMillis(1_000));
+		Files.setLastModifiedTime(contentFile(dir, cache, second), FileTime.fromMillis(2_000));
+		final byte[] third = new byte[100];
+		third[0] = 1;
+		store(cache, uniqueUrl(), third);
+		
+		assertTrue(cache.contentHash(first).isEmpty());
+		assertFalse(Files.exists(cache.indexFileFor(first)));
+		assertTrue(cache.contentHash(second).isPresent());
+		assertEquals(2, count(dir, ".properties"));
+	}
+	
+	@Test
+	void revalidationIsRepeatedAfterTheInterval(@TempDir final Path dir) throws Exception
+	{
+		final DownloadCache cache = new DownloadCache(dir, 1024, 1000, 1000, 100);
+		final URL url = uniqueUrl();
+		
+		assertTrue(cache.claimRevalidation(url));
+		assertFalse(cache.claimRevalidation(url));
+		Thread.sleep(150);
+		assertTrue(cache.claimRevalidation(url));
+		assertFalse(cache.claimRevalidation(url));
+	}
+	
+	@Test
+	void closingWhileAnotherThreadReadsDiscardsTheDownload(@TempDir final Path dir) throws Exception
+	{
+		final DownloadCache cache = new DownloadCache(dir, 1024 * 1024, 1000, 1000);
+		final InputStream endless = new InputStream()
+		{
+			@Override
+			public int read()
+			{
+				return 0;
+			}
+			
+			@Override
+			public int read(final byte[] b, final int off, final int len)
+			{
+				return len;
+			}
+		};
+		
+		for(int i = 0; i < 20; i++)
+		{
+			final InputStream in = cache.storeWhileReading(uniqueUrl(), endless, () -> NO_VALIDATORS);
+			final AtomicReference<Throwable> failure = new AtomicReference<>();
+			final Thread reader = new Thread(() -> {
+				try
+				{
+					final byte[] buffer = new byte[16];
+					for(int j = 0; j < 10_000; j++)
+					{
+						in.read(buffer, 0, buffer.length);
+					}
+				}
+				catch(final Throwable t)
+				{
+					failure.set(t);
+				}
+			});
+			reader.start();
+			Thread.sleep(1);
+			in.close();
+			reader.join();
+			
+			assertNull(failure.get());
+		}
+		assertEquals(0, count(dir, ".tmp"));
+	}
+	
+	private static void store(final DownloadCache cache, final URL url, final byte[] content) throws IOException
+	{
+		try(final InputStream in = cache.storeWhileReading(
+			url,
+			new ByteArrayInputStream(content),
+			() -> NO_VALIDATORS))
+		{
+			in.transferTo(OutputStream.nullOutputStream());
+		}
+	}
+	
+	private static Path contentFile(final Path dir, final DownloadCache cache, final URL url) throws IOException
+	{
+		return dir.resolve(cache.contentHash(url).orElseThrow() + ".bin");
+	}
+	
+	private static long count(final Path dir, final String extension) throws IOException
+	{
+		try(final Stream<Path> files = Files.list(dir))
+		{
+			return files.filter(f -> f.getFileName().toString().endsWith(extension)).count();
+		}
+	}
+	
+	@SuppressWarnings("deprecation")
+	private static URL uniqueUrl() throws IOException
+	{
+		return new URL("http://localhost/" + UUID.randomUUID());
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+/**
+ * The cached content is shared by all instances; filling the cache up to the limit evicts the content of other
+ * tests, so that the size is known afterwards.
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+class ResourceCacheTest
+{
+	private static final int SIZE = 100;
+	
+	@TempDir
+	Path tempDir;
+	
+	@ParameterizedTest
+	@ValueSource(booleans = {false, true})
+	void evictsTheLeastRecentlyUsedContent(final boolean offHeap) throws IOException
+	{
+		final ResourceCache cache = new ResourceCache(3 * SIZE, offHeap);
+		final URL a = this.resource("a", 1);
+		final URL b = this.resource("b", 2);
+		final URL c = this.resource("c", 3);
+		
+		assertContent(1, cache, a);
+		assertContent(2, cache, b);
+		assertContent(3, cache, c);
+		assertEquals(3 * SIZE, ResourceCache.getSizeBytes());
+		
+		// Used recently -> b is now the least recently used
+		assertContent(1, cache, a);
+		assertContent(4, cache, this.resource("d", 4));
+		assertEquals(3 * SIZE, ResourceCache.getSizeBytes());
+		
+		// Cached content is served even if the resource changed; evicted content is read again
+		this.resource("a", 11);
+		this.resource("b", 12);
+		assertContent(1, cache, a);
+		assertContent(12, cache, b);
+		assertEquals(3 * SIZE, ResourceCache.getSizeBytes());
+	}
+	
+	@Test
+	void doesNotCacheContentLargerThanTheLimit() throws IOException
+	{
+		final ResourceCache cache = new ResourceCache(3 * SIZE, false);
+		assertContent(1, cache, this.resource("a", 1));
+		assertContent(2, cache, this.resource("b", 2));
+		assertContent(3, cache, this.resource("c", 3));
+		final long size = ResourceCache.getSizeBytes();
+		
+		final URL large = this.resource("large", 5, 4 * SIZE);
+		try(final InputStream is = cache.open(large))
+		{
+			assertEquals(4 * SIZE, is.readAllBytes().length);
+		}
+		assertEquals(size, ResourceCache.getSizeBytes());
+		
+		this.resource("large", 6, 4 * SIZE);
+		try(final InputStream is = cache.open(large))
+		{
+			assertEquals(6, is.readAllBytes()[0]);
+		}
+	}
+	
+	@Test
+	void readsTheContentRepeatedly() throws IOException
+	{
+		final ResourceCache cache = new ResourceCache(3 * SIZE, true);
+		final URL a = this.resource("a", 7);
+		
+		try(final InputStream is = cache.open(a))
+		{
+			// Partially read streams don't affect further reads
+			assertEquals(7, is.read());
+		}
+		assertContent(7, cache, a);
+		assertContent(7, cache, a);
+	}
+	
+	private URL resource(final String name, final int value) throws IOException
+	{
+		return this.resource(name, value, SIZE);
+	}
+	
+	private URL resource(final String name, final int value, final int size) throws IOException
+	{
+		final byte[] content = new byte[size];
+		Arrays.fill(content, (byte)value);
+		return Files.write(this.tempDir.resolve(name), content).toUri().toURL();
+	}
+	
+	private static void assertContent(final int value, final ResourceCache cache, final URL resource)
+		throws IOException
+	{
+		final byte[] expected = new byte[SIZE];
+		Arrays.fill(expected, (byte)value);
+		try(final InputStream is = cache.open(resource))
+		{
+			assertArrayEquals(expected, is.readAllBytes());
+		}
+	}
+}
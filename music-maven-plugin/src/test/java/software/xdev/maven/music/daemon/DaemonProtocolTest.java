@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.daemon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.library.DirectoryMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class DaemonProtocolTest
+{
+	@Test
+	void sourcesRoundTrip() throws IOException
+	{
+		final ClassPathMusicSource classpath = new ClassPathMusicSource();
+		classpath.setClasspath("/music/a.ogg");
+		classpath.setVolumeDB(-3f);
+		final DirectoryMusicSource directory = new DirectoryMusicSource();
+		directory.setDirectory("music");
+		directory.setRecursive(false);
+		
+		final Properties request = new Properties();
+		DaemonProtocol.putPlaylist(request, List.of(classpath, directory), true, false, Path.of("/project"));
+		
+		final List<MusicSource> sources = DaemonProtocol.getSources(roundTrip(request));
+		assertEquals(2, sources.size());
+		final ClassPathMusicSource classpathCopy = assertInstanceOf(ClassPathMusicSource.class, sources.get(0));
+		assertEquals("/music/a.ogg", classpathCopy.getClasspath());
+		assertEquals(-3f, classpathCopy.getVolumeDB());
+		final DirectoryMusicSource directoryCopy = assertInstanceOf(DirectoryMusicSource.class, sources.get(1));
+		assertEquals(Path.of("/project/music").toAbsolutePath().toString(), directoryCopy.getDirectory());
+		assertFalse(directoryCopy.isRecursive());
+	}
+	
+	@Test
+	void pathsAreResolvedAgainstTheBaseDirectory()
+	{
+		final FileMusicSource relative = new FileMusicSource();
+		relative.setFile("../shared/./song.mp3");
+		final FileMusicSource absolute = new FileMusicSource();
+		absolute.setFile(Path.of("/music/song.mp3").toAbsolutePath().toString());
+		
+		final Properties request = new Properties();
+		DaemonProtocol.putPlaylist(request, List.of(relative, absolute), false, true, Path.of("/work/project"));
+		
+		final List<MusicSource> sources = DaemonProtocol.getSources(request);
+		assertEquals(
+			Path.of("/work/shared/song.mp3").toAbsolutePath().toString(),
+			((FileMusicSource)sources.get(0)).getFile());
+		assertEquals(absolute.getFile(), ((FileMusicSource)sources.get(1)).getFile());
+		// The configured sources are not changed
+		assertEquals("../shared/./song.mp3", relative.getFile());
+	}
+	
+	@Test
+	void settingsRoundTrip(@TempDir final Path dir) throws IOException
+	{
+		final PlaybackSettings settings = new PlaybackSettings(-6f);
+		settings.setCrossfadeMillis(2_000);
+		settings.setOutputSampleRate(48_000f);
+		settings.setOutputChannels(1);
+		settings.setPcmCache(new PcmCache(dir, 1024));
+		final Properties request = new Properties();
+		DaemonProtocol.putSettings(request, settings);
+		
+		final PlaybackSettings copy = DaemonProtocol.getSettings(roundTrip(request));
+		assertEquals(-6f, copy.getDefaultVolumeDB());
+		assertEquals(2_000, copy.getCrossfadeMillis());
+		assertEquals(48_000f, copy.getOutputSampleRate());
+		assertEquals(1, copy.getOutputChannels());
+		assertEquals(dir, copy.getPcmCache().getDirectory());
+		assertEquals(1024, copy.getPcmCache().getMaxSizeBytes());
+		assertEquals(DaemonProtocol.playlistFingerprint(request), DaemonProtocol.playlistFingerprint(
+			roundTrip(request)));
+	}
+	
+	@Test
+	void generatedSeedDoesNotChangeFingerprint()
+	{
+		final Properties first = playlist();
+		DaemonProtocol.putShuffle(first, 1L, true, null);
+		final Properties second = playlist();
+		DaemonProtocol.putShuffle(second, 2L, true, null);
+		assertEquals(DaemonProtocol.playlistFingerprint(first), DaemonProtocol.playlistFingerprint(second));
+		
+		final Properties configured = playlist();
+		DaemonProtocol.putShuffle(configured, 1L, false, null);
+		final Properties otherConfigured = playlist();
+		DaemonProtocol.putShuffle(otherConfigured, 2L, false, null);
+		assertNotEquals(
+			DaemonProtocol.playlistFingerprint(configured),
+			DaemonProtocol.playlistFingerprint(otherConfigured));
+	}
+	
+	@Test
+	void invalidTokenIsRejected(@TempDir final Path dir) throws Exception
+	{
+		final PlayerDaemon daemon = new PlayerDaemon(dir, TimeUnit.MINUTES.toMillis(1), new SystemStreamLog());
+		final CompletableFuture<Void> running = CompletableFuture.runAsync(() -> {
+			try
+			{
+				daemon.run();
+			}
+			catch(final IOException ioe)
+			{
+				throw new IllegalStateException(ioe);
+			}
+		});
+		
+		final DaemonState state = awaitState(dir);
+		final Properties rejected = send(state.port(), DaemonProtocol.newRequest(
+			"wrong" + state.token(),
+			DaemonProtocol.COMMAND_SHUTDOWN));
+		assertFalse(DaemonProtocol.isOk(rejected));
+		assertEquals("Invalid token", rejected.getProperty(DaemonProtocol.RESPONSE_MESSAGE));
+		assertFalse(running.isDone());
+		
+		final Properties accepted = send(state.port(), DaemonProtocol.newRequest(
+			state.token(),
+			DaemonProtocol.COMMAND_SHUTDOWN));
+		assertTrue(DaemonProtocol.isOk(accepted));
+		running.get(10, TimeUnit.SECONDS);
+		assertTrue(DaemonState.read(dir).isEmpty());
+	}
+	
+	private static Properties playlist()
+	{
+		final FileMusicSource source = new FileMusicSource();
+		source.setFile("song.mp3");
+		final Properties request = new Properties();
+		DaemonProtocol.putPlaylist(request, List.of(source), true, true, Path.of("/project"));
+		return request;
+	}
+	
+	private static Properties roundTrip(final Properties properties) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DaemonProtocol.write(properties, out);
+		return DaemonProtocol.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+	
+	private static DaemonState awaitState(final Path dir) throws IOException, InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + 10_000;
+		while(System.currentTimeMillis() < deadline)
+		{
+			final Optional<DaemonState> state = DaemonState.read(dir);
+			if(state.isPresent())
+			{
+				return state.get();
+			}
+			Thread.sleep(20);
+		}
+		throw new IllegalStateException("Daemon did not start");
+	}
+	
+	private static Properties send(final int port, final Properties request) throws IOException
+	{
+		try(final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+		{
+			DaemonProtocol.write(request, socket.getOutputStream());
+			socket.shutdownOutput();
+			return DaemonProtocol.read(socket.getInputStream());
+		}
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * Local HTTP server that serves some content with range support and can throttle, drop connections and modify the
+ * content between requests.
+ */
+class FlakyHttpServer implements AutoCloseable
+{
+	private static final int WRITE_SIZE = 1024;
+	
+	private final HttpServer server;
+	private final AtomicInteger requests = new AtomicInteger();
+	
+	private volatile byte[] content;
+	private volatile String etag;
+	private volatile String lastModified;
+	private volatile int dropAfterBytes = Integer.MAX_VALUE;
+	private volatile long delayPerWriteMs;
+	private volatile boolean ignoreRanges;
+	private volatile long contentRangeShift;
+	private volatile Runnable afterFirstResponse;
+	
+	FlakyHttpServer(final byte[] content) throws IOException
+	{
+		this.content = content;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+	
+	URL url() throws IOException
+	{
+		return new URL("http://localhost:" + this.server.getAddress().getPort() + "/track.mp3");
+	}
+	
+	int requests()
+	{
+		return this.requests.get();
+	}
+	
+	FlakyHttpServer content(final byte[] content)
+	{
+		this.content = content;
+		return this;
+	}
+	
+	FlakyHttpServer etag(final String etag)
+	{
+		this.etag = etag;
+		return this;
+	}
+	
+	FlakyHttpServer lastModified(final String lastModified)
+	{
+		this.lastModified = lastModified;
+		return this;
+	}
+	
+	/**
+	 * Closes every connection after the given number of bytes of a response
+	 */
+	FlakyHttpServer dropAfterBytes(final int dropAfterBytes)
+	{
+		this.dropAfterBytes = dropAfterBytes;
+		return this;
+	}
+	
+	FlakyHttpServer delayPerWriteMs(final long delayPerWriteMs)
+	{
+		this.delayPerWriteMs = delayPerWriteMs;
+		return this;
+	}
+	
+	FlakyHttpServer ignoreRanges(final boolean ignoreRanges)
+	{
+		this.ignoreRanges = ignoreRanges;
+		return this;
+	}
+	
+	/**
+	 * Reports a wrong start in the <code>Content-Range</code> of partial responses
+	 */
+	FlakyHttpServer contentRangeShift(final long contentRangeShift)
+	{
+		this.contentRangeShift = contentRangeShift;
+		return this;
+	}
+	
+	FlakyHttpServer afterFirstResponse(final Runnable afterFirstResponse)
+	{
+		this.afterFirstResponse = afterFirstResponse;
+		return this;
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException
+	{
+		final boolean first = this.requests.getAndIncrement() == 0;
+		final byte[] data = this.content;
+		final long start = this.requestedStart(exchange);
+		
+		if(this.etag != null)
+		{
+			exchange.getResponseHeaders().set("ETag", this.etag);
+		}
+		if(this.lastModified != null)
+		{
+			exchange.getResponseHeaders().set("Last-Modified", this.lastModified);
+		}
+		if(start > 0)
+		{
+			exchange.getResponseHeaders().set(
+				"Content-Range",
+				"bytes " + (start + this.contentRangeShift) + "-" + (data.length - 1) + "/" + data.length);
+			exchange.sendResponseHeaders(206, data.length - start);
+		}
+		else
+		{
+			exchange.sendResponseHeaders(200, data.length);
+		}
+		
+		// Closing the body before all bytes are written fails and makes the server drop the connection
+		try(OutputStream out = exchange.getResponseBody())
+		{
+			int written = 0;
+			for(int pos = (int)start; pos < data.length && written < this.dropAfterBytes; )
+			{
+				final int len = Math.min(Math.min(WRITE_SIZE, data.length - pos), this.dropAfterBytes - written);
+				out.write(data, pos, len);
+				out.flush();
+				pos += len;
+				written += len;
+				this.sleep();
+			}
+		}
+		finally
+		{
+			if(first && this.afterFirstResponse != null)
+			{
+				this.afterFirstResponse.run();
+			}
+		}
+	}
+	
+	private long requestedStart(final HttpExchange exchange)
+	{
+		final String range = exchange.getRequestHeaders().getFirst("Range");
+		if(range == null || this.ignoreRanges)
+		{
+			return 0;
+		}
+		final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		if(ifRange != null && !ifRange.equals(this.etag) && !ifRange.equals(this.lastModified))
+		{
+			// Modified -> complete content
+			return 0;
+		}
+		return Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+	}
+	
+	private void sleep()
+	{
+		if(this.delayPerWriteMs <= 0)
+		{
+			return;
+		}
+		try
+		{
+			Thread.sleep(this.delayPerWriteMs);
+		}
+		catch(final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	@Override
+	public void close()
+	{
+		this.server.stop(0);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+
+class ReadAheadInputStreamTest
+{
+	private static final Duration MAX_DURATION = Duration.ofSeconds(10);
+	
+	@Test
+	void deliversAllDataInOrder() throws IOException
+	{
+		final byte[] content = new byte[1024 * 1024 + 123];
+		new Random(1).nextBytes(content);
+		
+		try(InputStream is = new ReadAheadInputStream(new ByteArrayInputStream(content), 32 * 1024))
+		{
+			// Small reads, so that the buffers are reused many times
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1000];
+			final int[] n = new int[1];
+			assertTimeoutPreemptively(MAX_DURATION, () -> {
+				while((n[0] = is.read(buffer, 0, buffer.length)) != -1)
+				{
+					out.write(buffer, 0, n[0]);
+				}
+			});
+			assertArrayEquals(content, out.toByteArray());
+		}
+	}
+	
+	@Test
+	void reportsFailureOfSourceAfterItsData() throws IOException
+	{
+		final IOException failure = new IOException("Broken");
+		final InputStream failing = new InputStream()
+		{
+			private int remaining = 40_000;
+			
+			@Override
+			public int read() throws IOException
+			{
+				if(this.remaining-- <= 0)
+				{
+					throw failure;
+				}
+				return 1;
+			}
+		};
+		
+		try(InputStream is = new ReadAheadInputStream(failing, 16 * 1024))
+		{
+			final byte[] buffer = new byte[40_000];
+			assertTimeoutPreemptively(MAX_DURATION, () -> is.readNBytes(buffer, 0, buffer.length));
+			assertSame(failure, assertThrows(IOException.class, is::read));
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+
+class ResumableHttpInputStreamTest
+{
+	private static final int TIMEOUT_MS = 2_000;
+	private static final Duration MAX_DURATION = Duration.ofSeconds(20);
+	
+	private static byte[] randomContent(final int size)
+	{
+		final byte[] content = new byte[size];
+		new Random(size).nextBytes(content);
+		return content;
+	}
+	
+	@Test
+	void resumesDroppedConnections() throws IOException
+	{
+		final byte[] content = randomContent(64 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content).etag("\"v1\"").dropAfterBytes(20 * 1024))
+		{
+			final byte[] read = assertTimeoutPreemptively(MAX_DURATION, () -> {
+				try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3))
+				{
+					return is.readAllBytes();
+				}
+			});
+			assertArrayEquals(content, read);
+			assertEquals(4, server.requests());
+		}
+	}
+	
+	@Test
+	void skipsAlreadyReadBytesIfRangesAreIgnored() throws IOException
+	{
+		final byte[] content = randomContent(32 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content)
+			.lastModified("Mon, 01 Jan 2024 00:00:00 GMT")
+			.ignoreRanges(true)
+			.dropAfterBytes(20 * 1024))
+		{
+			server.afterFirstResponse(() -> server.dropAfterBytes(Integer.MAX_VALUE));
+			try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3))
+			{
+				assertArrayEquals(content, is.readAllBytes());
+			}
+		}
+	}
+	
+	@Test
+	void failsIfModifiedWithOnlyLastModifiedKnown() throws IOException
+	{
+		final byte[] content = randomContent(32 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content)
+			.lastModified("Mon, 01 Jan 2024 00:00:00 GMT")
+			.dropAfterBytes(8 * 1024))
+		{
+			server.afterFirstResponse(() -> server
+				.content(randomContent(48 * 1024))
+				.lastModified("Tue, 02 Jan 2024 00:00:00 GMT")
+				.dropAfterBytes(Integer.MAX_VALUE));
+			try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3))
+			{
+				assertThrows(ResumableHttpInputStream.NotResumableException.class, is::readAllBytes);
+			}
+		}
+	}
+	
+	@Test
+	void failsIfModifiedWithEtag() throws IOException
+	{
+		final byte[] content = randomContent(32 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content).etag("\"v1\"").dropAfterBytes(8 * 1024))
+		{
+			server.afterFirstResponse(() -> server.content(randomContent(32 * 1024)).etag("\"v2\""));
+			try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3))
+			{
+				assertThrows(ResumableHttpInputStream.NotResumableException.class, is::readAllBytes);
+			}
+		}
+	}
+	
+	@Test
+	void failsOnUnexpectedContentRange() throws IOException
+	{
+		final byte[] content = randomContent(32 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content)
+			.etag("\"v1\"")
+			.dropAfterBytes(8 * 1024)
+			.contentRangeShift(1))
+		{
+			try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3))
+			{
+				assertThrows(ResumableHttpInputStream.NotResumableException.class, is::readAllBytes);
+			}
+			assertEquals(2, server.requests());
+		}
+	}
+	
+	@Test
+	void limitsTotalRetries() throws IOException
+	{
+		final byte[] content = randomContent(256 * 1024);
+		// Every connection delivers some data, so the retries in a row never exceed the limit
+		try(FlakyHttpServer server = new FlakyHttpServer(content).etag("\"v1\"").dropAfterBytes(1024))
+		{
+			assertTimeoutPreemptively(MAX_DURATION, () -> {
+				try(InputStream is = new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3, 5))
+				{
+					assertThrows(IOException.class, is::readAllBytes);
+				}
+			});
+			assertEquals(6, server.requests());
+		}
+	}
+	
+	@Test
+	void streamsThrottledAndDroppingServerThroughReadAhead() throws IOException
+	{
+		final byte[] content = randomContent(128 * 1024);
+		try(FlakyHttpServer server = new FlakyHttpServer(content)
+			.etag("\"v1\"")
+			.delayPerWriteMs(2)
+			.dropAfterBytes(50 * 1024))
+		{
+			final byte[] read = assertTimeoutPreemptively(MAX_DURATION, () -> {
+				try(InputStream is = new ReadAheadInputStream(
+					new ResumableHttpInputStream(server.url(), TIMEOUT_MS, TIMEOUT_MS, 3),
+					32 * 1024))
+				{
+					return is.readAllBytes();
+				}
+			});
+			assertArrayEquals(content, read);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.loudness;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.player.PreparedTrack;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+
+
+class LoudnessNormalizationTest
+{
+	private static final AudioFormat FORMAT = PcmCache.pcmFormat(44_100, 2);
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void measuresWhileReadingAndAppliesGainNextTime() throws IOException
+	{
+		final LoudnessNormalization normalization = new LoudnessNormalization(
+			new LoudnessIndex(this.tempDir.resolve("loudness.properties")),
+			-18.0f);
+		final byte[] pcm = sine(1_000, 0.5, 5);
+		
+		final byte[] read;
+		try(final InputStream is = normalization.measureWhileReading(
+			"key",
+			FORMAT,
+			new ByteArrayInputStream(pcm),
+			null,
+			new SystemStreamLog()))
+		{
+			read = is.readAllBytes();
+		}
+		
+		assertArrayEquals(pcm, read);
+		assertTrue(normalization.getIndex().get("key").isPresent());
+		// A sine with half of the full scale is louder than -18 LUFS
+		assertTrue(normalization.gainDB(null, "key", null, new SystemStreamLog()) < 0);
+		
+		final LoudnessIndex reloaded = new LoudnessIndex(normalization.getIndex().getFile());
+		reloaded.load();
+		assertEquals(normalization.getIndex().get("key"), reloaded.get("key"));
+	}
+	
+	@Test
+	void doesNotStoreIncompleteMeasurements() throws IOException
+	{
+		final LoudnessNormalization normalization = new LoudnessNormalization(
+			new LoudnessIndex(this.tempDir.resolve("loudness.properties")),
+			-18.0f);
+		try(final InputStream is = normalization.measureWhileReading(
+			"key",
+			FORMAT,
+			new ByteArrayInputStream(sine(1_000, 0.5, 5)),
+			null,
+			new SystemStreamLog()))
+		{
+			is.readNBytes(10_000);
+		}
+		
+		assertTrue(normalization.getIndex().get("key").isEmpty());
+	}
+	
+	@Test
+	void onlyKeepsRunningAnalyses()
+	{
+		final LoudnessNormalization normalization = new LoudnessNormalization(
+			new LoudnessIndex(this.tempDir.resolve("loudness.properties")),
+			-18.0f);
+		final PlaybackSettings settings = new PlaybackSettings();
+		final ClassPathMusicSource source = new ClassPathMusicSource("/default/First_Call.ogg");
+		final String key = PreparedTrack.contentKey(source, settings, new SystemStreamLog());
+		
+		// Requesting the gain doesn't start an analysis, the played source is measured while decoding
+		assertEquals(0f, normalization.gainDB(source, key, settings, new SystemStreamLog()));
+		assertEquals(0, normalization.runningAnalyses());
+		
+		normalization.analyze(List.of(source), settings, new SystemStreamLog()).join();
+		
+		assertEquals(0, normalization.runningAnalyses());
+		assertTrue(normalization.getIndex().get(key).isPresent());
+		assertTrue(normalization.gainDB(source, key, settings, new SystemStreamLog()) != 0f);
+	}
+	
+	private static byte[] sine(final double frequency, final double amplitude, final int seconds)
+	{
+		final int frames = (int)FORMAT.getFrameRate() * seconds;
+		final ByteBuffer buffer = ByteBuffer.allocate(frames * FORMAT.getFrameSize())
+			.order(FORMAT.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+		for(int i = 0; i < frames; i++)
+		{
+			final short sample = (short)(Math.sin(2 * Math.PI * frequency * i / FORMAT.getFrameRate())
+				* amplitude * Short.MAX_VALUE);
+			for(int channel = 0; channel < FORMAT.getChannels(); channel++)
+			{
+				buffer.putShort(sample);
+			}
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class PlaybackMetricsTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void writesAnEmptyReport()
+	{
+		final String json = new PlaybackMetrics().toJson();
+		
+		assertBalanced(json);
+		assertTrue(json.contains("\"tracks\": []"), json);
+		assertEquals(0, number(json, "tracks"));
+		assertEquals(-1, number(json, "timeToFirstSoundNanos"));
+		assertEquals(-1, number(json, "stopLatencyNanos"));
+	}
+	
+	@Test
+	void writesTracksAndTotals()
+	{
+		final PlaybackMetrics metrics = new PlaybackMetrics();
+		metrics.recordStopLatency(1_234);
+		
+		final TrackMetrics first = metrics.startTrack("first.ogg");
+		first.setBytesDecoded(100);
+		first.setUnderruns(1);
+		first.recordFirstSound(first.getStartNanos() + 50);
+		first.recordEnd(false);
+		
+		final TrackMetrics second = metrics.startTrack("second.mp3");
+		second.setBytesDecoded(23);
+		second.setUnderruns(2);
+		second.recordEnd(true);
+		
+		final String json = metrics.toJson();
+		
+		assertBalanced(json);
+		assertEquals(1_234, number(json, "stopLatencyNanos"));
+		// Totals come before the tracks
+		assertEquals(2, number(json, "tracks"));
+		assertEquals(123, number(json, "bytesDecoded"));
+		assertEquals(3, number(json, "underruns"));
+		assertTrue(json.contains("\"source\": \"first.ogg\""), json);
+		assertTrue(json.contains("\"source\": \"second.mp3\""), json);
+		assertTrue(json.contains("\"timeToFirstSoundNanos\": 50,"), json);
+		assertTrue(json.contains("\"stopped\": true"), json);
+		assertTrue(json.indexOf("first.ogg") < json.indexOf("second.mp3"));
+	}
+	
+	@Test
+	void escapesSources()
+	{
+		final PlaybackMetrics metrics = new PlaybackMetrics();
+		metrics.startTrack("C:\\Music\\\"quoted\"\ttab\nline\u0001");
+		metrics.startTrack(null);
+		
+		final String json = metrics.toJson();
+		
+		assertBalanced(json);
+		assertTrue(json.contains("\"source\": \"C:\\\\Music\\\\\\\"quoted\\\"\\ttab\\nline\\u0001\""), json);
+		assertTrue(json.contains("\"source\": null"), json);
+	}
+	
+	@Test
+	void writesTheReportFile() throws IOException
+	{
+		final PlaybackMetrics metrics = new PlaybackMetrics();
+		metrics.startTrack("track");
+		
+		// Disabled by default
+		metrics.writeReport(new SystemStreamLog());
+		
+		final Path reportFile = this.tempDir.resolve("sub/report.json");
+		metrics.setReportFile(reportFile);
+		metrics.writeReport(new SystemStreamLog());
+		
+		assertEquals(metrics.toJson(), Files.readString(reportFile, StandardCharsets.UTF_8));
+		assertFalse(Files.exists(reportFile.resolveSibling("report.json.tmp")));
+	}
+	
+	/**
+	 * @return the value of the first field with the given name
+	 */
+	private static long number(final String json, final String field)
+	{
+		final Matcher matcher = Pattern.compile("\"" + field + "\": (-?\\d+)").matcher(json);
+		assertTrue(matcher.find(), field);
+		return Long.parseLong(matcher.group(1));
+	}
+	
+	/**
+	 * Checks that brackets are balanced and strings are terminated (outside of strings)
+	 */
+	private static void assertBalanced(final String json)
+	{
+		final StringBuilder open = new StringBuilder();
+		boolean inString = false;
+		for(int i = 0; i < json.length(); i++)
+		{
+			final char c = json.charAt(i);
+			if(inString)
+			{
+				assertTrue(c >= 0x20, "Unescaped control character at " + i);
+				if(c == '\\')
+				{
+					i++;
+				}
+				else if(c == '"')
+				{
+					inString = false;
+				}
+				continue;
+			}
+			switch(c)
+			{
+				case '"' -> inString = true;
+				case '{', '[' -> open.append(c);
+				case '}', ']' ->
+				{
+					assertFalse(open.isEmpty(), "Unexpected " + c + " at " + i);
+					assertEquals(c == '}' ? '{' : '[', open.charAt(open.length() - 1), "Mismatch at " + i);
+					open.setLength(open.length() - 1);
+				}
+				default ->
+				{
+					// Values and separators
+				}
+			}
+		}
+		assertFalse(inString, "Unterminated string");
+		assertTrue(open.isEmpty(), "Unclosed " + open);
+	}
+}
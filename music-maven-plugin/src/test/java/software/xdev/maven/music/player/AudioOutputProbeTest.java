@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.Line;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class AudioOutputProbeTest
+{
+	private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void resultIsPersistedPerMachine()
+	{
+		final Path file = this.tempDir.resolve("audio-output.properties");
+		final AtomicInteger probes = new AtomicInteger();
+		
+		final AudioOutputProbe.Result first = AudioOutputProbe.check(file, DAY_MILLIS, () -> {
+			probes.incrementAndGet();
+			return false;
+		}, new SystemStreamLog());
+		final AudioOutputProbe.Result second = AudioOutputProbe.check(file, DAY_MILLIS, () -> {
+			probes.incrementAndGet();
+			return true;
+		}, new SystemStreamLog());
+		
+		assertFalse(first.available());
+		assertEquals(first, second);
+		assertEquals(1, probes.get());
+		assertTrue(Files.exists(file));
+	}
+	
+	@Test
+	void expiredOrDisabledPersistenceProbesAgain() throws Exception
+	{
+		final Path file = this.tempDir.resolve("audio-output.properties");
+		AudioOutputProbe.check(file, DAY_MILLIS, () -> false, new SystemStreamLog());
+		Thread.sleep(5);
+		
+		assertTrue(AudioOutputProbe.check(file, 1, () -> true, new SystemStreamLog()).available());
+		
+		final Path notPersisted = this.tempDir.resolve("not-persisted.properties");
+		AudioOutputProbe.check(notPersisted, 0, () -> true, new SystemStreamLog());
+		assertFalse(Files.exists(notPersisted));
+	}
+	
+	@Test
+	void onlyMixersWithSourceLinesCount()
+	{
+		assertTrue(AudioOutputProbe.providesSourceLine(mixer(new Line.Info(SourceDataLine.class))));
+		assertFalse(AudioOutputProbe.providesSourceLine(mixer()));
+	}
+	
+	/**
+	 * A mixer that fails when anything else than its line infos is accessed (e.g. opening it)
+	 */
+	private static Mixer mixer(final Line.Info... sourceLines)
+	{
+		return (Mixer)Proxy.newProxyInstance(
+			AudioOutputProbeTest.class.getClassLoader(),
+			new Class<?>[]{Mixer.class},
+			(proxy, method, args) -> {
+				if("getSourceLineInfo".equals(method.getName()))
+				{
+					return sourceLines;
+				}
+				throw new UnsupportedOperationException(method.getName());
+			});
+	}
+}
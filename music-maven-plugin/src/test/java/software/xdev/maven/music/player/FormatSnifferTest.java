@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+
+
+class FormatSnifferTest
+{
+	private static final AudioFormat PCM = new AudioFormat(44_100, 16, 2, true, false);
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void sniffByMagicBytesAndExtension()
+	{
+		assertEquals(FormatSniffer.Codec.OGG, FormatSniffer.sniff(new byte[]{'O', 'g', 'g', 'S'}, "x.mp3"));
+		assertEquals(FormatSniffer.Codec.MP3, FormatSniffer.sniff(new byte[]{'I', 'D', '3', 4}, null));
+		assertEquals(FormatSniffer.Codec.UNKNOWN, FormatSniffer.sniff(new byte[]{'R', 'I', 'F', 'F'}, "x.mp3"));
+		assertEquals(FormatSniffer.Codec.MP3, FormatSniffer.sniff(new byte[]{0, 0, 0, 0}, "x.MP3?v=1"));
+	}
+	
+	@Test
+	void formatIsRememberedPerLocationAndFallsBackWhenTheReaderFails() throws Exception
+	{
+		final Path file = this.tempDir.resolve("track");
+		try(final InputStream ogg = FormatSnifferTest.class.getResourceAsStream("/default/First_Call.ogg"))
+		{
+			Files.copy(ogg, file);
+		}
+		try(final AudioInputStream ais = open(file))
+		{
+			assertEquals("VORBISENC", ais.getFormat().getEncoding().toString());
+		}
+		
+		// Same location, but now a WAV file: The remembered reader fails
+		Files.delete(file);
+		writeWav(file);
+		try(final AudioInputStream ais = open(file))
+		{
+			assertTrue(PCM.matches(ais.getFormat()));
+		}
+	}
+	
+	private static AudioInputStream open(final Path file) throws IOException, UnsupportedAudioFileException
+	{
+		// A new source object for every play
+		final FileMusicSource source = new FileMusicSource();
+		source.setFile(file.toString());
+		return FormatSniffer.getAudioInputStream(Files.newInputStream(file), source);
+	}
+	
+	private static void writeWav(final Path file) throws IOException
+	{
+		final byte[] silence = new byte[PCM.getFrameSize() * 4410];
+		try(final AudioInputStream ais = new AudioInputStream(
+			new ByteArrayInputStream(silence),
+			PCM,
+			silence.length / PCM.getFrameSize()))
+		{
+			final File target = file.toFile();
+			AudioSystem.write(ais, AudioFileFormat.Type.WAVE, target);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class LineBufferTuningTest
+{
+	private static final String MIXER = "Test mixer";
+	// 44.1 kHz, 16 bit, stereo -> 4 bytes per frame
+	private static final AudioFormat FORMAT = new AudioFormat(44_100, 16, 2, true, false);
+	// 500 ms
+	private static final int DEFAULT_BUFFER_BYTES = 88_200;
+	
+	@Test
+	void startsWithTheDefaultOfTheMixer(@TempDir final Path dir)
+	{
+		final LineBufferTuning tuning = new LineBufferTuning(dir.resolve("line-buffers.properties"), 50, 2000);
+		
+		assertEquals(OptionalInt.empty(), tuning.bufferMillis(MIXER));
+		assertEquals(OptionalInt.empty(), tuning.bufferBytes(MIXER, FORMAT));
+	}
+	
+	@Test
+	void underrunsGrowTheActualBuffer(@TempDir final Path dir)
+	{
+		final Path file = dir.resolve("line-buffers.properties");
+		final LineBufferTuning tuning = new LineBufferTuning(file, 50, 2000);
+		
+		// Filled, then empty
+		tuning.record(MIXER, monitor(DEFAULT_BUFFER_BYTES, 0, DEFAULT_BUFFER_BYTES), new SystemStreamLog());
+		
+		assertEquals(OptionalInt.of(750), tuning.bufferMillis(MIXER));
+		assertEquals(OptionalInt.of(750), new LineBufferTuning(file, 50, 2000).bufferMillis(MIXER));
+	}
+	
+	@Test
+	void shrinksAtMostOncePerInstance(@TempDir final Path dir)
+	{
+		final LineBufferTuning tuning = new LineBufferTuning(dir.resolve("line-buffers.properties"), 50, 2000);
+		
+		for(int i = 0; i < 3; i++)
+		{
+			tuning.record(MIXER, wellFilledMonitor(), new SystemStreamLog());
+		}
+		
+		assertEquals(OptionalInt.of(450), tuning.bufferMillis(MIXER));
+	}
+	
+	@Test
+	void fileIsOnlyWrittenWhenASizeChanged(@TempDir final Path dir) throws IOException
+	{
+		final Path file = dir.resolve("line-buffers.properties");
+		final LineBufferTuning tuning = new LineBufferTuning(file, 500, 500);
+		
+		tuning.record(MIXER, monitor(DEFAULT_BUFFER_BYTES, 0, DEFAULT_BUFFER_BYTES), new SystemStreamLog());
+		assertFalse(Files.exists(file));
+		
+		new LineBufferTuning(file, 50, 2000)
+			.record(MIXER, monitor(DEFAULT_BUFFER_BYTES, 0, DEFAULT_BUFFER_BYTES), new SystemStreamLog());
+		assertTrue(Files.exists(file));
+		Files.delete(file);
+		
+		// Loaded with the same size -> nothing to write
+		final LineBufferTuning bounded = new LineBufferTuning(file, 50, 750);
+		Files.writeString(file, MIXER.replace(" ", "\\ ") + "=750\n");
+		bounded.record(MIXER, monitor(DEFAULT_BUFFER_BYTES, 0, DEFAULT_BUFFER_BYTES), new SystemStreamLog());
+		assertEquals(MIXER.replace(" ", "\\ ") + "=750\n", Files.readString(file));
+	}
+	
+	@Test
+	void chunksAreHalfOfTheActualBuffer()
+	{
+		assertEquals(44_100, LineBufferTuning.chunkBytes(line(DEFAULT_BUFFER_BYTES, IntStream.of(0).iterator())));
+		// Only complete frames
+		assertEquals(500, LineBufferTuning.chunkBytes(line(1_002, IntStream.of(0).iterator())));
+	}
+	
+	private static LineBufferTuning.Monitor wellFilledMonitor()
+	{
+		final LineBufferTuning.Monitor monitor = new LineBufferTuning.Monitor(
+			line(DEFAULT_BUFFER_BYTES, IntStream.generate(() -> 0).iterator()));
+		final byte[] chunk = new byte[DEFAULT_BUFFER_BYTES];
+		// 20 s
+		for(int i = 0; i < 40; i++)
+		{
+			monitor.write(chunk, 0, chunk.length);
+		}
+		return monitor;
+	}
+	
+	/**
+	 * @param available what the line reports as available before each write
+	 */
+	private static LineBufferTuning.Monitor monitor(final int bufferBytes, final int... available)
+	{
+		final LineBufferTuning.Monitor monitor =
+			new LineBufferTuning.Monitor(line(bufferBytes, IntStream.of(available).iterator()));
+		final byte[] chunk = new byte[1024];
+		for(int i = 0; i < available.length; i++)
+		{
+			monitor.write(chunk, 0, chunk.length);
+		}
+		return monitor;
+	}
+	
+	private static SourceDataLine line(final int bufferBytes, final PrimitiveIterator.OfInt available)
+	{
+		return (SourceDataLine)Proxy.newProxyInstance(
+			LineBufferTuningTest.class.getClassLoader(),
+			new Class<?>[]{SourceDataLine.class},
+			(proxy, method, args) -> switch(method.getName())
+			{
+				case "getBufferSize" -> bufferBytes;
+				case "getFormat" -> FORMAT;
+				case "available" -> available.nextInt();
+				case "write" -> args[2];
+				default -> throw new UnsupportedOperationException(method.getName());
+			});
+	}
+}
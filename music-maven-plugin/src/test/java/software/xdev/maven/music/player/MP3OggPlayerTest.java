@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+
+
+class MP3OggPlayerTest
+{
+	@Test
+	void stopWhileIdleDiscardsPrefetchedTracks() throws IOException
+	{
+		final Log log = new SystemStreamLog();
+		final MP3OggPlayer player = new MP3OggPlayer();
+		final ClassPathMusicSource source = new ClassPathMusicSource("/default/First_Call.ogg");
+		player.prefetch(source, new PlaybackSettings(), log);
+		
+		player.stop();
+		
+		final Optional<PreparedTrack> track = player.takePrefetched(source, log);
+		if(track.isPresent())
+		{
+			track.get().close();
+		}
+		assertTrue(track.isEmpty(), "Prefetched track must not survive a stop");
+	}
+	
+	@Test
+	void releaseKeepsNoPrefetchedTrackForTheNextSession() throws IOException
+	{
+		final Log log = new SystemStreamLog();
+		final MP3OggPlayer player = new MP3OggPlayer();
+		final ClassPathMusicSource stale = new ClassPathMusicSource("/default/First_Call.ogg");
+		final ClassPathMusicSource next = new ClassPathMusicSource("/default/First_Call.ogg");
+		player.prefetch(stale, new PlaybackSettings(), log);
+		
+		player.release();
+		player.prefetch(next, new PlaybackSettings(), log);
+		
+		final Optional<PreparedTrack> track = player.takePrefetched(next, log);
+		assertTrue(track.isPresent(), "Prefetch of the next session must not be discarded");
+		track.get().close();
+	}
+}
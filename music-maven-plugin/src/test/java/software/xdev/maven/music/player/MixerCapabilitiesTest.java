@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.cache.PcmCache;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class MixerCapabilitiesTest
+{
+	private static final AudioFormat STEREO = PcmCache.pcmFormat(44_100, 2);
+	private static final AudioFormat MONO = PcmCache.pcmFormat(22_050, 1);
+	
+	@Test
+	void usesTheFirstMixerThatSupportsTheFormat()
+	{
+		final FakeMixer noLines = new FakeMixer(0, null);
+		final FakeMixer stereoOnly = new FakeMixer(1, STEREO);
+		final FakeMixer any = new FakeMixer(1, null);
+		final MixerCapabilities capabilities = new MixerCapabilities(
+			List.of(noLines.entry(), stereoOnly.entry(), any.entry()),
+			1);
+		
+		assertSame(stereoOnly.mixer, capabilities.mixerFor(STEREO).orElseThrow());
+		assertSame(any.mixer, capabilities.mixerFor(MONO).orElseThrow());
+		assertTrue(capabilities.hasSourceLines());
+		// Mixers without source lines (e.g. only for recording) are never asked
+		assertEquals(0, noLines.supportChecks.get());
+	}
+	
+	@Test
+	void remembersTheMixerOfAFormat()
+	{
+		final FakeMixer mixer = new FakeMixer(1, null);
+		final MixerCapabilities capabilities = new MixerCapabilities(List.of(mixer.entry()), 1);
+		
+		capabilities.mixerFor(STEREO);
+		capabilities.mixerFor(PcmCache.pcmFormat(44_100, 2));
+		capabilities.mixerFor(MONO);
+		
+		assertEquals(2, mixer.supportChecks.get());
+	}
+	
+	@Test
+	void createsNoLineIfNoMixerSupportsTheFormat() throws LineUnavailableException
+	{
+		final MixerCapabilities capabilities = new MixerCapabilities(List.of(new FakeMixer(1, STEREO).entry()), 1);
+		
+		assertNull(capabilities.createLine(MONO));
+		assertFalse(new MixerCapabilities(List.of(new FakeMixer(0, null).entry()), 1).hasSourceLines());
+		assertNull(new MixerCapabilities(List.of(), 1).createLine(STEREO));
+	}
+	
+	@Test
+	void leavesAConfiguredMixerToTheAudioSystem()
+	{
+		final MixerCapabilities capabilities = new MixerCapabilities(List.of(new FakeMixer(1, null).entry()), 1);
+		final String property = "javax.sound.sampled.SourceDataLine";
+		final String previous = System.getProperty(property);
+		System.setProperty(property, "#Some device");
+		try
+		{
+			assertTrue(capabilities.mixerFor(STEREO).isEmpty());
+		}
+		finally
+		{
+			if(previous == null)
+			{
+				System.clearProperty(property);
+			}
+			else
+			{
+				System.setProperty(property, previous);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Mixer that only answers which lines it supports
+	 */
+	static class FakeMixer
+	{
+		final AtomicInteger supportChecks = new AtomicInteger();
+		final Line.Info[] sourceLineInfos;
+		final Mixer mixer;
+		
+		/**
+		 * @param supportedFormat the only supported format; <code>null</code> = all
+		 */
+		FakeMixer(final int sourceLines, final AudioFormat supportedFormat)
+		{
+			this.sourceLineInfos = new Line.Info[sourceLines];
+			for(int i = 0; i < sourceLines; i++)
+			{
+				this.sourceLineInfos[i] = new DataLine.Info(SourceDataLine.class, supportedFormat);
+			}
+			this.mixer = (Mixer)Proxy.newProxyInstance(
+				Mixer.class.getClassLoader(),
+				new Class<?>[]{Mixer.class},
+				(proxy, method, args) -> switch(method.getName())
+				{
+					case "isLineSupported" ->
+					{
+						this.supportChecks.incrementAndGet();
+						final DataLine.Info info = (DataLine.Info)args[0];
+						yield supportedFormat == null || supportedFormat.matches(info.getFormats()[0]);
+					}
+					case "getSourceLineInfo" -> this.sourceLineInfos;
+					case "hashCode" -> System.identityHashCode(proxy);
+					case "equals" -> proxy == args[0];
+					case "toString" -> "FakeMixer";
+					default -> throw new UnsupportedOperationException(method.getName());
+				});
+		}
+		
+		MixerCapabilities.Entry entry()
+		{
+			return new MixerCapabilities.Entry(this.mixer, this.sourceLineInfos);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.cache.PcmCache;
+import software.xdev.maven.music.player.pcm.PcmConverter;
+import software.xdev.maven.music.sources.mp3ogg.ClassPathMusicSource;
+
+
+class PreparedTrackTest
+{
+	private static final Duration MAX_STOP_DURATION = Duration.ofSeconds(1);
+	
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	@SuppressWarnings("checkstyle:MagicNumber")
+	void lowImpactPlaysMonoAtALowSampleRateButCachesTheDecodedAudio()
+		throws IOException, UnsupportedAudioFileException
+	{
+		final Log log = new SystemStreamLog();
+		final PlaybackSettings settings = new PlaybackSettings();
+		settings.setDecodeAheadMillis(1_000);
+		settings.setPcmCache(new PcmCache(this.tempDir, Long.MAX_VALUE));
+		settings.setLowImpact(true);
+		settings.setLowImpactSampleRate(22_050);
+		final ClassPathMusicSource source = new ClassPathMusicSource("/default/First_Call.ogg");
+		
+		final long decodedBytes = readFully(source, settings, log);
+		
+		final String key = PreparedTrack.contentKey(source, settings, log);
+		final PcmCache.Entry cached = settings.getPcmCache().get(key).orElseThrow();
+		// Not converted, so that it can be used in every mode
+		assertEquals(2, cached.format().getChannels());
+		assertTrue(cached.format().getSampleRate() > 22_050);
+		final long frames = cached.data().remaining() / cached.format().getFrameSize();
+		final long expectedBytes = Math.round(frames * 22_050.0 / cached.format().getSampleRate()) * 2;
+		assertEquals(expectedBytes, decodedBytes, 4);
+		
+		// Also converted when played from the cache
+		assertEquals(decodedBytes, readFully(source, settings, log));
+	}
+	
+	@Test
+	@SuppressWarnings("checkstyle:MagicNumber")
+	void convertsOnlyIfRequired()
+	{
+		final AudioFormat decoded = PcmCache.pcmFormat(44_100, 2);
+		final PlaybackSettings settings = new PlaybackSettings();
+		settings.setLowImpactSampleRate(22_050);
+		assertNull(PreparedTrack.createConverter(decoded, settings));
+		
+		settings.setLowImpact(true);
+		assertFormat(22_050, 1, PreparedTrack.createConverter(decoded, settings).getOutputFormat());
+		assertNull(PreparedTrack.createConverter(PcmCache.pcmFormat(22_050, 1), settings));
+		
+		// A fixed output format takes precedence
+		settings.setOutputSampleRate(48_000);
+		settings.setOutputChannels(2);
+		final PcmConverter converter = PreparedTrack.createConverter(decoded, settings);
+		assertNotNull(converter);
+		assertFormat(48_000, 2, converter.getOutputFormat());
+	}
+	
+	private static void assertFormat(final float sampleRate, final int channels, final AudioFormat actual)
+	{
+		assertTrue(PcmCache.pcmFormat(sampleRate, channels).matches(actual), actual.toString());
+	}
+	
+	private static long readFully(final ClassPathMusicSource source, final PlaybackSettings settings, final Log log)
+		throws IOException, UnsupportedAudioFileException
+	{
+		try(final PreparedTrack track = PreparedTrack.open(source, settings, log))
+		{
+			assertFormat(22_050, 1, track.getFormat());
+			
+			final byte[] buffer = new byte[8192];
+			long total = 0;
+			int n;
+			while((n = track.read(buffer, 0, buffer.length)) != -1)
+			{
+				total += n;
+			}
+			return total;
+		}
+	}
+	
+	@Test
+	void closeReleasesDecoderBlockedOnSource() throws Exception
+	{
+		this.withContention(() -> this.assertCloseIsBounded(new StalledStream(false)));
+	}
+	
+	@Test
+	void closeDoesNotWaitForeverForHangingDecoder() throws Exception
+	{
+		// Even closing the source doesn't release the decoder - only the interrupt does
+		this.withContention(() -> this.assertCloseIsBounded(new StalledStream(true)));
+	}
+	
+	private void assertCloseIsBounded(final StalledStream source) throws Exception
+	{
+		final PlaybackSettings settings = new PlaybackSettings();
+		settings.setDecodeAheadMillis(1_000);
+		
+		final PreparedTrack track = new PreparedTrack(null, PcmCache.pcmFormat(44_100, 2), source, source, null);
+		track.startDecoding(settings);
+		source.readStarted.await();
+		
+		assertTimeoutPreemptively(MAX_STOP_DURATION, track::close);
+	}
+	
+	/**
+	 * Runs the action while all cores are busy
+	 */
+	private void withContention(final ThrowingAction action) throws Exception
+	{
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final List<Thread> spinners = new ArrayList<>();
+		for(int i = 0; i < Runtime.getRuntime().availableProcessors() * 2; i++)
+		{
+			final Thread spinner = new Thread(() -> {
+				long counter = 0;
+				while(running.get())
+				{
+					counter++;
+				}
+				if(counter < 0)
+				{
+					throw new IllegalStateException();
+				}
+			});
+			spinner.setDaemon(true);
+			spinner.setPriority(Thread.MAX_PRIORITY);
+			spinner.start();
+			spinners.add(spinner);
+		}
+		try
+		{
+			action.run();
+		}
+		finally
+		{
+			running.set(false);
+			for(final Thread spinner : spinners)
+			{
+				spinner.join();
+			}
+		}
+	}
+	
+	@FunctionalInterface
+	interface ThrowingAction
+	{
+		void run() throws Exception;
+	}
+	
+	/**
+	 * A source that never delivers any data, e.g. a stalled download.
+	 */
+	static class StalledStream extends InputStream
+	{
+		private final boolean ignoreClose;
+		private final CountDownLatch closed = new CountDownLatch(1);
+		private final CountDownLatch readStarted = new CountDownLatch(1);
+		
+		StalledStream(final boolean ignoreClose)
+		{
+			this.ignoreClose = ignoreClose;
+		}
+		
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			return this.read(b, 0, 1) == -1 ? -1 : b[0];
+		}
+		
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			this.readStarted.countDown();
+			try
+			{
+				if(this.ignoreClose)
+				{
+					new CountDownLatch(1).await();
+				}
+				this.closed.await();
+			}
+			catch(final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			throw new IOException("Closed");
+		}
+		
+		@Override
+		public void close()
+		{
+			this.closed.countDown();
+		}
+	}
+}
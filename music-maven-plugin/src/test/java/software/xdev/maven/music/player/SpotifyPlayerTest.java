@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.player.spotify.DBusConnection;
+import software.xdev.maven.music.player.spotify.FakeDBus;
+import software.xdev.maven.music.sources.spotify.SpotifyMusicSource;
+
+
+class SpotifyPlayerTest
+{
+	private static final String URI = "spotify:track:4cOdK2wGLETKBW3PvgPWqT";
+	
+	@Test
+	void opensTheUriViaTheSessionBus(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(SpotifyPlayer.isLinux());
+		try(final FakeDBus bus = new FakeDBus(dir))
+		{
+			final SpotifyPlayer.SessionBus sessionBus =
+				new SpotifyPlayer.SessionBus(() -> DBusConnection.connect(bus.socket(), 5_000), 60_000);
+			
+			assertTrue(sessionBus.openUri(URI, new SystemStreamLog()));
+			assertTrue(sessionBus.openUri(URI, new SystemStreamLog()));
+			
+			// The connection is reused
+			assertEquals(
+				List.of("Hello", "OpenUri", "OpenUri"),
+				bus.calls().stream().map(FakeDBus.Call::member).toList());
+			assertEquals(List.of(URI), bus.calls().get(1).args());
+		}
+	}
+	
+	@Test
+	void errorReplyIsHandled(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(SpotifyPlayer.isLinux());
+		try(final FakeDBus bus = new FakeDBus(dir).failingMember("OpenUri"))
+		{
+			final SpotifyPlayer.SessionBus sessionBus =
+				new SpotifyPlayer.SessionBus(() -> DBusConnection.connect(bus.socket(), 5_000), 60_000);
+			
+			assertTrue(sessionBus.openUri(URI, new SystemStreamLog()));
+		}
+	}
+	
+	@Test
+	void connectingIsRetriedAfterTheInterval() throws InterruptedException
+	{
+		final AtomicInteger attempts = new AtomicInteger();
+		final SpotifyPlayer.SessionBus sessionBus = new SpotifyPlayer.SessionBus(
+			() -> {
+				attempts.incrementAndGet();
+				throw new IOException("No bus");
+			},
+			200);
+		
+		assertFalse(sessionBus.openUri(URI, new SystemStreamLog()));
+		assertFalse(sessionBus.openUri(URI, new SystemStreamLog()));
+		assertEquals(1, attempts.get());
+		
+		Thread.sleep(300);
+		assertFalse(sessionBus.openUri(URI, new SystemStreamLog()));
+		assertEquals(2, attempts.get());
+	}
+	
+	@Test
+	void fallsBackToDBusSend(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(SpotifyPlayer.isLinux());
+		final Path arguments = dir.resolve("arguments.txt");
+		final Path dbusSend = dir.resolve("dbus-send");
+		Files.writeString(dbusSend, "#!/bin/sh\nprintf '%s\\n' \"$@\" > '" + arguments + "'\n");
+		Files.setPosixFilePermissions(dbusSend, PosixFilePermissions.fromString("rwx------"));
+		
+		final SpotifyPlayer player = new SpotifyPlayer(
+			new SpotifyPlayer.SessionBus(
+				() -> {
+					throw new IOException("No bus");
+				},
+				60_000),
+			dbusSend.toString());
+		final SpotifyMusicSource source = new SpotifyMusicSource();
+		source.setUri(URI);
+		
+		assertFalse(player.play(source, 0, new SystemStreamLog()));
+		
+		assertEquals(
+			List.of(
+				"--print-reply",
+				"--dest=org.mpris.MediaPlayer2.spotify",
+				"/org/mpris/MediaPlayer2",
+				"org.mpris.MediaPlayer2.Player.OpenUri",
+				"string:" + URI),
+			Files.readAllLines(arguments));
+	}
+}
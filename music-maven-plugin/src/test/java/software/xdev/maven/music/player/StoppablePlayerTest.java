@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+
+
+class StoppablePlayerTest
+{
+	private static final Duration MAX_DURATION = Duration.ofSeconds(5);
+	
+	@Test
+	void concurrentPlayReplacesActivePlayback()
+	{
+		final BlockingPlayer player = new BlockingPlayer();
+		final MusicSource first = new MusicSource()
+		{
+		};
+		final MusicSource second = new MusicSource()
+		{
+		};
+		
+		assertTimeoutPreemptively(MAX_DURATION, () -> {
+			final CompletableFuture<Boolean> firstPlayback = CompletableFuture.supplyAsync(() -> play(player, first));
+			player.awaitPlaying(first);
+			
+			final CompletableFuture<Boolean> secondPlayback =
+				CompletableFuture.supplyAsync(() -> play(player, second));
+			
+			assertTrue(firstPlayback.join(), "Replaced playback must be reported as stopped");
+			player.awaitPlaying(second);
+			
+			player.stop();
+			assertTrue(secondPlayback.join());
+		});
+		assertEquals(List.of(first, second), player.played);
+		assertEquals(PlaybackState.IDLE, player.getState());
+	}
+	
+	private static boolean play(final StoppablePlayer<MusicSource> player, final MusicSource source)
+	{
+		return player.play(source, new PlaybackSettings(), new SystemStreamLog());
+	}
+	
+	/**
+	 * Plays until stopped.
+	 */
+	static class BlockingPlayer extends StoppablePlayer<MusicSource>
+	{
+		private final List<MusicSource> played = new CopyOnWriteArrayList<>();
+		
+		@Override
+		public Class<MusicSource> supportedMusicSourceType()
+		{
+			return MusicSource.class;
+		}
+		
+		@Override
+		protected boolean playInternal(final MusicSource source, final PlaybackSettings settings, final Log log)
+		{
+			if(!this.markPlaying())
+			{
+				return true;
+			}
+			this.played.add(source);
+			synchronized(this)
+			{
+				this.notifyAll();
+				while(!this.isStopRequested())
+				{
+					try
+					{
+						this.wait(1);
+					}
+					catch(final InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						return true;
+					}
+				}
+			}
+			return true;
+		}
+		
+		synchronized void awaitPlaying(final MusicSource source) throws InterruptedException
+		{
+			while(!this.played.contains(source) || this.getState() != PlaybackState.PLAYING)
+			{
+				this.wait(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.cache.PcmCache;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class ConvertingInputStreamTest
+{
+	@Test
+	void producesTheSameAsTheConverter() throws IOException
+	{
+		final byte[] in = noise(44_100);
+		final byte[] expected = new byte[resampler().maxOutputLength(in.length)];
+		final PcmConverter direct = resampler();
+		int length = direct.convert(in, 0, in.length, expected, 0);
+		length += direct.finish(expected, length);
+		
+		final byte[] actual;
+		try(final InputStream converting = new ConvertingInputStream(new ByteArrayInputStream(in), resampler()))
+		{
+			actual = converting.readAllBytes();
+		}
+		
+		// Including the frames that are held back until the end
+		assertEquals(48_000 * 2, length);
+		assertArrayEquals(Arrays.copyOf(expected, length), actual);
+	}
+	
+	@Test
+	void supportsSmallAndSingleByteReads() throws IOException
+	{
+		final byte[] in = noise(4_410);
+		final byte[] expected;
+		try(final InputStream converting = new ConvertingInputStream(new ByteArrayInputStream(in), resampler()))
+		{
+			expected = converting.readAllBytes();
+		}
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try(final InputStream converting = new ConvertingInputStream(new ByteArrayInputStream(in), resampler()))
+		{
+			assertEquals(0, converting.read(new byte[10], 0, 0));
+			final byte[] small = new byte[3];
+			int n;
+			while((n = converting.read(small, 0, small.length)) != -1)
+			{
+				out.write(small, 0, n);
+				final int b = converting.read();
+				if(b == -1)
+				{
+					break;
+				}
+				out.write(b);
+			}
+			assertEquals(-1, converting.read());
+		}
+		assertArrayEquals(expected, out.toByteArray());
+	}
+	
+	@Test
+	void closesTheSource() throws IOException
+	{
+		final AtomicBoolean closed = new AtomicBoolean();
+		final InputStream source = new ByteArrayInputStream(new byte[0])
+		{
+			@Override
+			public void close()
+			{
+				closed.set(true);
+			}
+		};
+		
+		new ConvertingInputStream(source, resampler()).close();
+		
+		assertTrue(closed.get());
+	}
+	
+	private static PcmConverter resampler()
+	{
+		return new PcmConverter(PcmCache.pcmFormat(44_100, 1), PcmCache.pcmFormat(48_000, 1));
+	}
+	
+	private static byte[] noise(final int frames)
+	{
+		final byte[] pcm = new byte[frames * 2];
+		new SplittableRandom(7).nextBytes(pcm);
+		return pcm;
+	}
+}
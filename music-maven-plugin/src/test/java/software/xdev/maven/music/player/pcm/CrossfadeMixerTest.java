@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.cache.PcmCache;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class CrossfadeMixerTest
+{
+	/**
+	 * 1 frame per millisecond, so that a fade of 100 ms has 100 frames
+	 */
+	private static final AudioFormat FORMAT = PcmCache.pcmFormat(1_000, 1);
+	private static final int FADE_MILLIS = 100;
+	private static final int CHUNK_SIZE = 64;
+	private static final short LEVEL = 10_000;
+	
+	@Test
+	void delaysByTheLengthOfTheFade()
+	{
+		final CrossfadeMixer mixer = new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE);
+		final short[] track = ramp(300);
+		final byte[] in = bytes(track);
+		
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[CHUNK_SIZE];
+		for(int off = 0; off < in.length; off += CHUNK_SIZE)
+		{
+			out.write(buffer, 0, mixer.delay(in, off, Math.min(CHUNK_SIZE, in.length - off), buffer));
+		}
+		assertEquals(200 * 2, out.size());
+		assertEquals(100 * 2, mixer.getDelayedBytes());
+		
+		int n;
+		while((n = mixer.drain(buffer)) > 0)
+		{
+			out.write(buffer, 0, n);
+		}
+		assertArrayEquals(in, out.toByteArray());
+	}
+	
+	@Test
+	void usesAnEqualPowerCurve()
+	{
+		final float[] fadeOut = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 100, false);
+		final float[] fadeIn = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 100, true);
+		
+		assertEquals(100, fadeOut.length);
+		assertTrue(fadeOut[0] > 0.99f);
+		assertTrue(fadeIn[0] < 0.02f);
+		assertTrue(fadeOut[99] < 0.02f);
+		assertTrue(fadeIn[99] > 0.99f);
+		for(int i = 0; i < 100; i++)
+		{
+			// Quantization of the 16-bit output
+			assertEquals(1.0, fadeOut[i] * fadeOut[i] + fadeIn[i] * fadeIn[i], 0.001);
+			if(i > 0)
+			{
+				assertTrue(fadeOut[i] <= fadeOut[i - 1]);
+				assertTrue(fadeIn[i] >= fadeIn[i - 1]);
+			}
+		}
+	}
+	
+	@Test
+	void compressesTheFadeForTracksShorterThanTheFade()
+	{
+		final float[] fadeOut = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 30, false);
+		final float[] fadeIn = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 30, true);
+		
+		// The whole curve is used, so that the next track doesn't jump to full volume afterwards
+		assertEquals(30, fadeOut.length);
+		assertTrue(fadeOut[0] > 0.99f);
+		assertTrue(fadeIn[29] > 0.95f);
+		assertTrue(fadeOut[29] < 0.1f);
+	}
+	
+	@Test
+	void mixesOnlyWhatBothTracksProvide()
+	{
+		final CrossfadeMixer mixer = new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE);
+		final byte[] buffer = new byte[CHUNK_SIZE * 4];
+		mixer.delay(bytes(constant(100, LEVEL)), 0, 200, buffer);
+		
+		// The next track provides less than a chunk (and an incomplete sample)
+		assertEquals(10, mixer.mix(bytes(constant(5, LEVEL)), 0, 11, 1f, buffer));
+		assertEquals(190, mixer.getDelayedBytes());
+		// More than a chunk is limited to the chunk size
+		assertEquals(CHUNK_SIZE, mixer.mix(bytes(constant(100, LEVEL)), 0, 200, 1f, buffer));
+		assertEquals(190 - CHUNK_SIZE, mixer.getDelayedBytes());
+		
+		// The rest of the tail is drained if the next track ended
+		int drained = 0;
+		int n;
+		while((n = mixer.drain(buffer)) > 0)
+		{
+			drained += n;
+		}
+		assertEquals(190 - CHUNK_SIZE, drained);
+		assertEquals(0, mixer.mix(bytes(constant(5, LEVEL)), 0, 10, 1f, buffer));
+	}
+	
+	@Test
+	void appliesTheHeadGain()
+	{
+		final float[] full = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 100, true, 1f);
+		final float[] half = gains(new CrossfadeMixer(FORMAT, FADE_MILLIS, CHUNK_SIZE), 100, true, 0.5f);
+		
+		assertEquals(full[99] / 2, half[99], 0.001);
+	}
+	
+	private static float[] gains(final CrossfadeMixer mixer, final int tailFrames, final boolean ofHead)
+	{
+		return gains(mixer, tailFrames, ofHead, 1f);
+	}
+	
+	/**
+	 * Mixes a constant level with silence and returns the resulting gain of each frame
+	 */
+	private static float[] gains(
+		final CrossfadeMixer mixer,
+		final int tailFrames,
+		final boolean ofHead,
+		final float headGain)
+	{
+		final byte[] discarded = new byte[tailFrames * 2];
+		mixer.delay(bytes(ofHead ? new short[tailFrames] : constant(tailFrames, LEVEL)), 0, tailFrames * 2, discarded);
+		
+		final byte[] head = bytes(ofHead ? constant(tailFrames, LEVEL) : new short[tailFrames]);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[CHUNK_SIZE];
+		int off = 0;
+		int n;
+		while((n = mixer.mix(head, off, head.length - off, headGain, buffer)) > 0)
+		{
+			out.write(buffer, 0, n);
+			off += n;
+		}
+		
+		final short[] mixed = samples(out.toByteArray());
+		final float[] gains = new float[mixed.length];
+		for(int i = 0; i < mixed.length; i++)
+		{
+			gains[i] = mixed[i] / (float)LEVEL;
+		}
+		return gains;
+	}
+	
+	private static short[] ramp(final int frames)
+	{
+		final short[] samples = new short[frames];
+		for(int i = 0; i < frames; i++)
+		{
+			samples[i] = (short)(i * 100 - 15_000);
+		}
+		return samples;
+	}
+	
+	private static short[] constant(final int frames, final short level)
+	{
+		final short[] samples = new short[frames];
+		Arrays.fill(samples, level);
+		return samples;
+	}
+	
+	static byte[] bytes(final short[] samples)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asShortBuffer().put(samples);
+		return buffer.array();
+	}
+	
+	static short[] samples(final byte[] bytes)
+	{
+		final short[] samples = new short[bytes.length / 2];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+		return samples;
+	}
+}
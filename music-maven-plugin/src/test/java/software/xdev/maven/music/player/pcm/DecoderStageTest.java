@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.Test;
+
+
+class DecoderStageTest
+{
+	@Test
+	void decodesUntilEndOfStream()
+	{
+		final PcmRingBuffer buffer = new PcmRingBuffer(100);
+		final DecoderStage decoder = new DecoderStage(new ByteArrayInputStream(new byte[50]), buffer);
+		
+		decoder.run();
+		
+		assertTrue(decoder.isEndOfStreamReached());
+		assertNull(decoder.getFailure());
+		assertEquals(50, decoder.getBytesDecoded());
+		assertTrue(buffer.isFinished());
+	}
+	
+	@Test
+	void runtimeExceptionsOfTheDecoderAreFailures()
+	{
+		final PcmRingBuffer buffer = new PcmRingBuffer(100);
+		final IllegalStateException corruptFrame = new IllegalStateException("corrupt frame");
+		final InputStream decoding = new InputStream()
+		{
+			private int remaining = 10;
+			
+			@Override
+			public int read()
+			{
+				if(this.remaining-- == 0)
+				{
+					throw corruptFrame;
+				}
+				return 0;
+			}
+		};
+		final DecoderStage decoder = new DecoderStage(decoding, buffer);
+		
+		decoder.run();
+		
+		assertFalse(decoder.isEndOfStreamReached());
+		assertNotNull(decoder.getFailure());
+		assertInstanceOf(IllegalStateException.class, decoder.getFailure().getCause());
+		// The consumer is released
+		assertTrue(buffer.isFinished());
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import software.xdev.maven.music.cache.PcmCache;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class PcmConverterTest
+{
+	private static final double FREQUENCY = 1_000;
+	private static final double AMPLITUDE = 0.5;
+	
+	@Test
+	void resamplesSineFrom44100To48000()
+	{
+		final short[] in = sine(44_100, 44_100);
+		final PcmConverter converter =
+			new PcmConverter(PcmCache.pcmFormat(44_100, 1), PcmCache.pcmFormat(48_000, 1));
+		
+		final short[] out = samples(convert(converter, bytes(in), 4096));
+		
+		assertEquals(48_000, out.length);
+		assertResembles(sine(48_000, 48_000), out, 48_000, 0.005);
+	}
+	
+	@Test
+	void chunkingDoesNotChangeTheResult()
+	{
+		final byte[] in = bytes(sine(44_100, 10_000));
+		final byte[] oneShot = convert(resampler(), in, in.length);
+		
+		// Odd chunk sizes also split frames
+		assertArrayEquals(oneShot, convert(resampler(), in, 333));
+		assertArrayEquals(oneShot, convert(resampler(), in, 1));
+	}
+	
+	@Test
+	void expandsMonoToStereo()
+	{
+		final short[] mono = sine(44_100, 1_000);
+		final PcmConverter converter =
+			new PcmConverter(PcmCache.pcmFormat(44_100, 1), PcmCache.pcmFormat(44_100, 2));
+		
+		final short[] stereo = samples(convert(converter, bytes(mono), 1000));
+		
+		assertEquals(2, converter.getOutputFormat().getChannels());
+		assertEquals(mono.length * 2, stereo.length);
+		for(int i = 0; i < mono.length; i++)
+		{
+			assertEquals(mono[i], stereo[2 * i]);
+			assertEquals(mono[i], stereo[2 * i + 1]);
+		}
+	}
+	
+	@Test
+	void downmixesStereoToMono()
+	{
+		final short[] stereo = {1000, 3000, -2000, -4000, 32767, 32767};
+		final PcmConverter converter = new PcmConverter(PcmCache.pcmFormat(44_100, 2), 44_100, true);
+		
+		final short[] mono = samples(convert(converter, bytes(stereo), 5));
+		
+		assertArrayEquals(new short[]{2000, -3000, 32767}, mono);
+	}
+	
+	@Test
+	void downmixesWhileResampling()
+	{
+		final short[] mono = sine(48_000, 4_800);
+		final short[] stereo = new short[mono.length * 2];
+		for(int i = 0; i < mono.length; i++)
+		{
+			stereo[2 * i] = mono[i];
+			stereo[2 * i + 1] = mono[i];
+		}
+		final PcmConverter converter = new PcmConverter(PcmCache.pcmFormat(48_000, 2), 44_100, true);
+		
+		final short[] out = samples(convert(converter, bytes(stereo), 4096));
+		
+		assertEquals(4_410, out.length);
+		assertResembles(sine(44_100, 4_410), out, 44_100, 0.005);
+	}
+	
+	/**
+	 * Decoders may deliver other sample sizes; they are converted to the 16-bit input of the converter by
+	 * <code>javax.sound</code> (like when a track is opened).
+	 */
+	@ParameterizedTest
+	@ValueSource(ints = {8, 16, 24})
+	void convertsOtherSampleSizes(final int sampleSizeInBits) throws IOException
+	{
+		final AudioFormat format = new AudioFormat(44_100, sampleSizeInBits, 1, true, false);
+		final byte[] encoded = encode(sine(44_100, 44_100), sampleSizeInBits);
+		final AudioFormat pcmFormat = PcmCache.pcmFormat(44_100, 1);
+		
+		final byte[] pcm;
+		try(final AudioInputStream in = AudioSystem.getAudioInputStream(
+			pcmFormat,
+			new AudioInputStream(new ByteArrayInputStream(encoded), format, 44_100)))
+		{
+			pcm = in.readAllBytes();
+		}
+		final short[] out = samples(convert(
+			new PcmConverter(pcmFormat, PcmCache.pcmFormat(48_000, 1)),
+			pcm,
+			4096));
+		
+		assertEquals(48_000, out.length);
+		// 8-bit has a quantization error of up to 1/256 of the full scale
+		assertResembles(sine(48_000, 48_000), out, 48_000, sampleSizeInBits == 8 ? 0.01 : 0.005);
+	}
+	
+	@Test
+	void reducesTheRatio()
+	{
+		assertEquals(160, PcmConverter.phasesFor(44_100, 48_000));
+		assertEquals(147, PcmConverter.phasesFor(48_000, 44_100));
+		assertEquals(1, PcmConverter.phasesFor(44_100, 22_050));
+	}
+	
+	@Test
+	void detectsRequiredConversions()
+	{
+		final AudioFormat stereo = PcmCache.pcmFormat(44_100, 2);
+		assertFalse(PcmConverter.isRequired(stereo, 44_100, false));
+		assertTrue(PcmConverter.isRequired(stereo, 44_100, true));
+		assertTrue(PcmConverter.isRequired(stereo, 48_000, false));
+		assertFalse(PcmConverter.isRequired(PcmCache.pcmFormat(44_100, 1), 44_100, true));
+		assertTrue(PcmConverter.isRequired(stereo, PcmCache.pcmFormat(44_100, 1)));
+	}
+	
+	private static PcmConverter resampler()
+	{
+		return new PcmConverter(PcmCache.pcmFormat(44_100, 1), PcmCache.pcmFormat(48_000, 1));
+	}
+	
+	/**
+	 * Compares the signals without the first and last milliseconds, where the filter sees the silence around the
+	 * signal.
+	 */
+	private static void assertResembles(
+		final short[] expected,
+		final short[] actual,
+		final int sampleRate,
+		final double maxRmsError)
+	{
+		final int margin = sampleRate / 100;
+		double sum = 0;
+		int count = 0;
+		for(int i = margin; i < expected.length - margin; i++)
+		{
+			final double error = (actual[i] - expected[i]) / (double)Short.MAX_VALUE;
+			sum += error * error;
+			count++;
+		}
+		final double rmsError = Math.sqrt(sum / count);
+		assertTrue(rmsError < maxRmsError, "RMS error " + rmsError);
+	}
+	
+	private static byte[] convert(final PcmConverter converter, final byte[] in, final int chunkSize)
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[converter.maxOutputLength(chunkSize)];
+		for(int off = 0; off < in.length; off += chunkSize)
+		{
+			final int n = converter.convert(in, off, Math.min(chunkSize, in.length - off), buffer, 0);
+			out.write(buffer, 0, n);
+		}
+		out.write(buffer, 0, converter.finish(buffer, 0));
+		return out.toByteArray();
+	}
+	
+	private static short[] sine(final int sampleRate, final int frames)
+	{
+		final short[] samples = new short[frames];
+		for(int i = 0; i < frames; i++)
+		{
+			samples[i] = (short)Math.round(Math.sin(2 * Math.PI * FREQUENCY * i / sampleRate)
+				* AMPLITUDE * Short.MAX_VALUE);
+		}
+		return samples;
+	}
+	
+	private static byte[] bytes(final short[] samples)
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asShortBuffer().put(samples);
+		return buffer.array();
+	}
+	
+	private static short[] samples(final byte[] bytes)
+	{
+		final short[] samples = new short[bytes.length / 2];
+		ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(samples);
+		return samples;
+	}
+	
+	/**
+	 * @return the samples as signed little endian PCM with the given sample size
+	 */
+	private static byte[] encode(final short[] samples, final int sampleSizeInBits)
+	{
+		final int bytesPerSample = sampleSizeInBits / 8;
+		final byte[] encoded = new byte[samples.length * bytesPerSample];
+		for(int i = 0; i < samples.length; i++)
+		{
+			final int value = (samples[i] << 8) >> (24 - sampleSizeInBits);
+			for(int b = 0; b < bytesPerSample; b++)
+			{
+				encoded[i * bytesPerSample + b] = (byte)(value >> (8 * b));
+			}
+		}
+		return encoded;
+	}
+}
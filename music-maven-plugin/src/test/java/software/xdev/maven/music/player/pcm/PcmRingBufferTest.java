@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.pcm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class PcmRingBufferTest
+{
+	private static final Duration MAX_DURATION = Duration.ofSeconds(10);
+	
+	@Test
+	void wrapsAround()
+	{
+		final PcmRingBuffer buffer = new PcmRingBuffer(8);
+		final byte[] dst = new byte[8];
+		
+		assertTrue(buffer.write(new byte[]{1, 2, 3, 4, 5, 6}, 0, 6));
+		assertEquals(4, buffer.read(dst, 0, 4));
+		// Written across the end of the array
+		assertTrue(buffer.write(new byte[]{7, 8, 9, 10, 11, 12}, 0, 6));
+		assertEquals(8, buffer.getFillLevel());
+		
+		assertEquals(8, buffer.read(dst, 0, 8));
+		assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 12}, dst);
+		assertEquals(0, buffer.getFillLevel());
+	}
+	
+	@Test
+	void returnsEndOnlyAfterAllDataWasConsumed()
+	{
+		final PcmRingBuffer buffer = new PcmRingBuffer(8);
+		buffer.write(new byte[]{1, 2, 3}, 0, 3);
+		buffer.finish();
+		
+		final byte[] dst = new byte[2];
+		assertEquals(2, buffer.read(dst, 0, 2));
+		assertEquals(1, buffer.read(dst, 0, 2));
+		assertEquals(-1, buffer.read(dst, 0, 2));
+		assertEquals(0, buffer.getUnderruns());
+	}
+	
+	@Test
+	void closeReleasesBlockedProducerAndConsumer()
+	{
+		assertTimeoutPreemptively(MAX_DURATION, () -> {
+			final PcmRingBuffer full = new PcmRingBuffer(4);
+			full.write(new byte[4], 0, 4);
+			final CompletableFuture<Boolean> producer =
+				CompletableFuture.supplyAsync(() -> full.write(new byte[4], 0, 4));
+			
+			final PcmRingBuffer empty = new PcmRingBuffer(4);
+			final CompletableFuture<Integer> consumer =
+				CompletableFuture.supplyAsync(() -> empty.read(new byte[4], 0, 4));
+			
+			Thread.sleep(50);
+			assertFalse(producer.isDone());
+			assertFalse(consumer.isDone());
+			
+			full.close();
+			empty.close();
+			assertFalse(producer.join());
+			assertEquals(-1, consumer.join());
+			// Nothing can be read from a closed buffer
+			assertEquals(-1, full.read(new byte[4], 0, 4));
+		});
+	}
+	
+	@Test
+	void transfersAllDataBetweenProducerAndConsumer()
+	{
+		final byte[] data = new byte[1 << 20];
+		new SplittableRandom(42).nextBytes(data);
+		final PcmRingBuffer buffer = new PcmRingBuffer(1000);
+		
+		assertTimeoutPreemptively(MAX_DURATION, () -> {
+			final CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+				final SplittableRandom random = new SplittableRandom(1);
+				int off = 0;
+				while(off < data.length)
+				{
+					final int len = Math.min(random.nextInt(1, 3000), data.length - off);
+					buffer.write(data, off, len);
+					off += len;
+				}
+				buffer.finish();
+			});
+			
+			final ByteArrayOutputStream received = new ByteArrayOutputStream();
+			final byte[] chunk = new byte[777];
+			int n;
+			while((n = buffer.read(chunk, 0, chunk.length)) != -1)
+			{
+				received.write(chunk, 0, n);
+			}
+			producer.join();
+			
+			assertArrayEquals(data, received.toByteArray());
+		});
+	}
+	
+	@Test
+	void awaitFillLevelDoesNotCountUnderruns()
+	{
+		final PcmRingBuffer buffer = new PcmRingBuffer(8);
+		assertTimeoutPreemptively(MAX_DURATION, () -> {
+			final CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+				for(int i = 0; i < 6; i++)
+				{
+					buffer.write(new byte[]{(byte)i}, 0, 1);
+				}
+			});
+			buffer.awaitFillLevel(6);
+			producer.join();
+		});
+		
+		assertEquals(6, buffer.getFillLevel());
+		assertEquals(0, buffer.getUnderruns());
+	}
+}
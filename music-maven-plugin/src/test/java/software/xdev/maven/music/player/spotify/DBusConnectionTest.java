@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.spotify;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class DBusConnectionTest
+{
+	@Test
+	void marshalMethodCall()
+	{
+		final ByteBuffer message = DBusConnection.marshalMethodCall(
+			7,
+			"org.mpris.MediaPlayer2.spotify",
+			"/org/mpris/MediaPlayer2",
+			"org.mpris.MediaPlayer2.Player",
+			"OpenUri",
+			"spotify:track:abc").order(ByteOrder.LITTLE_ENDIAN);
+		
+		assertEquals('l', message.get(0));
+		assertEquals(1, message.get(1));
+		assertEquals(1, message.get(3));
+		assertEquals(7, message.getInt(8));
+		final int fieldsLength = message.getInt(12);
+		final int headerLength = (int)DBusConnection.align(16 + fieldsLength, 8);
+		assertEquals(message.limit(), headerLength + message.getInt(4));
+		
+		final FakeDBus.Call call = FakeDBus.parseCall(message, fieldsLength, headerLength);
+		assertEquals("OpenUri", call.member());
+		assertEquals(List.of("spotify:track:abc"), call.args());
+	}
+	
+	@Test
+	void parseErrorReply()
+	{
+		final ByteBuffer message = FakeDBus.reply(
+			(byte)3, 12, 7, "org.freedesktop.DBus.Error.ServiceUnknown", "Not running")
+			.order(ByteOrder.LITTLE_ENDIAN);
+		final int fieldsLength = message.getInt(12);
+		
+		final DBusConnection.Reply reply = DBusConnection.Reply.parse(
+			message, fieldsLength, (int)DBusConnection.align(16 + fieldsLength, 8));
+		
+		assertEquals(new DBusConnection.Reply(
+			(byte)3, 7, "org.freedesktop.DBus.Error.ServiceUnknown", "Not running"), reply);
+	}
+	
+	@Test
+	void parseMethodReturn()
+	{
+		final ByteBuffer message = FakeDBus.reply((byte)2, 12, 7, null, null).order(ByteOrder.LITTLE_ENDIAN);
+		final int fieldsLength = message.getInt(12);
+		
+		final DBusConnection.Reply reply = DBusConnection.Reply.parse(
+			message, fieldsLength, (int)DBusConnection.align(16 + fieldsLength, 8));
+		
+		assertEquals(2, reply.type());
+		assertEquals(7, reply.replySerial());
+		assertNull(reply.errorName());
+	}
+	
+	@Test
+	void sessionBusSocket()
+	{
+		assertEquals(
+			Optional.of(Path.of("/run/user/1000/bus")),
+			DBusConnection.sessionBusSocket("unix:path=/run/user/1000/bus"));
+		assertEquals(
+			Optional.of(Path.of("/tmp/my bus")),
+			DBusConnection.sessionBusSocket("unix:abstract=/tmp/dbus-x;unix:guid=1,path=/tmp/my%20bus"));
+		assertEquals(Optional.empty(), DBusConnection.sessionBusSocket("unix:abstract=/tmp/dbus-x"));
+		assertEquals(Optional.empty(), DBusConnection.sessionBusSocket("tcp:host=localhost,port=1234"));
+	}
+	
+	@Test
+	void unescape()
+	{
+		assertEquals("/tmp/a b", DBusConnection.unescape("/tmp/a%20b"));
+		assertEquals("/tmp/ä", DBusConnection.unescape("/tmp/%c3%a4"));
+		assertEquals("plain", DBusConnection.unescape("plain"));
+	}
+	
+	@Test
+	void callMethodOnFakeBus(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(DBusConnection.currentUid().isPresent());
+		try(final FakeDBus bus = new FakeDBus(dir);
+			final DBusConnection connection = DBusConnection.connect(bus.socket(), 5_000))
+		{
+			connection.callMethod("dest", "/path", "iface", "OpenUri", "spotify:track:abc");
+			
+			assertEquals(List.of("Hello", "OpenUri"), bus.calls().stream().map(FakeDBus.Call::member).toList());
+			assertEquals(List.of("spotify:track:abc"), bus.calls().get(1).args());
+		}
+	}
+	
+	@Test
+	void errorReplyKeepsTheConnectionUsable(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(DBusConnection.currentUid().isPresent());
+		try(final FakeDBus bus = new FakeDBus(dir).failingMember("OpenUri");
+			final DBusConnection connection = DBusConnection.connect(bus.socket(), 5_000))
+		{
+			final IOException ex = assertThrows(
+				DBusConnection.ErrorReplyException.class,
+				() -> connection.callMethod("dest", "/path", "iface", "OpenUri", "x"));
+			assertTrue(ex.getMessage().contains("ServiceUnknown - Not running"));
+			
+			connection.callMethod("dest", "/path", "iface", "Play");
+			assertTrue(connection.isOpen());
+		}
+	}
+	
+	@Test
+	void unansweredCallTimesOut(@TempDir final Path dir) throws IOException
+	{
+		assumeTrue(DBusConnection.currentUid().isPresent());
+		try(final FakeDBus bus = new FakeDBus(dir).silent(true);
+			final DBusConnection connection = DBusConnection.connect(bus.socket(), 200))
+		{
+			final long start = System.nanoTime();
+			assertThrows(IOException.class, () -> connection.callMethod("dest", "/path", "iface", "OpenUri", "x"));
+			assertTrue(System.nanoTime() - start < 2_000_000_000L);
+		}
+	}
+}
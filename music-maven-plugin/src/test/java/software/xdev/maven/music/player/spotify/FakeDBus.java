@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.player.spotify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * A D-Bus that listens on a UNIX domain socket and answers all method calls.
+ * <p>
+ * Calls of {@link #failingMember(String) a member} are answered with an error; {@link #silent(boolean) silent}
+ * buses don't answer at all.
+ * </p>
+ */
+@SuppressWarnings("checkstyle:MagicNumber")
+public class FakeDBus implements Closeable
+{
+	private final Path socket;
+	private final ServerSocketChannel server;
+	private final List<Call> calls = new CopyOnWriteArrayList<>();
+	private volatile String failingMember;
+	private volatile boolean silent;
+	private int serial = 1000;
+	
+	public FakeDBus(final Path directory) throws IOException
+	{
+		this.socket = directory.resolve("bus");
+		Files.deleteIfExists(this.socket);
+		this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		this.server.bind(UnixDomainSocketAddress.of(this.socket));
+		final Thread acceptor = new Thread(this::acceptAll, "FakeDBus");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	
+	public Path socket()
+	{
+		return this.socket;
+	}
+	
+	public List<Call> calls()
+	{
+		return this.calls;
+	}
+	
+	public FakeDBus failingMember(final String member)
+	{
+		this.failingMember = member;
+		return this;
+	}
+	
+	public FakeDBus silent(final boolean silent)
+	{
+		this.silent = silent;
+		return this;
+	}
+	
+	private void acceptAll()
+	{
+		while(this.server.isOpen())
+		{
+			try
+			{
+				final SocketChannel client = this.server.accept();
+				final Thread handler = new Thread(() -> this.handle(client), "FakeDBus-Client");
+				handler.setDaemon(true);
+				handler.start();
+			}
+			catch(final IOException ioe)
+			{
+				return;
+			}
+		}
+	}
+	
+	private void handle(final SocketChannel client)
+	{
+		try(client)
+		{
+			readFully(client, 1);
+			final String auth = readLine(client);
+			if(!auth.startsWith("AUTH EXTERNAL "))
+			{
+				write(client, ByteBuffer.wrap("REJECTED EXTERNAL\r\n".getBytes(StandardCharsets.US_ASCII)));
+				return;
+			}
+			write(client, ByteBuffer.wrap("OK 0123456789abcdef\r\n".getBytes(StandardCharsets.US_ASCII)));
+			if(!"BEGIN".equals(readLine(client)))
+			{
+				return;
+			}
+			
+			while(true)
+			{
+				final Call call = readCall(client);
+				this.calls.add(call);
+				if(this.silent && !"Hello".equals(call.member()))
+				{
+					continue;
+				}
+				write(client, call.member().equals(this.failingMember)
+					? this.errorReply(call.serial(), "org.freedesktop.DBus.Error.ServiceUnknown", "Not running")
+					: this.methodReturn(call.serial()));
+			}
+		}
+		catch(final IOException ioe)
+		{
+			// Client disconnected
+		}
+	}
+	
+	synchronized ByteBuffer methodReturn(final int replySerial)
+	{
+		return reply((byte)2, ++this.serial, replySerial, null, null);
+	}
+	
+	synchronized ByteBuffer errorReply(final int replySerial, final String errorName, final String message)
+	{
+		return reply((byte)3, ++this.serial, replySerial, errorName, message);
+	}
+	
+	static ByteBuffer reply(
+		final byte type,
+		final int serial,
+		final int replySerial,
+		final String errorName,
+		final String message)
+	{
+		final DBusConnection.Marshaller m = new DBusConnection.Marshaller();
+		m.putByte('l');
+		m.putByte(type);
+		m.putByte(0);
+		m.putByte(1);
+		final int bodyLengthPosition = m.putUInt(0);
+		m.putUInt(serial);
+		final int fieldsLengthPosition = m.putUInt(0);
+		m.align(8);
+		final int fieldsStart = m.position();
+		m.putByte(5);
+		m.putSignature("u");
+		m.putUInt(replySerial);
+		if(errorName != null)
+		{
+			m.putField((byte)4, "s", errorName);
+		}
+		if(message != null)
+		{
+			m.putField((byte)8, "g", "s");
+		}
+		m.setUInt(fieldsLengthPosition, m.position() - fieldsStart);
+		m.align(8);
+		final int bodyStart = m.position();
+		if(message != null)
+		{
+			m.putString(message);
+		}
+		m.setUInt(bodyLengthPosition, m.position() - bodyStart);
+		return m.toByteBuffer();
+	}
+	
+	static Call readCall(final SocketChannel client) throws IOException
+	{
+		final ByteBuffer header = readFully(client, 16).order(ByteOrder.LITTLE_ENDIAN);
+		final int bodyLength = header.getInt(4);
+		final int fieldsLength = header.getInt(12);
+		final int headerLength = (int)DBusConnection.align(16 + fieldsLength, 8);
+		final ByteBuffer rest = readFully(client, headerLength - 16 + bodyLength);
+		final ByteBuffer message = ByteBuffer.allocate(headerLength + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+		message.put(header.rewind()).put(rest.rewind());
+		return parseCall(message, fieldsLength, headerLength);
+	}
+	
+	/**
+	 * Parses a method call with string arguments.
+	 */
+	public static Call parseCall(final ByteBuffer message, final int fieldsLength, final int headerLength)
+	{
+		String member = null;
+		String signature = "";
+		int pos = 16;
+		final int end = 16 + fieldsLength;
+		while(pos < end)
+		{
+			pos = (int)DBusConnection.align(pos, 8);
+			final byte code = message.get(pos++);
+			final String type = readSignature(message, pos);
+			pos += type.length() + 2;
+			if("g".equals(type))
+			{
+				signature = readSignature(message, pos);
+				pos += signature.length() + 2;
+			}
+			else
+			{
+				pos = (int)DBusConnection.align(pos, 4);
+				final String value = readString(message, pos);
+				if(code == 3)
+				{
+					member = value;
+				}
+				pos += 4 + value.getBytes(StandardCharsets.UTF_8).length + 1;
+			}
+		}
+		
+		final List<String> args = new ArrayList<>();
+		pos = headerLength;
+		for(int i = 0; i < signature.length(); i++)
+		{
+			pos = (int)DBusConnection.align(pos, 4);
+			final String value = readString(message, pos);
+			args.add(value);
+			pos += 4 + value.getBytes(StandardCharsets.UTF_8).length + 1;
+		}
+		return new Call(message.getInt(8), member, args);
+	}
+	
+	private static String readString(final ByteBuffer message, final int pos)
+	{
+		return new String(message.array(), pos + 4, message.getInt(pos), StandardCharsets.UTF_8);
+	}
+	
+	private static String readSignature(final ByteBuffer message, final int pos)
+	{
+		return new String(message.array(), pos + 1, message.get(pos) & 0xFF, StandardCharsets.US_ASCII);
+	}
+	
+	private static ByteBuffer readFully(final SocketChannel client, final int length) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining())
+		{
+			if(client.read(buffer) == -1)
+			{
+				throw new IOException("Closed");
+			}
+		}
+		return buffer;
+	}
+	
+	private static String readLine(final SocketChannel client) throws IOException
+	{
+		final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while(true)
+		{
+			final byte c = readFully(client, 1).get(0);
+			if(c == '\n')
+			{
+				return line.toString(StandardCharsets.US_ASCII).stripTrailing();
+			}
+			line.write(c);
+		}
+	}
+	
+	private static void write(final SocketChannel client, final ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			client.write(buffer);
+		}
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.server.close();
+		Files.deleteIfExists(this.socket);
+	}
+	
+	public record Call(int serial, String member, List<String> args)
+	{
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.playlist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class PlayHistoryTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void remembersTheMostRecentEntries()
+	{
+		final PlayHistory history = new PlayHistory(null, 5);
+		history.record(1);
+		history.record(2);
+		history.record(3);
+		
+		assertTrue(history.isRecent(3, 1));
+		assertFalse(history.isRecent(2, 1));
+		assertTrue(history.isRecent(1, 3));
+		assertFalse(history.isRecent(1, 2));
+		assertFalse(history.isRecent(4, 5));
+		// The window is limited to what was recorded
+		assertFalse(history.isRecent(0, 5));
+	}
+	
+	@Test
+	void wrapsAroundWhenFull()
+	{
+		final PlayHistory history = new PlayHistory(null, 3);
+		for(long key = 1; key <= 5; key++)
+		{
+			history.record(key);
+		}
+		
+		assertFalse(history.isRecent(1, 10));
+		assertFalse(history.isRecent(2, 10));
+		assertTrue(history.isRecent(3, 10));
+		assertTrue(history.isRecent(5, 1));
+	}
+	
+	@Test
+	void persistsTheEntriesInOrder() throws IOException
+	{
+		final Path file = this.tempDir.resolve("sub/history.bin");
+		final PlayHistory history = new PlayHistory(file, 3);
+		for(long key = 1; key <= 5; key++)
+		{
+			history.record(key);
+		}
+		history.save();
+		
+		final PlayHistory loaded = new PlayHistory(file, 3);
+		loaded.load();
+		assertTrue(loaded.isRecent(5, 1));
+		assertTrue(loaded.isRecent(4, 2));
+		assertFalse(loaded.isRecent(3, 2));
+		assertTrue(loaded.isRecent(3, 3));
+		assertFalse(loaded.isRecent(2, 3));
+		
+		// A smaller history keeps only the newest entries
+		final PlayHistory smaller = new PlayHistory(file, 2);
+		smaller.load();
+		assertTrue(smaller.isRecent(4, 2));
+		assertFalse(smaller.isRecent(3, 2));
+		
+		try(final Stream<Path> files = Files.list(file.getParent()))
+		{
+			assertEquals(1, files.count(), "Temporary file left behind");
+		}
+	}
+	
+	@Test
+	void ignoresMissingTruncatedOrForeignFiles() throws IOException
+	{
+		final Path file = this.tempDir.resolve("history.bin");
+		final PlayHistory missing = new PlayHistory(file, 3);
+		missing.load();
+		assertFalse(missing.isRecent(0, 3));
+		
+		final PlayHistory history = new PlayHistory(file, 3);
+		history.record(7);
+		history.record(8);
+		history.save();
+		final byte[] bytes = Files.readAllBytes(file);
+		
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+		final PlayHistory truncated = new PlayHistory(file, 3);
+		truncated.load();
+		// Complete entries are kept
+		assertTrue(truncated.isRecent(7, 1));
+		assertFalse(truncated.isRecent(8, 3));
+		
+		bytes[0] = 'X';
+		Files.write(file, bytes);
+		final PlayHistory foreign = new PlayHistory(file, 3);
+		foreign.load();
+		assertFalse(foreign.isRecent(7, 3));
+		assertFalse(foreign.isRecent(8, 3));
+	}
+	
+	@Test
+	void rejectsInvalidCapacity()
+	{
+		assertThrows(IllegalArgumentException.class, () -> new PlayHistory(null, 0));
+	}
+}
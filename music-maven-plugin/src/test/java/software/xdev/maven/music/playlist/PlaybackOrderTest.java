@@ -0,0 +1,159 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.playlist;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+
+@SuppressWarnings("checkstyle:MagicNumber")
+class PlaybackOrderTest
+{
+	@Test
+	void playsInTheConfiguredOrderWithoutShuffle()
+	{
+		assertEquals(List.of(0, 1, 2, 3), take(new PlaybackOrder(4, false, false, 1, null, i -> i), 10));
+	}
+	
+	@Test
+	void endsAfterOneRoundWithoutRepeat()
+	{
+		final PlaybackOrder order = new PlaybackOrder(5, true, false, 42, null, i -> i);
+		
+		assertEquals(5, take(order, 10).size());
+		assertEquals(PlaybackOrder.END, order.next());
+	}
+	
+	@Test
+	void emptyPlaylistHasNoNext()
+	{
+		assertEquals(PlaybackOrder.END, new PlaybackOrder(0, true, true, 42, null, i -> i).peek());
+	}
+	
+	@Test
+	void sameSeedResultsInTheSameOrder()
+	{
+		final List<Integer> first = take(new PlaybackOrder(50, true, true, 1234, null, i -> i), 150);
+		final List<Integer> second = take(new PlaybackOrder(50, true, true, 1234, null, i -> i), 150);
+		final List<Integer> otherSeed = take(new PlaybackOrder(50, true, true, 4321, null, i -> i), 150);
+		
+		assertEquals(first, second);
+		assertNotEquals(first, otherSeed);
+	}
+	
+	@ParameterizedTest
+	@ValueSource(ints = {1, 2, 3, 7, 64, 100, 1_000})
+	void visitsEveryIndexOncePerRound(final int size)
+	{
+		final PlaybackOrder order = new PlaybackOrder(size, true, true, 99, null, i -> i);
+		
+		final Set<List<Integer>> rounds = new HashSet<>();
+		for(int round = 0; round < 3; round++)
+		{
+			final List<Integer> played = take(order, size);
+			assertEquals(
+				IntStream.range(0, size).boxed().toList(),
+				played.stream().sorted().toList(),
+				"Round " + round);
+			rounds.add(played);
+		}
+		if(size > 3)
+		{
+			// Every round is shuffled differently
+			assertEquals(3, rounds.size());
+		}
+	}
+	
+	@Test
+	void peekDoesNotAdvance()
+	{
+		final PlaybackOrder order = new PlaybackOrder(10, true, false, 5, null, i -> i);
+		
+		final int peeked = order.peek();
+		assertEquals(peeked, order.peek());
+		assertEquals(peeked, order.next());
+		assertNotEquals(peeked, order.peek());
+	}
+	
+	@Test
+	void startsWithTheGivenIndex()
+	{
+		final PlaybackOrder linear = new PlaybackOrder(5, false, false, 1, null, i -> i);
+		linear.startWith(3);
+		assertEquals(List.of(3, 4), take(linear, 10));
+		
+		final PlaybackOrder shuffled = new PlaybackOrder(5, true, false, 1, null, i -> i);
+		shuffled.startWith(3);
+		assertEquals(3, shuffled.next());
+		
+		final PlaybackOrder invalid = new PlaybackOrder(5, false, false, 1, null, i -> i);
+		invalid.startWith(5);
+		assertEquals(0, invalid.next());
+	}
+	
+	@Test
+	void defersRecentlyPlayedSources()
+	{
+		final PlayHistory history = new PlayHistory(null, 10);
+		history.record(100 + 2);
+		history.record(100 + 5);
+		
+		final List<Integer> played = take(new PlaybackOrder(10, true, false, 7, history, i -> 100 + i), 10);
+		
+		assertEquals(10, played.size());
+		// Still played, but at the end of the round
+		assertEquals(Set.of(2, 5), Set.copyOf(played.subList(8, 10)));
+	}
+	
+	@Test
+	void recordsPlayedSourcesOnlyWhenShuffling()
+	{
+		final PlayHistory history = new PlayHistory(null, 10);
+		
+		new PlaybackOrder(3, false, false, 1, history, i -> 100 + i).played(1);
+		assertFalse(history.isRecent(101, 10));
+		
+		new PlaybackOrder(3, true, false, 1, history, i -> 100 + i).played(1);
+		assertTrue(history.isRecent(101, 10));
+	}
+	
+	private static List<Integer> take(final PlaybackOrder order, final int count)
+	{
+		final List<Integer> indices = new ArrayList<>();
+		for(int i = order.next(); i != PlaybackOrder.END; i = order.next())
+		{
+			indices.add(i);
+			order.played(i);
+			if(indices.size() == count)
+			{
+				break;
+			}
+		}
+		return indices;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+
+
+class DirectoryMusicSourceTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void firstResolveOnlyListsAndCreatesSourcesOnce() throws IOException
+	{
+		final Path library = Files.createDirectories(this.tempDir.resolve("library"));
+		// Not probed yet, so it's considered as playable
+		Files.writeString(library.resolve("b.mp3"), "not audio");
+		Files.writeString(library.resolve("a.ogg"), "not audio");
+		
+		final DirectoryMusicSource directory = new DirectoryMusicSource();
+		directory.setDirectory(library.toString());
+		final List<MusicSource> sources = directory.resolve(new PlaybackSettings(), new SystemStreamLog());
+		
+		assertEquals(2, sources.size());
+		assertEquals(library.resolve("a.ogg").toAbsolutePath().toString(), ((FileMusicSource)sources.get(0)).getFile());
+		assertSame(sources.get(1), sources.get(1));
+	}
+}
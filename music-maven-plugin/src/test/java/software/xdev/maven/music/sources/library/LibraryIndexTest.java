@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class LibraryIndexTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void escapesPathsWithSeparators()
+	{
+		final String path = "a\tb/c\\d\ne\rf";
+		final String escaped = LibraryIndex.Entry.escape(path);
+		
+		assertFalse(escaped.contains("\t"));
+		assertFalse(escaped.contains("\n"));
+		assertEquals(path, LibraryIndex.Entry.unescape(escaped));
+		
+		final LibraryIndex.Entry entry = new LibraryIndex.Entry(path, 1, 2, "OGG", 3);
+		assertEquals(entry, LibraryIndex.Entry.parse(entry.format()));
+	}
+	
+	@Test
+	void savedIndexIsLoaded() throws IOException
+	{
+		final Path library = Files.createDirectories(this.tempDir.resolve("library"));
+		Files.write(library.resolve("with\ttab.mp3"), new byte[10]);
+		Files.write(library.resolve("plain.ogg"), new byte[20]);
+		final Path indexDirectory = this.tempDir.resolve("index");
+		
+		final LibraryIndex index = new LibraryIndex(library, true, indexDirectory);
+		index.list();
+		index.save();
+		
+		final LibraryIndex loaded = new LibraryIndex(library, true, indexDirectory);
+		assertTrue(loaded.load());
+		assertEquals(index.getEntries(), loaded.getEntries());
+		assertEquals(
+			List.of("plain.ogg", "with\ttab.mp3"),
+			loaded.getEntries().stream().map(LibraryIndex.Entry::path).toList());
+		
+		// Each configuration has its own index
+		assertFalse(new LibraryIndex(library, false, indexDirectory).load());
+	}
+	
+	@Test
+	void ignoresIndexOfOtherVersion() throws IOException
+	{
+		final Path library = Files.createDirectories(this.tempDir.resolve("library"));
+		final Path indexDirectory = this.tempDir.resolve("index");
+		final LibraryIndex index = new LibraryIndex(library, true, indexDirectory);
+		index.save();
+		final Path file;
+		try(var files = Files.list(indexDirectory))
+		{
+			file = files.findFirst().orElseThrow();
+		}
+		Files.writeString(file, "music-maven-plugin-library-index\t1\na.mp3\t1\t2\tMP3\t3\n", StandardCharsets.UTF_8);
+		
+		assertFalse(new LibraryIndex(library, true, indexDirectory).load());
+	}
+}
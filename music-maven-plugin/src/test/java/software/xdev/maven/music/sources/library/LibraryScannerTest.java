@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class LibraryScannerTest
+{
+	@TempDir
+	Path root;
+	
+	@BeforeEach
+	void createLibrary() throws IOException
+	{
+		try(final InputStream in = LibraryScannerTest.class.getResourceAsStream("/default/First_Call.ogg"))
+		{
+			Files.copy(in, this.root.resolve("song.ogg"));
+		}
+		Files.writeString(this.root.resolve("broken.mp3"), "not audio");
+		Files.writeString(this.root.resolve("notes.txt"), "ignored");
+		final Path sub = Files.createDirectories(this.root.resolve("sub"));
+		Files.copy(this.root.resolve("song.ogg"), sub.resolve("other.OGG"));
+	}
+	
+	@Test
+	void scanProbesSupportedFiles()
+	{
+		final LibraryScanner.Result result = LibraryScanner.scan(this.root, true, Map.of());
+		final Map<String, LibraryIndex.Entry> entries = byPath(result.entries());
+		
+		assertEquals(3, result.probed());
+		assertEquals(0, result.removed());
+		assertEquals(List.of("broken.mp3", "song.ogg", "sub/other.OGG"), entries.keySet().stream().sorted().toList());
+		assertFalse(entries.get("broken.mp3").isPlayable());
+		assertTrue(entries.get("song.ogg").isPlayable());
+		assertTrue(entries.get("song.ogg").isProbed());
+	}
+	
+	@Test
+	void nonRecursiveScanSkipsSubdirectories()
+	{
+		final LibraryScanner.Result result = LibraryScanner.scan(this.root, false, Map.of());
+		
+		assertEquals(List.of("broken.mp3", "song.ogg"), byPath(result.entries()).keySet().stream().sorted().toList());
+	}
+	
+	@Test
+	void listDoesNotProbe()
+	{
+		final LibraryScanner.Result listed = LibraryScanner.list(this.root, true, Map.of());
+		
+		assertEquals(0, listed.probed());
+		assertEquals(3, listed.entries().size());
+		assertTrue(listed.entries().stream().noneMatch(LibraryIndex.Entry::isProbed));
+		assertTrue(listed.entries().stream().allMatch(LibraryIndex.Entry::isPlayable));
+		
+		// Listed files are probed by the next scan
+		final LibraryScanner.Result scanned = LibraryScanner.scan(this.root, true, byPath(listed.entries()));
+		assertEquals(3, scanned.probed());
+		assertTrue(scanned.entries().stream().allMatch(LibraryIndex.Entry::isProbed));
+	}
+	
+	@Test
+	void unchangedFilesAreNotProbedAgain() throws IOException
+	{
+		final Map<String, LibraryIndex.Entry> previous =
+			byPath(LibraryScanner.scan(this.root, true, Map.of()).entries());
+		Files.delete(this.root.resolve("broken.mp3"));
+		
+		final LibraryScanner.Result result = LibraryScanner.scan(this.root, true, previous);
+		
+		assertEquals(0, result.probed());
+		assertEquals(1, result.removed());
+		assertSame(previous.get("song.ogg"), byPath(result.entries()).get("song.ogg"));
+	}
+	
+	private static Map<String, LibraryIndex.Entry> byPath(final List<LibraryIndex.Entry> entries)
+	{
+		return entries.stream()
+			.collect(Collectors.toMap(LibraryIndex.Entry::path, Function.identity(), (a, b) -> a, HashMap::new));
+	}
+}
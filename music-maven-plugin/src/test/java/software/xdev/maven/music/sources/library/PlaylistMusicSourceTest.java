@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.library;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+import software.xdev.maven.music.sources.MusicSource;
+import software.xdev.maven.music.sources.mp3ogg.FileMusicSource;
+import software.xdev.maven.music.sources.mp3ogg.URIMusicSource;
+
+
+class PlaylistMusicSourceTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void resolvesFilesAndUris() throws IOException
+	{
+		final Path absolute = this.tempDir.resolve("elsewhere/absolute.mp3").toAbsolutePath();
+		final Path playlist = this.tempDir.resolve("list.m3u8");
+		Files.writeString(playlist, String.join(
+			"\n",
+			"#EXTM3U",
+			"#EXTINF:123,Artist - Title",
+			"relative/song.ogg",
+			"",
+			"  " + absolute + "  ",
+			absolute.toUri().toString(),
+			"https://example.org/stream.mp3"), StandardCharsets.UTF_8);
+		
+		final List<MusicSource> sources = this.resolve(playlist, -4f);
+		
+		assertEquals(4, sources.size());
+		assertEquals(this.tempDir.resolve("relative/song.ogg").toAbsolutePath().toString(), file(sources.get(0)));
+		assertEquals(absolute.toString(), file(sources.get(1)));
+		assertEquals(absolute.toString(), file(sources.get(2)));
+		final URIMusicSource uri = assertInstanceOf(URIMusicSource.class, sources.get(3));
+		assertEquals("https://example.org/stream.mp3", uri.getUri());
+		assertEquals(-4f, uri.getVolumeDB());
+	}
+	
+	@Test
+	void readsLatin1Playlists() throws IOException
+	{
+		final Path playlist = this.tempDir.resolve("list.m3u");
+		Files.writeString(playlist, "Motörhead.mp3\n", Charset.forName("windows-1252"));
+		
+		assertEquals(List.of("Motörhead.mp3"), PlaylistMusicSource.readLines(playlist));
+	}
+	
+	private List<MusicSource> resolve(final Path playlist, final Float volumeDB)
+	{
+		final PlaylistMusicSource source = new PlaylistMusicSource();
+		source.setFile(playlist.toString());
+		source.setVolumeDB(volumeDB);
+		return source.resolve(new PlaybackSettings(), new SystemStreamLog());
+	}
+	
+	private static String file(final MusicSource source)
+	{
+		return assertInstanceOf(FileMusicSource.class, source).getFile();
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.mp3ogg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import software.xdev.maven.music.PlaybackSettings;
+
+
+class FileMusicSourceTest
+{
+	@TempDir
+	Path tempDir;
+	
+	@Test
+	void contentIdentityChangesWithContent() throws IOException
+	{
+		final Path file = this.tempDir.resolve("track.mp3");
+		Files.write(file, new byte[]{1, 2, 3});
+		Files.setLastModifiedTime(file, FileTime.from(Instant.parse("2024-01-01T00:00:00Z")));
+		
+		final FileMusicSource source = new FileMusicSource();
+		source.setFile(file.toString());
+		final PlaybackSettings settings = new PlaybackSettings();
+		
+		final String identity = source.contentIdentity(settings).orElseThrow();
+		assertEquals(identity, source.contentIdentity(settings).orElseThrow());
+		
+		Files.write(file, new byte[]{1, 2, 3, 4});
+		assertNotEquals(identity, source.contentIdentity(settings).orElseThrow());
+	}
+	
+	@Test
+	@SuppressWarnings("checkstyle:MagicNumber")
+	void mappedAndBufferedReadTheSame() throws IOException
+	{
+		final byte[] content = new byte[200_000];
+		new Random(1).nextBytes(content);
+		final Path file = Files.write(this.tempDir.resolve("track.ogg"), content);
+		
+		try(final InputStream mapped = FileMusicSource.openMapped(file);
+			final InputStream buffered = FileMusicSource.openBuffered(file))
+		{
+			for(final InputStream is : new InputStream[]{mapped, buffered})
+			{
+				// Format detection
+				is.mark(1024);
+				assertEquals(1024, is.readNBytes(1024).length);
+				is.reset();
+				assertArrayEquals(content, is.readAllBytes());
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2024 XDEV Software (https://xdev.software)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package software.xdev.maven.music.sources.mp3ogg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import software.xdev.maven.music.PlaybackSettings;
+
+
+class URIMusicSourceTest
+{
+	private static final byte[] CONTENT = {1, 2, 3, 4};
+	
+	private final List<String> requestMethods = new CopyOnWriteArrayList<>();
+	private HttpServer server;
+	
+	@BeforeEach
+	void startServer() throws IOException
+	{
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		this.server.createContext("/", this::handle);
+		this.server.start();
+	}
+	
+	@AfterEach
+	void stopServer()
+	{
+		this.server.stop(0);
+	}
+	
+	@Test
+	void requestsTheValidatorsOnlyOnce() throws IOException
+	{
+		final URIMusicSource source = this.source();
+		final PlaybackSettings settings = new PlaybackSettings();
+		
+		final String identity = source.contentIdentity(settings).orElseThrow();
+		assertTrue(identity.contains("\"v1\""), identity);
+		assertEquals(identity, source.contentIdentity(settings).orElseThrow());
+		
+		assertEquals(List.of("HEAD"), this.requestMethods);
+	}
+	
+	@Test
+	void usesTheValidatorsReceivedWhileStreaming() throws IOException
+	{
+		final URIMusicSource source = this.source();
+		final PlaybackSettings settings = new PlaybackSettings();
+		try(final InputStream is = source.openInputStream(settings))
+		{
+			assertEquals(CONTENT.length, is.readAllBytes().length);
+		}
+		
+		final String identity = source.contentIdentity(settings).orElseThrow();
+		
+		assertTrue(identity.contains("\"v1\""), identity);
+		assertEquals(List.of("GET"), this.requestMethods);
+	}
+	
+	private URIMusicSource source()
+	{
+		final URIMusicSource source = new URIMusicSource();
+		// Unique, as the validators are remembered per URL
+		source.setUri("http://localhost:" + this.server.getAddress().getPort() + "/" + UUID.randomUUID() + ".mp3");
+		return source;
+	}
+	
+	private void handle(final HttpExchange exchange) throws IOException
+	{
+		this.requestMethods.add(exchange.getRequestMethod());
+		exchange.getResponseHeaders().set("ETag", "\"v1\"");
+		final boolean head = "HEAD".equals(exchange.getRequestMethod());
+		exchange.sendResponseHeaders(200, head ? -1 : CONTENT.length);
+		try(final OutputStream os = exchange.getResponseBody())
+		{
+			if(!head)
+			{
+				os.write(CONTENT);
+			}
+		}
+	}
+}